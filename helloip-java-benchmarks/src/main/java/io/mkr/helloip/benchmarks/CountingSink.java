@@ -0,0 +1,17 @@
+package io.mkr.helloip.benchmarks;
+
+import io.mkr.helloip.IpInfosSink;
+import io.mkr.helloip.sources.IpRangeInfos;
+
+/**
+ * Sink counting received infos, returned by benchmarks so the lookups are not optimized away.
+ */
+final class CountingSink implements IpInfosSink {
+
+    int count;
+
+    @Override
+    public void accept(String providerName, IpRangeInfos infos) {
+        count++;
+    }
+}
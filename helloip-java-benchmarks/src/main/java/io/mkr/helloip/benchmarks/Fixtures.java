@@ -0,0 +1,86 @@
+package io.mkr.helloip.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.naming.NamingException;
+
+import io.mkr.helloip.io.FileReaderProvider;
+import io.mkr.helloip.io.ReaderProvider;
+import io.mkr.helloip.sources.ApnicAsnIpRangesSource;
+import io.mkr.helloip.sources.AwsIpRangesSource;
+import io.mkr.helloip.sources.AzureIpRangesSource;
+import io.mkr.helloip.sources.GoogleCloudIpRangesSource;
+import io.mkr.helloip.sources.IpRangeInfosSource;
+
+/**
+ * Offline copies of the source files. By default small synthetic files generated by {@link SyntheticFixtures} are
+ * used, which have the formats but not the content of the real sources. Copies of the real sources recorded with
+ * {@link RecordFixtures} are used if the system property {@value #DIRECTORY_PROPERTY} points to their directory.
+ */
+public final class Fixtures {
+
+    public static final String DIRECTORY_PROPERTY = "helloip.fixtures";
+
+    static final String APNIC_AUTNUMS = "apnic-data-used-autnums.txt";
+    static final String APNIC_RAW_TABLE = "apnic-data-raw-table.txt";
+    static final String AWS = "aws-ip-ranges.json";
+    static final String AZURE = "azure-public-ips.xml";
+    // the DNS TXT records of the netblock domains, one per line after the domain and a tab
+    static final String GOOGLE = "google-cloud-netblocks.txt";
+
+    private Fixtures() {
+    }
+
+    /**
+     * @param name one of {@code APNIC}, {@code AWS}, {@code AZURE} and {@code GOOGLE}
+     * @return the source reading from fixture files
+     */
+    public static IpRangeInfosSource source(String name) {
+        switch (name) {
+            case "APNIC":
+                return new ApnicAsnIpRangesSource(fixture(APNIC_AUTNUMS), fixture(APNIC_RAW_TABLE));
+            case "AWS":
+                return new AwsIpRangesSource(fixture(AWS));
+            case "AZURE":
+                return new AzureIpRangesSource(fixture(AZURE));
+            case "GOOGLE":
+                return new GoogleCloudIpRangesSource(textRecords(fixture(GOOGLE)));
+            default:
+                throw new IllegalArgumentException("No fixture for source " + name);
+        }
+    }
+
+    private static GoogleCloudIpRangesSource.DnsTextRecordRetriever textRecords(ReaderProvider fixture) {
+        return domainName -> {
+            List<String> records = new ArrayList<>();
+            try (Reader reader = fixture.createReader()) {
+                BufferedReader lines = new BufferedReader(reader);
+                String line;
+                while ((line = lines.readLine()) != null) {
+                    if (line.startsWith(domainName + '\t')) {
+                        records.add(line.substring(domainName.length() + 1));
+                    }
+                }
+            } catch (IOException e) {
+                NamingException namingException = new NamingException("Could not read " + GOOGLE);
+                namingException.setRootCause(e);
+                throw namingException;
+            }
+            return records;
+        };
+    }
+
+    static ReaderProvider fixture(String file) {
+        String directory = System.getProperty(DIRECTORY_PROPERTY);
+        if (directory != null) {
+            return new FileReaderProvider(Paths.get(directory, file));
+        }
+        return () -> new StringReader(SyntheticFixtures.content(file));
+    }
+}
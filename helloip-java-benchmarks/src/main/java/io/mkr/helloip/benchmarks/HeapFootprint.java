@@ -0,0 +1,78 @@
+package io.mkr.helloip.benchmarks;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import io.mkr.helloip.CompiledIpInfoLookup;
+import io.mkr.helloip.RangeBasedIpInfoProvider;
+import io.mkr.helloip.sources.IpRangeInfosConsumer;
+
+/**
+ * Prints the retained heap of the providers of each fixture source and of synthetic ranges (count as optional first
+ * argument), and of their compiled lookups, built from streamed ranges. Run with a fixed heap, e.g.
+ * {@code java -Xms8g -Xmx8g -cp benchmarks.jar io.mkr.helloip.benchmarks.HeapFootprint 10000000}.
+ */
+public class HeapFootprint {
+
+    private static final String[] FIXTURE_SOURCES = {"APNIC", "AWS", "AZURE", "GOOGLE"};
+
+    private static final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+    public static void main(String[] args) throws Exception {
+        int syntheticRangeCount = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        warmUp();
+        // keeps everything measured reachable until the end
+        List<Object> retained = new ArrayList<>();
+        System.out.println("source\tranges\tprovider bytes\tcompiled bytes");
+        for (String source: FIXTURE_SOURCES) {
+            measure(source, builder -> Fixtures.source(source).streamIpRanges(builder), retained);
+        }
+        measure(SyntheticRanges.NAME, builder -> SyntheticRanges.stream(syntheticRangeCount, 42, builder), retained);
+        System.out.println("(" + retained.size() + " objects retained)");
+    }
+
+    private static void warmUp() throws IOException {
+        // load classes and initialize statics upfront, which would otherwise be counted for the first source
+        for (String source: FIXTURE_SOURCES) {
+            RangeBasedIpInfoProvider.Builder builder = RangeBasedIpInfoProvider.builder(source);
+            Fixtures.source(source).streamIpRanges(builder);
+            CompiledIpInfoLookup.compileProviders(Collections.singletonList(builder.build()));
+        }
+    }
+
+    private static void measure(String source, Streamer streamer, List<Object> retained) throws Exception {
+        long before = usedHeap();
+        RangeBasedIpInfoProvider.Builder builder = RangeBasedIpInfoProvider.builder(source);
+        streamer.stream(builder);
+        RangeBasedIpInfoProvider provider = builder.build();
+        long providerBytes = usedHeap() - before;
+        CompiledIpInfoLookup compiled = CompiledIpInfoLookup.compileProviders(Collections.singletonList(provider));
+        long compiledBytes = usedHeap() - before - providerBytes;
+        retained.add(provider);
+        retained.add(compiled);
+        System.out.println(source + "\t" + provider.size() + "\t" + providerBytes + "\t" + compiledBytes);
+    }
+
+    private interface Streamer {
+
+        void stream(IpRangeInfosConsumer consumer) throws IOException;
+    }
+
+    private static long usedHeap() {
+        // a single full GC does not necessarily collect everything, repeat until the used heap stops shrinking
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 10; i++) {
+            System.gc();
+            long current = memory.getHeapMemoryUsage().getUsed();
+            if (current >= used) {
+                break;
+            }
+            used = current;
+        }
+        return used;
+    }
+}
@@ -0,0 +1,76 @@
+package io.mkr.helloip.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import io.mkr.helloip.index.Ipv4RangeIndex;
+import io.mkr.helloip.index.Ipv6RangeIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Lookup latency of the IPv6 index compared to the IPv4 range index with the same number of evenly spread ranges.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx4g"})
+public class Ipv6LookupBenchmark {
+
+    private static final int ADDRESSES = 1 << 20;
+    // 2001::/16
+    private static final long IPV6_BASE = 0x2001L << 48;
+
+    @Param({"100000", "1000000"})
+    int rangeCount;
+
+    private Ipv4RangeIndex ipv4Index;
+    private Ipv6RangeIndex ipv6Index;
+    private int[] ipv4Addresses;
+    private long[] ipv6Addresses;
+    private int next = 0;
+
+    @Setup
+    public void setUp() {
+        long stride = (1L << 32) / rangeCount;
+        Ipv4RangeIndex.Builder ipv4 = Ipv4RangeIndex.builder(rangeCount);
+        Ipv6RangeIndex.Builder ipv6 = Ipv6RangeIndex.builder(rangeCount);
+        for (int i = 0; i < rangeCount; i++) {
+            ipv4.add(i * stride, i * stride + stride / 2 - 1, i);
+            // one /48 in every stride of /48s
+            ipv6.add(IPV6_BASE | (i * stride) << 16, 0L, 48, i);
+        }
+        ipv4Index = ipv4.build();
+        ipv6Index = ipv6.build();
+        Random random = new Random(4711);
+        ipv4Addresses = new int[ADDRESSES];
+        ipv6Addresses = new long[2 * ADDRESSES];
+        for (int i = 0; i < ADDRESSES; i++) {
+            ipv4Addresses[i] = random.nextInt();
+            ipv6Addresses[2 * i] = IPV6_BASE | (random.nextInt() & 0xFFFFFFFFL) << 16 | random.nextInt(1 << 16);
+            ipv6Addresses[2 * i + 1] = random.nextLong();
+        }
+    }
+
+    @Benchmark
+    public int ipv4() {
+        return ipv4Index.find(ipv4Addresses[next++ & (ADDRESSES - 1)]);
+    }
+
+    @Benchmark
+    public int ipv6() {
+        int i = next++ & (ADDRESSES - 1);
+        return ipv6Index.find(ipv6Addresses[2 * i], ipv6Addresses[2 * i + 1]);
+    }
+}
@@ -0,0 +1,80 @@
+package io.mkr.helloip.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import io.mkr.helloip.IpInfoLookup;
+import io.mkr.helloip.IpInfos;
+import io.mkr.helloip.RangeBasedIpInfoProvider;
+import io.mkr.helloip.index.Ipv4IndexEngine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Single and batched lookup throughput and latency on synthetic ranges. {@code distinctIps} controls how skewed the
+ * looked up addresses are, which matters for the cached lookup. {@code engine} is the index engine of the provider
+ * (not used by the compiled lookup).
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx8g"})
+public class LookupBenchmark {
+
+    private static final int ADDRESSES = 1 << 20;
+    private static final int BATCH_SIZE = 4096;
+
+    @Param({"100000", "1000000", "10000000"})
+    int rangeCount;
+
+    @Param({"IMPL", "COMPILED", "CACHED"})
+    Lookups lookup;
+
+    @Param({"4096", "1048576"})
+    int distinctIps;
+
+    @Param({"RANGES", "DIR_24_8"})
+    String engine;
+
+    private IpInfoLookup ipInfoLookup;
+    private int[] addresses;
+    private int next = 0;
+    private final CountingSink sink = new CountingSink();
+    private final int[] batch = new int[BATCH_SIZE];
+    private final IpInfos[] results = new IpInfos[BATCH_SIZE];
+
+    @Setup
+    public void setUp() {
+        RangeBasedIpInfoProvider provider = new RangeBasedIpInfoProvider(SyntheticRanges.NAME,
+                SyntheticRanges.ranges(rangeCount, 42),
+                "DIR_24_8".equals(engine) ? Ipv4IndexEngine.DIR_24_8 : Ipv4IndexEngine.RANGES);
+        ipInfoLookup = lookup.create(provider);
+        addresses = SyntheticRanges.addresses(ADDRESSES, distinctIps, 4711);
+    }
+
+    @Benchmark
+    public int single() {
+        ipInfoLookup.infosFor(addresses[next++ & (ADDRESSES - 1)], sink);
+        return sink.count;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public IpInfos[] batch() {
+        System.arraycopy(addresses, next & (ADDRESSES - 1), batch, 0, BATCH_SIZE);
+        next += BATCH_SIZE;
+        ipInfoLookup.infosFor(batch, BATCH_SIZE, results);
+        return results;
+    }
+}
@@ -0,0 +1,46 @@
+package io.mkr.helloip.benchmarks;
+
+import java.util.Collections;
+import java.util.List;
+
+import com.google.common.base.Supplier;
+import io.mkr.helloip.CachingIpInfoLookup;
+import io.mkr.helloip.CompiledIpInfoLookup;
+import io.mkr.helloip.IpInfoLookup;
+import io.mkr.helloip.IpInfoLookupImpl;
+import io.mkr.helloip.IpInfoProvider;
+import io.mkr.helloip.RangeBasedIpInfoProvider;
+
+/**
+ * The lookup implementations compared by the benchmarks.
+ */
+public enum Lookups {
+
+    /** {@link IpInfoLookupImpl} asking each provider */
+    IMPL,
+    /** {@link CompiledIpInfoLookup} */
+    COMPILED,
+    /** {@link CachingIpInfoLookup} in front of {@link IpInfoLookupImpl} */
+    CACHED;
+
+    static final int CACHE_SIZE = 16384;
+
+    IpInfoLookup create(List<Supplier<IpInfoProvider>> suppliers) {
+        switch (this) {
+            case IMPL:
+                return new IpInfoLookupImpl(suppliers);
+            case COMPILED:
+                return CompiledIpInfoLookup.compile(suppliers);
+            case CACHED:
+                return new CachingIpInfoLookup(new IpInfoLookupImpl(suppliers), CACHE_SIZE)
+                        .invalidateOnRefresh(suppliers);
+            default:
+                throw new IllegalStateException();
+        }
+    }
+
+    IpInfoLookup create(RangeBasedIpInfoProvider provider) {
+        Supplier<IpInfoProvider> supplier = com.google.common.base.Suppliers.ofInstance(provider);
+        return create(Collections.singletonList(supplier));
+    }
+}
@@ -0,0 +1,87 @@
+package io.mkr.helloip.benchmarks;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import io.mkr.helloip.CompiledIpInfoLookup;
+import io.mkr.helloip.RangeBasedIpInfoProvider;
+import io.mkr.helloip.sources.IpRangeInfos;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time to parse a source, to build a {@link RangeBasedIpInfoProvider} from parsed ranges and to compile it, to
+ * stream a source straight into a provider, and to stream it again into an incremental builder patching the
+ * previous provider, for the fixture sources and synthetic ranges.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx8g"})
+public class ProviderBuildBenchmark {
+
+    @Param({"APNIC", "AWS", "AZURE", "GOOGLE", SyntheticRanges.NAME})
+    String source;
+
+    @Param({"1000000"})
+    int syntheticRangeCount;
+
+    private List<IpRangeInfos> ranges;
+    private RangeBasedIpInfoProvider previous;
+
+    @Setup
+    public void setUp() throws IOException {
+        ranges = parse();
+        previous = stream(RangeBasedIpInfoProvider.incrementalBuilder(source, null));
+    }
+
+    @Benchmark
+    public List<IpRangeInfos> parse() throws IOException {
+        if (SyntheticRanges.NAME.equals(source)) {
+            return SyntheticRanges.ranges(syntheticRangeCount, 42);
+        }
+        return Fixtures.source(source).getIpRanges();
+    }
+
+    @Benchmark
+    public RangeBasedIpInfoProvider build() {
+        return new RangeBasedIpInfoProvider(source, ranges);
+    }
+
+    @Benchmark
+    public RangeBasedIpInfoProvider stream() throws IOException {
+        return stream(RangeBasedIpInfoProvider.builder(source));
+    }
+
+    @Benchmark
+    public RangeBasedIpInfoProvider streamIncremental() throws IOException {
+        return stream(RangeBasedIpInfoProvider.incrementalBuilder(source, previous));
+    }
+
+    private RangeBasedIpInfoProvider stream(RangeBasedIpInfoProvider.Builder builder) throws IOException {
+        if (SyntheticRanges.NAME.equals(source)) {
+            SyntheticRanges.stream(syntheticRangeCount, 42, builder);
+        } else {
+            Fixtures.source(source).streamIpRanges(builder);
+        }
+        return builder.build();
+    }
+
+    @Benchmark
+    public CompiledIpInfoLookup buildAndCompile() {
+        return CompiledIpInfoLookup.compileProviders(Collections.singletonList(build()));
+    }
+}
@@ -0,0 +1,90 @@
+package io.mkr.helloip.benchmarks;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import io.mkr.helloip.io.HttpReaderProvider;
+import io.mkr.helloip.io.ReaderProvider;
+import io.mkr.helloip.io.TwoStepHttpReaderProvider;
+import io.mkr.helloip.sources.GoogleCloudIpRangesSource;
+import io.mkr.helloip.sources.IpRangeInfosTable;
+
+/**
+ * Downloads the current source files into a directory (first argument), to be used by the benchmarks with
+ * {@code -Dhelloip.fixtures=<directory>}. Where and when each file was downloaded is appended to
+ * {@value #PROVENANCE} in the directory.
+ */
+public class RecordFixtures {
+
+    static final String PROVENANCE = "provenance.txt";
+
+    public static void main(String[] args) throws Exception {
+        Path directory = Paths.get(args[0]);
+        Files.createDirectories(directory);
+        record("http://thyme.apnic.net/current/data-used-autnums", directory.resolve(Fixtures.APNIC_AUTNUMS));
+        record("http://thyme.apnic.net/current/data-raw-table", directory.resolve(Fixtures.APNIC_RAW_TABLE));
+        record("https://ip-ranges.amazonaws.com/ip-ranges.json", directory.resolve(Fixtures.AWS));
+        record(new TwoStepHttpReaderProvider(
+                new HttpReaderProvider("https://www.microsoft.com/en-us/download/confirmation.aspx?id=41653"),
+                Pattern.compile(".*href=\"(https://download.microsoft.com/download/.*?\\.xml)\".*"), "$1"),
+                directory.resolve(Fixtures.AZURE), "https://www.microsoft.com/en-us/download/confirmation.aspx?id=41653");
+        recordGoogle(directory.resolve(Fixtures.GOOGLE));
+    }
+
+    /**
+     * Records the TXT records the source retrieves, one per line after the domain and a tab.
+     */
+    private static void recordGoogle(Path file) throws Exception {
+        GoogleCloudIpRangesSource.DnsTextRecordRetriever dns =
+                new GoogleCloudIpRangesSource.JdkDnsTextRecordRetriever();
+        List<String> lines = new ArrayList<>();
+        new GoogleCloudIpRangesSource(domainName -> {
+            Collection<String> records = dns.retrieveTextRecords(domainName);
+            for (String record: records) {
+                lines.add(domainName + '\t' + record);
+            }
+            return records;
+        }).streamIpRanges(IpRangeInfosTable.builder());
+        Files.write(file, lines, StandardCharsets.UTF_8);
+        provenance(file, "DNS TXT records of _cloud-netblocks.googleusercontent.com");
+    }
+
+    private static void record(String url, Path file) throws Exception {
+        record(new HttpReaderProvider(url), file, url);
+    }
+
+    private static void record(ReaderProvider readerProvider, Path file, String origin) throws Exception {
+        Reader reader = readerProvider.createReader();
+        if (reader == null) {
+            System.err.println("Could not record " + file + " with " + readerProvider);
+            return;
+        }
+        try (Reader in = reader; Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            char[] buffer = new char[8192];
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, read);
+            }
+        }
+        provenance(file, origin);
+    }
+
+    private static void provenance(Path file, String origin) throws IOException {
+        Files.write(file.resolveSibling(PROVENANCE), Collections.singletonList(
+                file.getFileName() + "\t" + origin + "\t" + Instant.now()), StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        System.out.println("Recorded " + file + " (" + Files.size(file) + " bytes)");
+    }
+}
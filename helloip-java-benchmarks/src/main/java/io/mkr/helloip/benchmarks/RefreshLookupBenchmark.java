@@ -0,0 +1,121 @@
+package io.mkr.helloip.benchmarks;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Supplier;
+import io.mkr.helloip.IpInfoLookup;
+import io.mkr.helloip.IpInfoProvider;
+import io.mkr.helloip.RangeBasedIpInfoProvider;
+import io.mkr.helloip.base.Refreshable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Lookups from several threads while another thread keeps swapping in new provider generations. The interesting
+ * numbers are the ones of the {@code lookup} threads.
+ */
+@State(Scope.Group)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx8g"})
+public class RefreshLookupBenchmark {
+
+    private static final int ADDRESSES = 1 << 20;
+
+    @Param({"1000000"})
+    int rangeCount;
+
+    // the compiled lookup is immutable and would have to be recompiled on refresh
+    @Param({"IMPL", "CACHED"})
+    Lookups lookup;
+
+    @Param({"4096"})
+    int distinctIps;
+
+    private SwappingSupplier supplier;
+    private IpInfoLookup ipInfoLookup;
+
+    @Setup
+    public void setUp() {
+        supplier = new SwappingSupplier(
+                new RangeBasedIpInfoProvider(SyntheticRanges.NAME, SyntheticRanges.ranges(rangeCount, 1)),
+                new RangeBasedIpInfoProvider(SyntheticRanges.NAME, SyntheticRanges.ranges(rangeCount, 2)));
+        ipInfoLookup = lookup.create(Collections.<Supplier<IpInfoProvider>>singletonList(supplier));
+    }
+
+    @State(Scope.Thread)
+    public static class Addresses {
+
+        private int[] addresses;
+        private int next = 0;
+        private final CountingSink sink = new CountingSink();
+
+        @Setup
+        public void setUp(RefreshLookupBenchmark benchmark) {
+            addresses = SyntheticRanges.addresses(ADDRESSES, benchmark.distinctIps,
+                    Thread.currentThread().getId());
+        }
+    }
+
+    @Benchmark
+    @Group("refresh")
+    @GroupThreads(3)
+    public int lookup(Addresses addresses) {
+        ipInfoLookup.infosFor(addresses.addresses[addresses.next++ & (ADDRESSES - 1)], addresses.sink);
+        return addresses.sink.count;
+    }
+
+    @Benchmark
+    @Group("refresh")
+    @GroupThreads(1)
+    public void swap() {
+        supplier.swap();
+        // roughly a refresh every few milliseconds
+        Blackhole.consumeCPU(1 << 20);
+    }
+
+    private static class SwappingSupplier implements Supplier<IpInfoProvider>, Refreshable {
+
+        private final IpInfoProvider[] generations;
+        private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+        private volatile int current = 0;
+
+        SwappingSupplier(IpInfoProvider... generations) {
+            this.generations = generations;
+        }
+
+        @Override
+        public IpInfoProvider get() {
+            return generations[current];
+        }
+
+        void swap() {
+            current = (current + 1) % generations.length;
+            for (Runnable listener: listeners) {
+                listener.run();
+            }
+        }
+
+        @Override
+        public void addRefreshListener(Runnable listener) {
+            listeners.add(listener);
+        }
+    }
+}
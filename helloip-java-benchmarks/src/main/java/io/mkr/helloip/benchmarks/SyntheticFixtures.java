@@ -0,0 +1,254 @@
+package io.mkr.helloip.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import io.mkr.helloip.Ipv4Addresses;
+
+/**
+ * Generates the source files the benchmarks use unless recorded copies are given (see {@link Fixtures}). The files
+ * have the formats of the real sources, but their content is made up from a fixed seed, so use recorded copies for
+ * figures on real data.
+ */
+final class SyntheticFixtures {
+
+    static final long SEED = 20161101L;
+
+    private static final int APNIC_ASNS = 400;
+    private static final int APNIC_RANGES = 5000;
+    private static final int AWS_AMAZON_PREFIXES = 250;
+    private static final int AWS_SERVICE_PREFIXES = 1250;
+    private static final int AZURE_SUBNETS_PER_REGION = 150;
+    private static final int GOOGLE_NETBLOCK_DOMAINS = 6;
+    private static final int GOOGLE_PREFIXES_PER_DOMAIN = 40;
+
+    private static final String[] COUNTRIES = {"AU", "BR", "CN", "DE", "GB", "IN", "JP", "KR", "SG", "US"};
+    private static final String[] AWS_REGIONS = {"GLOBAL", "ap-northeast-1", "ap-southeast-2", "eu-central-1",
+        "eu-west-1", "sa-east-1", "us-east-1", "us-west-2"};
+    private static final String[] AWS_SERVICES = {"CLOUDFRONT", "DYNAMODB", "EC2", "ROUTE53_HEALTHCHECKS", "S3"};
+    private static final String[] AZURE_REGIONS = {"asiaeast", "asiasoutheast", "australiaeast", "brazilsouth",
+        "europenorth", "europewest", "japaneast", "useast", "useast2", "uswest"};
+
+    // start and prefix length of the blocks not to generate prefixes in
+    private static final long[][] SPECIAL_PURPOSE = {
+        {address(0, 0, 0, 0), 8}, {address(10, 0, 0, 0), 8}, {address(100, 64, 0, 0), 10},
+        {address(127, 0, 0, 0), 8}, {address(169, 254, 0, 0), 16}, {address(172, 16, 0, 0), 12},
+        {address(192, 0, 0, 0), 24}, {address(192, 0, 2, 0), 24}, {address(192, 88, 99, 0), 24},
+        {address(192, 168, 0, 0), 16}, {address(198, 18, 0, 0), 15}, {address(198, 51, 100, 0), 24},
+        {address(203, 0, 113, 0), 24}, {address(224, 0, 0, 0), 3}};
+
+    private static final Map<String, String> generated = new ConcurrentHashMap<>();
+
+    private SyntheticFixtures() {
+    }
+
+    /**
+     * @param file one of the fixture file names of {@link Fixtures}
+     * @return the content of the file, generated once
+     */
+    static String content(String file) {
+        return generated.computeIfAbsent(file, SyntheticFixtures::generate);
+    }
+
+    private static String generate(String file) {
+        switch (file) {
+            case Fixtures.APNIC_AUTNUMS:
+                return apnicAutnums();
+            case Fixtures.APNIC_RAW_TABLE:
+                return apnicRawTable();
+            case Fixtures.AWS:
+                return aws();
+            case Fixtures.AZURE:
+                return azure();
+            case Fixtures.GOOGLE:
+                return google();
+            default:
+                throw new IllegalArgumentException("No fixture " + file);
+        }
+    }
+
+    private static String apnicAutnums() {
+        Random random = new Random(SEED);
+        StringBuilder sb = new StringBuilder();
+        for (int asn: asns()) {
+            sb.append(String.format("%5d SYNTHETIC-AS-%d Synthetic Org %d, %s%n", asn, asn, asn,
+                    COUNTRIES[random.nextInt(COUNTRIES.length)]));
+        }
+        return sb.toString();
+    }
+
+    private static String apnicRawTable() {
+        Random random = new Random(SEED + 1);
+        int[] asns = asns();
+        Prefixes prefixes = new Prefixes(random);
+        for (int i = 0; i < APNIC_RANGES; i++) {
+            // mostly /24s like in the routing table, down to /12s
+            double length = random.nextDouble();
+            prefixes.add(length < 0.55 ? 24 : length < 0.95 ? 16 + random.nextInt(8) : 12 + random.nextInt(4));
+        }
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<Long, Integer> prefix: prefixes.sorted.entrySet()) {
+            // a few ASNs announce most prefixes
+            int asn = asns[(int) (asns.length * Math.pow(random.nextDouble(), 3))];
+            sb.append(cidr(prefix.getKey(), prefix.getValue())).append('\t').append(asn).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static int[] asns() {
+        List<Integer> privateUse = new ArrayList<>();
+        for (int asn = 64512; asn <= 65534; asn++) {
+            privateUse.add(asn);
+        }
+        Collections.shuffle(privateUse, new Random(SEED));
+        int[] asns = new int[APNIC_ASNS];
+        for (int i = 0; i < asns.length; i++) {
+            asns[i] = privateUse.get(i);
+        }
+        Arrays.sort(asns);
+        return asns;
+    }
+
+    private static String aws() {
+        Random random = new Random(SEED + 2);
+        Prefixes amazon = new Prefixes(random);
+        List<String> regions = new ArrayList<>();
+        for (int i = 0; i < AWS_AMAZON_PREFIXES; i++) {
+            amazon.add(14 + random.nextInt(5));
+            regions.add(AWS_REGIONS[random.nextInt(AWS_REGIONS.length)]);
+        }
+        List<long[]> amazonPrefixes = new ArrayList<>();
+        for (Map.Entry<Long, Integer> prefix: amazon.sorted.entrySet()) {
+            amazonPrefixes.add(new long[] {prefix.getKey(), prefix.getValue()});
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\n  \"syncToken\": \"").append(SEED).append("\",\n  \"createDate\": \"synthetic\",\n")
+                .append("  \"prefixes\": [");
+        for (int i = 0; i < amazonPrefixes.size(); i++) {
+            long[] prefix = amazonPrefixes.get(i);
+            appendAwsPrefix(sb, i == 0, cidr(prefix[0], (int) prefix[1]), regions.get(i), "AMAZON");
+        }
+        Map<String, Prefixes> services = new TreeMap<>();
+        for (String service: AWS_SERVICES) {
+            services.put(service, new Prefixes(random));
+        }
+        for (int i = 0; i < AWS_SERVICE_PREFIXES; i++) {
+            int parent = random.nextInt(amazonPrefixes.size());
+            long[] prefix = amazonPrefixes.get(parent);
+            String service = AWS_SERVICES[random.nextInt(AWS_SERVICES.length)];
+            int length = (int) prefix[1] + 2 + random.nextInt(28 - (int) prefix[1] - 1);
+            long start = services.get(service).addWithin(prefix[0], (int) prefix[1], length);
+            if (start >= 0) {
+                appendAwsPrefix(sb, false, cidr(start, length), regions.get(parent), service);
+            }
+        }
+        return sb.append("\n  ]\n}\n").toString();
+    }
+
+    private static void appendAwsPrefix(StringBuilder sb, boolean first, String cidr, String region, String service) {
+        sb.append(first ? "\n" : ",\n").append("    {\n      \"ip_prefix\": \"").append(cidr)
+                .append("\",\n      \"region\": \"").append(region)
+                .append("\",\n      \"service\": \"").append(service).append("\"\n    }");
+    }
+
+    private static String azure() {
+        Random random = new Random(SEED + 3);
+        Prefixes prefixes = new Prefixes(random);
+        StringBuilder sb = new StringBuilder();
+        sb.append("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n")
+                .append("<!-- synthetic, see ").append(SyntheticFixtures.class.getName()).append(" -->\n")
+                .append("<AzurePublicIpAddresses xmlns:xsd=\"http://www.w3.org/2001/XMLSchema\" ")
+                .append("xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\">\n");
+        for (String region: AZURE_REGIONS) {
+            sb.append("  <Region Name=\"").append(region).append("\">\n");
+            for (int i = 0; i < AZURE_SUBNETS_PER_REGION; i++) {
+                int length = 14 + random.nextInt(14);
+                sb.append("    <IpRange Subnet=\"").append(cidr(prefixes.add(length), length)).append("\" />\n");
+            }
+            sb.append("  </Region>\n");
+        }
+        return sb.append("</AzurePublicIpAddresses>\n").toString();
+    }
+
+    private static String google() {
+        Random random = new Random(SEED + 4);
+        Prefixes prefixes = new Prefixes(random);
+        StringBuilder sb = new StringBuilder();
+        StringBuilder includes = new StringBuilder("v=spf1");
+        for (int domain = 1; domain <= GOOGLE_NETBLOCK_DOMAINS; domain++) {
+            String domainName = "_cloud-netblocks" + domain + ".googleusercontent.com";
+            includes.append(" include:").append(domainName);
+            sb.append(domainName).append("\tv=spf1");
+            for (int i = 0; i < GOOGLE_PREFIXES_PER_DOMAIN; i++) {
+                int length = 16 + random.nextInt(6);
+                sb.append(" ip4:").append(cidr(prefixes.add(length), length));
+            }
+            // IPv6 prefixes within the documentation prefix 2001:db8::/32
+            sb.append(" ip6:2001:db8:").append(Integer.toHexString(domain)).append("::/48 ?all\n");
+        }
+        return "_cloud-netblocks.googleusercontent.com\t" + includes + " ?all\n" + sb;
+    }
+
+    private static long address(int a, int b, int c, int d) {
+        return (long) a << 24 | b << 16 | c << 8 | d;
+    }
+
+    private static String cidr(long start, int length) {
+        return Ipv4Addresses.toIpv4((int) start) + "/" + length;
+    }
+
+    /**
+     * Disjoint random prefixes outside of the special purpose blocks.
+     */
+    private static final class Prefixes {
+
+        private final Random random;
+        // prefix length by start
+        private final TreeMap<Long, Integer> sorted = new TreeMap<>();
+
+        Prefixes(Random random) {
+            this.random = random;
+        }
+
+        long add(int length) {
+            while (true) {
+                long start = random.nextLong() & 0xFFFFFFFFL & -(1L << (32 - length));
+                if (isFree(start, length)) {
+                    sorted.put(start, length);
+                    return start;
+                }
+            }
+        }
+
+        /**
+         * @return the start of a free prefix within the given one or -1 if none was found
+         */
+        long addWithin(long parentStart, int parentLength, int length) {
+            for (int attempt = 0; attempt < 16; attempt++) {
+                long offset = random.nextLong() & ((1L << (32 - parentLength)) - 1) & -(1L << (32 - length));
+                if (isFree(parentStart + offset, length)) {
+                    sorted.put(parentStart + offset, length);
+                    return parentStart + offset;
+                }
+            }
+            return -1;
+        }
+
+        private boolean isFree(long start, int length) {
+            long end = start + (1L << (32 - length)) - 1;
+            for (long[] block: SPECIAL_PURPOSE) {
+                if (start <= block[0] + (1L << (32 - block[1])) - 1 && block[0] <= end) {
+                    return false;
+                }
+            }
+            Map.Entry<Long, Integer> before = sorted.floorEntry(end);
+            return before == null || before.getKey() + (1L << (32 - before.getValue())) - 1 < start;
+        }
+    }
+}
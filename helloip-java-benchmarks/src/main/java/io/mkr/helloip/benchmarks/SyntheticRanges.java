@@ -0,0 +1,73 @@
+package io.mkr.helloip.benchmarks;
+
+import java.util.Random;
+
+import io.mkr.helloip.sources.IpRangeInfosConsumer;
+import io.mkr.helloip.sources.IpRangeInfosTable;
+
+/**
+ * Generates reproducible datasets of any size, shaped like the APNIC data: disjoint ranges spread over the whole
+ * address space, each with an ASN and one of a limited number of organisation names.
+ */
+public final class SyntheticRanges {
+
+    public static final String NAME = "SYNTHETIC";
+    public static final String KEY_ASN = "ASN";
+    public static final String KEY_ORG = "ORG";
+
+    private static final int ORGS = 50000;
+
+    private SyntheticRanges() {
+    }
+
+    /**
+     * @param count the number of ranges, up to {@code 2^32}
+     * @param seed the random seed
+     * @return the ranges
+     */
+    public static IpRangeInfosTable ranges(int count, long seed) {
+        IpRangeInfosTable.Builder builder = IpRangeInfosTable.builder();
+        stream(count, seed, builder);
+        return builder.build();
+    }
+
+    /**
+     * Like {@link #ranges(int, long)}, but passing the ranges to a consumer.
+     *
+     * @param count the number of ranges, up to {@code 2^32}
+     * @param seed the random seed
+     * @param consumer the consumer
+     */
+    public static void stream(int count, long seed, IpRangeInfosConsumer consumer) {
+        Random random = new Random(seed);
+        long stride = (1L << 32) / count;
+        consumer.intColumn(KEY_ASN).stringColumn(KEY_ORG);
+        for (int i = 0; i < count; i++) {
+            long start = i * stride;
+            long length = 1 + (long) (random.nextDouble() * stride);
+            int org = random.nextInt(ORGS);
+            consumer.addRow(start, start + length - 1)
+                    .setInt(0, 64512 + org)
+                    .setString(1, "ORG-" + org);
+        }
+    }
+
+    /**
+     * @param count the number of addresses
+     * @param distinct the number of distinct addresses, i.e. how skewed the traffic is
+     * @param seed the random seed
+     * @return the addresses as ints
+     */
+    public static int[] addresses(int count, int distinct, long seed) {
+        Random random = new Random(seed);
+        int[] pool = new int[distinct];
+        for (int i = 0; i < distinct; i++) {
+            pool[i] = random.nextInt();
+        }
+        int[] addresses = new int[count];
+        for (int i = 0; i < count; i++) {
+            addresses[i] = pool[random.nextInt(distinct)];
+        }
+        return addresses;
+    }
+}
@@ -1,77 +1,439 @@
 package io.mkr.helloip.examples;
 
-import com.google.common.base.Supplier;
-import io.mkr.helloip.IpInfoLookup;
-import io.mkr.helloip.IpInfoLookupImpl;
-import io.mkr.helloip.IpInfoProvider;
+import io.mkr.helloip.CompiledIpInfoLookup;
 import io.mkr.helloip.IpInfos;
+import io.mkr.helloip.Ipv4Addresses;
 import io.mkr.helloip.sources.ApnicAsnIpRangesSource;
-import net.ripe.commons.ip.Ipv4;
 
-import java.io.BufferedReader;
-import java.io.FileInputStream;
-import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import static io.mkr.helloip.Suppliers.*;
 
 /**
- * Loads an Apache access log file (first argument) and prints some stats about the client IPs.
+ * Loads an Apache access log file (first argument) and prints some stats about the client IPs. The file is counted
+ * in parallel chunks (parallelism as optional second argument). With a statistics file as optional third argument
+ * the {@link LogStats} of previous runs are loaded from it, merged with the ones of this run and saved back.
+ * <p/>
+ * With {@code -Dhelloip.aggregateIps=true} the lines are counted per IP first and each distinct IP is looked up once.
  */
 public class ApacheLogIpStats {
 
+    private static final int BATCH_SIZE = 4096;
+
+    private static final long CHUNK_SIZE = 64L * 1024 * 1024;
+
     public static void main(String[] args) throws Exception {
-        InputStream is = new FileInputStream(args[0]);
+        Path file = Paths.get(args[0]);
+        int parallelism = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        Path statsFile = args.length > 2 ? Paths.get(args[2]) : null;
+        boolean aggregateIps = Boolean.getBoolean("helloip.aggregateIps");
 
-        // initialize lookup with pre-fetched / immediately downloaded IP info range information
-        IpInfoLookup lookup = new IpInfoLookupImpl(Arrays.asList(
+        // initialize lookup with pre-fetched / immediately downloaded IP info range information, compiled into one index
+        CompiledIpInfoLookup lookup = CompiledIpInfoLookup.compile(Arrays.asList(
                 fetchOnce(apnic),
                 fetchOnce(aws),
                 fetchOnce(azure),
                 fetchOnce(googleCloud))
         );
 
-        int allRows = 0;
+        LogStats stats = count(file, lookup, parallelism, CHUNK_SIZE, aggregateIps);
+        if (statsFile != null) {
+            if (Files.exists(statsFile)) {
+                stats.merge(LogStats.load(statsFile));
+            }
+            stats.save(statsFile);
+        }
+
+        System.out.println("Top Organisations (count, ~distinct IPs):");
+        List<Map.Entry<String, Long>> sortedOrgCounts = sortedByCount(stats.orgCounts);
+        for (int i = 0; i < Math.min(sortedOrgCounts.size(), 50); i++) {
+            String org = sortedOrgCounts.get(i).getKey();
+            System.out.println(i + "\t" + org + "\t" + sortedOrgCounts.get(i).getValue() + "\t"
+                    + stats.orgUniqueIps.get(org).cardinality());
+        }
+        System.out.println("Top ASNs:");
+        List<Map.Entry<String, Long>> sortedAsnCounts = sortedByCount(stats.asnCounts);
+        for (int i = 0; i < Math.min(sortedAsnCounts.size(), 20); i++) {
+            System.out.println(i + "\t" + sortedAsnCounts.get(i));
+        }
 
-        Map<String, Integer> providerCounts = new HashMap<>();
-        Map<String, Integer> orgCounts = new HashMap<>();
-        List<String> ipsWithNoInfos = new ArrayList<>();
+        System.out.println("All: " + stats.rows);
+        System.out.println("Invalid: " + stats.invalidRows);
+        System.out.println("~Distinct IPs: " + stats.uniqueIps.cardinality());
+        Map<String, String> providers = new TreeMap<>();
+        for (Map.Entry<String, Long> provider: stats.providerCounts.entrySet()) {
+            providers.put(provider.getKey(), provider.getValue() + " (~"
+                    + stats.providerUniqueIps.get(provider.getKey()).cardinality() + " IPs)");
+        }
+        System.out.println("Infos by providers: " + providers);
+        System.out.println("Top IPs: " + format(stats.topIps.top(20)));
+        System.out.println("Top IPs with no infos: " + format(stats.topIpsWithNoInfos.top(50)));
+    }
 
-        try (BufferedReader br = new BufferedReader(new InputStreamReader(is))) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                if (line.trim().length() > 0) {
-                    String ip = line.split(" ")[0];
-                    IpInfos ipInfos = lookup.infosFor(Ipv4.of(ip));
-                    allRows++;
-                    for (String provider: ipInfos.getProviderNames()) {
-                        Integer count = providerCounts.get(provider);
-                        count = count == null ? 1 : ++count;
-                        providerCounts.put(provider, count);
+    /**
+     * Counts the lines of a log in chunks of about the given size.
+     */
+    static LogStats count(Path file, CompiledIpInfoLookup lookup, int parallelism, long chunkSize,
+                          boolean aggregateIps) throws IOException {
+        // every worker thread counts into its own counts, which are merged after all chunks are done
+        ResultKeys keys = new ResultKeys(lookup);
+        Queue<Counts> threadCounts = new ConcurrentLinkedQueue<>();
+        ThreadLocal<Counts> counter = ThreadLocal.withInitial(() -> {
+            Counts threadCount = new Counts(keys, aggregateIps);
+            threadCounts.add(threadCount);
+            return threadCount;
+        });
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            List<MappedByteBuffer> chunks = mapChunks(channel, chunkSize);
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                pool.invoke(new ChunkCounter(lookup, keys, counter, chunks, 0, chunks.size()));
+            } finally {
+                pool.shutdown();
+            }
+        }
+        Counts counts = new Counts(keys, aggregateIps);
+        for (Counts threadCount: threadCounts) {
+            counts.merge(threadCount);
+        }
+        if (aggregateIps) {
+            // with the counts of all threads merged, each distinct IP is looked up once
+            counts.lookUpIpCounts(lookup);
+        }
+        return counts.toStats(lookup, keys);
+    }
+
+    private static List<Map.Entry<String, Long>> sortedByCount(Map<String, Long> counts) {
+        List<Map.Entry<String, Long>> sorted = new ArrayList<>(counts.entrySet());
+        Collections.sort(sorted, Map.Entry.<String, Long>comparingByValue().reversed());
+        return sorted;
+    }
+
+    private static List<String> format(List<SpaceSaving.Counter> counters) {
+        List<String> formatted = new ArrayList<>();
+        for (SpaceSaving.Counter counter: counters) {
+            // counts of IPs which took over the counter of another one are upper bounds
+            formatted.add(Ipv4Addresses.toIpv4((int) counter.getKey()) + "="
+                    + (counter.getError() > 0 ? "<=" : "") + counter.getCount());
+        }
+        return formatted;
+    }
+
+    /**
+     * Maps a file in chunks of about the given size, each chunk ending after a newline or at the end of the file.
+     */
+    static List<MappedByteBuffer> mapChunks(FileChannel channel, long chunkSize) throws IOException {
+        List<MappedByteBuffer> chunks = new ArrayList<>();
+        long size = channel.size();
+        long start = 0;
+        while (start < size) {
+            long end = nextLineStart(channel, Math.min(start + chunkSize, size));
+            if (end - start > Integer.MAX_VALUE) {
+                throw new IOException("Line exceeding 2GB at position " + start);
+            }
+            chunks.add(channel.map(FileChannel.MapMode.READ_ONLY, start, end - start));
+            start = end;
+        }
+        return chunks;
+    }
+
+    private static long nextLineStart(FileChannel channel, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        long current = position - 1;
+        while (true) {
+            buffer.clear();
+            int read = channel.read(buffer, current);
+            if (read <= 0) {
+                return channel.size();
+            }
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n') {
+                    return current + i + 1;
+                }
+            }
+            current += read;
+        }
+    }
+
+    /**
+     * Counts a range of chunks, splitting until a single chunk is left.
+     */
+    private static class ChunkCounter extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final CompiledIpInfoLookup lookup;
+        private final ResultKeys keys;
+        private final ThreadLocal<Counts> counter;
+        private final List<MappedByteBuffer> chunks;
+        private final int from;
+        private final int to;
+
+        ChunkCounter(CompiledIpInfoLookup lookup, ResultKeys keys, ThreadLocal<Counts> counter,
+                     List<MappedByteBuffer> chunks, int from, int to) {
+            this.lookup = lookup;
+            this.keys = keys;
+            this.counter = counter;
+            this.chunks = chunks;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new ChunkCounter(lookup, keys, counter, chunks, from, mid),
+                        new ChunkCounter(lookup, keys, counter, chunks, mid, to));
+            } else if (to > from) {
+                count(chunks.get(from), counter.get());
+            }
+        }
+
+        private void count(MappedByteBuffer chunk, Counts counts) {
+            // look up the IPs in batches
+            int[] batch = new int[BATCH_SIZE];
+            int[] resultIds = new int[BATCH_SIZE];
+            int batchSize = 0;
+            int limit = chunk.limit();
+            int position = 0;
+            while (position < limit) {
+                // the IP is the first space separated token of the line
+                int lineStart = position;
+                int tokenEnd = -1;
+                boolean blank = true;
+                byte b;
+                while (position < limit && (b = chunk.get(position)) != '\n') {
+                    if (b == ' ' && tokenEnd < 0) {
+                        tokenEnd = position;
                     }
-                    if (ipInfos.hasAnyFrom(ApnicAsnIpRangesSource.NAME)) {
-                        String org = ipInfos.infoFromProvider(ApnicAsnIpRangesSource.NAME, ApnicAsnIpRangesSource.KEY_ASNORG);
-                        Integer count = orgCounts.get(org);
-                        count = count == null ? 1 : ++count;
-                        orgCounts.put(org, count);
+                    blank &= Character.isWhitespace(b);
+                    position++;
+                }
+                if (tokenEnd < 0) {
+                    tokenEnd = position > lineStart && chunk.get(position - 1) == '\r' ? position - 1 : position;
+                }
+                position++;
+                if (!blank) {
+                    counts.rows++;
+                    long address = Ipv4Addresses.parse(chunk, lineStart, tokenEnd);
+                    if (address == Ipv4Addresses.INVALID) {
+                        counts.invalidRows++;
+                    } else if (counts.ipCounts != null) {
+                        counts.ipCounts.addTo((int) address, 1);
+                    } else {
+                        batch[batchSize++] = (int) address;
                     }
-                    if (ipInfos.getProviderNames().isEmpty()) {
-                        ipsWithNoInfos.add(ip);
+                    if (batchSize == BATCH_SIZE) {
+                        counts.add(lookup, batch, batchSize, resultIds);
+                        batchSize = 0;
                     }
                 }
             }
+            counts.add(lookup, batch, batchSize, resultIds);
         }
-        List<Map.Entry<String, Integer>> sortedOrgCounts = new ArrayList<>(orgCounts.entrySet());
-        Collections.sort(sortedOrgCounts, Map.Entry.<String, Integer>comparingByValue().reversed());
-        System.out.println("Top Organisations:");
-        for (int i = 0; i < Math.min(sortedOrgCounts.size(), 50); i++) {
-            System.out.println(i + "\t" + sortedOrgCounts.get(i));
+    }
+
+    /**
+     * The providers and the organisation of each result id of the compiled lookup as dense ids.
+     */
+    private static class ResultKeys {
+
+        private final List<String> providerNames = new ArrayList<>();
+        private final List<String> orgNames = new ArrayList<>();
+        private final int[][] resultProviders;
+        private final int[] resultOrgs;
+
+        ResultKeys(CompiledIpInfoLookup lookup) {
+            Map<String, Integer> providerIds = new HashMap<>();
+            Map<String, Integer> orgIds = new HashMap<>();
+            resultProviders = new int[lookup.resultCount()][];
+            resultOrgs = new int[lookup.resultCount()];
+            for (int resultId = 0; resultId < lookup.resultCount(); resultId++) {
+                IpInfos ipInfos = lookup.result(resultId);
+                int[] providers = new int[ipInfos.getProviderNames().size()];
+                int i = 0;
+                for (String provider: ipInfos.getProviderNames()) {
+                    providers[i++] = providerIds.computeIfAbsent(provider, name -> {
+                        providerNames.add(name);
+                        return providerNames.size() - 1;
+                    });
+                }
+                resultProviders[resultId] = providers;
+                String org = ipInfos.hasAnyFrom(ApnicAsnIpRangesSource.NAME)
+                        ? ipInfos.infoFromProvider(ApnicAsnIpRangesSource.NAME, ApnicAsnIpRangesSource.KEY_ASNORG)
+                        : null;
+                resultOrgs[resultId] = org == null ? -1 : orgIds.computeIfAbsent(org, name -> {
+                    orgNames.add(name);
+                    return orgNames.size() - 1;
+                });
+            }
+        }
+    }
+
+    /**
+     * Line counts per result id of the compiled lookup and sketches of the IPs, mergeable across threads.
+     */
+    private static class Counts {
+
+        private final ResultKeys keys;
+        private final long[] resultCounts;
+        private long rows = 0;
+        private long invalidRows = 0;
+        private final HyperLogLog uniqueIps = new HyperLogLog(LogStats.PRECISION);
+        private final HyperLogLog[] providerUniqueIps;
+        // created for the organisations seen only
+        private final HyperLogLog[] orgUniqueIps;
+        private final SpaceSaving topIps = new SpaceSaving(LogStats.TOP_IPS);
+        private final SpaceSaving topIpsWithNoInfos = new SpaceSaving(LogStats.TOP_IPS);
+        // lines per IP until looked up, if aggregating
+        private IntLongHashMap ipCounts;
+
+        Counts(ResultKeys keys, boolean aggregateIps) {
+            this.keys = keys;
+            this.ipCounts = aggregateIps ? new IntLongHashMap() : null;
+            this.resultCounts = new long[keys.resultOrgs.length];
+            this.providerUniqueIps = new HyperLogLog[keys.providerNames.size()];
+            for (int i = 0; i < providerUniqueIps.length; i++) {
+                providerUniqueIps[i] = new HyperLogLog(LogStats.PRECISION);
+            }
+            this.orgUniqueIps = new HyperLogLog[keys.orgNames.size()];
+        }
+
+        void add(CompiledIpInfoLookup lookup, int[] batch, int batchSize, int[] resultIds) {
+            lookup.resultIds(batch, batchSize, resultIds);
+            for (int i = 0; i < batchSize; i++) {
+                add(batch[i], resultIds[i], 1);
+            }
+        }
+
+        /**
+         * Looks up the counted IPs in batches and adds their counts.
+         */
+        void lookUpIpCounts(CompiledIpInfoLookup lookup) {
+            int[] batch = new int[BATCH_SIZE];
+            long[] batchCounts = new long[BATCH_SIZE];
+            int[] resultIds = new int[BATCH_SIZE];
+            int[] batchSize = {0};
+            ipCounts.forEach((address, count) -> {
+                batch[batchSize[0]] = address;
+                batchCounts[batchSize[0]++] = count;
+                if (batchSize[0] == BATCH_SIZE) {
+                    addCounted(lookup, batch, batchCounts, batchSize[0], resultIds);
+                    batchSize[0] = 0;
+                }
+            });
+            addCounted(lookup, batch, batchCounts, batchSize[0], resultIds);
+            ipCounts = null;
+        }
+
+        private void addCounted(CompiledIpInfoLookup lookup, int[] batch, long[] batchCounts, int batchSize,
+                                int[] resultIds) {
+            lookup.resultIds(batch, batchSize, resultIds);
+            for (int i = 0; i < batchSize; i++) {
+                add(batch[i], resultIds[i], batchCounts[i]);
+            }
+        }
+
+        private void add(int ip, int resultId, long count) {
+            long address = Ipv4Addresses.toUnsignedLong(ip);
+            long hash = HyperLogLog.hash(address);
+            uniqueIps.add(hash);
+            topIps.add(address, count);
+            if (resultId == CompiledIpInfoLookup.NO_RESULT) {
+                topIpsWithNoInfos.add(address, count);
+            } else {
+                resultCounts[resultId] += count;
+                for (int provider: keys.resultProviders[resultId]) {
+                    providerUniqueIps[provider].add(hash);
+                }
+                int org = keys.resultOrgs[resultId];
+                if (org >= 0) {
+                    orgUniqueIps(org).add(hash);
+                }
+            }
+        }
+
+        private HyperLogLog orgUniqueIps(int org) {
+            HyperLogLog sketch = orgUniqueIps[org];
+            if (sketch == null) {
+                sketch = new HyperLogLog(LogStats.ORG_PRECISION);
+                orgUniqueIps[org] = sketch;
+            }
+            return sketch;
+        }
+
+        Counts merge(Counts other) {
+            for (int i = 0; i < resultCounts.length; i++) {
+                resultCounts[i] += other.resultCounts[i];
+            }
+            rows += other.rows;
+            invalidRows += other.invalidRows;
+            uniqueIps.merge(other.uniqueIps);
+            for (int i = 0; i < providerUniqueIps.length; i++) {
+                providerUniqueIps[i].merge(other.providerUniqueIps[i]);
+            }
+            for (int i = 0; i < orgUniqueIps.length; i++) {
+                if (other.orgUniqueIps[i] != null) {
+                    orgUniqueIps(i).merge(other.orgUniqueIps[i]);
+                }
+            }
+            topIps.merge(other.topIps);
+            topIpsWithNoInfos.merge(other.topIpsWithNoInfos);
+            if (other.ipCounts != null) {
+                ipCounts.merge(other.ipCounts);
+            }
+            return this;
         }
 
-        System.out.println("All: " + allRows);
-        System.out.println("Infos by providers: " + providerCounts);
-        System.out.println("IPs with no infos: " + ipsWithNoInfos);
+        /**
+         * Resolves the counts to providers, organisations and ASNs.
+         */
+        LogStats toStats(CompiledIpInfoLookup lookup, ResultKeys keys) {
+            LogStats stats = new LogStats();
+            stats.rows = rows;
+            stats.invalidRows = invalidRows;
+            for (int resultId = 0; resultId < resultCounts.length; resultId++) {
+                long count = resultCounts[resultId];
+                if (count > 0) {
+                    IpInfos ipInfos = lookup.result(resultId);
+                    for (String provider: ipInfos.getProviderNames()) {
+                        stats.providerCounts.merge(provider, count, Long::sum);
+                    }
+                    if (ipInfos.hasAnyFrom(ApnicAsnIpRangesSource.NAME)) {
+                        String org = ipInfos.infoFromProvider(ApnicAsnIpRangesSource.NAME, ApnicAsnIpRangesSource.KEY_ASNORG);
+                        stats.orgCounts.merge(org, count, Long::sum);
+                        String asn = ipInfos.infoFromProvider(ApnicAsnIpRangesSource.NAME, ApnicAsnIpRangesSource.KEY_ASN);
+                        stats.asnCounts.merge(asn, count, Long::sum);
+                    }
+                }
+            }
+            stats.uniqueIps = uniqueIps;
+            for (int i = 0; i < providerUniqueIps.length; i++) {
+                if (stats.providerCounts.containsKey(keys.providerNames.get(i))) {
+                    stats.providerUniqueIps.put(keys.providerNames.get(i), providerUniqueIps[i]);
+                }
+            }
+            for (int i = 0; i < orgUniqueIps.length; i++) {
+                if (orgUniqueIps[i] != null) {
+                    stats.orgUniqueIps.put(keys.orgNames.get(i), orgUniqueIps[i]);
+                }
+            }
+            stats.topIps = topIps;
+            stats.topIpsWithNoInfos = topIpsWithNoInfos;
+            return stats;
+        }
     }
 
 }
@@ -0,0 +1,159 @@
+package io.mkr.helloip.examples;
+
+/**
+ * A map of {@code int} keys to {@code long} values by open addressing with linear probing. Entries cannot be removed.
+ * Not thread safe.
+ */
+public final class IntLongHashMap {
+
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private int[] keys;
+    private long[] values;
+    // the key 0 marks free slots, its value is kept aside
+    private boolean hasZeroKey = false;
+    private long zeroValue = 0;
+    private int size = 0;
+    private int mask;
+    private int resizeAt;
+
+    public IntLongHashMap() {
+        this(1024);
+    }
+
+    /**
+     * @param expectedSize the number of keys expected
+     */
+    public IntLongHashMap(int expectedSize) {
+        allocate(Integer.highestOneBit(Math.max((int) (expectedSize / LOAD_FACTOR), 2) - 1) << 1);
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new long[capacity];
+        mask = capacity - 1;
+        resizeAt = (int) (capacity * LOAD_FACTOR);
+    }
+
+    /**
+     * Adds to the value of a key, absent keys having the value 0.
+     *
+     * @param key the key
+     * @param delta the value to add
+     * @return the new value
+     */
+    public long addTo(int key, long delta) {
+        if (key == 0) {
+            if (!hasZeroKey) {
+                hasZeroKey = true;
+                size++;
+            }
+            return zeroValue += delta;
+        }
+        int slot = slot(key);
+        int existing;
+        while ((existing = keys[slot]) != 0) {
+            if (existing == key) {
+                return values[slot] += delta;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = delta;
+        if (++size > resizeAt) {
+            resize();
+        }
+        return delta;
+    }
+
+    /**
+     * @param key the key
+     * @return the value of the key, 0 if absent
+     */
+    public long get(int key) {
+        if (key == 0) {
+            return zeroValue;
+        }
+        for (int slot = slot(key); keys[slot] != 0; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                return values[slot];
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return the number of keys
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Adds the values of another map.
+     *
+     * @param other the other map
+     * @return this map
+     */
+    public IntLongHashMap merge(IntLongHashMap other) {
+        if (other.hasZeroKey) {
+            addTo(0, other.zeroValue);
+        }
+        for (int slot = 0; slot < other.keys.length; slot++) {
+            if (other.keys[slot] != 0) {
+                addTo(other.keys[slot], other.values[slot]);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Passes all entries in no particular order.
+     *
+     * @param consumer the consumer of the entries
+     */
+    public void forEach(EntryConsumer consumer) {
+        if (hasZeroKey) {
+            consumer.accept(0, zeroValue);
+        }
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (keys[slot] != 0) {
+                consumer.accept(keys[slot], values[slot]);
+            }
+        }
+    }
+
+    private void resize() {
+        int[] oldKeys = keys;
+        long[] oldValues = values;
+        allocate(keys.length << 1);
+        for (int i = 0; i < oldKeys.length; i++) {
+            int key = oldKeys[i];
+            if (key != 0) {
+                int slot = slot(key);
+                while (keys[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = key;
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private int slot(int key) {
+        // IPs of the same network differ in the low bits only, spread them over the table
+        int h = key * 0x9E3779B9;
+        return (h ^ h >>> 16) & mask;
+    }
+
+    @Override
+    public String toString() {
+        return "IntLongHashMap{size=" + size + ", capacity=" + keys.length + '}';
+    }
+
+    public interface EntryConsumer {
+
+        void accept(int key, long value);
+
+    }
+}
@@ -1,8 +1,14 @@
 package io.mkr.helloip.examples;
 
 import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -12,9 +18,21 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import io.mkr.helloip.AwaitingIpInfoLookup;
+import io.mkr.helloip.CachingIpInfoLookup;
 import io.mkr.helloip.IpInfoLookup;
 import io.mkr.helloip.IpInfoLookupImpl;
-import io.mkr.helloip.IpInfos;
+import io.mkr.helloip.IpInfoProvider;
+import io.mkr.helloip.Ipv4Addresses;
+import io.mkr.helloip.ProviderHandles;
+import io.mkr.helloip.SlotIpInfos;
+import io.mkr.helloip.base.RefreshCoordinator;
+import io.mkr.helloip.base.Refreshable;
+import io.mkr.helloip.metrics.IpInfoMetrics;
+import io.mkr.helloip.metrics.RecordingIpInfoMetrics;
+import io.mkr.helloip.snapshot.SnapshottingIpInfoLookup;
 import io.mkr.helloip.sources.ApnicAsnIpRangesSource;
 import io.mkr.helloip.sources.AwsIpRangesSource;
 import io.mkr.helloip.sources.AzureIpRangesSource;
@@ -40,47 +58,124 @@ public class IpInfoServlet {
     public static class HelloIpServlet extends HttpServlet {
 
         private final ScheduledExecutorService ipInfoRefreshExecutor = new ScheduledThreadPoolExecutor(1);
-        private IpInfoLookup ipInfoLookup;
+        // one worker per source, so all of them are fetched and built at the same time
+        private final ExecutorService ipInfoRefreshWorkers = Executors.newFixedThreadPool(4);
+        private final RemoteIpDetector remoteIpDetector = new RemoteIpDetector();
+        // the results are checked by handle rather than by provider name
+        private final ProviderHandles providerHandles = new ProviderHandles();
+        private final int apnicHandle = providerHandles.handle(ApnicAsnIpRangesSource.NAME);
+        private final int awsHandle = providerHandles.handle(AwsIpRangesSource.NAME);
+        private final int azureHandle = providerHandles.handle(AzureIpRangesSource.NAME);
+        private final int googleCloudHandle = providerHandles.handle(GoogleCloudIpRangesSource.NAME);
+        private final long cloudMask = providerHandles.mask(AwsIpRangesSource.NAME, AzureIpRangesSource.NAME,
+                GoogleCloudIpRangesSource.NAME);
+        // reused by the requests of a container thread, read by handle without building any map
+        private final ThreadLocal<SlotIpInfos> slotIpInfos = ThreadLocal.withInitial(
+                () -> new SlotIpInfos(providerHandles));
+        private AwaitingIpInfoLookup ipInfoLookup;
+        // with -Dhelloip.metrics=true served on /metrics
+        private RecordingIpInfoMetrics metrics;
 
         @Override
         public void init() throws ServletException {
-            this.ipInfoLookup = new IpInfoLookupImpl(Arrays.asList(
-                    fetchAsyncWithRefresh(apnic, 1, TimeUnit.DAYS, ipInfoRefreshExecutor),
-                    fetchAsyncWithRefresh(aws, 1, TimeUnit.DAYS, ipInfoRefreshExecutor),
-                    fetchAsyncWithRefresh(azure, 1, TimeUnit.DAYS, ipInfoRefreshExecutor),
-                    fetchAsyncWithRefresh(googleCloud, 1, TimeUnit.DAYS, ipInfoRefreshExecutor)
-            ));
+            if (Boolean.getBoolean("helloip.metrics")) {
+                metrics = new RecordingIpInfoMetrics();
+                reportRefreshesTo(metrics);
+            }
+            // e.g. -Dhelloip.refreshMemoryBudgetMb=256 on small containers, by default refreshes are not limited
+            long memoryBudget = Long.getLong("helloip.refreshMemoryBudgetMb", 0L) << 20;
+            RefreshCoordinator<IpInfoProvider> refreshCoordinator = fetchAllAsyncWithRefresh(
+                    Arrays.asList(apnic, aws, azure, googleCloud), memoryBudget, 1, TimeUnit.DAYS,
+                    ipInfoRefreshWorkers, ipInfoRefreshExecutor);
+            List<String> providerNames = Arrays.asList(ApnicAsnIpRangesSource.NAME, AwsIpRangesSource.NAME,
+                    AzureIpRangesSource.NAME, GoogleCloudIpRangesSource.NAME);
+            IpInfoLookup lookup = new IpInfoLookupImpl(refreshCoordinator.suppliers(), providerNames,
+                    metrics != null ? metrics : IpInfoMetrics.NONE);
+            Refreshable refreshed = refreshCoordinator;
+            // ready to serve once the ASNs are loaded, the clouds follow when they are
+            ListenableFuture<?> ready = refreshCoordinator.ready(0);
+            // e.g. -Dhelloip.snapshot=/var/cache/helloip.snapshot to serve the infos of the last run right after restarts
+            String snapshot = System.getProperty("helloip.snapshot");
+            if (snapshot != null) {
+                SnapshottingIpInfoLookup snapshotting = new SnapshottingIpInfoLookup(refreshCoordinator.suppliers(),
+                        Paths.get(snapshot), 7, TimeUnit.DAYS).refreshOn(refreshCoordinator);
+                lookup = snapshotting;
+                refreshed = snapshotting;
+                if (snapshotting.isStartedFromSnapshot()) {
+                    ready = Futures.immediateFuture(null);
+                }
+            }
+            // most requests come from few IPs, cache their infos until the next refresh
+            CachingIpInfoLookup cachingLookup = new CachingIpInfoLookup(lookup, 16384)
+                    .invalidateOnRefresh(Collections.singletonList(refreshed));
+            this.ipInfoLookup = new AwaitingIpInfoLookup(cachingLookup, ready);
+        }
+
+        @Override
+        public void destroy() {
+            ipInfoRefreshExecutor.shutdownNow();
+            ipInfoRefreshWorkers.shutdownNow();
         }
 
         @Override
         protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException,
                 IOException {
-            Ipv4 remoteIp = new RemoteIpDetector().remoteIp(request);
-            IpInfos infos = ipInfoLookup.infosFor(remoteIp);
+            if (metrics != null && "/metrics".equals(request.getPathInfo())) {
+                writeMetrics(response);
+                return;
+            }
+            if ("/ready".equals(request.getPathInfo())) {
+                response.setStatus(ipInfoLookup.isReady() ? HttpServletResponse.SC_OK
+                        : HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                return;
+            }
+            Ipv4 remoteIp = remoteIpDetector.remoteIp(request);
+            SlotIpInfos infos = slotIpInfos.get();
+            StringBuilder sb = new StringBuilder();
+            try {
+                // requests arriving during warm-up wait a little for the ASNs
+                ipInfoLookup.infosFor(Ipv4Addresses.toInt(remoteIp), infos, 2, TimeUnit.SECONDS);
+                sb.append(String.format("<h1>Hello %s</h1>", remoteIp));
+                if (infos.has(apnicHandle)) {
+                    sb.append(String.format("A warm welcome to %s, (ASN: %s)<br>",
+                            infos.info(apnicHandle, ApnicAsnIpRangesSource.KEY_ASNORG),
+                            infos.info(apnicHandle, ApnicAsnIpRangesSource.KEY_ASN)));
+                }
+                Optional<String> cloud = cloudName(infos);
+                if (cloud.isPresent()) {
+                    sb.append(String.format("Greetings to our friends in the %s cloud.<br>", cloud.get()));
+                }
+            } finally {
+                // not holding on to the infos of replaced providers between requests
+                infos.clear();
+            }
 
             response.setContentType("text/html");
             response.setStatus(HttpServletResponse.SC_OK);
+            response.getWriter().println(sb.toString());
+        }
 
+        private void writeMetrics(HttpServletResponse response) throws IOException {
+            response.setContentType("text/plain");
+            response.setStatus(HttpServletResponse.SC_OK);
             StringBuilder sb = new StringBuilder();
-            sb.append(String.format("<h1>Hello %s</h1>", remoteIp));
-            if (infos.hasAnyFrom(ApnicAsnIpRangesSource.NAME)) {
-                sb.append(String.format("A warm welcome to %s, (ASN: %s)<br>",
-                        infos.infoFromProvider(ApnicAsnIpRangesSource.NAME, ApnicAsnIpRangesSource.KEY_ASNORG),
-                        infos.infoFromProvider(ApnicAsnIpRangesSource.NAME, ApnicAsnIpRangesSource.KEY_ASN)));
+            for (Map.Entry<String, RecordingIpInfoMetrics.ProviderStats> provider: metrics.getProviders().entrySet()) {
+                sb.append(String.format("lookup %s: %s%n", provider.getKey(), provider.getValue()));
             }
-            Optional<String> cloud = cloudName(infos);
-            if (cloud.isPresent()) {
-                sb.append(String.format("Greetings to our friends in the %s cloud.<br>", cloud.get()));
+            for (Map.Entry<String, RecordingIpInfoMetrics.SourceStats> source: metrics.getSources().entrySet()) {
+                sb.append(String.format("refresh %s: %s%n", source.getKey(), source.getValue()));
             }
-            response.getWriter().println(sb.toString());
+            response.getWriter().print(sb.toString());
         }
 
-        private static Optional<String> cloudName(IpInfos infos) {
-            if (infos.hasAnyFrom(GoogleCloudIpRangesSource.NAME)) {
+        private Optional<String> cloudName(SlotIpInfos infos) {
+            if (!infos.hasAny(cloudMask)) {
+                return Optional.empty();
+            } else if (infos.has(googleCloudHandle)) {
                 return Optional.of("Google");
-            } else if (infos.hasAnyFrom(AwsIpRangesSource.NAME)) {
+            } else if (infos.has(awsHandle)) {
                 return Optional.of("AWS");
-            } else if (infos.hasAnyFrom(AzureIpRangesSource.NAME)) {
+            } else if (infos.has(azureHandle)) {
                 return Optional.of("Azure");
             } else {
                 return Optional.empty();
@@ -0,0 +1,478 @@
+package io.mkr.helloip.examples;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+import io.mkr.helloip.CompiledIpInfoLookup;
+import io.mkr.helloip.IpInfos;
+import io.mkr.helloip.Ipv4Addresses;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import static io.mkr.helloip.Suppliers.*;
+
+/**
+ * Enriches the lines of a CSV, TSV or JSON lines log with IP infos and writes them to stdout in the input order.
+ * <pre>
+ * LogEnricher [--format csv|tsv|json] [--field &lt;index or name&gt;] [--header]
+ *             [--attributes ASN,ASNORG,AWS.service,AWS.region] [--threads n] [file|-]
+ * </pre>
+ * The input is read from the file or stdin and may be gzipped. The IP is taken from the field at the (zero based)
+ * index or, for JSON or with a header line, with the name; by default the first field or the field {@code ip} of
+ * JSON objects. Attributes are info keys looked up in all providers, or in one provider when prefixed with its name
+ * like {@code AWS.region} (the aspect providers like {@code AWS:EC2} match their source name). For CSV and TSV they
+ * are appended as columns (and to the header), for JSON as string fields of the object. Only IPv4 addresses are
+ * enriched. The lines are read in batches which are enriched in parallel and written in order.
+ */
+public class LogEnricher {
+
+    private static final int BATCH_SIZE = 8192;
+
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private static final String USAGE = "Usage: LogEnricher [--format csv|tsv|json] [--field <index or name>]"
+            + " [--header] [--attributes ASN,ASNORG,AWS.service,AWS.region] [--threads n] [file|-]";
+
+    enum Format {
+        CSV(','), TSV('\t'), JSON('\0');
+
+        final char delimiter;
+
+        Format(char delimiter) {
+            this.delimiter = delimiter;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Format format = Format.CSV;
+        String field = null;
+        boolean header = false;
+        List<String> attributes = Arrays.asList("ASN", "ASNORG", "AWS.service", "AWS.region");
+        int threads = Runtime.getRuntime().availableProcessors();
+        String input = "-";
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--format":
+                    format = Format.valueOf(args[++i].toUpperCase());
+                    break;
+                case "--field":
+                    field = args[++i];
+                    break;
+                case "--header":
+                    header = true;
+                    break;
+                case "--attributes":
+                    attributes = Arrays.asList(args[++i].split(","));
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(args[++i]);
+                    break;
+                default:
+                    input = args[i];
+            }
+        }
+        if (field == null) {
+            field = format == Format.JSON ? "ip" : "0";
+        } else if (format != Format.JSON && !header && !field.matches("\\d+")) {
+            throw new IllegalArgumentException("A field name needs --header for " + format.name().toLowerCase()
+                    + "\n" + USAGE);
+        }
+
+        // initialize lookup with pre-fetched / immediately downloaded IP info range information, compiled into one index
+        CompiledIpInfoLookup lookup = CompiledIpInfoLookup.compile(Arrays.asList(
+                fetchOnce(apnic),
+                fetchOnce(aws),
+                fetchOnce(azure),
+                fetchOnce(googleCloud))
+        );
+
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(open(input), StandardCharsets.UTF_8),
+                     BUFFER_SIZE);
+             Writer writer = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8),
+                     BUFFER_SIZE)) {
+            Enricher enricher;
+            if (format == Format.JSON) {
+                enricher = new Enricher(lookup, format, -1, field, attributes);
+            } else if (header) {
+                String headerLine = reader.readLine();
+                if (headerLine == null) {
+                    return;
+                }
+                int fieldIndex = field.matches("\\d+") ? Integer.parseInt(field)
+                        : fieldIndexOf(headerLine, format.delimiter, field);
+                enricher = new Enricher(lookup, format, fieldIndex, null, attributes);
+                writer.write(headerLine);
+                for (String attribute: attributes) {
+                    writer.write(format.delimiter);
+                    writer.write(enricher.escape(attribute));
+                }
+                writer.write('\n');
+            } else {
+                enricher = new Enricher(lookup, format, Integer.parseInt(field), null, attributes);
+            }
+            enrich(reader, writer, enricher, workers, threads);
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    private static InputStream open(String input) throws IOException {
+        InputStream in = new BufferedInputStream("-".equals(input) ? System.in : new FileInputStream(input),
+                BUFFER_SIZE);
+        // detect gzip by its magic bytes
+        in.mark(2);
+        int first = in.read();
+        int second = in.read();
+        in.reset();
+        return first == 0x1f && second == 0x8b ? new GZIPInputStream(in, BUFFER_SIZE) : in;
+    }
+
+    /**
+     * Reads batches of lines, enriches them on the workers and writes them in order on a writer thread.
+     */
+    static void enrich(BufferedReader reader, Writer writer, Enricher enricher, ExecutorService workers,
+                               int threads) throws IOException, InterruptedException, ExecutionException {
+        BlockingQueue<Future<CharSequence>> pending = new ArrayBlockingQueue<>(2 * threads);
+        Future<CharSequence> end = CompletableFuture.completedFuture(null);
+        ExecutorService writerThread = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> written = writerThread.submit(() -> {
+                Future<CharSequence> batch;
+                while ((batch = pending.take()) != end) {
+                    writer.append(batch.get());
+                }
+                writer.flush();
+                return null;
+            });
+            String[] lines = new String[BATCH_SIZE];
+            int size = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines[size++] = line;
+                if (size == BATCH_SIZE) {
+                    submit(enricher, workers, pending, lines, size, written);
+                    lines = new String[BATCH_SIZE];
+                    size = 0;
+                }
+            }
+            if (size > 0) {
+                submit(enricher, workers, pending, lines, size, written);
+            }
+            put(pending, end, written);
+            written.get();
+        } finally {
+            writerThread.shutdownNow();
+        }
+    }
+
+    private static void submit(Enricher enricher, ExecutorService workers, BlockingQueue<Future<CharSequence>> pending,
+                               String[] lines, int size, Future<?> written)
+            throws InterruptedException, ExecutionException {
+        put(pending, workers.submit(() -> enricher.enrich(lines, size)), written);
+    }
+
+    /**
+     * Queues a batch unless the writer failed, which would leave it in the queue forever.
+     */
+    private static void put(BlockingQueue<Future<CharSequence>> pending, Future<CharSequence> batch,
+                            Future<?> written) throws InterruptedException, ExecutionException {
+        while (!pending.offer(batch, 100, TimeUnit.MILLISECONDS)) {
+            if (written.isDone()) {
+                // the writer failed, report why
+                written.get();
+            }
+        }
+    }
+
+    private static int fieldIndexOf(String header, char delimiter, String name) {
+        int index = 0;
+        int from = 0;
+        while (from <= header.length()) {
+            int to = fieldEnd(header, from, delimiter);
+            if (name.equals(unquote(header, from, to))) {
+                return index;
+            }
+            from = to + 1;
+            index++;
+        }
+        throw new IllegalArgumentException("No field " + name + " in header " + header);
+    }
+
+    /**
+     * @return the end of the field starting at the given position, skipping delimiters in double quotes
+     */
+    static int fieldEnd(String line, int from, char delimiter) {
+        boolean quoted = false;
+        for (int i = from; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"' && delimiter == ',') {
+                quoted = !quoted;
+            } else if (c == delimiter && !quoted) {
+                return i;
+            }
+        }
+        return line.length();
+    }
+
+    private static String unquote(String line, int from, int to) {
+        String value = line.substring(from, to).trim();
+        return value.length() > 1 && value.charAt(0) == '"' && value.charAt(value.length() - 1) == '"'
+                ? value.substring(1, value.length() - 1).replace("\"\"", "\"")
+                : value;
+    }
+
+    /**
+     * Enriches batches of lines, thread safe.
+     */
+    static class Enricher {
+
+        private static final JsonFactory JSON = new JsonFactory();
+
+        private final CompiledIpInfoLookup lookup;
+        private final Format format;
+        private final int fieldIndex;
+        private final String fieldName;
+        // what to append per result id, the last one for lines without result
+        private final String[] suffixes;
+
+        Enricher(CompiledIpInfoLookup lookup, Format format, int fieldIndex, String fieldName,
+                 List<String> attributes) {
+            this.lookup = lookup;
+            this.format = format;
+            this.fieldIndex = fieldIndex;
+            this.fieldName = fieldName;
+            this.suffixes = new String[lookup.resultCount() + 1];
+            for (int resultId = 0; resultId < lookup.resultCount(); resultId++) {
+                suffixes[resultId] = suffix(lookup.result(resultId), attributes);
+            }
+            suffixes[lookup.resultCount()] = suffix(lookup.result(CompiledIpInfoLookup.NO_RESULT), attributes);
+        }
+
+        CharSequence enrich(String[] lines, int size) {
+            // look up the IPs of the batch at once
+            int[] addresses = new int[size];
+            boolean[] valid = new boolean[size];
+            int[] resultIds = new int[size];
+            long[] jsonAddresses = format == Format.JSON ? jsonAddresses(lines, size) : null;
+            int length = 0;
+            for (int i = 0; i < size; i++) {
+                long address = jsonAddresses != null ? jsonAddresses[i] : address(lines[i]);
+                valid[i] = address != Ipv4Addresses.INVALID;
+                if (valid[i]) {
+                    addresses[length++] = (int) address;
+                }
+            }
+            lookup.resultIds(addresses, length, resultIds);
+            StringBuilder sb = new StringBuilder(size * 256);
+            int next = 0;
+            for (int i = 0; i < size; i++) {
+                int resultId = valid[i] ? resultIds[next++] : CompiledIpInfoLookup.NO_RESULT;
+                String suffix = suffixes[resultId == CompiledIpInfoLookup.NO_RESULT ? suffixes.length - 1 : resultId];
+                String line = lines[i];
+                if (format == Format.JSON) {
+                    int close = line.lastIndexOf('}');
+                    if (close < 0 || suffix.isEmpty()) {
+                        sb.append(line);
+                    } else {
+                        int last = close - 1;
+                        while (last >= 0 && Character.isWhitespace(line.charAt(last))) {
+                            last--;
+                        }
+                        // no comma after the first field
+                        boolean emptyObject = last >= 0 && line.charAt(last) == '{';
+                        sb.append(line, 0, close).append(suffix, emptyObject ? 1 : 0, suffix.length())
+                                .append(line, close, line.length());
+                    }
+                } else {
+                    sb.append(line).append(suffix);
+                }
+                sb.append('\n');
+            }
+            return sb;
+        }
+
+        private long address(String line) {
+            int from = 0;
+            for (int i = 0; i < fieldIndex && from <= line.length(); i++) {
+                from = fieldEnd(line, from, format.delimiter) + 1;
+            }
+            if (from > line.length()) {
+                return Ipv4Addresses.INVALID;
+            }
+            int to = fieldEnd(line, from, format.delimiter);
+            while (from < to && (line.charAt(from) == ' ' || line.charAt(from) == '"')) {
+                from++;
+            }
+            while (to > from && (line.charAt(to - 1) == ' ' || line.charAt(to - 1) == '"')) {
+                to--;
+            }
+            return Ipv4Addresses.parse(line, from, to);
+        }
+
+        /**
+         * @return the addresses in the top level field of the JSON objects, parsed with one parser for the batch
+         */
+        private long[] jsonAddresses(String[] lines, int size) {
+            long[] addresses = new long[size];
+            Arrays.fill(addresses, Ipv4Addresses.INVALID);
+            int from = 0;
+            while (from < size) {
+                from = jsonAddresses(lines, from, size, addresses);
+            }
+            return addresses;
+        }
+
+        /**
+         * Parses the lines as a stream of JSON values, one per line. Lines which are not JSON objects are passed
+         * through as is.
+         *
+         * @return the line to restart from, or size once all lines are parsed
+         */
+        private int jsonAddresses(String[] lines, int from, int size, long[] addresses) {
+            // the line of the value being parsed, -1 between values
+            int line = -1;
+            try (JsonParser parser = JSON.createParser(new LinesReader(lines, from, size))) {
+                int last = -1;
+                JsonToken token;
+                while ((token = parser.nextToken()) != null) {
+                    line = from + parser.getTokenLocation().getLineNr() - 1;
+                    if (token == JsonToken.START_OBJECT && line != last) {
+                        boolean found = false;
+                        while ((token = parser.nextToken()) == JsonToken.FIELD_NAME) {
+                            token = parser.nextToken();
+                            if (!found && token == JsonToken.VALUE_STRING && fieldName.equals(parser.getCurrentName())
+                                    && from + parser.getTokenLocation().getLineNr() - 1 == line) {
+                                addresses[line] = Ipv4Addresses.parse(parser.getText());
+                                found = true;
+                            }
+                            parser.skipChildren();
+                        }
+                    } else {
+                        parser.skipChildren();
+                    }
+                    if (from + parser.getCurrentLocation().getLineNr() - 1 != line) {
+                        return line + 1;
+                    }
+                    last = line;
+                    line = -1;
+                }
+                return size;
+            } catch (JsonProcessingException e) {
+                if (line < 0) {
+                    line = e.getLocation() != null ? from + e.getLocation().getLineNr() - 1 : from;
+                }
+                return line + 1;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private String suffix(IpInfos infos, List<String> attributes) {
+            StringBuilder sb = new StringBuilder();
+            for (String attribute: attributes) {
+                String value = value(infos, attribute);
+                if (format == Format.JSON) {
+                    if (value != null) {
+                        sb.append(",\"").append(JsonStringEncoder.getInstance().quoteAsString(attribute))
+                                .append("\":\"").append(JsonStringEncoder.getInstance().quoteAsString(value))
+                                .append('"');
+                    }
+                } else {
+                    sb.append(format.delimiter).append(value == null ? "" : escape(value));
+                }
+            }
+            return sb.toString();
+        }
+
+        private static String value(IpInfos infos, String attribute) {
+            int dot = attribute.indexOf('.');
+            String provider = dot < 0 ? null : attribute.substring(0, dot);
+            String key = attribute.substring(dot + 1);
+            for (String providerName: infos.getProviderNames()) {
+                if (provider == null || providerName.equals(provider) || providerName.startsWith(provider + ":")) {
+                    String value = infos.infoFromProvider(providerName, key);
+                    if (value != null) {
+                        return value;
+                    }
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Reads lines as one text, each followed by a line break.
+         */
+        private static final class LinesReader extends Reader {
+
+            private final String[] lines;
+            private final int end;
+            private int line;
+            private int position = 0;
+
+            LinesReader(String[] lines, int from, int end) {
+                this.lines = lines;
+                this.line = from;
+                this.end = end;
+            }
+
+            @Override
+            public int read(char[] buffer, int offset, int length) {
+                int read = 0;
+                while (read < length && line < end) {
+                    String current = lines[line];
+                    if (position < current.length()) {
+                        int count = Math.min(length - read, current.length() - position);
+                        current.getChars(position, position + count, buffer, offset + read);
+                        position += count;
+                        read += count;
+                    } else {
+                        buffer[offset + read++] = '\n';
+                        line++;
+                        position = 0;
+                    }
+                }
+                return read == 0 && length > 0 ? -1 : read;
+            }
+
+            @Override
+            public void close() {
+            }
+        }
+
+        String escape(String value) {
+            if (format == Format.TSV) {
+                return value.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+            }
+            if (value.indexOf(',') >= 0 || value.indexOf('"') >= 0 || value.indexOf('\n') >= 0
+                    || value.indexOf('\r') >= 0) {
+                return '"' + value.replace("\"", "\"\"") + '"';
+            }
+            return value;
+        }
+    }
+}
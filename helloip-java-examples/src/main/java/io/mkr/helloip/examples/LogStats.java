@@ -0,0 +1,141 @@
+package io.mkr.helloip.examples;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Statistics about the client IPs of logs, keyed by provider, organisation and ASN names so the statistics of
+ * separate runs can be merged and saved. Counts are exact, the distinct and the most frequent IPs are estimated by
+ * fixed size sketches.
+ */
+public final class LogStats {
+
+    /** Precision of the distinct IP counts overall and per provider, 16KB each */
+    static final int PRECISION = 14;
+
+    /** Precision of the distinct IP counts per organisation, 1KB each */
+    static final int ORG_PRECISION = 10;
+
+    /** Number of counters for the most frequent IPs */
+    static final int TOP_IPS = 1000;
+
+    private static final int VERSION = 1;
+
+    long rows = 0;
+    long invalidRows = 0;
+    final Map<String, Long> providerCounts = new HashMap<>();
+    final Map<String, Long> orgCounts = new HashMap<>();
+    final Map<String, Long> asnCounts = new HashMap<>();
+    HyperLogLog uniqueIps = new HyperLogLog(PRECISION);
+    final Map<String, HyperLogLog> providerUniqueIps = new HashMap<>();
+    final Map<String, HyperLogLog> orgUniqueIps = new HashMap<>();
+    SpaceSaving topIps = new SpaceSaving(TOP_IPS);
+    SpaceSaving topIpsWithNoInfos = new SpaceSaving(TOP_IPS);
+
+    public LogStats merge(LogStats other) {
+        rows += other.rows;
+        invalidRows += other.invalidRows;
+        mergeCounts(providerCounts, other.providerCounts);
+        mergeCounts(orgCounts, other.orgCounts);
+        mergeCounts(asnCounts, other.asnCounts);
+        uniqueIps.merge(other.uniqueIps);
+        mergeSketches(providerUniqueIps, other.providerUniqueIps);
+        mergeSketches(orgUniqueIps, other.orgUniqueIps);
+        topIps.merge(other.topIps);
+        topIpsWithNoInfos.merge(other.topIpsWithNoInfos);
+        return this;
+    }
+
+    private static void mergeCounts(Map<String, Long> counts, Map<String, Long> other) {
+        for (Map.Entry<String, Long> count: other.entrySet()) {
+            counts.merge(count.getKey(), count.getValue(), Long::sum);
+        }
+    }
+
+    private static void mergeSketches(Map<String, HyperLogLog> sketches, Map<String, HyperLogLog> other) {
+        for (Map.Entry<String, HyperLogLog> sketch: other.entrySet()) {
+            HyperLogLog existing = sketches.get(sketch.getKey());
+            if (existing == null) {
+                existing = new HyperLogLog(sketch.getValue().getPrecision());
+                sketches.put(sketch.getKey(), existing);
+            }
+            existing.merge(sketch.getValue());
+        }
+    }
+
+    public void save(Path file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            out.writeInt(VERSION);
+            out.writeLong(rows);
+            out.writeLong(invalidRows);
+            writeCounts(out, providerCounts);
+            writeCounts(out, orgCounts);
+            writeCounts(out, asnCounts);
+            uniqueIps.writeTo(out);
+            writeSketches(out, providerUniqueIps);
+            writeSketches(out, orgUniqueIps);
+            topIps.writeTo(out);
+            topIpsWithNoInfos.writeTo(out);
+        }
+    }
+
+    public static LogStats load(Path file) throws IOException {
+        try (InputStream stream = Files.newInputStream(file);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(stream))) {
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported version " + version + " of " + file);
+            }
+            LogStats stats = new LogStats();
+            stats.rows = in.readLong();
+            stats.invalidRows = in.readLong();
+            readCounts(in, stats.providerCounts);
+            readCounts(in, stats.orgCounts);
+            readCounts(in, stats.asnCounts);
+            stats.uniqueIps = HyperLogLog.readFrom(in);
+            readSketches(in, stats.providerUniqueIps);
+            readSketches(in, stats.orgUniqueIps);
+            stats.topIps = SpaceSaving.readFrom(in);
+            stats.topIpsWithNoInfos = SpaceSaving.readFrom(in);
+            return stats;
+        }
+    }
+
+    private static void writeCounts(DataOutputStream out, Map<String, Long> counts) throws IOException {
+        out.writeInt(counts.size());
+        for (Map.Entry<String, Long> count: counts.entrySet()) {
+            out.writeUTF(count.getKey());
+            out.writeLong(count.getValue());
+        }
+    }
+
+    private static void readCounts(DataInputStream in, Map<String, Long> counts) throws IOException {
+        int size = in.readInt();
+        for (int i = 0; i < size; i++) {
+            counts.put(in.readUTF(), in.readLong());
+        }
+    }
+
+    private static void writeSketches(DataOutputStream out, Map<String, HyperLogLog> sketches) throws IOException {
+        out.writeInt(sketches.size());
+        for (Map.Entry<String, HyperLogLog> sketch: sketches.entrySet()) {
+            out.writeUTF(sketch.getKey());
+            sketch.getValue().writeTo(out);
+        }
+    }
+
+    private static void readSketches(DataInputStream in, Map<String, HyperLogLog> sketches) throws IOException {
+        int size = in.readInt();
+        for (int i = 0; i < size; i++) {
+            sketches.put(in.readUTF(), HyperLogLog.readFrom(in));
+        }
+    }
+}
@@ -1,84 +1,185 @@
 package io.mkr.helloip.examples;
 
+import io.mkr.helloip.Ipv4Addresses;
 import net.ripe.commons.ip.Ipv4;
 
 import javax.servlet.http.HttpServletRequest;
 import java.util.Arrays;
-import java.util.Collections;
+import java.util.Comparator;
 import java.util.Enumeration;
-import java.util.List;
 import java.util.regex.Pattern;
-import java.util.stream.Collectors;
 
 /**
  * Tries to find the remote IPv4 of an {@link javax.servlet.http.HttpServletRequest} following the approach of
  * <a href="https://tomcat.apache.org/tomcat-7.0-doc/api/org/apache/catalina/valves/RemoteIpValve.html">Tomcat's
- * RemoteIpValve</a>, i.e. using the right-most non-trusted IP in a given header.
+ * RemoteIpValve</a>, i.e. using the right-most non-trusted IP in a given header. The trusted proxies are given as
+ * CIDRs.
  */
 public class RemoteIpDetector {
 
-    private Pattern trustedProxyIpsPattern = Pattern.compile(
-                    "10\\.\\d{1,3}\\.\\d{1,3}\\.\\d{1,3}|" +
-                    "192\\.168\\.\\d{1,3}\\.\\d{1,3}|" +
-                    "169\\.254\\.\\d{1,3}\\.\\d{1,3}|" +
-                    "127\\.\\d{1,3}\\.\\d{1,3}\\.\\d{1,3}|" +
-                    "172\\.1[6-9]{1}\\.\\d{1,3}\\.\\d{1,3}|" +
-                    "172\\.2[0-9]{1}\\.\\d{1,3}\\.\\d{1,3}|" +
-                    "172\\.3[0-1]{1}\\.\\d{1,3}\\.\\d{1,3}");
+    /** The private, link-local and loopback IPv4 networks */
+    public static final String DEFAULT_TRUSTED_PROXIES = "10.0.0.0/8, 192.168.0.0/16, 169.254.0.0/16, 127.0.0.0/8, "
+            + "172.16.0.0/12";
+
+    private static final long[][] DEFAULT_TRUSTED_RANGES = parseCidrs(DEFAULT_TRUSTED_PROXIES);
+
+    // sorted disjoint ranges of trusted proxy IPs as unsigned values
+    private long[] trustedStarts = DEFAULT_TRUSTED_RANGES[0];
+    private long[] trustedEnds = DEFAULT_TRUSTED_RANGES[1];
+    // if set instead of the ranges
+    private Pattern trustedProxyIpsPattern;
 
     private String remoteHeaderName = "X-Forwarded-For";
 
     public Ipv4 remoteIp(HttpServletRequest request) {
-        String remoteAddress = request.getRemoteAddr();
-        Ipv4 result = null;
-        if (trustedProxyIpsPattern !=null && trustedProxyIpsPattern.matcher(remoteAddress).matches()) {
-            List<String> ips = valuesFromCsvHeaders(request, remoteHeaderName);
-            // scan for the first non-trusted IP in the headers
-            for (int i = ips.size()-1; i >= 0; i--) {
-                String value = ips.get(i);
-                if (!trustedProxyIpsPattern.matcher(value).matches()) {
-                    try {
-                        // try parsing the header value as IPv4
-                        result = Ipv4.parse(value);
-                        break;
-                    } catch (IllegalArgumentException e) {
+        long address = remoteAddress(request);
+        return address != Ipv4Addresses.INVALID
+                ? Ipv4Addresses.toIpv4((int) address)
+                : Ipv4.of(request.getRemoteAddr());
+    }
+
+    /**
+     * Like {@link #remoteIp(HttpServletRequest)}, but without creating an {@link Ipv4}.
+     *
+     * @param request the request
+     * @return the remote IPv4 as unsigned value (cast to int for lookups) or {@link Ipv4Addresses#INVALID} if the
+     * remote address is no IPv4 address
+     */
+    public long remoteAddress(HttpServletRequest request) {
+        long remoteAddress = Ipv4Addresses.parse(request.getRemoteAddr());
+        if (remoteAddress != Ipv4Addresses.INVALID && isTrusted(remoteAddress)) {
+            Enumeration<String> headers = request.getHeaders(remoteHeaderName);
+            // according to doc headers can be null "if the container does not allow access to header information"
+            if (headers != null) {
+                // CSV values can be spread across multiple field-name:field-value rows according to RFC 2616
+                // (section 4.2), the right-most value is in the last header having one
+                long forwardedAddress = Ipv4Addresses.INVALID;
+                while (headers.hasMoreElements()) {
+                    long address = rightMostUntrusted(headers.nextElement());
+                    if (address != Ipv4Addresses.INVALID) {
+                        forwardedAddress = address;
                     }
                 }
+                if (forwardedAddress != Ipv4Addresses.INVALID) {
+                    return forwardedAddress;
+                }
             }
         }
-        return result != null ? result : Ipv4.of(remoteAddress);
+        return remoteAddress;
     }
 
     /**
-     * Parse header values from multiple headers. CSV Values can be spread across multiple field-name:field-value rows
-     * according to RFC 2616 (section 4.2). Splitting into multiple headers should be equivalent to having multiple
-     * values in one CSV.
+     * Scans the comma separated values of a header from right to left for the first IPv4 not of a trusted proxy.
      *
-     * @param request the request
-     * @param headerName the header name
-     * @return all header values for the given name interpreted as CSV
+     * @param header the header value
+     * @return the IPv4 as unsigned value or {@link Ipv4Addresses#INVALID}
+     */
+    long rightMostUntrusted(String header) {
+        int end = header.length();
+        while (end >= 0) {
+            int start = header.lastIndexOf(',', end - 1) + 1;
+            int from = start;
+            int to = end;
+            while (from < to && header.charAt(from) == ' ') {
+                from++;
+            }
+            while (to > from && header.charAt(to - 1) == ' ') {
+                to--;
+            }
+            // values which are no IPv4, e.g. "unknown" or IPv6, are skipped
+            long address = Ipv4Addresses.parse(header, from, to);
+            if (address != Ipv4Addresses.INVALID && !isTrusted(address)) {
+                return address;
+            }
+            end = start - 1;
+        }
+        return Ipv4Addresses.INVALID;
+    }
+
+    /**
+     * @param address an IPv4 as unsigned value
+     * @return whether the address is one of a trusted proxy
      */
-    private List<String> valuesFromCsvHeaders(HttpServletRequest request, String headerName) {
-        Enumeration<String> headers = request.getHeaders(headerName);
-        // according to doc headers can be null "if the container does not allow access to header information"
-        return headers != null
-                ? Collections.list(request.getHeaders(headerName))
-                        .stream()
-                        .flatMap(header -> Arrays.stream(header.split(",")))
-                        .map(String::trim)
-                        .collect(Collectors.toList())
-                : Collections.emptyList();
+    boolean isTrusted(long address) {
+        if (trustedProxyIpsPattern != null) {
+            return trustedProxyIpsPattern.matcher(Ipv4Addresses.toIpv4((int) address).toString()).matches();
+        }
+        int idx = Arrays.binarySearch(trustedStarts, address);
+        if (idx < 0) {
+            // the range starting before the address
+            idx = -idx - 2;
+        }
+        return idx >= 0 && address <= trustedEnds[idx];
     }
 
     public void setRemoteHeaderName(String remoteHeaderName) {
         this.remoteHeaderName = remoteHeaderName;
     }
 
+    /**
+     * @param trustedProxies comma separated CIDRs of the trusted proxies like {@link #DEFAULT_TRUSTED_PROXIES}, if
+     * empty or {@code null} the remote address of the request is used as is
+     * @throws IllegalArgumentException if a CIDR is invalid
+     */
+    public void setTrustedProxies(String trustedProxies) {
+        long[][] ranges = parseCidrs(trustedProxies == null ? "" : trustedProxies);
+        this.trustedStarts = ranges[0];
+        this.trustedEnds = ranges[1];
+        this.trustedProxyIpsPattern = null;
+    }
+
+    /**
+     * @param trustedProxyIps a regular expression matching the IPs of the trusted proxies, if empty or {@code null}
+     * the remote address of the request is used as is
+     * @deprecated matches each IP as string, use {@link #setTrustedProxies(String)}
+     */
+    @Deprecated
     public void setTrustedProxyIpsPattern(String trustedProxyIps) {
-        if (trustedProxyIps == null || trustedProxyIps.length() == 0) {
-            this.trustedProxyIpsPattern = null;
-        } else {
+        setTrustedProxies(null);
+        if (trustedProxyIps != null && trustedProxyIps.length() > 0) {
             this.trustedProxyIpsPattern = Pattern.compile(trustedProxyIps);
         }
     }
+
+    /**
+     * @return the starts and the ends of the sorted and merged ranges of the CIDRs
+     */
+    static long[][] parseCidrs(String cidrs) {
+        String[] values = cidrs.split(",");
+        long[][] ranges = new long[values.length][];
+        int count = 0;
+        for (String value: values) {
+            String cidr = value.trim();
+            if (cidr.isEmpty()) {
+                continue;
+            }
+            int slash = cidr.indexOf('/');
+            long start = Ipv4Addresses.parse(cidr, 0, slash < 0 ? cidr.length() : slash);
+            int prefixLength;
+            try {
+                prefixLength = slash < 0 ? 32 : Integer.parseInt(cidr.substring(slash + 1));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid CIDR: " + cidr);
+            }
+            if (start == Ipv4Addresses.INVALID || prefixLength < 0 || prefixLength > 32) {
+                throw new IllegalArgumentException("Invalid CIDR: " + cidr);
+            }
+            long hostMask = (1L << (32 - prefixLength)) - 1;
+            ranges[count++] = new long[] {start & ~hostMask, start | hostMask};
+        }
+        Arrays.sort(ranges, 0, count, Comparator.comparingLong(range -> range[0]));
+        long[] starts = new long[count];
+        long[] ends = new long[count];
+        int merged = 0;
+        for (int i = 0; i < count; i++) {
+            if (merged > 0 && ranges[i][0] <= ends[merged - 1] + 1) {
+                ends[merged - 1] = Math.max(ends[merged - 1], ranges[i][1]);
+            } else {
+                starts[merged] = ranges[i][0];
+                ends[merged] = ranges[i][1];
+                merged++;
+            }
+        }
+        return new long[][] {Arrays.copyOf(starts, merged), Arrays.copyOf(ends, merged)};
+    }
 }
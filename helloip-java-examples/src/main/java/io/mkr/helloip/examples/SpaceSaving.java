@@ -0,0 +1,310 @@
+package io.mkr.helloip.examples;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Finds the most frequent keys with a fixed number of counters using the Space-Saving algorithm (Metwally et al.):
+ * a key without a counter takes over the smallest one, inheriting its count as error. Every key more frequent than
+ * {@code total / capacity} is guaranteed to have a counter, and each count overestimates the true one by at most its
+ * error. Summaries can be merged (Agarwal et al.) keeping these guarantees for the combined total. Not thread safe.
+ */
+public final class SpaceSaving {
+
+    private final int capacity;
+    private final long[] keys;
+    private final long[] counts;
+    private final long[] errors;
+    private int size = 0;
+    private long total = 0;
+
+    // counters ordered by count, the smallest first, and the position of each counter in it
+    private final int[] heap;
+    private final int[] heapPositions;
+
+    // counter of each key by linear probing, -1 for free slots
+    private final int[] table;
+    private final int mask;
+
+    /**
+     * @param capacity the number of counters
+     */
+    public SpaceSaving(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        this.keys = new long[capacity];
+        this.counts = new long[capacity];
+        this.errors = new long[capacity];
+        this.heap = new int[capacity];
+        this.heapPositions = new int[capacity];
+        // at most half full
+        this.table = new int[Integer.highestOneBit(capacity) << 2];
+        this.mask = table.length - 1;
+        Arrays.fill(table, -1);
+    }
+
+    public void add(long key) {
+        add(key, 1);
+    }
+
+    /**
+     * @param key the key
+     * @param count the number of occurrences, positive
+     */
+    public void add(long key, long count) {
+        total += count;
+        int counter = counterOf(key);
+        if (counter < 0) {
+            if (size < capacity) {
+                counter = size++;
+                heap[counter] = counter;
+                heapPositions[counter] = counter;
+            } else {
+                // take over the smallest counter
+                counter = heap[0];
+                remove(keys[counter]);
+                errors[counter] = counts[counter];
+                counts[counter] += count;
+                keys[counter] = key;
+                insert(key, counter);
+                siftDown(0);
+                return;
+            }
+            keys[counter] = key;
+            errors[counter] = 0;
+            counts[counter] = 0;
+            insert(key, counter);
+        }
+        counts[counter] += count;
+        siftDown(heapPositions[counter]);
+        siftUp(heapPositions[counter]);
+    }
+
+    /**
+     * @param key the key
+     * @return the estimated count, 0 if the key has no counter
+     */
+    public long count(long key) {
+        int counter = counterOf(key);
+        return counter < 0 ? 0 : counts[counter];
+    }
+
+    /**
+     * @return the total of all counts added
+     */
+    public long total() {
+        return total;
+    }
+
+    /**
+     * @param n the maximum number of counters to return
+     * @return the largest counters, the largest first
+     */
+    public List<Counter> top(int n) {
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (c1, c2) -> Long.compare(counts[c2], counts[c1]));
+        List<Counter> top = new ArrayList<>();
+        for (int i = 0; i < Math.min(n, size); i++) {
+            top.add(new Counter(keys[order[i]], counts[order[i]], errors[order[i]]));
+        }
+        return top;
+    }
+
+    /**
+     * Adds the counts of another summary. Keys missing in one of the summaries are counted with its smallest count (0
+     * unless it is full), then the largest counters are kept.
+     *
+     * @param other the other summary
+     * @return this summary
+     */
+    public SpaceSaving merge(SpaceSaving other) {
+        long min = minCount();
+        long otherMin = other.minCount();
+        int mergedSize = 0;
+        long[] mergedKeys = new long[size + other.size];
+        long[] mergedCounts = new long[mergedKeys.length];
+        long[] mergedErrors = new long[mergedKeys.length];
+        for (int i = 0; i < size; i++) {
+            int counter = other.counterOf(keys[i]);
+            mergedKeys[mergedSize] = keys[i];
+            mergedCounts[mergedSize] = counts[i] + (counter < 0 ? otherMin : other.counts[counter]);
+            mergedErrors[mergedSize] = errors[i] + (counter < 0 ? otherMin : other.errors[counter]);
+            mergedSize++;
+        }
+        for (int i = 0; i < other.size; i++) {
+            if (counterOf(other.keys[i]) < 0) {
+                mergedKeys[mergedSize] = other.keys[i];
+                mergedCounts[mergedSize] = other.counts[i] + min;
+                mergedErrors[mergedSize] = other.errors[i] + min;
+                mergedSize++;
+            }
+        }
+        Integer[] order = new Integer[mergedSize];
+        for (int i = 0; i < mergedSize; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (m1, m2) -> Long.compare(mergedCounts[m2], mergedCounts[m1]));
+
+        // rebuild with the largest counters
+        Arrays.fill(table, -1);
+        size = Math.min(capacity, mergedSize);
+        for (int counter = 0; counter < size; counter++) {
+            keys[counter] = mergedKeys[order[counter]];
+            counts[counter] = mergedCounts[order[counter]];
+            errors[counter] = mergedErrors[order[counter]];
+            insert(keys[counter], counter);
+            place(counter, counter);
+        }
+        for (int position = size / 2 - 1; position >= 0; position--) {
+            siftDown(position);
+        }
+        total += other.total;
+        return this;
+    }
+
+    /**
+     * @return the smallest count, the most a key without a counter may have occurred, 0 while not full
+     */
+    private long minCount() {
+        return size < capacity ? 0 : counts[heap[0]];
+    }
+
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeInt(capacity);
+        out.writeLong(total);
+        out.writeInt(size);
+        for (int i = 0; i < size; i++) {
+            out.writeLong(keys[i]);
+            out.writeLong(counts[i]);
+            out.writeLong(errors[i]);
+        }
+    }
+
+    public static SpaceSaving readFrom(DataInput in) throws IOException {
+        SpaceSaving summary = new SpaceSaving(in.readInt());
+        long total = in.readLong();
+        int size = in.readInt();
+        for (int i = 0; i < size; i++) {
+            long key = in.readLong();
+            summary.add(key, in.readLong());
+            summary.errors[summary.counterOf(key)] = in.readLong();
+        }
+        summary.total = total;
+        return summary;
+    }
+
+    private int counterOf(long key) {
+        for (int slot = slot(key); ; slot = (slot + 1) & mask) {
+            int counter = table[slot];
+            if (counter < 0) {
+                return -1;
+            }
+            if (keys[counter] == key) {
+                return counter;
+            }
+        }
+    }
+
+    private void insert(long key, int counter) {
+        int slot = slot(key);
+        while (table[slot] >= 0) {
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = counter;
+    }
+
+    private void remove(long key) {
+        int slot = slot(key);
+        while (keys[table[slot]] != key) {
+            slot = (slot + 1) & mask;
+        }
+        // shift back the following entries which would not be found any more across the gap
+        int gap = slot;
+        for (slot = (slot + 1) & mask; table[slot] >= 0; slot = (slot + 1) & mask) {
+            int home = slot(keys[table[slot]]);
+            if (((slot - home) & mask) >= ((slot - gap) & mask)) {
+                table[gap] = table[slot];
+                gap = slot;
+            }
+        }
+        table[gap] = -1;
+    }
+
+    private int slot(long key) {
+        return (int) HyperLogLog.hash(key) & mask;
+    }
+
+    private void siftUp(int position) {
+        int counter = heap[position];
+        while (position > 0) {
+            int parent = (position - 1) >>> 1;
+            if (counts[heap[parent]] <= counts[counter]) {
+                break;
+            }
+            place(heap[parent], position);
+            position = parent;
+        }
+        place(counter, position);
+    }
+
+    private void siftDown(int position) {
+        int counter = heap[position];
+        while (true) {
+            int child = 2 * position + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && counts[heap[child + 1]] < counts[heap[child]]) {
+                child++;
+            }
+            if (counts[heap[child]] >= counts[counter]) {
+                break;
+            }
+            place(heap[child], position);
+            position = child;
+        }
+        place(counter, position);
+    }
+
+    private void place(int counter, int position) {
+        heap[position] = counter;
+        heapPositions[counter] = position;
+    }
+
+    /**
+     * A key with its estimated count and the maximum overestimation.
+     */
+    public static final class Counter {
+
+        private final long key;
+        private final long count;
+        private final long error;
+
+        Counter(long key, long count, long error) {
+            this.key = key;
+            this.count = count;
+            this.error = error;
+        }
+
+        public long getKey() {
+            return key;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getError() {
+            return error;
+        }
+    }
+}
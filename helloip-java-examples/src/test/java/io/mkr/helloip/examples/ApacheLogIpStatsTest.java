@@ -0,0 +1,122 @@
+package io.mkr.helloip.examples;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import io.mkr.helloip.CompiledIpInfoLookup;
+import io.mkr.helloip.IpInfos;
+import io.mkr.helloip.Ipv4Addresses;
+import io.mkr.helloip.RangeBasedIpInfoProvider;
+import io.mkr.helloip.sources.ApnicAsnIpRangesSource;
+import io.mkr.helloip.sources.IpRangeInfos;
+import net.ripe.commons.ip.Ipv4Range;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class ApacheLogIpStatsTest {
+
+    private static final CompiledIpInfoLookup LOOKUP = CompiledIpInfoLookup.compileProviders(Arrays.asList(
+            new RangeBasedIpInfoProvider(ApnicAsnIpRangesSource.NAME, Arrays.asList(
+                    rangeInfos("10.0.0.0/8", ApnicAsnIpRangesSource.KEY_ASN, "1",
+                            ApnicAsnIpRangesSource.KEY_ASNORG, "One"),
+                    rangeInfos("20.0.0.0/8", ApnicAsnIpRangesSource.KEY_ASN, "2",
+                            ApnicAsnIpRangesSource.KEY_ASNORG, "Two"))),
+            new RangeBasedIpInfoProvider("AWS:EC2", Arrays.asList(
+                    rangeInfos("10.1.0.0/16", "service", "EC2")))));
+
+    private static final String LOG = "10.0.0.1 - - [01/Jan/2020:00:00:00 +0000] \"GET / HTTP/1.1\" 200 1\n"
+            + "10.1.2.3 - - [01/Jan/2020:00:00:01 +0000] \"GET /a HTTP/1.1\" 200 1\r\n"
+            + "\n"
+            + "   \n"
+            + "20.0.0.7\n"
+            + "30.0.0.1 - - \"GET / HTTP/1.1\" 404 0\n"
+            + "::1 - - \"GET / HTTP/1.1\" 200 1\n"
+            + "unknown\r\n"
+            + "10.1.2.3 - - \"GET /b HTTP/1.1\" 200 1\n"
+            + "10.0.0.1\r\n"
+            + "30.0.0.1 - - \"GET / HTTP/1.1\" 404 0\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testChunkedCountsMatchPlainCounts() throws Exception {
+        for (String log: Arrays.asList(LOG, LOG + "20.0.0.8 - - \"GET / HTTP/1.1\" 200 1", LOG + "10.1.0.1")) {
+            Path file = folder.newFile().toPath();
+            Files.write(file, log.getBytes(StandardCharsets.US_ASCII));
+            LogStats expected = plainCount(log);
+            // chunks of a few bytes end in the middle of most lines
+            for (long chunkSize: new long[] {1, 7, 64, 1 << 20}) {
+                for (boolean aggregateIps: new boolean[] {false, true}) {
+                    LogStats stats = ApacheLogIpStats.count(file, LOOKUP, 3, chunkSize, aggregateIps);
+                    String message = "chunks of " + chunkSize + (aggregateIps ? " aggregated" : "");
+                    assertThat(message, stats.rows, is(expected.rows));
+                    assertThat(message, stats.invalidRows, is(expected.invalidRows));
+                    assertThat(message, stats.providerCounts, equalTo(expected.providerCounts));
+                    assertThat(message, stats.orgCounts, equalTo(expected.orgCounts));
+                    assertThat(message, stats.asnCounts, equalTo(expected.asnCounts));
+                    for (String ip: Arrays.asList("10.0.0.1", "10.1.2.3", "20.0.0.7", "20.0.0.8", "30.0.0.1",
+                            "10.1.0.1")) {
+                        long address = Ipv4Addresses.parse(ip);
+                        assertThat(message + " " + ip, stats.topIps.count(address),
+                                is(expected.topIps.count(address)));
+                        assertThat(message + " " + ip, stats.topIpsWithNoInfos.count(address),
+                                is(expected.topIpsWithNoInfos.count(address)));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Counts the lines one by one.
+     */
+    private static LogStats plainCount(String log) {
+        LogStats stats = new LogStats();
+        for (String line: log.split("\n")) {
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            stats.rows++;
+            int space = line.indexOf(' ');
+            String ip = space < 0 ? line.trim() : line.substring(0, space);
+            long address = Ipv4Addresses.parse(ip);
+            if (address == Ipv4Addresses.INVALID) {
+                stats.invalidRows++;
+                continue;
+            }
+            stats.topIps.add(address);
+            IpInfos infos = LOOKUP.infosFor(Ipv4Addresses.toIpv4((int) address));
+            if (infos.getProviderNames().isEmpty()) {
+                stats.topIpsWithNoInfos.add(address);
+            }
+            for (String provider: infos.getProviderNames()) {
+                stats.providerCounts.merge(provider, 1L, Long::sum);
+            }
+            if (infos.hasAnyFrom(ApnicAsnIpRangesSource.NAME)) {
+                stats.orgCounts.merge(infos.infoFromProvider(ApnicAsnIpRangesSource.NAME,
+                        ApnicAsnIpRangesSource.KEY_ASNORG), 1L, Long::sum);
+                stats.asnCounts.merge(infos.infoFromProvider(ApnicAsnIpRangesSource.NAME,
+                        ApnicAsnIpRangesSource.KEY_ASN), 1L, Long::sum);
+            }
+        }
+        return stats;
+    }
+
+    private static IpRangeInfos rangeInfos(String cidr, String... keyValues) {
+        Map<String, String> infos = new HashMap<>();
+        for (int i = 0; i < keyValues.length; i += 2) {
+            infos.put(keyValues[i], keyValues[i + 1]);
+        }
+        return new IpRangeInfos(Ipv4Range.parseCidr(cidr), infos);
+    }
+}
@@ -0,0 +1,118 @@
+package io.mkr.helloip.examples;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import io.mkr.helloip.CompiledIpInfoLookup;
+import io.mkr.helloip.RangeBasedIpInfoProvider;
+import io.mkr.helloip.sources.IpRangeInfos;
+import net.ripe.commons.ip.Ipv4Range;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class LogEnricherTest {
+
+    private static final CompiledIpInfoLookup LOOKUP = CompiledIpInfoLookup.compileProviders(Arrays.asList(
+            new RangeBasedIpInfoProvider("ASN", Arrays.asList(
+                    rangeInfos("10.0.0.0/8", "asn", "1", "asnorg", "Org, \"One\""))),
+            new RangeBasedIpInfoProvider("AWS:EC2", Arrays.asList(
+                    rangeInfos("10.1.0.0/16", "service", "EC2")))));
+
+    private static final List<String> ATTRIBUTES = Arrays.asList("asn", "asnorg", "AWS.service");
+
+    @Test
+    public void testCsvFields() throws Exception {
+        LogEnricher.Enricher enricher = new LogEnricher.Enricher(LOOKUP, LogEnricher.Format.CSV, 1, null,
+                ATTRIBUTES);
+        assertThat(enrich(enricher,
+                "\"a,b\",10.1.2.3,c",
+                "a,\" 10.0.0.1 \"",
+                "a,200.0.0.1",
+                "a,bogus",
+                "a"),
+                is("\"a,b\",10.1.2.3,c,1,\"Org, \"\"One\"\"\",EC2\n"
+                        + "a,\" 10.0.0.1 \",1,\"Org, \"\"One\"\"\",\n"
+                        + "a,200.0.0.1,,,\n"
+                        + "a,bogus,,,\n"
+                        + "a,,,\n"));
+    }
+
+    @Test
+    public void testTsvFields() throws Exception {
+        LogEnricher.Enricher enricher = new LogEnricher.Enricher(LOOKUP, LogEnricher.Format.TSV, 0, null,
+                ATTRIBUTES);
+        // quotes do not group fields in TSV
+        assertThat(enrich(enricher, "10.1.0.1\t\"x\ty\"", "\"10.0.0.1\"\tx"),
+                is("10.1.0.1\t\"x\ty\"\t1\tOrg, \"One\"\tEC2\n"
+                        + "\"10.0.0.1\"\tx\t1\tOrg, \"One\"\t\n"));
+    }
+
+    @Test
+    public void testJsonLines() throws Exception {
+        LogEnricher.Enricher enricher = new LogEnricher.Enricher(LOOKUP, LogEnricher.Format.JSON, -1, "ip",
+                Arrays.asList("asn", "AWS.service"));
+        assertThat(enrich(enricher,
+                "{\"ip\":\"10.1.0.1\",\"n\":{\"ip\":\"200.0.0.1\"}}",
+                "{\"n\":{\"ip\":\"10.1.0.1\"},\"ip\":\"10.0.0.1\"}",
+                "{\"n\":{\"ip\":\"10.1.0.1\"}}",
+                "{\"other\":1}",
+                "{\"ip\":\"10.0.0.1\"",
+                "{\"ip\": 10.0.0.1}",
+                "\"10.0.0.1\"",
+                "[{\"ip\":\"10.0.0.1\"}]",
+                "{\"ip\":\"10.0.0.1\"}"),
+                is("{\"ip\":\"10.1.0.1\",\"n\":{\"ip\":\"200.0.0.1\"},\"asn\":\"1\",\"AWS.service\":\"EC2\"}\n"
+                        + "{\"n\":{\"ip\":\"10.1.0.1\"},\"ip\":\"10.0.0.1\",\"asn\":\"1\"}\n"
+                        + "{\"n\":{\"ip\":\"10.1.0.1\"}}\n"
+                        + "{\"other\":1}\n"
+                        + "{\"ip\":\"10.0.0.1\"\n"
+                        + "{\"ip\": 10.0.0.1}\n"
+                        + "\"10.0.0.1\"\n"
+                        + "[{\"ip\":\"10.0.0.1\"}]\n"
+                        + "{\"ip\":\"10.0.0.1\",\"asn\":\"1\"}\n"));
+    }
+
+    @Test
+    public void testOutputKeepsTheInputOrder() throws Exception {
+        LogEnricher.Enricher enricher = new LogEnricher.Enricher(LOOKUP, LogEnricher.Format.CSV, 1, null,
+                Arrays.asList("asn"));
+        StringBuilder input = new StringBuilder();
+        StringBuilder expected = new StringBuilder();
+        // several batches, more than are queued at once
+        for (int i = 0; i < 100000; i++) {
+            input.append(i).append(',').append(i % 3 == 0 ? "10.0.0." : "200.0.0.").append(i % 256).append('\n');
+            expected.append(i).append(',').append(i % 3 == 0 ? "10.0.0." : "200.0.0.").append(i % 256)
+                    .append(i % 3 == 0 ? ",1" : ",").append('\n');
+        }
+        StringWriter output = new StringWriter();
+        ExecutorService workers = Executors.newFixedThreadPool(2);
+        try {
+            LogEnricher.enrich(new BufferedReader(new StringReader(input.toString())), output, enricher, workers, 2);
+        } finally {
+            workers.shutdownNow();
+        }
+        assertThat(output.toString(), equalTo(expected.toString()));
+    }
+
+    private static String enrich(LogEnricher.Enricher enricher, String... lines) {
+        return enricher.enrich(lines, lines.length).toString();
+    }
+
+    private static IpRangeInfos rangeInfos(String cidr, String... keyValues) {
+        Map<String, String> infos = new HashMap<>();
+        for (int i = 0; i < keyValues.length; i += 2) {
+            infos.put(keyValues[i], keyValues[i + 1]);
+        }
+        return new IpRangeInfos(Ipv4Range.parseCidr(cidr), infos);
+    }
+}
@@ -0,0 +1,136 @@
+package io.mkr.helloip.examples;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
+
+import javax.servlet.http.HttpServletRequest;
+
+import io.mkr.helloip.Ipv4Addresses;
+import net.ripe.commons.ip.Ipv4;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class RemoteIpDetectorTest {
+
+    @Test
+    public void testOverlappingAndAdjacentCidrsAreMerged() throws Exception {
+        long[][] ranges = RemoteIpDetector.parseCidrs("10.1.0.0/16, 10.0.0.0/8,11.0.0.0/8 ,, 12.0.0.1, 13.0.0.0/8");
+        assertThat(ranges[0], equalTo(new long[] {address("10.0.0.0"), address("12.0.0.1"),
+                address("13.0.0.0")}));
+        assertThat(ranges[1], equalTo(new long[] {address("11.255.255.255"), address("12.0.0.1"),
+                address("13.255.255.255")}));
+
+        // host bits of a CIDR are ignored
+        ranges = RemoteIpDetector.parseCidrs("192.168.1.1/24");
+        assertThat(ranges[0], equalTo(new long[] {address("192.168.1.0")}));
+        assertThat(ranges[1], equalTo(new long[] {address("192.168.1.255")}));
+    }
+
+    @Test
+    public void testTrustedProxies() throws Exception {
+        RemoteIpDetector detector = new RemoteIpDetector();
+        assertTrue(detector.isTrusted(address("172.31.255.255")));
+        assertFalse(detector.isTrusted(address("172.32.0.0")));
+        assertFalse(detector.isTrusted(address("9.255.255.255")));
+
+        detector.setTrustedProxies("0.0.0.0/0");
+        assertTrue(detector.isTrusted(address("0.0.0.0")));
+        assertTrue(detector.isTrusted(address("255.255.255.255")));
+
+        detector.setTrustedProxies("10.0.0.1/32, 255.255.255.255/32");
+        assertFalse(detector.isTrusted(address("10.0.0.0")));
+        assertTrue(detector.isTrusted(address("10.0.0.1")));
+        assertFalse(detector.isTrusted(address("10.0.0.2")));
+        assertTrue(detector.isTrusted(address("255.255.255.255")));
+
+        detector.setTrustedProxies("");
+        assertFalse(detector.isTrusted(address("10.0.0.1")));
+        detector.setTrustedProxies(null);
+        assertFalse(detector.isTrusted(address("10.0.0.1")));
+    }
+
+    @Test
+    public void testInvalidCidrsAreRejected() throws Exception {
+        for (String cidrs: Arrays.asList("10.0.0.0/33", "10.0.0.0/-1", "10.0.0.0/", "10.0.0.0/x", "10.0.0/8",
+                "::1/128", "10.0.0.0/8, unknown")) {
+            RemoteIpDetector detector = new RemoteIpDetector();
+            try {
+                detector.setTrustedProxies(cidrs);
+                throw new AssertionError("Accepted " + cidrs);
+            } catch (IllegalArgumentException e) {
+                // the defaults are kept
+                assertTrue(cidrs, detector.isTrusted(address("10.0.0.1")));
+            }
+        }
+    }
+
+    @Test
+    public void testHeaderIsScannedFromTheRight() throws Exception {
+        RemoteIpDetector detector = new RemoteIpDetector();
+        assertThat(detector.rightMostUntrusted("10.0.0.1, 192.168.0.1"), is(Ipv4Addresses.INVALID));
+        assertThat(detector.rightMostUntrusted(""), is(Ipv4Addresses.INVALID));
+        assertThat(detector.rightMostUntrusted("1.1.1.1, 2.2.2.2"), is(address("2.2.2.2")));
+        // entries left of the client may be spoofed by the client
+        assertThat(detector.rightMostUntrusted("3.3.3.3,  1.1.1.1 ,10.0.0.1, 192.168.0.1"), is(address("1.1.1.1")));
+        assertThat(detector.rightMostUntrusted("1.1.1.1, unknown, ::1,10.0.0.1"), is(address("1.1.1.1")));
+        assertThat(detector.rightMostUntrusted(",1.1.1.1,"), is(address("1.1.1.1")));
+    }
+
+    @Test
+    public void testRemoteAddress() throws Exception {
+        RemoteIpDetector detector = new RemoteIpDetector();
+        // the right-most value is in the last header having one
+        assertThat(detector.remoteIp(request("10.0.0.1", "3.3.3.3, 1.1.1.1", "2.2.2.2, 10.0.0.2", "10.0.0.3")),
+                is(Ipv4.of("2.2.2.2")));
+        assertThat(detector.remoteIp(request("10.0.0.1", "10.0.0.2")), is(Ipv4.of("10.0.0.1")));
+        // headers of an untrusted remote are ignored
+        assertThat(detector.remoteIp(request("4.4.4.4", "1.1.1.1")), is(Ipv4.of("4.4.4.4")));
+        assertThat(detector.remoteAddress(request("::1", "1.1.1.1")), is(Ipv4Addresses.INVALID));
+
+        detector.setTrustedProxies(null);
+        assertThat(detector.remoteIp(request("10.0.0.1", "1.1.1.1")), is(Ipv4.of("10.0.0.1")));
+    }
+
+    @Test
+    @SuppressWarnings("deprecation")
+    public void testTrustedProxyIpsPattern() throws Exception {
+        RemoteIpDetector detector = new RemoteIpDetector();
+        detector.setTrustedProxyIpsPattern("10\\.0\\.0\\.\\d+");
+        assertThat(detector.remoteIp(request("10.0.0.1", "1.1.1.1, 10.0.0.2")), is(Ipv4.of("1.1.1.1")));
+        assertThat(detector.remoteIp(request("10.0.1.1", "1.1.1.1")), is(Ipv4.of("10.0.1.1")));
+
+        detector.setTrustedProxyIpsPattern(null);
+        assertThat(detector.remoteIp(request("10.0.0.1", "1.1.1.1")), is(Ipv4.of("10.0.0.1")));
+    }
+
+    private static long address(String ip) {
+        return Ipv4Addresses.parse(ip);
+    }
+
+    private static HttpServletRequest request(final String remoteAddr, final String... headers) {
+        return (HttpServletRequest) Proxy.newProxyInstance(RemoteIpDetectorTest.class.getClassLoader(),
+                new Class<?>[] {HttpServletRequest.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        switch (method.getName()) {
+                            case "getRemoteAddr":
+                                return remoteAddr;
+                            case "getHeaders":
+                                return "X-Forwarded-For".equals(args[0])
+                                        ? Collections.enumeration(Arrays.asList(headers))
+                                        : Collections.emptyEnumeration();
+                            default:
+                                throw new UnsupportedOperationException(method.getName());
+                        }
+                    }
+                });
+    }
+}
@@ -0,0 +1,65 @@
+package io.mkr.helloip.examples;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class SpaceSavingTest {
+
+    @Test
+    public void testMergeCountsKeysMissingInOtherSummaryWithItsSmallestCount() throws Exception {
+        SpaceSaving summary = summary(2, 1, 5, 2, 4);
+        SpaceSaving other = summary(2, 3, 3, 4, 2);
+        summary.merge(other);
+
+        // key 1 may have been evicted from the other summary with up to 2, key 3 from this one with up to 4
+        assertThat(summary.total(), is(14L));
+        List<SpaceSaving.Counter> top = summary.top(3);
+        assertThat(top.size(), is(2));
+        assertThat(summary.count(1), is(7L));
+        assertThat(summary.count(3), is(7L));
+        assertThat(summary.count(2), is(0L));
+        assertThat(summary.count(4), is(0L));
+        for (SpaceSaving.Counter counter: top) {
+            assertThat(counter.getError(), is(counter.getKey() == 1 ? 2L : 4L));
+        }
+
+        // still a valid summary, the next key takes over a smallest counter
+        summary.add(5);
+        assertThat(summary.count(5), is(8L));
+        assertThat(summary.top(2).get(0).getCount(), is(8L));
+    }
+
+    @Test
+    public void testMergeKeepsBoundsOfKeyEvictedFromOtherSummary() throws Exception {
+        SpaceSaving summary = summary(2, 1, 5, 2, 1);
+        // key 1 is evicted by key 4
+        SpaceSaving other = summary(2, 1, 3, 3, 4, 4, 4);
+        summary.merge(other);
+
+        // 8 occurrences of key 1 in total
+        long count = summary.count(1);
+        assertTrue(count >= 8);
+        for (SpaceSaving.Counter counter: summary.top(2)) {
+            if (counter.getKey() == 1) {
+                assertTrue(counter.getCount() - counter.getError() <= 8);
+            }
+        }
+        assertThat(summary.total(), is(17L));
+    }
+
+    /**
+     * @param keysAndCounts keys each followed by its count
+     */
+    private static SpaceSaving summary(int capacity, long... keysAndCounts) {
+        SpaceSaving summary = new SpaceSaving(capacity);
+        for (int i = 0; i < keysAndCounts.length; i += 2) {
+            summary.add(keysAndCounts[i], keysAndCounts[i + 1]);
+        }
+        return summary;
+    }
+}
@@ -0,0 +1,208 @@
+package io.mkr.helloip.server;
+
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.google.common.net.InetAddresses;
+import io.mkr.helloip.IpInfoLookup;
+import io.mkr.helloip.IpInfos;
+import io.mkr.helloip.IpInfosSink;
+import io.mkr.helloip.Ipv4Addresses;
+import io.mkr.helloip.Ipv6Addresses;
+import io.mkr.helloip.Ipv6InfoLookup;
+import io.mkr.helloip.sources.AttributeMap;
+import io.mkr.helloip.sources.IpRangeInfos;
+
+/**
+ * Looks up IPs given as characters and writes the results as JSON objects like
+ * <pre>
+ * {"ip": "1.2.3.4", "infos": {"THYME": {"ASN": "1234", "ASNORG": "..."}, "AWS:EC2": {...}}}
+ * {"ip": "foo", "error": "invalid IP address"}
+ * </pre>
+ * An instance is reused for all lookups of a thread, see {@link #get()}.
+ */
+final class JsonInfosWriter implements IpInfosSink {
+
+    private static final ThreadLocal<JsonInfosWriter> WRITERS = ThreadLocal.withInitial(JsonInfosWriter::new);
+
+    private final CharSlice chars = new CharSlice();
+    private JsonGenerator generator;
+    // the sink cannot throw, so failures are kept until the lookup returns
+    private IOException failure;
+
+    private JsonInfosWriter() {
+    }
+
+    /**
+     * @return the writer of the current thread
+     */
+    static JsonInfosWriter get() {
+        return WRITERS.get();
+    }
+
+    /**
+     * Looks up an IP and writes the result.
+     *
+     * @param lookup the lookup for IPv4 addresses
+     * @param ipv6Lookup the lookup for IPv6 addresses
+     * @param generator the generator to write to
+     * @param buffer characters holding the IP
+     * @param offset offset of the first character
+     * @param length number of characters
+     * @return whether the IP was valid
+     * @throws IOException if writing failed
+     */
+    boolean write(IpInfoLookup lookup, Ipv6InfoLookup ipv6Lookup, JsonGenerator generator,
+                  char[] buffer, int offset, int length) throws IOException {
+        this.generator = generator;
+        try {
+            generator.writeStartObject();
+            generator.writeFieldName("ip");
+            generator.writeString(buffer, offset, length);
+            chars.reset(buffer, offset, length);
+            long address = Ipv4Addresses.parse(chars);
+            InetAddress inetAddress = null;
+            if (address == Ipv4Addresses.INVALID && chars.containsColon()) {
+                String ip = chars.toString();
+                inetAddress = InetAddresses.isInetAddress(ip) ? InetAddresses.forString(ip) : null;
+                if (inetAddress instanceof Inet4Address) {
+                    // IPv4 mapped or compatible
+                    address = Ipv4Addresses.toUnsignedLong(Ipv4Addresses.toInt(inetAddress));
+                }
+            }
+            boolean valid = address != Ipv4Addresses.INVALID || inetAddress instanceof Inet6Address;
+            if (valid) {
+                generator.writeObjectFieldStart("infos");
+                if (address != Ipv4Addresses.INVALID) {
+                    lookup.infosFor((int) address, this);
+                } else {
+                    ipv6Lookup.infosFor(Ipv6Addresses.high(inetAddress), Ipv6Addresses.low(inetAddress), this);
+                }
+                if (failure != null) {
+                    throw failure;
+                }
+                generator.writeEndObject();
+            } else {
+                generator.writeStringField("error", "invalid IP address");
+            }
+            generator.writeEndObject();
+            return valid;
+        } finally {
+            this.generator = null;
+            this.failure = null;
+        }
+    }
+
+    /**
+     * Writes the result of a plain IPv4 address looked up before, e.g. in a batch.
+     *
+     * @param generator the generator to write to
+     * @param buffer characters holding the IP
+     * @param offset offset of the first character
+     * @param length number of characters
+     * @param infos the infos of the IP
+     * @throws IOException if writing failed
+     */
+    void write(JsonGenerator generator, char[] buffer, int offset, int length, IpInfos infos) throws IOException {
+        this.generator = generator;
+        try {
+            generator.writeStartObject();
+            generator.writeFieldName("ip");
+            generator.writeString(buffer, offset, length);
+            generator.writeObjectFieldStart("infos");
+            infos.copyTo(this);
+            if (failure != null) {
+                throw failure;
+            }
+            generator.writeEndObject();
+            generator.writeEndObject();
+        } finally {
+            this.generator = null;
+            this.failure = null;
+        }
+    }
+
+    /**
+     * @param buffer characters holding the IP
+     * @param offset offset of the first character
+     * @param length number of characters
+     * @return the address if the characters are a plain IPv4 address, otherwise {@link Ipv4Addresses#INVALID}
+     */
+    long ipv4(char[] buffer, int offset, int length) {
+        chars.reset(buffer, offset, length);
+        return Ipv4Addresses.parse(chars);
+    }
+
+    @Override
+    public void accept(String providerName, IpRangeInfos infos) {
+        if (failure != null) {
+            return;
+        }
+        try {
+            generator.writeObjectFieldStart(providerName);
+            Map<String, String> map = infos.getInfos();
+            if (map instanceof AttributeMap) {
+                AttributeMap attributes = (AttributeMap) map;
+                for (int i = 0; i < attributes.size(); i++) {
+                    generator.writeStringField(attributes.key(i), attributes.value(i));
+                }
+            } else {
+                for (Map.Entry<String, String> info: map.entrySet()) {
+                    generator.writeStringField(info.getKey(), info.getValue());
+                }
+            }
+            generator.writeEndObject();
+        } catch (IOException e) {
+            failure = e;
+        }
+    }
+
+    /**
+     * A reusable view on a slice of a character array.
+     */
+    private static final class CharSlice implements CharSequence {
+
+        private char[] buffer;
+        private int offset;
+        private int length;
+
+        void reset(char[] buffer, int offset, int length) {
+            this.buffer = buffer;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        boolean containsColon() {
+            for (int i = offset; i < offset + length; i++) {
+                if (buffer[i] == ':') {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return buffer[offset + index];
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new String(buffer, offset + start, end - start);
+        }
+
+        @Override
+        public String toString() {
+            return new String(buffer, offset, length);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package io.mkr.helloip.server;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import io.mkr.helloip.AwaitingIpInfoLookup;
+import io.mkr.helloip.IpInfoLookupImpl;
+import io.mkr.helloip.IpInfoProvider;
+import io.mkr.helloip.base.RefreshCoordinator;
+import io.mkr.helloip.metrics.IpInfoMetrics;
+import io.mkr.helloip.sources.ApnicAsnIpRangesSource;
+import io.mkr.helloip.sources.AwsIpRangesSource;
+import io.mkr.helloip.sources.AzureIpRangesSource;
+import io.mkr.helloip.sources.GoogleCloudIpRangesSource;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+
+import static io.mkr.helloip.Suppliers.*;
+
+/**
+ * A standalone JSON lookup service, see {@link LookupServlet} for the endpoints. Configured with system properties:
+ * <ul>
+ *     <li>{@code helloip.port}: the HTTP port, 8080 by default</li>
+ *     <li>{@code helloip.lookupThreads}: the threads processing batches, the number of processors by default</li>
+ *     <li>{@code helloip.maxBatchSize}: the maximum number of IPs looked up per batch, 10000 by default</li>
+ *     <li>{@code helloip.batchTimeoutSeconds}: how long a batch request may take, 30 by default</li>
+ *     <li>{@code helloip.refreshMemoryBudgetMb}: limits the heap used by refreshes like for the examples</li>
+ * </ul>
+ */
+public class LookupServer {
+
+    public static void main(String[] args) throws Exception {
+        int port = Integer.getInteger("helloip.port", 8080);
+        int lookupThreads = Integer.getInteger("helloip.lookupThreads", Runtime.getRuntime().availableProcessors());
+        int maxBatchSize = Integer.getInteger("helloip.maxBatchSize", 10000);
+        int batchTimeoutSeconds = Integer.getInteger("helloip.batchTimeoutSeconds", 30);
+        long memoryBudget = Long.getLong("helloip.refreshMemoryBudgetMb", 0L) << 20;
+
+        ScheduledExecutorService refreshExecutor = new ScheduledThreadPoolExecutor(1);
+        // one worker per source, so all of them are fetched and built at the same time
+        ExecutorService refreshWorkers = Executors.newFixedThreadPool(4);
+        RefreshCoordinator<IpInfoProvider> refreshCoordinator = fetchAllAsyncWithRefresh(
+                Arrays.asList(apnic, aws, azure, googleCloud), memoryBudget, 1, TimeUnit.DAYS,
+                refreshWorkers, refreshExecutor);
+        List<String> providerNames = Arrays.asList(ApnicAsnIpRangesSource.NAME, AwsIpRangesSource.NAME,
+                AzureIpRangesSource.NAME, GoogleCloudIpRangesSource.NAME);
+        IpInfoLookupImpl lookup = new IpInfoLookupImpl(refreshCoordinator.suppliers(), providerNames,
+                IpInfoMetrics.NONE);
+        // ready to serve once the ASNs are loaded, the clouds follow when they are
+        AwaitingIpInfoLookup awaitingLookup = new AwaitingIpInfoLookup(lookup, refreshCoordinator.ready(0));
+
+        // batches queue up to a few per thread, beyond that the clients are asked to come back later
+        ExecutorService lookupExecutor = new ThreadPoolExecutor(lookupThreads, lookupThreads, 0, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(4 * lookupThreads));
+        ServletHolder holder = new ServletHolder(new LookupServlet(awaitingLookup, lookup, lookupExecutor,
+                maxBatchSize, TimeUnit.SECONDS.toMillis(2), TimeUnit.SECONDS.toMillis(batchTimeoutSeconds)));
+        holder.setAsyncSupported(true);
+        ServletContextHandler handler = new ServletContextHandler();
+        handler.addServlet(holder, "/*");
+
+        Server server = new Server(port);
+        server.setHandler(handler);
+        server.start();
+        try {
+            server.join();
+        } finally {
+            lookupExecutor.shutdownNow();
+            refreshWorkers.shutdownNow();
+            refreshExecutor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,338 @@
+package io.mkr.helloip.server;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.google.common.net.InetAddresses;
+import io.mkr.helloip.AwaitingIpInfoLookup;
+import io.mkr.helloip.IpInfos;
+import io.mkr.helloip.Ipv4Addresses;
+import io.mkr.helloip.Ipv6InfoLookup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Serves lookups as JSON:
+ * <ul>
+ *     <li>{@code GET /lookup?ip=1.2.3.4} looks up a single IP</li>
+ *     <li>{@code POST /batch} with a JSON array of IPs like {@code ["1.2.3.4", "2001:db8::1"]} looks up all of them
+ *     and responds with {@code {"results": [...]}}, in the order of the request</li>
+ *     <li>{@code GET /ready} responds with 200 once the lookup is ready, 503 before</li>
+ * </ul>
+ * Batches are read and looked up asynchronously on the lookup executor. Malformed batches get a 400, bodies of more
+ * than {@value #MAX_BYTES_PER_IP} bytes per IP a 413 and batches rejected by a saturated executor a 503. Batches of
+ * more than {@code maxBatchSize} IPs are cut off and marked with {@code "truncated": true}, as are batches not done
+ * within the batch timeout (with a 408 if the body was not read completely).
+ */
+public class LookupServlet extends HttpServlet {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Logger log = LoggerFactory.getLogger(LookupServlet.class);
+
+    private static final JsonFactory JSON = new JsonFactory();
+    private static final String JSON_CONTENT_TYPE = "application/json";
+    // an IPv6 address with an embedded IPv4 address in quotes, a separator and some whitespace
+    static final int MAX_BYTES_PER_IP = 64;
+
+    private final AwaitingIpInfoLookup lookup;
+    private final Ipv6InfoLookup ipv6Lookup;
+    private final ExecutorService lookupExecutor;
+    private final int maxBatchSize;
+    private final long readyTimeoutMillis;
+    private final long batchTimeoutMillis;
+
+    /**
+     * @param lookup the lookup for IPv4 addresses
+     * @param ipv6Lookup the lookup for IPv6 addresses
+     * @param lookupExecutor the executor processing batches, should be bounded
+     * @param maxBatchSize the maximum number of IPs looked up per batch
+     * @param readyTimeoutMillis how long requests arriving during warm-up wait for the lookup to become ready
+     * @param batchTimeoutMillis how long a batch may take from the start of the request to the end of the response
+     */
+    public LookupServlet(AwaitingIpInfoLookup lookup, Ipv6InfoLookup ipv6Lookup, ExecutorService lookupExecutor,
+                         int maxBatchSize, long readyTimeoutMillis, long batchTimeoutMillis) {
+        this.lookup = lookup;
+        this.ipv6Lookup = ipv6Lookup;
+        this.lookupExecutor = lookupExecutor;
+        this.maxBatchSize = maxBatchSize;
+        this.readyTimeoutMillis = readyTimeoutMillis;
+        this.batchTimeoutMillis = batchTimeoutMillis;
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException,
+            IOException {
+        if ("/ready".equals(request.getPathInfo())) {
+            response.setStatus(lookup.isReady() ? HttpServletResponse.SC_OK
+                    : HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            return;
+        }
+        if (!"/lookup".equals(request.getPathInfo())) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        String ip = request.getParameter("ip");
+        if (ip == null) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Missing parameter ip");
+            return;
+        }
+        if (Ipv4Addresses.parse(ip) == Ipv4Addresses.INVALID && !InetAddresses.isInetAddress(ip)) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+        } else {
+            awaitReady();
+        }
+        response.setContentType(JSON_CONTENT_TYPE);
+        char[] chars = ip.toCharArray();
+        try (JsonGenerator generator = JSON.createGenerator(response.getOutputStream())) {
+            JsonInfosWriter.get().write(lookup, ipv6Lookup, generator, chars, 0, chars.length);
+        }
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException,
+            IOException {
+        if (!"/batch".equals(request.getPathInfo())) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        long maxBytes = (long) MAX_BYTES_PER_IP * maxBatchSize;
+        if (request.getContentLengthLong() > maxBytes) {
+            response.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+            return;
+        }
+        AsyncContext async = request.startAsync();
+        async.setTimeout(batchTimeoutMillis);
+        Batch batch = new Batch(async, request.getInputStream(), (int) Math.min(Integer.MAX_VALUE - 16, maxBytes));
+        async.addListener(batch);
+        request.getInputStream().setReadListener(batch);
+    }
+
+    private void writeBatch(byte[] body, int length, HttpServletResponse response) throws IOException {
+        JsonInfosWriter writer = JsonInfosWriter.get();
+        int[] addresses = new int[maxBatchSize];
+        int ipv4Count = readIpv4s(body, length, writer, addresses);
+        if (ipv4Count < 0) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Expected a JSON array of IPs");
+            return;
+        }
+        awaitReady();
+        // the IPv4 addresses are looked up at once, which sorts them once for all providers
+        IpInfos[] results = new IpInfos[ipv4Count];
+        lookup.infosFor(addresses, ipv4Count, results);
+        try (JsonParser parser = JSON.createParser(body, 0, length)) {
+            parser.nextToken();
+            response.setContentType(JSON_CONTENT_TYPE);
+            // not closed on failures, which would commit the response
+            JsonGenerator generator = JSON.createGenerator(response.getOutputStream());
+            generator.writeStartObject();
+            generator.writeArrayFieldStart("results");
+            int count = 0;
+            int ipv4 = 0;
+            JsonToken token;
+            while ((token = parser.nextToken()) != JsonToken.END_ARRAY && token != null) {
+                if (count == maxBatchSize) {
+                    break;
+                }
+                char[] chars = parser.getTextCharacters();
+                int offset = parser.getTextOffset();
+                int textLength = parser.getTextLength();
+                if (writer.ipv4(chars, offset, textLength) != Ipv4Addresses.INVALID) {
+                    writer.write(generator, chars, offset, textLength, results[ipv4++]);
+                } else {
+                    writer.write(lookup, ipv6Lookup, generator, chars, offset, textLength);
+                }
+                count++;
+            }
+            generator.writeEndArray();
+            if (token != JsonToken.END_ARRAY) {
+                generator.writeBooleanField("truncated", true);
+            }
+            generator.writeEndObject();
+            generator.close();
+        }
+    }
+
+    /**
+     * Checks the IPs up to the batch size before anything is written and collects the IPv4 addresses among them.
+     *
+     * @return the number of IPv4 addresses, or -1 if the body is not an array of strings which is either complete or
+     * has more than the batch size
+     */
+    private int readIpv4s(byte[] body, int length, JsonInfosWriter writer, int[] addresses) throws IOException {
+        try (JsonParser parser = JSON.createParser(body, 0, length)) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                return -1;
+            }
+            int ipv4Count = 0;
+            for (int count = 0; count < maxBatchSize; count++) {
+                JsonToken token = parser.nextToken();
+                if (token == JsonToken.END_ARRAY) {
+                    return ipv4Count;
+                }
+                if (token != JsonToken.VALUE_STRING) {
+                    return -1;
+                }
+                long address = writer.ipv4(parser.getTextCharacters(), parser.getTextOffset(),
+                        parser.getTextLength());
+                if (address != Ipv4Addresses.INVALID) {
+                    addresses[ipv4Count++] = (int) address;
+                }
+            }
+            // not ending right after the last IP
+            return parser.nextToken() != null ? ipv4Count : -1;
+        } catch (JsonProcessingException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Requests arriving during warm-up wait a little for the lookup, then look up with whatever is loaded.
+     */
+    private void awaitReady() {
+        if (lookup.isReady()) {
+            return;
+        }
+        try {
+            lookup.ready().get(readyTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            // look up with whatever is loaded
+        }
+    }
+
+    /**
+     * Reads the body of a batch as it arrives and hands it to the lookup executor once complete. The batch is done
+     * (and the async request completed) exactly once: when the response is written, on errors or on the timeout.
+     */
+    private final class Batch implements ReadListener, AsyncListener {
+
+        private static final int READING = 0;
+        private static final int PROCESSING = 1;
+        private static final int DONE = 2;
+
+        private final AsyncContext async;
+        private final ServletInputStream input;
+        private final int maxBytes;
+        private final AtomicInteger state = new AtomicInteger(READING);
+        private byte[] body = new byte[4096];
+        private int length = 0;
+
+        Batch(AsyncContext async, ServletInputStream input, int maxBytes) {
+            this.async = async;
+            this.input = input;
+            this.maxBytes = maxBytes;
+        }
+
+        @Override
+        public void onDataAvailable() throws IOException {
+            while (input.isReady() && state.get() == READING) {
+                if (length == body.length) {
+                    // one byte more than allowed tells bodies which did not declare their length apart
+                    body = Arrays.copyOf(body, (int) Math.min(maxBytes + 1L, 2L * length));
+                }
+                int read = input.read(body, length, body.length - length);
+                if (read < 0) {
+                    return;
+                }
+                length += read;
+                if (length > maxBytes) {
+                    fail(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public void onAllDataRead() {
+            if (!state.compareAndSet(READING, PROCESSING)) {
+                return;
+            }
+            HttpServletResponse response = (HttpServletResponse) async.getResponse();
+            try {
+                lookupExecutor.execute(() -> {
+                    try {
+                        writeBatch(body, length, response);
+                    } catch (IOException | RuntimeException e) {
+                        log.warn("Batch lookup failed: {}", e.toString());
+                        if (!response.isCommitted()) {
+                            response.resetBuffer();
+                            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+                        }
+                    } finally {
+                        done();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                done();
+            }
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            log.warn("Reading batch failed: {}", t.toString());
+            fail(HttpServletResponse.SC_BAD_REQUEST);
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            log.warn("Batch timed out after {} ms", batchTimeoutMillis);
+            if (!fail(HttpServletResponse.SC_REQUEST_TIMEOUT)) {
+                // the lookup thread fails on its next write
+                done();
+            }
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            done();
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+
+        /**
+         * @return whether the batch was still reading and is done now
+         */
+        private boolean fail(int status) {
+            if (!state.compareAndSet(READING, DONE)) {
+                return false;
+            }
+            ((HttpServletResponse) async.getResponse()).setStatus(status);
+            async.complete();
+            return true;
+        }
+
+        private void done() {
+            if (state.getAndSet(DONE) != DONE) {
+                async.complete();
+            }
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package io.mkr.helloip.server;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.google.common.base.Suppliers;
+import com.google.common.util.concurrent.Futures;
+import io.mkr.helloip.AwaitingIpInfoLookup;
+import io.mkr.helloip.IpInfoLookupImpl;
+import io.mkr.helloip.IpInfoProvider;
+import io.mkr.helloip.RangeBasedIpInfoProvider;
+import net.ripe.commons.ip.Ipv4Range;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.startsWith;
+import static org.junit.Assert.assertThat;
+
+public class LookupServletTest {
+
+    private static final int MAX_BATCH_SIZE = 3;
+
+    private final ExecutorService lookupExecutor = Executors.newFixedThreadPool(2);
+    private Server server;
+    private int port;
+
+    @Before
+    public void setUp() throws Exception {
+        RangeBasedIpInfoProvider.Builder builder = RangeBasedIpInfoProvider.builder("ASN");
+        builder.stringColumn("asn").addRow(Ipv4Range.parseCidr("10.0.0.0/8")).setString(0, "64512");
+        IpInfoLookupImpl lookup = new IpInfoLookupImpl(Collections.singletonList(
+                Suppliers.<IpInfoProvider>ofInstance(builder.build())));
+        AwaitingIpInfoLookup awaitingLookup = new AwaitingIpInfoLookup(lookup, Futures.immediateFuture(null));
+        ServletHolder holder = new ServletHolder(new LookupServlet(awaitingLookup, lookup, lookupExecutor,
+                MAX_BATCH_SIZE, 100, 500));
+        holder.setAsyncSupported(true);
+        ServletContextHandler handler = new ServletContextHandler();
+        handler.addServlet(holder, "/*");
+        server = new Server(0);
+        server.setHandler(handler);
+        server.start();
+        port = ((ServerConnector) server.getConnectors()[0]).getLocalPort();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.stop();
+        lookupExecutor.shutdownNow();
+    }
+
+    @Test
+    public void testLooksUpSingleIp() throws Exception {
+        HttpURLConnection connection = open("/lookup?ip=10.1.2.3");
+        assertThat(connection.getResponseCode(), is(200));
+        assertThat(body(connection), equalTo("{\"ip\":\"10.1.2.3\",\"infos\":{\"ASN\":{\"asn\":\"64512\"}}}"));
+
+        connection = open("/lookup?ip=10.1.2");
+        assertThat(connection.getResponseCode(), is(400));
+        assertThat(body(connection), containsString("\"error\":\"invalid IP address\""));
+    }
+
+    @Test
+    public void testLooksUpBatchInOrder() throws Exception {
+        HttpURLConnection connection = post("[\"10.1.2.3\", \"2001:db8::1\", \"foo\"]", false);
+        assertThat(connection.getResponseCode(), is(200));
+        assertThat(body(connection), equalTo("{\"results\":["
+                + "{\"ip\":\"10.1.2.3\",\"infos\":{\"ASN\":{\"asn\":\"64512\"}}},"
+                + "{\"ip\":\"2001:db8::1\",\"infos\":{}},"
+                + "{\"ip\":\"foo\",\"error\":\"invalid IP address\"}]}"));
+
+        // IPv4 addresses are looked up as a batch out of order
+        connection = post("[\"200.0.0.1\", \"10.1.2.3\", \"10.0.0.1\"]", false);
+        assertThat(body(connection), equalTo("{\"results\":["
+                + "{\"ip\":\"200.0.0.1\",\"infos\":{}},"
+                + "{\"ip\":\"10.1.2.3\",\"infos\":{\"ASN\":{\"asn\":\"64512\"}}},"
+                + "{\"ip\":\"10.0.0.1\",\"infos\":{\"ASN\":{\"asn\":\"64512\"}}}]}"));
+    }
+
+    @Test
+    public void testRejectsMalformedBatch() throws Exception {
+        assertThat(post("{\"ips\": [\"10.1.2.3\"]}", false).getResponseCode(), is(400));
+        assertThat(post("[\"10.1.2.3\", 1]", false).getResponseCode(), is(400));
+        // ending before the end of the array
+        assertThat(post("[\"10.1.2.3\", \"10.1.2.4\"", false).getResponseCode(), is(400));
+        assertThat(post("[\"10.0.0.1\", \"10.0.0.2\", \"10.0.0.3\"", false).getResponseCode(), is(400));
+    }
+
+    @Test
+    public void testCutsOffOversizedBatch() throws Exception {
+        HttpURLConnection connection = post("[\"10.0.0.1\", \"10.0.0.2\", \"10.0.0.3\", \"10.0.0.4\"]", false);
+        assertThat(connection.getResponseCode(), is(200));
+        String body = body(connection);
+        assertThat(body, containsString("\"truncated\":true"));
+        assertThat(body, not(containsString("10.0.0.4")));
+
+        StringBuilder tooLong = new StringBuilder("[\"10.0.0.1\"");
+        while (tooLong.length() <= LookupServlet.MAX_BYTES_PER_IP * MAX_BATCH_SIZE) {
+            tooLong.append(", \"10.0.0.1\"");
+        }
+        tooLong.append(']');
+        assertThat(post(tooLong.toString(), false).getResponseCode(), is(413));
+        // without a content length the body is cut off while reading
+        assertThat(post(tooLong.toString(), true).getResponseCode(), is(413));
+    }
+
+    @Test
+    public void testTimesOutIncompleteBatch() throws Exception {
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.setSoTimeout(5000);
+            OutputStream out = socket.getOutputStream();
+            out.write(("POST /batch HTTP/1.1\r\nHost: localhost\r\nContent-Length: 100\r\n\r\n[\"10.1")
+                    .getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+                    StandardCharsets.US_ASCII));
+            assertThat(in.readLine(), startsWith("HTTP/1.1 408"));
+        }
+    }
+
+    private HttpURLConnection open(String path) throws IOException {
+        return (HttpURLConnection) new URL("http://localhost:" + port + path).openConnection();
+    }
+
+    private HttpURLConnection post(String body, boolean chunked) throws IOException {
+        HttpURLConnection connection = open("/batch");
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        if (chunked) {
+            connection.setChunkedStreamingMode(16);
+        }
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(body.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            // the server may respond before the whole body is sent
+        }
+        return connection;
+    }
+
+    private static String body(HttpURLConnection connection) throws IOException {
+        return read(connection.getResponseCode() < 400 ? connection.getInputStream() : connection.getErrorStream());
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = in.read(buffer)) >= 0) {
+            bytes.write(buffer, 0, read);
+        }
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,95 @@
+package io.mkr.helloip;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import io.mkr.helloip.base.AsyncRefreshingSupplier;
+import io.mkr.helloip.base.RefreshCoordinator;
+import net.ripe.commons.ip.Ipv4;
+
+/**
+ * An {@link IpInfoLookup} aware of whether the providers of another lookup are loaded (see
+ * {@link RefreshCoordinator#ready(int)} and {@link AsyncRefreshingSupplier#ready()}). Lookups of the
+ * {@link IpInfoLookup} interface never wait, {@link #infosFor(Ipv4, long, TimeUnit)} waits up to a deadline.
+ */
+public class AwaitingIpInfoLookup implements IpInfoLookup {
+
+    private final IpInfoLookup delegate;
+    private final ListenableFuture<?> ready;
+
+    /**
+     * @param delegate the lookup
+     * @param ready completes once the providers needed are loaded, e.g. the critical ones only
+     */
+    public AwaitingIpInfoLookup(IpInfoLookup delegate, ListenableFuture<?> ready) {
+        this.delegate = delegate;
+        this.ready = ready;
+    }
+
+    /**
+     * @return a future completing once the providers needed are loaded
+     */
+    public ListenableFuture<?> ready() {
+        return ready;
+    }
+
+    public boolean isReady() {
+        return ready.isDone();
+    }
+
+    /**
+     * Like {@link #infosFor(Ipv4)}, but waits for the lookup to become ready first.
+     *
+     * @param ipv4 the IP address
+     * @param timeout the maximum time to wait for the lookup to become ready
+     * @param unit the unit of the timeout
+     * @return accumulated information about an IPv4, partial if not ready within the timeout
+     */
+    public IpInfos infosFor(Ipv4 ipv4, long timeout, TimeUnit unit) {
+        awaitReady(timeout, unit);
+        return delegate.infosFor(ipv4);
+    }
+
+    /**
+     * Like {@link #infosFor(int, IpInfosSink)}, but waits for the lookup to become ready first.
+     *
+     * @param address the IP address as int
+     * @param sink the sink receiving the infos, partial if not ready within the timeout
+     * @param timeout the maximum time to wait for the lookup to become ready
+     * @param unit the unit of the timeout
+     */
+    public void infosFor(int address, IpInfosSink sink, long timeout, TimeUnit unit) {
+        awaitReady(timeout, unit);
+        delegate.infosFor(address, sink);
+    }
+
+    private void awaitReady(long timeout, TimeUnit unit) {
+        if (ready.isDone()) {
+            return;
+        }
+        try {
+            ready.get(timeout, unit);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            // look up with whatever is loaded
+        }
+    }
+
+    @Override
+    public IpInfos infosFor(Ipv4 ipv4) {
+        return delegate.infosFor(ipv4);
+    }
+
+    @Override
+    public void infosFor(int address, IpInfosSink sink) {
+        delegate.infosFor(address, sink);
+    }
+
+    @Override
+    public void infosFor(int[] addresses, int length, IpInfos[] results) {
+        delegate.infosFor(addresses, length, results);
+    }
+}
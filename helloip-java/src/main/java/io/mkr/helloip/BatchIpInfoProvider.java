@@ -0,0 +1,30 @@
+package io.mkr.helloip;
+
+import io.mkr.helloip.index.Ipv4RangeIndex;
+import io.mkr.helloip.sources.IpRangeInfos;
+
+/**
+ * An {@link IpInfoProvider} which can look up a batch of IPv4s at once, e.g. with one merge join against its index.
+ */
+public interface BatchIpInfoProvider extends IpInfoProvider {
+
+    /**
+     * Passes further information about a batch of IPv4s to a sink
+     * @param batch the addresses with their positions as sorted by {@link Ipv4RangeIndex#sortBatch(int[], int)}
+     * @param sink sink for infos
+     */
+    void add(long[] batch, BatchSink sink);
+
+    /**
+     * Receives the infos found for the IPs of a batch.
+     */
+    interface BatchSink {
+
+        /**
+         * @param position the position of the IP in the batch
+         * @param providerName the provider name
+         * @param infos the infos of the range containing the IP
+         */
+        void accept(int position, String providerName, IpRangeInfos infos);
+    }
+}
@@ -0,0 +1,164 @@
+package io.mkr.helloip;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import io.mkr.helloip.base.Refreshable;
+import io.mkr.helloip.sources.IpRangeInfos;
+import net.ripe.commons.ip.Ipv4;
+
+/**
+ * An {@link IpInfoLookup} caching the results of another lookup per IP, meant for skewed traffic where few IPs make
+ * up most lookups. The cache is bounded and set associative with CLOCK eviction within a set of {@value #WAYS} slots.
+ * Results are cached as shared, unmodifiable {@link IpInfos}.
+ */
+public class CachingIpInfoLookup implements IpInfoLookup {
+
+    private static final int WAYS = 8;
+
+    private static final IpInfos EMPTY = IpInfos.shared(Collections.<String, IpRangeInfos>emptyMap());
+
+    private final IpInfoLookup delegate;
+    private final AtomicReferenceArray<Entry> entries;
+    // CLOCK state
+    private final boolean[] referenced;
+    private final int[] hands;
+    private final int setMask;
+    private final AtomicLong generation = new AtomicLong();
+
+    private final Runnable invalidator = new Runnable() {
+        @Override
+        public void run() {
+            invalidateAll();
+        }
+    };
+
+    /**
+     * @param delegate the lookup to cache results of
+     * @param maximumSize the maximum number of cached IPs, rounded up to a power of two
+     */
+    public CachingIpInfoLookup(IpInfoLookup delegate, int maximumSize) {
+        if (maximumSize < 1) {
+            throw new IllegalArgumentException("Maximum size must be positive: " + maximumSize);
+        }
+        int sets = Math.max(1, Integer.highestOneBit((maximumSize + WAYS - 1) / WAYS - 1) << 1);
+        this.delegate = delegate;
+        this.entries = new AtomicReferenceArray<>(sets * WAYS);
+        this.referenced = new boolean[sets * WAYS];
+        this.hands = new int[sets];
+        this.setMask = sets - 1;
+    }
+
+    /**
+     * Invalidates the cache whenever one of the given suppliers (if {@link Refreshable}) swaps in a new value.
+     *
+     * @param suppliers the suppliers the delegate lookup is using
+     * @return this lookup
+     */
+    public CachingIpInfoLookup invalidateOnRefresh(Iterable<?> suppliers) {
+        for (Object supplier: suppliers) {
+            if (supplier instanceof Refreshable) {
+                ((Refreshable) supplier).addRefreshListener(invalidator);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Invalidates all cached results.
+     */
+    public void invalidateAll() {
+        generation.incrementAndGet();
+    }
+
+    @Override
+    public IpInfos infosFor(Ipv4 ipv4) {
+        return cached(Ipv4Addresses.toInt(ipv4));
+    }
+
+    @Override
+    public void infosFor(int address, IpInfosSink sink) {
+        cached(address).copyTo(sink);
+    }
+
+    @Override
+    public void infosFor(int[] addresses, int length, IpInfos[] results) {
+        for (int i = 0; i < length; i++) {
+            results[i] = cached(addresses[i]);
+        }
+    }
+
+    private IpInfos cached(int address) {
+        // read the generation before loading, so a result loaded concurrently to an invalidation is never used
+        long currentGeneration = generation.get();
+        int base = (hash(address) & setMask) * WAYS;
+        for (int slot = base; slot < base + WAYS; slot++) {
+            Entry entry = entries.get(slot);
+            if (entry != null && entry.address == address && entry.generation == currentGeneration) {
+                if (!referenced[slot]) {
+                    referenced[slot] = true;
+                }
+                return entry.infos;
+            }
+        }
+        IpInfos infos = load(address);
+        store(base, new Entry(address, currentGeneration, infos));
+        return infos;
+    }
+
+    private void store(int base, Entry entry) {
+        int set = base / WAYS;
+        int hand = hands[set];
+        // the first round clears all reference bits, so a victim is found in at most two rounds
+        for (int i = 0; i < 2 * WAYS; i++) {
+            int slot = base + hand;
+            hand = (hand + 1) & (WAYS - 1);
+            Entry existing = entries.get(slot);
+            if (existing == null || existing.generation != entry.generation || !referenced[slot]) {
+                referenced[slot] = false;
+                entries.set(slot, entry);
+                break;
+            }
+            referenced[slot] = false;
+        }
+        hands[set] = hand;
+    }
+
+    private IpInfos load(int address) {
+        final Map<String, IpRangeInfos> infos = new LinkedHashMap<>();
+        delegate.infosFor(address, new IpInfosSink() {
+            @Override
+            public void accept(String providerName, IpRangeInfos rangeInfos) {
+                infos.put(providerName, rangeInfos);
+            }
+        });
+        return infos.isEmpty() ? EMPTY : IpInfos.shared(infos);
+    }
+
+    private static int hash(int address) {
+        // murmur3 finalizer, addresses of a subnet must not all end up in the same sets
+        int h = address;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    private static final class Entry {
+
+        final int address;
+        final long generation;
+        final IpInfos infos;
+
+        Entry(int address, long generation, IpInfos infos) {
+            this.address = address;
+            this.generation = generation;
+            this.infos = infos;
+        }
+    }
+}
@@ -0,0 +1,309 @@
+package io.mkr.helloip;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.base.Supplier;
+import io.mkr.helloip.index.Ipv4RangeIndex;
+import io.mkr.helloip.sources.IpRangeInfos;
+import net.ripe.commons.ip.Ipv4;
+
+/**
+ * An immutable {@link IpInfoLookup} merging the ranges of several {@link IndexedIpInfoProvider}s into one set of
+ * disjoint elementary intervals, each pointing to one shared {@link IpInfos}. It has to be recompiled to pick up
+ * refreshed providers. The {@link IpInfos} returned can not be modified.
+ */
+public class CompiledIpInfoLookup implements IpInfoLookup {
+
+    /** Result id returned by {@link #resultId(int)} for IPs without any infos */
+    public static final int NO_RESULT = Ipv4RangeIndex.NO_PAYLOAD;
+
+    private static final IpInfos EMPTY = IpInfos.shared(new HashMap<String, IpRangeInfos>());
+
+    static final int ENTRY_BITS = 30;
+    private static final long ENTRY_MASK = (1L << ENTRY_BITS) - 1;
+    /** The maximum number of ranges to compile */
+    static final int MAX_ENTRIES = (int) ENTRY_MASK;
+
+    private final Ipv4RangeIndex index;
+    private final IpInfos[] results;
+
+    CompiledIpInfoLookup(Ipv4RangeIndex index, IpInfos[] results) {
+        this.index = index;
+        this.results = results;
+    }
+
+    /**
+     * Compiles the current providers of the given suppliers. Suppliers not yet providing a provider are skipped.
+     *
+     * @param providerSuppliers suppliers of {@link IndexedIpInfoProvider}s
+     * @return the compiled lookup
+     * @throws IllegalArgumentException if a provider is no {@link IndexedIpInfoProvider}
+     */
+    public static CompiledIpInfoLookup compile(List<Supplier<IpInfoProvider>> providerSuppliers) {
+        List<IndexedIpInfoProvider> providers = new ArrayList<>();
+        for (Supplier<IpInfoProvider> providerSupplier: providerSuppliers) {
+            IpInfoProvider provider = providerSupplier.get();
+            // provider can be null if not yet initialized
+            if (provider != null) {
+                if (!(provider instanceof IndexedIpInfoProvider)) {
+                    throw new IllegalArgumentException("Provider can not be compiled: " + provider);
+                }
+                providers.add((IndexedIpInfoProvider) provider);
+            }
+        }
+        return compileProviders(providers);
+    }
+
+    /**
+     * Compiles the given providers. Provider names are expected to be unique across all providers.
+     *
+     * @param providers the providers
+     * @return the compiled lookup
+     */
+    public static CompiledIpInfoLookup compileProviders(List<? extends IndexedIpInfoProvider> providers) {
+        RangeCollector collector = new RangeCollector();
+        for (IndexedIpInfoProvider provider: providers) {
+            provider.visitRanges(collector);
+        }
+        return collector.compile();
+    }
+
+    @Override
+    public IpInfos infosFor(Ipv4 ipv4) {
+        return result(resultId(Ipv4Addresses.toInt(ipv4)));
+    }
+
+    @Override
+    public void infosFor(int address, IpInfosSink sink) {
+        int resultId = resultId(address);
+        if (resultId != NO_RESULT) {
+            results[resultId].copyTo(sink);
+        }
+    }
+
+    /**
+     * Looks up a batch of IPs with one sorted merge join against the intervals (see
+     * {@link Ipv4RangeIndex#findAll(int[], int, int[])}).
+     *
+     * @param addresses the IP addresses as int, in any order
+     * @param length the number of addresses to look up
+     * @param results receives the shared result for each address at the same position
+     */
+    @Override
+    public void infosFor(int[] addresses, int length, IpInfos[] results) {
+        int[] resultIds = new int[length];
+        resultIds(addresses, length, resultIds);
+        for (int i = 0; i < length; i++) {
+            results[i] = result(resultIds[i]);
+        }
+    }
+
+    /**
+     * Looks up the result ids for a batch of IPs with one sorted merge join against the intervals.
+     *
+     * @param addresses the IP addresses as int, in any order
+     * @param length the number of addresses to look up
+     * @param resultIds receives the result id (or {@link #NO_RESULT}) for each address at the same position
+     */
+    public void resultIds(int[] addresses, int length, int[] resultIds) {
+        index.findAll(addresses, length, resultIds);
+    }
+
+    /**
+     * Returns the id of the shared result for an IP.
+     *
+     * @param address the IPv4 address as int
+     * @return the result id or {@link #NO_RESULT}
+     */
+    public int resultId(int address) {
+        return index.find(address);
+    }
+
+    /**
+     * Returns the shared result for a result id.
+     *
+     * @param resultId a result id as returned by {@link #resultId(int)}
+     * @return the shared result, empty for {@link #NO_RESULT}
+     */
+    public IpInfos result(int resultId) {
+        return resultId == NO_RESULT ? EMPTY : results[resultId];
+    }
+
+    /**
+     * @return the number of distinct results
+     */
+    public int resultCount() {
+        return results.length;
+    }
+
+    /**
+     * @return the number of elementary intervals
+     */
+    public int intervalCount() {
+        return index.size();
+    }
+
+    /**
+     * @return the index of elementary intervals with result ids as payload ids
+     */
+    public Ipv4RangeIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * Packs a sweep event, ordered by position first. Positions take up to 33 bits.
+     *
+     * @param position the position of the event
+     * @param entry the entry of the range, less than {@link #MAX_ENTRIES}
+     * @return the packed event
+     */
+    static long event(long position, int entry) {
+        return position << ENTRY_BITS | entry;
+    }
+
+    static long position(long event) {
+        return event >>> ENTRY_BITS;
+    }
+
+    static int entry(long event) {
+        return (int) (event & ENTRY_MASK);
+    }
+
+    /**
+     * Collects the ranges of all providers and sweeps over their boundaries to build the elementary intervals.
+     */
+    private static class RangeCollector implements IndexedIpInfoProvider.RangeVisitor {
+
+        private final Map<String, Integer> slotsByName = new LinkedHashMap<>();
+        private final List<IpRangeInfos> entryInfos = new ArrayList<>();
+        private int[] entrySlots = new int[1024];
+        // packed events for range starts and for the positions right after range ends
+        private long[] startEvents = new long[1024];
+        private long[] endEvents = new long[1024];
+
+        @Override
+        public void visit(String providerName, long start, long end, IpRangeInfos infos) {
+            Integer slot = slotsByName.get(providerName);
+            if (slot == null) {
+                slot = slotsByName.size();
+                slotsByName.put(providerName, slot);
+            }
+            int entry = entryInfos.size();
+            if (entry == MAX_ENTRIES) {
+                throw new IllegalStateException("Too many ranges to compile");
+            }
+            if (entry == entrySlots.length) {
+                int capacity = entry + (entry >> 1);
+                entrySlots = Arrays.copyOf(entrySlots, capacity);
+                startEvents = Arrays.copyOf(startEvents, capacity);
+                endEvents = Arrays.copyOf(endEvents, capacity);
+            }
+            entryInfos.add(infos);
+            entrySlots[entry] = slot;
+            startEvents[entry] = event(start, entry);
+            endEvents[entry] = event(end + 1, entry);
+        }
+
+        CompiledIpInfoLookup compile() {
+            int entryCount = entryInfos.size();
+            long[] starts = Arrays.copyOf(startEvents, entryCount);
+            long[] ends = Arrays.copyOf(endEvents, entryCount);
+            Arrays.sort(starts);
+            Arrays.sort(ends);
+            String[] names = slotsByName.keySet().toArray(new String[slotsByName.size()]);
+
+            // active entry per provider name slot
+            int[] active = new int[names.length];
+            Arrays.fill(active, -1);
+            int activeCount = 0;
+
+            Map<ActiveEntries, Integer> resultIds = new HashMap<>();
+            List<IpInfos> results = new ArrayList<>();
+            Ipv4RangeIndex.Builder builder = Ipv4RangeIndex.builder(entryCount);
+            long intervalStart = -1;
+            int intervalResult = NO_RESULT;
+
+            int s = 0;
+            int e = 0;
+            while (s < entryCount || e < entryCount) {
+                long position = Math.min(
+                    s < entryCount ? position(starts[s]) : Long.MAX_VALUE,
+                    e < entryCount ? position(ends[e]) : Long.MAX_VALUE);
+                while (e < entryCount && position(ends[e]) == position) {
+                    int entry = entry(ends[e++]);
+                    if (active[entrySlots[entry]] == entry) {
+                        active[entrySlots[entry]] = -1;
+                        activeCount--;
+                    }
+                }
+                while (s < entryCount && position(starts[s]) == position) {
+                    int entry = entry(starts[s++]);
+                    if (active[entrySlots[entry]] == -1) {
+                        activeCount++;
+                    }
+                    active[entrySlots[entry]] = entry;
+                }
+                int result = NO_RESULT;
+                if (activeCount > 0) {
+                    int[] entries = new int[activeCount];
+                    for (int slot = 0, i = 0; slot < active.length; slot++) {
+                        if (active[slot] != -1) {
+                            entries[i++] = active[slot];
+                        }
+                    }
+                    ActiveEntries key = new ActiveEntries(entries);
+                    Integer resultId = resultIds.get(key);
+                    if (resultId == null) {
+                        resultId = results.size();
+                        resultIds.put(key, resultId);
+                        results.add(toResult(names, entries));
+                    }
+                    result = resultId;
+                }
+                // close the current interval if the result changes at this position
+                if (result != intervalResult) {
+                    if (intervalResult != NO_RESULT) {
+                        builder.add(intervalStart, position - 1, intervalResult);
+                    }
+                    intervalStart = position;
+                    intervalResult = result;
+                }
+            }
+            return new CompiledIpInfoLookup(builder.build(), results.toArray(new IpInfos[results.size()]));
+        }
+
+        private IpInfos toResult(String[] names, int[] entries) {
+            Map<String, IpRangeInfos> infos = new LinkedHashMap<>();
+            for (int entry: entries) {
+                infos.put(names[entrySlots[entry]], entryInfos.get(entry));
+            }
+            return IpInfos.shared(infos);
+        }
+    }
+
+    private static class ActiveEntries {
+
+        private final int[] entries;
+        private final int hash;
+
+        ActiveEntries(int[] entries) {
+            this.entries = entries;
+            this.hash = Arrays.hashCode(entries);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof ActiveEntries && Arrays.equals(entries, ((ActiveEntries) o).entries);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
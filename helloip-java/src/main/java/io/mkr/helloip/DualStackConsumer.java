@@ -0,0 +1,79 @@
+package io.mkr.helloip;
+
+import io.mkr.helloip.sources.IpRangeInfosConsumer;
+import io.mkr.helloip.sources.IpRangeInfosTable;
+import net.ripe.commons.ip.Ipv4Range;
+
+/**
+ * Passes everything streamed from a source to a consumer of the IPv4 ranges and to a builder of a table of the IPv6
+ * prefixes.
+ */
+final class DualStackConsumer implements IpRangeInfosConsumer {
+
+    private final IpRangeInfosConsumer ipv4;
+    private final IpRangeInfosTable.Builder ipv6;
+    private boolean started;
+
+    DualStackConsumer(IpRangeInfosConsumer ipv4, IpRangeInfosTable.Builder ipv6) {
+        this.ipv4 = ipv4;
+        this.ipv6 = ipv6;
+    }
+
+    /**
+     * @return whether anything was streamed, i.e. a source did not skip its unchanged ranges
+     */
+    boolean isStarted() {
+        return started;
+    }
+
+    @Override
+    public DualStackConsumer stringColumn(String key) {
+        started = true;
+        ipv4.stringColumn(key);
+        ipv6.stringColumn(key);
+        return this;
+    }
+
+    @Override
+    public DualStackConsumer intColumn(String key) {
+        started = true;
+        ipv4.intColumn(key);
+        ipv6.intColumn(key);
+        return this;
+    }
+
+    @Override
+    public DualStackConsumer addRow(Ipv4Range range) {
+        return addRow(range.start().asBigInteger().longValue(), range.end().asBigInteger().longValue());
+    }
+
+    @Override
+    public DualStackConsumer addRow(long start, long end) {
+        started = true;
+        ipv4.addRow(start, end);
+        ipv6.addRow(start, end);
+        return this;
+    }
+
+    @Override
+    public DualStackConsumer addIpv6Row(long high, long low, int prefixLength) {
+        started = true;
+        ipv4.addIpv6Row(high, low, prefixLength);
+        ipv6.addIpv6Row(high, low, prefixLength);
+        return this;
+    }
+
+    @Override
+    public DualStackConsumer setString(int column, String value) {
+        ipv4.setString(column, value);
+        ipv6.setString(column, value);
+        return this;
+    }
+
+    @Override
+    public DualStackConsumer setInt(int column, int value) {
+        ipv4.setInt(column, value);
+        ipv6.setInt(column, value);
+        return this;
+    }
+}
@@ -0,0 +1,32 @@
+package io.mkr.helloip;
+
+import io.mkr.helloip.sources.IpRangeInfos;
+
+/**
+ * An {@link IpInfoProvider} whose IPv4 ranges can be enumerated, e.g. to compile them into a
+ * {@link CompiledIpInfoLookup}.
+ */
+public interface IndexedIpInfoProvider extends IpInfoProvider {
+
+    /**
+     * Passes all ranges of this provider to the visitor. Ranges of the same provider name do not overlap and are
+     * visited in ascending order.
+     *
+     * @param visitor the visitor
+     */
+    void visitRanges(RangeVisitor visitor);
+
+    /**
+     * Callback for {@link #visitRanges(RangeVisitor)}.
+     */
+    interface RangeVisitor {
+
+        /**
+         * @param providerName the name the infos are added with
+         * @param start first address of the range as unsigned value
+         * @param end last address of the range as unsigned value
+         * @param infos the infos of the range
+         */
+        void visit(String providerName, long start, long end, IpRangeInfos infos);
+    }
+}
@@ -14,4 +14,21 @@ public interface IpInfoLookup {
      * @return accumulated information about an IPv4
      */
     IpInfos infosFor(Ipv4 ipv4);
+
+    /**
+     * Passes accumulated information about an IPv4 to a sink, see {@link Ipv4Addresses} for conversions to int.
+     *
+     * @param address the IP address as int
+     * @param sink the sink receiving the infos
+     */
+    void infosFor(int address, IpInfosSink sink);
+
+    /**
+     * Looks up accumulated information for a batch of IPv4s.
+     *
+     * @param addresses the IP addresses as int, in any order
+     * @param length the number of addresses to look up
+     * @param results receives the infos for each address at the same position
+     */
+    void infosFor(int[] addresses, int length, IpInfos[] results);
 }
@@ -1,32 +1,232 @@
 package io.mkr.helloip;
 
 import com.google.common.base.Supplier;
+import io.mkr.helloip.index.Ipv4RangeIndex;
+import io.mkr.helloip.metrics.IpInfoMetrics;
+import io.mkr.helloip.sources.IpRangeInfos;
 import net.ripe.commons.ip.Ipv4;
+import net.ripe.commons.ip.Ipv6;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 /**
- * An {@link IpInfoLookup} accumulating info using a list of supplied {@link IpInfoProvider}s.
+ * An {@link IpInfoLookup} accumulating info using a list of supplied {@link IpInfoProvider}s. With
+ * {@link ProviderHandles} lookups can be restricted to some providers (see {@link #infosFor(int, long, IpInfosSink)}).
  */
-public class IpInfoLookupImpl implements IpInfoLookup {
+public class IpInfoLookupImpl implements Ipv6InfoLookup {
+
+    private static final IpInfos EMPTY = IpInfos.shared(Collections.<String, IpRangeInfos>emptyMap());
 
     private final List<Supplier<IpInfoProvider>> providerSuppliers;
+    private final List<String> providerNames;
+    private final IpInfoMetrics metrics;
+    private final ProviderHandles handles;
+    // the bits of the provider names of each supplier, all bits without handle
+    private final long[] supplierBits;
 
     public IpInfoLookupImpl(List<Supplier<IpInfoProvider>> providerSuppliers) {
+        this(providerSuppliers, null, IpInfoMetrics.NONE);
+    }
+
+    /**
+     * @param providerSuppliers the suppliers of the providers
+     * @param providerNames the names to report the metrics of the providers of each supplier with
+     * @param metrics the metrics to report lookups to
+     */
+    public IpInfoLookupImpl(List<Supplier<IpInfoProvider>> providerSuppliers, List<String> providerNames,
+                            IpInfoMetrics metrics) {
+        this(providerSuppliers, providerNames, metrics, null);
+    }
+
+    /**
+     * @param providerSuppliers the suppliers of the providers
+     * @param providerNames the names of the providers of each supplier, for aspect providers the name of the source
+     * @param metrics the metrics to report lookups to
+     * @param handles the handles to register the provider names with, {@code null} if lookups are not masked
+     */
+    public IpInfoLookupImpl(List<Supplier<IpInfoProvider>> providerSuppliers, List<String> providerNames,
+                            IpInfoMetrics metrics, ProviderHandles handles) {
+        if ((metrics != IpInfoMetrics.NONE || handles != null) && providerNames.size() != providerSuppliers.size()) {
+            throw new IllegalArgumentException("Expected a name for each of the " + providerSuppliers.size()
+                + " suppliers, got " + providerNames);
+        }
         this.providerSuppliers = providerSuppliers;
+        this.providerNames = providerNames;
+        this.metrics = metrics;
+        this.handles = handles;
+        this.supplierBits = new long[providerSuppliers.size()];
+        for (int i = 0; i < supplierBits.length; i++) {
+            int handle = handles != null ? handles.handle(providerNames.get(i)) : ProviderHandles.NO_HANDLE;
+            supplierBits[i] = handle != ProviderHandles.NO_HANDLE ? 1L << handle : -1L;
+        }
+    }
+
+    /**
+     * @return the handles of the provider names or {@code null}
+     */
+    public ProviderHandles getProviderHandles() {
+        return handles;
     }
 
     @Override
     public IpInfos infosFor(Ipv4 ipv4) {
         IpInfos ipInfos = new IpInfos(ipv4);
-        for (Supplier<IpInfoProvider> providerSupplier: this.providerSuppliers) {
-            IpInfoProvider provider = providerSupplier.get();
+        infosFor(Ipv4Addresses.toInt(ipv4), ipInfos);
+        return ipInfos;
+    }
+
+    @Override
+    public void infosFor(int address, IpInfosSink sink) {
+        infosFor(address, sink, -1L);
+    }
+
+    /**
+     * Like {@link #infosFor(int, IpInfosSink)}, but only asks the suppliers of the providers in the mask.
+     *
+     * @param address the IP address as int
+     * @param providerMask the providers to ask, see {@link ProviderHandles#mask(String...)}
+     * @param sink the sink receiving the infos, e.g. a {@link SlotIpInfos}
+     * @throws IllegalStateException if created without handles
+     */
+    public void infosFor(int address, long providerMask, IpInfosSink sink) {
+        if (handles == null) {
+            throw new IllegalStateException("Masked lookups need provider handles");
+        }
+        infosFor(address, sink, handles.withSources(providerMask));
+    }
+
+    private void infosFor(int address, IpInfosSink sink, long mask) {
+        if (metrics != IpInfoMetrics.NONE) {
+            instrumentedInfosFor(address, sink, mask);
+            return;
+        }
+        for (int i = 0; i < providerSuppliers.size(); i++) {
+            if ((supplierBits[i] & mask) == 0) {
+                continue;
+            }
+            IpInfoProvider provider = providerSuppliers.get(i).get();
             // provider can be null if not yet initialized
             if (provider != null) {
-                provider.add(ipv4, ipInfos);
+                provider.add(address, sink);
             }
         }
+    }
+
+    private void instrumentedInfosFor(int address, IpInfosSink sink, long mask) {
+        HitDetectingSink hitDetectingSink = new HitDetectingSink(sink);
+        for (int i = 0; i < providerSuppliers.size(); i++) {
+            if ((supplierBits[i] & mask) == 0) {
+                continue;
+            }
+            IpInfoProvider provider = providerSuppliers.get(i).get();
+            if (provider != null) {
+                hitDetectingSink.hit = false;
+                long started = System.nanoTime();
+                provider.add(address, hitDetectingSink);
+                metrics.lookup(providerNames.get(i), hitDetectingSink.hit, System.nanoTime() - started);
+            }
+        }
+    }
+
+    @Override
+    public IpInfos infosFor(Ipv6 ipv6) {
+        IpInfos ipInfos = IpInfos.forIpv6(ipv6);
+        infosFor(Ipv6Addresses.high(ipv6), Ipv6Addresses.low(ipv6), ipInfos);
         return ipInfos;
     }
-        
+
+    @Override
+    public void infosFor(long high, long low, IpInfosSink sink) {
+        HitDetectingSink hitDetectingSink = metrics != IpInfoMetrics.NONE ? new HitDetectingSink(sink) : null;
+        for (int i = 0; i < providerSuppliers.size(); i++) {
+            IpInfoProvider provider = providerSuppliers.get(i).get();
+            if (!(provider instanceof Ipv6InfoProvider)) {
+                continue;
+            }
+            if (hitDetectingSink == null) {
+                ((Ipv6InfoProvider) provider).add(high, low, sink);
+            } else {
+                hitDetectingSink.hit = false;
+                long started = System.nanoTime();
+                ((Ipv6InfoProvider) provider).add(high, low, hitDetectingSink);
+                metrics.lookup(providerNames.get(i), hitDetectingSink.hit, System.nanoTime() - started);
+            }
+        }
+    }
+
+    /**
+     * Looks up a batch of IPs, using the batch lookups of {@link BatchIpInfoProvider}s.
+     */
+    @Override
+    public void infosFor(int[] addresses, int length, IpInfos[] results) {
+        Arrays.fill(results, 0, length, EMPTY);
+        if (metrics != IpInfoMetrics.NONE) {
+            // the metrics are per lookup
+            for (int i = 0; i < length; i++) {
+                results[i] = infosFor(Ipv4Addresses.toIpv4(addresses[i]));
+            }
+            return;
+        }
+        long[] batch = Ipv4RangeIndex.sortBatch(addresses, length);
+        BatchResults sink = new BatchResults(addresses, results);
+        for (int i = 0; i < providerSuppliers.size(); i++) {
+            IpInfoProvider provider = providerSuppliers.get(i).get();
+            if (provider instanceof BatchIpInfoProvider) {
+                ((BatchIpInfoProvider) provider).add(batch, sink);
+            } else if (provider != null) {
+                for (int position = 0; position < length; position++) {
+                    sink.position = position;
+                    provider.add(addresses[position], sink);
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates the result of a position on its first infos.
+     */
+    private static final class BatchResults implements BatchIpInfoProvider.BatchSink, IpInfosSink {
+
+        private final int[] addresses;
+        private final IpInfos[] results;
+        // the position of the IP passed to a provider without batch lookups
+        private int position;
+
+        BatchResults(int[] addresses, IpInfos[] results) {
+            this.addresses = addresses;
+            this.results = results;
+        }
+
+        @Override
+        public void accept(int position, String providerName, IpRangeInfos infos) {
+            if (results[position] == EMPTY) {
+                results[position] = new IpInfos(Ipv4Addresses.toIpv4(addresses[position]));
+            }
+            results[position].accept(providerName, infos);
+        }
+
+        @Override
+        public void accept(String providerName, IpRangeInfos infos) {
+            accept(position, providerName, infos);
+        }
+    }
+
+    private static final class HitDetectingSink implements IpInfosSink {
+
+        private final IpInfosSink delegate;
+        private boolean hit;
+
+        HitDetectingSink(IpInfosSink delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void accept(String providerName, IpRangeInfos infos) {
+            hit = true;
+            delegate.accept(providerName, infos);
+        }
+    }
+
 }
@@ -14,4 +14,11 @@ public interface IpInfoProvider {
      */
     void add(Ipv4 ipv4, IpInfos infos);
 
+    /**
+     * Passes further information about an IPv4 to a sink
+     * @param address the IP as int
+     * @param sink sink for infos
+     */
+    void add(int address, IpInfosSink sink);
+
 }
@@ -5,20 +5,63 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 
+import com.google.common.collect.ImmutableMap;
 import io.mkr.helloip.sources.IpRangeInfos;
 import net.ripe.commons.ip.Ipv4;
+import net.ripe.commons.ip.Ipv6;
 
 /**
  * Holds accumulated information for IPs.
  */
-public class IpInfos {
+public class IpInfos implements IpInfosSink {
 
     private final Ipv4 ipv4;
+    private final Ipv6 ipv6;
 
-    private final Map<String, IpRangeInfos> infos = new HashMap<>();
+    private final Map<String, IpRangeInfos> infos;
+
+    // flat copies of the infos of shared instances for allocation free iteration
+    private final String[] sharedProviderNames;
+    private final IpRangeInfos[] sharedInfos;
 
     public IpInfos(Ipv4 ipv4) {
+        this(ipv4, null);
+    }
+
+    /**
+     * Creates infos for an IPv6.
+     *
+     * @param ipv6 the IP
+     * @return the infos
+     */
+    public static IpInfos forIpv6(Ipv6 ipv6) {
+        return new IpInfos(null, ipv6);
+    }
+
+    private IpInfos(Ipv4 ipv4, Ipv6 ipv6) {
         this.ipv4 = ipv4;
+        this.ipv6 = ipv6;
+        this.infos = new HashMap<>();
+        this.sharedProviderNames = null;
+        this.sharedInfos = null;
+    }
+
+    /**
+     * Creates an unmodifiable {@link IpInfos} not bound to a specific IP, to be shared between lookups.
+     *
+     * @param infos the infos by provider name
+     * @return the shared infos
+     */
+    public static IpInfos shared(Map<String, IpRangeInfos> infos) {
+        return new IpInfos(ImmutableMap.copyOf(infos));
+    }
+
+    private IpInfos(ImmutableMap<String, IpRangeInfos> infos) {
+        this.ipv4 = null;
+        this.ipv6 = null;
+        this.infos = infos;
+        this.sharedProviderNames = infos.keySet().toArray(new String[infos.size()]);
+        this.sharedInfos = infos.values().toArray(new IpRangeInfos[infos.size()]);
     }
 
     public boolean hasAnyFrom(String providerName) {
@@ -46,8 +89,30 @@ public class IpInfos {
         return this;
     }
 
+    @Override
+    public void accept(String providerName, IpRangeInfos infos) {
+        add(providerName, infos);
+    }
+
+    /**
+     * Passes all infos to a sink.
+     *
+     * @param sink the sink
+     */
+    public void copyTo(IpInfosSink sink) {
+        if (sharedProviderNames != null) {
+            for (int i = 0; i < sharedProviderNames.length; i++) {
+                sink.accept(sharedProviderNames[i], sharedInfos[i]);
+            }
+        } else {
+            for (Map.Entry<String, IpRangeInfos> entry: infos.entrySet()) {
+                sink.accept(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
     @Override
     public String toString() {
-        return ipv4.toString() + "[" + infos + "]";
+        return (ipv4 != null ? ipv4.toString() : ipv6 != null ? ipv6.toString() : "") + "[" + infos + "]";
     }
 }
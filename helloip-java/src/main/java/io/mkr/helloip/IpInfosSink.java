@@ -0,0 +1,19 @@
+package io.mkr.helloip;
+
+import io.mkr.helloip.sources.IpRangeInfos;
+
+/**
+ * Receives the infos found for an IP by {@link IpInfoLookup#infosFor(int, IpInfosSink)} and
+ * {@link IpInfoProvider#add(int, IpInfosSink)}. Implementations can be reused across lookups.
+ */
+public interface IpInfosSink {
+
+    /**
+     * Accepts the infos of a provider
+     *
+     * @param providerName the provider name
+     * @param infos the infos of the range containing the IP
+     */
+    void accept(String providerName, IpRangeInfos infos);
+
+}
@@ -0,0 +1,171 @@
+package io.mkr.helloip;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+
+import net.ripe.commons.ip.Ipv4;
+
+/**
+ * Conversions of IPv4 addresses from and to their {@code int} representation holding the 32 bits of the address,
+ * i.e. {@code 255.255.255.255} is {@code -1}. The {@code parse} methods return the address as unsigned value or
+ * {@link #INVALID}.
+ */
+public final class Ipv4Addresses {
+
+    /** Returned by the {@code parse} methods for anything but a plain dotted-quad IPv4 address */
+    public static final long INVALID = -1L;
+
+    private Ipv4Addresses() {
+    }
+
+    public static int toInt(Ipv4 ipv4) {
+        return (int) ipv4.asBigInteger().longValue();
+    }
+
+    /**
+     * @param address an IPv4 address
+     * @return the address as int
+     * @throws IllegalArgumentException if the address is no IPv4 address
+     */
+    public static int toInt(InetAddress address) {
+        if (!(address instanceof Inet4Address)) {
+            throw new IllegalArgumentException("Not an IPv4 address: " + address);
+        }
+        return toInt(address.getAddress(), 0);
+    }
+
+    /**
+     * @param bytes bytes holding the address in network byte order
+     * @param offset offset of the first byte of the address
+     * @return the address as int
+     */
+    public static int toInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) << 24
+            | (bytes[offset + 1] & 0xFF) << 16
+            | (bytes[offset + 2] & 0xFF) << 8
+            | (bytes[offset + 3] & 0xFF);
+    }
+
+    /**
+     * Reads the address at the buffer's current position without changing the position.
+     *
+     * @param buffer buffer holding the address in network byte order
+     * @return the address as int
+     */
+    public static int toInt(ByteBuffer buffer) {
+        int position = buffer.position();
+        return (buffer.get(position) & 0xFF) << 24
+            | (buffer.get(position + 1) & 0xFF) << 16
+            | (buffer.get(position + 2) & 0xFF) << 8
+            | (buffer.get(position + 3) & 0xFF);
+    }
+
+    /**
+     * @param chars the characters to parse
+     * @return the address as unsigned value or {@link #INVALID}
+     */
+    public static long parse(CharSequence chars) {
+        return parse(chars, 0, chars.length());
+    }
+
+    /**
+     * @param chars characters holding the address
+     * @param from index of the first character (inclusive)
+     * @param to index of the last character (exclusive)
+     * @return the address as unsigned value or {@link #INVALID}
+     */
+    public static long parse(CharSequence chars, int from, int to) {
+        int address = 0;
+        int octet = 0;
+        int digits = 0;
+        int dots = 0;
+        for (int i = from; i < to; i++) {
+            char c = chars.charAt(i);
+            if (c >= '0' && c <= '9') {
+                octet = octet * 10 + (c - '0');
+                if (++digits > 3 || octet > 255) {
+                    return INVALID;
+                }
+            } else if (c == '.' && digits > 0 && dots < 3) {
+                address = address << 8 | octet;
+                octet = 0;
+                digits = 0;
+                dots++;
+            } else {
+                return INVALID;
+            }
+        }
+        return dots == 3 && digits > 0 ? toUnsignedLong(address << 8 | octet) : INVALID;
+    }
+
+    /**
+     * @param bytes ASCII bytes holding the address
+     * @param from offset of the first byte (inclusive)
+     * @param to offset of the last byte (exclusive)
+     * @return the address as unsigned value or {@link #INVALID}
+     */
+    public static long parse(byte[] bytes, int from, int to) {
+        int address = 0;
+        int octet = 0;
+        int digits = 0;
+        int dots = 0;
+        for (int i = from; i < to; i++) {
+            int b = bytes[i];
+            if (b >= '0' && b <= '9') {
+                octet = octet * 10 + (b - '0');
+                if (++digits > 3 || octet > 255) {
+                    return INVALID;
+                }
+            } else if (b == '.' && digits > 0 && dots < 3) {
+                address = address << 8 | octet;
+                octet = 0;
+                digits = 0;
+                dots++;
+            } else {
+                return INVALID;
+            }
+        }
+        return dots == 3 && digits > 0 ? toUnsignedLong(address << 8 | octet) : INVALID;
+    }
+
+    /**
+     * Reads with absolute gets, the buffer's position is not changed.
+     *
+     * @param buffer buffer holding the address as ASCII bytes
+     * @param from index of the first byte (inclusive)
+     * @param to index of the last byte (exclusive)
+     * @return the address as unsigned value or {@link #INVALID}
+     */
+    public static long parse(ByteBuffer buffer, int from, int to) {
+        int address = 0;
+        int octet = 0;
+        int digits = 0;
+        int dots = 0;
+        for (int i = from; i < to; i++) {
+            int b = buffer.get(i);
+            if (b >= '0' && b <= '9') {
+                octet = octet * 10 + (b - '0');
+                if (++digits > 3 || octet > 255) {
+                    return INVALID;
+                }
+            } else if (b == '.' && digits > 0 && dots < 3) {
+                address = address << 8 | octet;
+                octet = 0;
+                digits = 0;
+                dots++;
+            } else {
+                return INVALID;
+            }
+        }
+        return dots == 3 && digits > 0 ? toUnsignedLong(address << 8 | octet) : INVALID;
+    }
+
+    public static long toUnsignedLong(int address) {
+        return address & 0xFFFFFFFFL;
+    }
+
+    public static Ipv4 toIpv4(int address) {
+        return Ipv4.of(toUnsignedLong(address));
+    }
+}
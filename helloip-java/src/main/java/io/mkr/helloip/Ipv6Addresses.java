@@ -0,0 +1,132 @@
+package io.mkr.helloip;
+
+import java.math.BigInteger;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+
+import net.ripe.commons.ip.Ipv6;
+import net.ripe.commons.ip.Ipv6Range;
+
+/**
+ * Conversions of IPv6 addresses from and to their representation as two {@code long}s, the high and the low 64 bits
+ * of the address.
+ */
+public final class Ipv6Addresses {
+
+    private static final BigInteger LOW_MASK = BigInteger.ONE.shiftLeft(64).subtract(BigInteger.ONE);
+    private static final BigInteger ADDRESS_MASK = BigInteger.ONE.shiftLeft(128).subtract(BigInteger.ONE);
+
+    private Ipv6Addresses() {
+    }
+
+    /**
+     * @param ipv6 an IPv6 address
+     * @return the high 64 bits of the address
+     */
+    public static long high(Ipv6 ipv6) {
+        return ipv6.asBigInteger().shiftRight(64).longValue();
+    }
+
+    /**
+     * @param ipv6 an IPv6 address
+     * @return the low 64 bits of the address
+     */
+    public static long low(Ipv6 ipv6) {
+        return ipv6.asBigInteger().longValue();
+    }
+
+    /**
+     *
+     * @param address an IPv6 address
+     * @return the high 64 bits of the address
+     * @throws IllegalArgumentException if the address is no IPv6 address
+     */
+    public static long high(InetAddress address) {
+        return toLong(bytes(address), 0);
+    }
+
+    /**
+     * @param address an IPv6 address
+     * @return the low 64 bits of the address
+     * @throws IllegalArgumentException if the address is no IPv6 address
+     */
+    public static long low(InetAddress address) {
+        return toLong(bytes(address), 8);
+    }
+
+    private static byte[] bytes(InetAddress address) {
+        if (!(address instanceof Inet6Address)) {
+            throw new IllegalArgumentException("Not an IPv6 address: " + address);
+        }
+        return address.getAddress();
+    }
+
+    /**
+     * @param bytes bytes holding the address in network byte order
+     * @param offset offset of the first byte of the half, i.e. 8 more than the address's offset for the low half
+     * @return the 64 bits starting at the offset
+     */
+    public static long toLong(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = offset; i < offset + 8; i++) {
+            value = value << 8 | (bytes[i] & 0xFF);
+        }
+        return value;
+    }
+
+    /**
+     * @param high the high 64 bits of the address
+     * @param low the low 64 bits of the address
+     * @return the address
+     */
+    public static Ipv6 toIpv6(long high, long low) {
+        return Ipv6.of(BigInteger.valueOf(high).shiftLeft(64).or(BigInteger.valueOf(low).and(LOW_MASK))
+            .and(ADDRESS_MASK));
+    }
+
+    /**
+     * @param high the high 64 bits of the prefix
+     * @param low the low 64 bits of the prefix
+     * @param prefixLength the prefix length
+     * @return the range of the prefix
+     */
+    public static Ipv6Range toIpv6Range(long high, long low, int prefixLength) {
+        return Ipv6Range.from(toIpv6(high, low))
+            .to(toIpv6(high | hostMaskHigh(prefixLength), low | hostMaskLow(prefixLength)));
+    }
+
+    /**
+     * @param prefixLength a prefix length from 0 to 128
+     * @return the bits of the high half not covered by the prefix
+     */
+    public static long hostMaskHigh(int prefixLength) {
+        return prefixLength >= 64 ? 0L : -1L >>> prefixLength;
+    }
+
+    /**
+     * @param prefixLength a prefix length from 0 to 128
+     * @return the bits of the low half not covered by the prefix
+     */
+    public static long hostMaskLow(int prefixLength) {
+        if (prefixLength <= 64) {
+            return -1L;
+        }
+        return prefixLength == 128 ? 0L : -1L >>> (prefixLength - 64);
+    }
+
+    /**
+     * Compares two addresses as unsigned 128 bit values.
+     *
+     * @return a negative value, zero or a positive value if the first address is less than, equal to or greater
+     * than the second one
+     */
+    public static int compare(long high1, long low1, long high2, long low2) {
+        if (high1 != high2) {
+            return (high1 ^ Long.MIN_VALUE) < (high2 ^ Long.MIN_VALUE) ? -1 : 1;
+        }
+        if (low1 != low2) {
+            return (low1 ^ Long.MIN_VALUE) < (low2 ^ Long.MIN_VALUE) ? -1 : 1;
+        }
+        return 0;
+    }
+}
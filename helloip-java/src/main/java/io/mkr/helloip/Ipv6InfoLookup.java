@@ -0,0 +1,27 @@
+package io.mkr.helloip;
+
+import net.ripe.commons.ip.Ipv6;
+
+/**
+ * The {@link Ipv6InfoLookup} accumulates all {@link IpInfos} about an {@link Ipv6} from the {@link Ipv6InfoProvider}s
+ * of an {@link IpInfoLookup}.
+ */
+public interface Ipv6InfoLookup extends IpInfoLookup {
+
+    /**
+     * Returns accumulated information about an IPv6
+     *
+     * @param ipv6 the IP address
+     * @return accumulated information about an IPv6
+     */
+    IpInfos infosFor(Ipv6 ipv6);
+
+    /**
+     * Passes accumulated information about an IPv6 to a sink.
+     *
+     * @param high the high 64 bits of the IP address (see {@link Ipv6Addresses})
+     * @param low the low 64 bits of the IP address
+     * @param sink the sink receiving the infos
+     */
+    void infosFor(long high, long low, IpInfosSink sink);
+}
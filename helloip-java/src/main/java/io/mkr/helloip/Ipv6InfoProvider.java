@@ -0,0 +1,25 @@
+package io.mkr.helloip;
+
+import net.ripe.commons.ip.Ipv6;
+
+/**
+ * An {@link IpInfoProvider} which can also add information about IPv6 addresses.
+ */
+public interface Ipv6InfoProvider extends IpInfoProvider {
+
+    /**
+     * Adds further information about an {@link Ipv6} to an {@link IpInfos} accumulator
+     * @param ipv6 the IP
+     * @param infos accumulator for infos
+     */
+    void add(Ipv6 ipv6, IpInfos infos);
+
+    /**
+     * Passes further information about an IPv6 to a sink
+     * @param high the high 64 bits of the IP (see {@link Ipv6Addresses})
+     * @param low the low 64 bits of the IP
+     * @param sink sink for infos
+     */
+    void add(long high, long low, IpInfosSink sink);
+
+}
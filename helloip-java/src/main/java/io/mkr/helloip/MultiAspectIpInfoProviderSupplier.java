@@ -2,67 +2,246 @@ package io.mkr.helloip;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
-import com.google.common.base.Function;
 import com.google.common.base.Supplier;
-import com.google.common.collect.Multimap;
-import com.google.common.collect.Multimaps;
-import io.mkr.helloip.sources.IpRangeInfos;
+import io.mkr.helloip.base.Sized;
+import io.mkr.helloip.index.Ipv4Index;
+import io.mkr.helloip.index.Ipv4IndexEngine;
+import io.mkr.helloip.index.Ipv6RangeIndex;
+import io.mkr.helloip.metrics.IpInfoMetrics;
+import io.mkr.helloip.sources.ChangeAwareIpRangeInfosSource;
 import io.mkr.helloip.sources.IpRangeInfosSource;
+import io.mkr.helloip.sources.IpRangeInfosTable;
 import net.ripe.commons.ip.Ipv4;
+import net.ripe.commons.ip.Ipv6;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
- *
+ * Supplier constructing one {@link IpInfoProvider} per distinct value of an attribute (the aspect, e.g. the AWS
+ * service), all backed by one table of the ranges streamed from a given {@link IpRangeInfosSource}. Like
+ * {@link SourcingIpInfoProviderSupplier} it keeps the previous provider while a
+ * {@link ChangeAwareIpRangeInfosSource} reports its ranges unchanged.
  */
 public class MultiAspectIpInfoProviderSupplier implements Supplier<IpInfoProvider> {
 
+    private static final Logger logger = LoggerFactory.getLogger(MultiAspectIpInfoProviderSupplier.class);
+
     private final IpRangeInfosSource ipRangesSource;
     private final String aspectField;
+    private final boolean incremental;
+    private final Ipv4IndexEngine engine;
+
+    private AggregatingIpInfoProvider current;
+    private String changeToken;
+    private RangeInfosSnapshot snapshot;
+    private IpRangeInfosTable ipv6Table;
+    private int lastSize = 1024;
+    private volatile IpInfoMetrics metrics = IpInfoMetrics.NONE;
 
     public MultiAspectIpInfoProviderSupplier(IpRangeInfosSource ipRangesSource, String aspectField) {
+        this(ipRangesSource, aspectField, false);
+    }
+
+    /**
+     * @param ipRangesSource the source
+     * @param aspectField the attribute to create providers per value for
+     * @param incremental whether to patch the previous table instead of building a new one on refresh
+     */
+    public MultiAspectIpInfoProviderSupplier(IpRangeInfosSource ipRangesSource, String aspectField,
+                                             boolean incremental) {
+        this(ipRangesSource, aspectField, incremental, Ipv4IndexEngine.RANGES);
+    }
+
+    /**
+     * @param ipRangesSource the source
+     * @param aspectField the attribute to create providers per value for
+     * @param incremental whether to patch the previous table instead of building a new one on refresh
+     * @param engine the engine of the indexes per aspect
+     */
+    public MultiAspectIpInfoProviderSupplier(IpRangeInfosSource ipRangesSource, String aspectField,
+                                             boolean incremental, Ipv4IndexEngine engine) {
         this.ipRangesSource = ipRangesSource;
         this.aspectField = aspectField;
+        this.incremental = incremental;
+        this.engine = engine;
     }
 
+    /**
+     * @param metrics the metrics to report refreshes to
+     */
+    public void setMetrics(IpInfoMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return the provider
+     * @throws RuntimeException if the ranges could not be read
+     */
     @Override
-    public IpInfoProvider get() {
+    public synchronized IpInfoProvider get() {
+        IpInfoMetrics metrics = this.metrics;
+        long started = System.nanoTime();
+        long charsRead = SourcingIpInfoProviderSupplier.charsRead(ipRangesSource);
+        IpInfoProvider previous = current;
         try {
-            List<IpRangeInfos> ipRangeInfos = ipRangesSource.getIpRanges();
-            Multimap<String, IpRangeInfos> m = Multimaps.index(ipRangeInfos, new Function<IpRangeInfos, String>() {
-                @Override
-                public String apply(IpRangeInfos ipRangeInfo) {
-                    return ipRangeInfo.getInfos().get(aspectField);
-                }
-            });
-            List<IpInfoProvider> providers = new ArrayList<>();
-            for (Map.Entry<String, Collection<IpRangeInfos>> aspectWithIpRangeInfos: m.asMap().entrySet()) {
-                IpInfoProvider provider = new RangeBasedIpInfoProvider(ipRangesSource.getName() + ":" + aspectWithIpRangeInfos.getKey(),
-                    new ArrayList<>(aspectWithIpRangeInfos.getValue()));
-                providers.add(provider);
+            AggregatingIpInfoProvider provider = refresh();
+            if (metrics != IpInfoMetrics.NONE) {
+                metrics.refreshed(ipRangesSource.getName(), provider != previous, System.nanoTime() - started,
+                    SourcingIpInfoProviderSupplier.charsRead(ipRangesSource) - charsRead, provider.size,
+                    provider.sizeInBytes);
             }
-            return new AggregatingIpInfoProvider(providers);
+            return provider;
+        } catch (IOException | RuntimeException e) {
+            metrics.refreshFailed(ipRangesSource.getName(), System.nanoTime() - started, e);
+            logger.error("Error creating IP info provider", e);
+            throw e instanceof RuntimeException ? (RuntimeException) e : new RuntimeException(e);
+        }
+    }
 
-        } catch (IOException e) {
-            // TODO!
-            return null;
+    private AggregatingIpInfoProvider refresh() throws IOException {
+        IpRangeInfosTable.Builder tableBuilder = incremental ? null : IpRangeInfosTable.builder(lastSize / 32 * 33 + 64);
+        RangeInfosSnapshot.Builder snapshotBuilder = incremental ? RangeInfosSnapshot.builder(snapshot) : null;
+        IpRangeInfosTable.Builder ipv6Builder = IpRangeInfosTable.ipv6Builder(ipv6Table);
+        DualStackConsumer builder = new DualStackConsumer(incremental ? snapshotBuilder : tableBuilder,
+            ipv6Builder);
+        if (ipRangesSource instanceof ChangeAwareIpRangeInfosSource) {
+            String token = ((ChangeAwareIpRangeInfosSource) ipRangesSource).streamIpRangesIfChanged(builder,
+                current == null ? null : changeToken);
+            if (token == null) {
+                return current;
+            }
+            if (!builder.isStarted()) {
+                changeToken = token;
+                return current;
+            }
+            changeToken = token;
+        } else {
+            ipRangesSource.streamIpRanges(builder);
+        }
+        boolean ipv6Changed = !ipv6Builder.rowsEqualPrevious();
+        if (ipv6Changed) {
+            ipv6Table = ipv6Builder.build();
+        }
+        if (!incremental) {
+            IpRangeInfosTable table = tableBuilder.build();
+            lastSize = table.size();
+            current = build(table, null);
+        } else {
+            RangeInfosSnapshot next = snapshotBuilder.build();
+            if (next != snapshot || ipv6Changed || current == null) {
+                current = build(next.table, next.sortedRows);
+                snapshot = next;
+            }
         }
+        return current;
     }
 
-    private static class AggregatingIpInfoProvider implements IpInfoProvider {
+    /**
+     * @param rows the rows to index in order of their start or {@code null} for all rows
+     */
+    private AggregatingIpInfoProvider build(IpRangeInfosTable table, int[] rows) {
+        // index the rows of each aspect separately, all indexes point into the same table
+        int aspectColumn = table.column(aspectField);
+        Map<String, Ipv4Index.Builder> aspectIndexes = new LinkedHashMap<>();
+        int count = rows == null ? table.size() : rows.length;
+        for (int i = 0; i < count; i++) {
+            int row = rows == null ? i : rows[i];
+            String aspect = aspectColumn < 0 ? null : table.value(row, aspectColumn);
+            Ipv4Index.Builder aspectIndex = aspectIndexes.get(aspect);
+            if (aspectIndex == null) {
+                aspectIndex = engine.builder(16);
+                aspectIndexes.put(aspect, aspectIndex);
+            }
+            aspectIndex.add(table.start(row), table.end(row), row);
+        }
+        // the same for the IPv6 prefixes, pointing into the IPv6 table
+        int ipv6AspectColumn = ipv6Table.column(aspectField);
+        Map<String, Ipv6RangeIndex.Builder> ipv6AspectIndexes = new LinkedHashMap<>();
+        for (int row = 0; row < ipv6Table.size(); row++) {
+            String aspect = ipv6AspectColumn < 0 ? null : ipv6Table.value(row, ipv6AspectColumn);
+            Ipv6RangeIndex.Builder aspectIndex = ipv6AspectIndexes.get(aspect);
+            if (aspectIndex == null) {
+                aspectIndex = Ipv6RangeIndex.builder();
+                ipv6AspectIndexes.put(aspect, aspectIndex);
+                if (!aspectIndexes.containsKey(aspect)) {
+                    // an aspect without IPv4 ranges
+                    aspectIndexes.put(aspect, Ipv4IndexEngine.RANGES.builder(0));
+                }
+            }
+            aspectIndex.add(ipv6Table.prefixHigh(row), ipv6Table.prefixLow(row), ipv6Table.prefixLength(row), row);
+        }
+        List<RangeBasedIpInfoProvider> providers = new ArrayList<>();
+        // the tables are shared, so count them once, as well as the rows kept for patching
+        long sizeInBytes = table.sizeInBytes() + (rows == null ? 0 : 8L * rows.length) + ipv6Table.sizeInBytes();
+        for (Map.Entry<String, Ipv4Index.Builder> aspectIndex: aspectIndexes.entrySet()) {
+            Ipv4Index index = aspectIndex.getValue().build();
+            sizeInBytes += index.sizeInBytes();
+            Ipv6RangeIndex.Builder ipv6AspectIndex = ipv6AspectIndexes.get(aspectIndex.getKey());
+            Ipv6RangeIndex ipv6Index = (ipv6AspectIndex != null ? ipv6AspectIndex : Ipv6RangeIndex.builder(0)).build();
+            sizeInBytes += ipv6Index.sizeInBytes();
+            providers.add(new RangeBasedIpInfoProvider(ipRangesSource.getName() + ":" + aspectIndex.getKey(),
+                index, table, ipv6Index, ipv6Table));
+        }
+        return new AggregatingIpInfoProvider(providers, count + ipv6Table.size(), sizeInBytes);
+    }
 
-        private final List<IpInfoProvider> delegates;
+    private static class AggregatingIpInfoProvider implements IndexedIpInfoProvider, BatchIpInfoProvider,
+            Ipv6InfoProvider, Sized {
 
-        public AggregatingIpInfoProvider(List<IpInfoProvider> delegates) {
+        private final List<RangeBasedIpInfoProvider> delegates;
+        private final int size;
+        private final long sizeInBytes;
+
+        public AggregatingIpInfoProvider(List<RangeBasedIpInfoProvider> delegates, int size, long sizeInBytes) {
             this.delegates = delegates;
+            this.size = size;
+            this.sizeInBytes = sizeInBytes;
+        }
+
+        @Override
+        public long sizeInBytes() {
+            return sizeInBytes;
         }
 
         @Override
         public void add(Ipv4 ipv4, IpInfos infos) {
-            for (IpInfoProvider delegate: delegates) {
-                delegate.add(ipv4, infos);
+            add(Ipv4Addresses.toInt(ipv4), infos);
+        }
+
+        @Override
+        public void add(int address, IpInfosSink sink) {
+            for (int i = 0; i < delegates.size(); i++) {
+                delegates.get(i).add(address, sink);
+            }
+        }
+
+        @Override
+        public void add(long[] batch, BatchSink sink) {
+            for (int i = 0; i < delegates.size(); i++) {
+                delegates.get(i).add(batch, sink);
+            }
+        }
+
+        @Override
+        public void add(Ipv6 ipv6, IpInfos infos) {
+            add(Ipv6Addresses.high(ipv6), Ipv6Addresses.low(ipv6), infos);
+        }
+
+        @Override
+        public void add(long high, long low, IpInfosSink sink) {
+            for (int i = 0; i < delegates.size(); i++) {
+                delegates.get(i).add(high, low, sink);
+            }
+        }
+
+        @Override
+        public void visitRanges(RangeVisitor visitor) {
+            for (IndexedIpInfoProvider delegate: delegates) {
+                delegate.visitRanges(visitor);
             }
         }
     }
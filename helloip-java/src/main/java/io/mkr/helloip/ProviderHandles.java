@@ -0,0 +1,124 @@
+package io.mkr.helloip;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Assigns small integer handles to provider names, used as slots of {@link SlotIpInfos} and bits of provider masks.
+ * At most {@link #MAX_HANDLES} names get a handle of their own, names registered later on get the handle of their
+ * source or {@link #NO_HANDLE}. Registering an aspect like {@code AWS:EC2} registers its source {@code AWS} as well,
+ * and {@code mask("AWS")} matches all AWS aspects. Handles are never removed. Thread safe.
+ */
+public final class ProviderHandles {
+
+    public static final int MAX_HANDLES = 64;
+
+    /** The handle of names registered after all handles were taken, which are not kept in slots or masks */
+    public static final int NO_HANDLE = -1;
+
+    private static final Logger log = LoggerFactory.getLogger(ProviderHandles.class);
+
+    private static final char ASPECT_SEPARATOR = ':';
+
+    private final ConcurrentMap<String, Integer> handles = new ConcurrentHashMap<>();
+    // copied on registration, so readers see complete arrays
+    private volatile String[] names = new String[0];
+    private volatile long[] bits = new long[0];
+
+    /**
+     * Returns the handle of a provider name, registering it if new.
+     *
+     * @param providerName the provider name
+     * @return the handle from 0 to 63, or {@link #NO_HANDLE}
+     */
+    public int handle(String providerName) {
+        Integer handle = handles.get(providerName);
+        return handle != null ? handle : register(providerName);
+    }
+
+    private synchronized int register(String providerName) {
+        Integer existing = handles.get(providerName);
+        if (existing != null) {
+            return existing;
+        }
+        int separator = providerName.indexOf(ASPECT_SEPARATOR);
+        int sourceHandle = separator > 0 ? handle(providerName.substring(0, separator)) : NO_HANDLE;
+        long sourceBits = sourceHandle != NO_HANDLE ? bits(sourceHandle) : 0L;
+        int handle = names.length;
+        if (handle == MAX_HANDLES) {
+            // an aspect falls back to its source
+            log.warn("No handle left for provider {}, using {}", providerName,
+                sourceHandle == NO_HANDLE ? "none" : names[sourceHandle]);
+            handles.put(providerName, sourceHandle);
+            return sourceHandle;
+        }
+        String[] newNames = Arrays.copyOf(names, handle + 1);
+        long[] newBits = Arrays.copyOf(bits, handle + 1);
+        newNames[handle] = providerName;
+        newBits[handle] = 1L << handle | sourceBits;
+        bits = newBits;
+        names = newNames;
+        handles.put(providerName, handle);
+        return handle;
+    }
+
+    /**
+     * @param handle a handle
+     * @return the bit of the handle and, for an aspect, the bit of its source
+     */
+    public long bits(int handle) {
+        return bits[handle];
+    }
+
+    /**
+     * Returns the mask selecting providers, registering the names if new.
+     *
+     * @param providerNames provider names like {@code THYME}, {@code AWS} or {@code AWS:EC2}
+     * @return the bits of the handles of the names
+     */
+    public long mask(String... providerNames) {
+        long mask = 0;
+        for (String providerName: providerNames) {
+            int handle = handle(providerName);
+            if (handle != NO_HANDLE) {
+                mask |= 1L << handle;
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * @param mask a mask of handles
+     * @return the mask with the bits of the sources of its aspects added
+     */
+    public long withSources(long mask) {
+        long[] bits = this.bits;
+        long withSources = mask;
+        for (long remaining = mask; remaining != 0; remaining &= remaining - 1) {
+            int handle = Long.numberOfTrailingZeros(remaining);
+            if (handle < bits.length) {
+                withSources |= bits[handle];
+            }
+        }
+        return withSources;
+    }
+
+    /**
+     * @param handle a handle
+     * @return the provider name of the handle
+     */
+    public String name(int handle) {
+        return names[handle];
+    }
+
+    /**
+     * @return the number of handles registered
+     */
+    public int size() {
+        return names.length;
+    }
+}
@@ -1,56 +1,374 @@
 package io.mkr.helloip;
 
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 
-import com.google.common.collect.Range;
-import com.google.common.collect.RangeMap;
-import com.google.common.collect.TreeRangeMap;
+import io.mkr.helloip.base.Sized;
+import io.mkr.helloip.index.Ipv4Index;
+import io.mkr.helloip.index.Ipv4IndexEngine;
+import io.mkr.helloip.index.Ipv6RangeIndex;
 import io.mkr.helloip.sources.IpRangeInfos;
+import io.mkr.helloip.sources.IpRangeInfosConsumer;
+import io.mkr.helloip.sources.IpRangeInfosSource;
+import io.mkr.helloip.sources.IpRangeInfosTable;
 import net.ripe.commons.ip.Ipv4;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import net.ripe.commons.ip.Ipv4Range;
+import net.ripe.commons.ip.Ipv6;
 
-public class RangeBasedIpInfoProvider implements IpInfoProvider {
-
-    private static final Logger log = LoggerFactory.getLogger(RangeBasedIpInfoProvider.class);
+/**
+ * An {@link IpInfoProvider} backed by an {@link Ipv4Index} over the ranges of a source. Providers created by a
+ * {@link #builder(String)} also index the IPv6 prefixes of the source in an {@link Ipv6RangeIndex}.
+ */
+public class RangeBasedIpInfoProvider implements IndexedIpInfoProvider, BatchIpInfoProvider, Ipv6InfoProvider,
+        Sized {
 
     private final String name;
-    private final RangeMap<Long, IpRangeInfos> ipInfos;
+    private final Ipv4Index index;
+    private final List<IpRangeInfos> ipInfos;
+    // kept for patching on the next refresh if built incrementally
+    private final RangeInfosSnapshot snapshot;
+    // null if not built from streamed ranges
+    private final Ipv6RangeIndex ipv6Index;
+    private final IpRangeInfosTable ipv6Infos;
+    // the handle of the name in the handles of the last SlotIpInfos added to
+    private volatile ResolvedHandle handle;
 
+    /**
+     * Creates the provider. An {@link IpRangeInfosTable} is kept as is, any other list is copied.
+     *
+     * @param name the provider name infos are added with
+     * @param ipRangeInfos the ranges and their infos
+     */
     public RangeBasedIpInfoProvider(String name, List<IpRangeInfos> ipRangeInfos) {
+        this(name, ipRangeInfos, Ipv4IndexEngine.RANGES);
+    }
+
+    /**
+     * Creates the provider like {@link #RangeBasedIpInfoProvider(String, List)} with an index of the given engine.
+     *
+     * @param name the provider name infos are added with
+     * @param ipRangeInfos the ranges and their infos
+     * @param engine the engine of the index
+     */
+    public RangeBasedIpInfoProvider(String name, List<IpRangeInfos> ipRangeInfos, Ipv4IndexEngine engine) {
         this.name = name;
-        RangeMap<Long, IpRangeInfos> rangeMap = TreeRangeMap.create();
-        for (IpRangeInfos ipRange: ipRangeInfos) {
-            Range<Long> range = Range.closed(
-                ipRange.getRange().start().asBigInteger().longValue(),
-                ipRange.getRange().end().asBigInteger().longValue()
-            );
-            // get a possibly existing previous entry for that range (some sources have multiple entries for similar ranges)
-            Map.Entry<Range<Long>, IpRangeInfos> existing = rangeMap.getEntry(range.lowerEndpoint());
-            if (existing != null) {
-                Range<Long> existingRange = existing.getKey();
-                if (existingRange.encloses(range)) {
-                    log.debug("Existing range enclosing new one, skipping (new: {}, existing: {})", range, existingRange);
-                } else if (range.encloses(existingRange)) {
-                    log.debug("New range enclosing existing one, replacing existing (new: {}, existing: {})", range, existingRange);
-                    rangeMap.remove(existingRange);
-                    rangeMap.put(range, ipRange);
-                } else {
-                    log.warn("Range overlap between existing and new range, skipping (new: {}, existing: {})", range, existingRange);
-                }
-            } else {
-                rangeMap.put(range, ipRange);
+        Ipv4Index.Builder builder = engine.builder(ipRangeInfos.size());
+        if (ipRangeInfos instanceof IpRangeInfosTable) {
+            IpRangeInfosTable table = (IpRangeInfosTable) ipRangeInfos;
+            for (int i = 0; i < table.size(); i++) {
+                builder.add(table.start(i), table.end(i), i);
+            }
+            this.ipInfos = table;
+        } else {
+            for (int i = 0; i < ipRangeInfos.size(); i++) {
+                Ipv4Range range = ipRangeInfos.get(i).getRange();
+                builder.add(range.start().asBigInteger().longValue(), range.end().asBigInteger().longValue(), i);
             }
+            this.ipInfos = new ArrayList<>(ipRangeInfos);
         }
-        this.ipInfos = rangeMap;
+        this.index = builder.build();
+        this.snapshot = null;
+        this.ipv6Index = null;
+        this.ipv6Infos = null;
+    }
+
+    RangeBasedIpInfoProvider(String name, Ipv4Index index, List<IpRangeInfos> ipInfos) {
+        this(name, index, ipInfos, null, null, null);
+    }
+
+    RangeBasedIpInfoProvider(String name, Ipv4Index index, List<IpRangeInfos> ipInfos, Ipv6RangeIndex ipv6Index,
+                             IpRangeInfosTable ipv6Infos) {
+        this(name, index, ipInfos, null, ipv6Index, ipv6Infos);
+    }
+
+    private RangeBasedIpInfoProvider(String name, Ipv4Index index, List<IpRangeInfos> ipInfos,
+                                     RangeInfosSnapshot snapshot, Ipv6RangeIndex ipv6Index,
+                                     IpRangeInfosTable ipv6Infos) {
+        this.name = name;
+        this.index = index;
+        this.ipInfos = ipInfos;
+        this.snapshot = snapshot;
+        this.ipv6Index = ipv6Index;
+        this.ipv6Infos = ipv6Infos;
+    }
+
+    /**
+     * @param table a table of IPv6 prefixes
+     * @return an index of all prefixes of the table, the payload ids being the rows
+     */
+    static Ipv6RangeIndex ipv6Index(IpRangeInfosTable table) {
+        Ipv6RangeIndex.Builder builder = Ipv6RangeIndex.builder(table.size());
+        for (int row = 0; row < table.size(); row++) {
+            builder.add(table.prefixHigh(row), table.prefixLow(row), table.prefixLength(row), row);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Creates a builder to pass to {@link IpRangeInfosSource#streamIpRanges(IpRangeInfosConsumer)}.
+     *
+     * @param name the provider name infos are added with
+     * @return the builder
+     */
+    public static Builder builder(String name) {
+        return new Builder(name, null, false, 1024, Ipv4IndexEngine.RANGES);
+    }
+
+    /**
+     * Creates a builder like {@link #builder(String)} pre-sized for the expected number of ranges.
+     *
+     * @param name the provider name infos are added with
+     * @param expectedSize the expected number of ranges
+     * @return the builder
+     */
+    public static Builder builder(String name, int expectedSize) {
+        return new Builder(name, null, false, expectedSize, Ipv4IndexEngine.RANGES);
+    }
+
+    /**
+     * Creates a builder like {@link #builder(String, int)} building an index of the given engine.
+     *
+     * @param name the provider name infos are added with
+     * @param expectedSize the expected number of ranges
+     * @param engine the engine of the index
+     * @return the builder
+     */
+    public static Builder builder(String name, int expectedSize, Ipv4IndexEngine engine) {
+        return new Builder(name, null, false, expectedSize, engine);
+    }
+
+    /**
+     * Creates a builder like {@link #builder(String)} which patches the table of a previous provider (see
+     * {@link RangeInfosSnapshot}). The index is still rebuilt if any range changed, but without sorting.
+     *
+     * @param name the provider name infos are added with
+     * @param previous the provider to patch, if {@code null} or not built incrementally a full build is done
+     * @return the builder
+     */
+    public static Builder incrementalBuilder(String name, IpInfoProvider previous) {
+        return incrementalBuilder(name, previous, Ipv4IndexEngine.RANGES);
+    }
+
+    /**
+     * Creates a builder like {@link #incrementalBuilder(String, IpInfoProvider)} building an index of the given
+     * engine.
+     *
+     * @param name the provider name infos are added with
+     * @param previous the provider to patch, if {@code null} or not built incrementally a full build is done
+     * @param engine the engine of the index
+     * @return the builder
+     */
+    public static Builder incrementalBuilder(String name, IpInfoProvider previous, Ipv4IndexEngine engine) {
+        RangeBasedIpInfoProvider previousProvider = previous instanceof RangeBasedIpInfoProvider
+            && ((RangeBasedIpInfoProvider) previous).snapshot != null ? (RangeBasedIpInfoProvider) previous : null;
+        return new Builder(name, previousProvider, true, 0, engine);
+    }
+
+    /**
+     * @return the number of ranges and infos this provider was built from, including ranges skipped by the index and
+     * IPv6 prefixes
+     */
+    public int size() {
+        return (snapshot != null ? snapshot.size() : ipInfos.size()) + (ipv6Infos != null ? ipv6Infos.size() : 0);
+    }
+
+    /**
+     * @return the approximate heap size in bytes of the index, of the infos if kept in a table and of what is kept
+     * for patching
+     */
+    @Override
+    public long sizeInBytes() {
+        long size = index.sizeInBytes();
+        if (ipInfos instanceof IpRangeInfosTable) {
+            size += ((IpRangeInfosTable) ipInfos).sizeInBytes();
+        }
+        if (snapshot != null) {
+            size += 8L * snapshot.size();
+        }
+        if (ipv6Index != null) {
+            size += ipv6Index.sizeInBytes() + ipv6Infos.sizeInBytes();
+        }
+        return size;
     }
 
     @Override
     public void add(Ipv4 ipv4, IpInfos infos) {
-        IpRangeInfos rangeInfo = ipInfos.get(ipv4.asBigInteger().longValue());
-        if (rangeInfo != null) {
-            infos.add(name, rangeInfo);
+        add(Ipv4Addresses.toInt(ipv4), infos);
+    }
+
+    @Override
+    public void add(int address, IpInfosSink sink) {
+        int payloadId = index.find(address);
+        if (payloadId != Ipv4Index.NO_PAYLOAD) {
+            accept(sink, ipInfos.get(payloadId));
+        }
+    }
+
+    @Override
+    public void add(long[] batch, BatchSink sink) {
+        int[] payloadIds = new int[batch.length];
+        index.findAll(batch, payloadIds);
+        for (int position = 0; position < payloadIds.length; position++) {
+            if (payloadIds[position] != Ipv4Index.NO_PAYLOAD) {
+                sink.accept(position, name, ipInfos.get(payloadIds[position]));
+            }
+        }
+    }
+
+    @Override
+    public void add(Ipv6 ipv6, IpInfos infos) {
+        add(Ipv6Addresses.high(ipv6), Ipv6Addresses.low(ipv6), infos);
+    }
+
+    @Override
+    public void add(long high, long low, IpInfosSink sink) {
+        if (ipv6Index == null) {
+            return;
+        }
+        int payloadId = ipv6Index.find(high, low);
+        if (payloadId != Ipv6RangeIndex.NO_PAYLOAD) {
+            accept(sink, ipv6Infos.get(payloadId));
+        }
+    }
+
+    private void accept(IpInfosSink sink, IpRangeInfos infos) {
+        if (sink instanceof SlotIpInfos) {
+            SlotIpInfos slots = (SlotIpInfos) sink;
+            ResolvedHandle handle = this.handle;
+            if (handle == null || handle.handles != slots.getHandles()) {
+                handle = new ResolvedHandle(slots.getHandles(), slots.getHandles().handle(name));
+                this.handle = handle;
+            }
+            slots.accept(handle.handle, infos);
+        } else {
+            sink.accept(name, infos);
+        }
+    }
+
+    /**
+     * Visits the IPv4 ranges only.
+     */
+    @Override
+    public void visitRanges(RangeVisitor visitor) {
+        for (int i = 0; i < index.size(); i++) {
+            visitor.visit(name, index.start(i), index.end(i), ipInfos.get(index.payloadId(i)));
+        }
+    }
+
+    /**
+     * Builds a provider from streamed ranges.
+     */
+    public static class Builder implements IpRangeInfosConsumer {
+
+        private final String name;
+        private final IpRangeInfosTable.Builder table;
+        private final Ipv4Index.Builder index;
+        private final Ipv4IndexEngine engine;
+        private final RangeBasedIpInfoProvider previous;
+        private final RangeInfosSnapshot.Builder snapshot;
+        private final IpRangeInfosTable.Builder ipv6Rows;
+        private final DualStackConsumer rows;
+
+        private Builder(String name, RangeBasedIpInfoProvider previous, boolean incremental, int expectedSize,
+                        Ipv4IndexEngine engine) {
+            this.name = name;
+            this.engine = engine;
+            this.previous = previous;
+            this.ipv6Rows = IpRangeInfosTable.ipv6Builder(previous == null ? null : previous.ipv6Infos);
+            if (incremental) {
+                this.table = null;
+                this.index = null;
+                this.snapshot = RangeInfosSnapshot.builder(previous == null ? null : previous.snapshot);
+                this.rows = new DualStackConsumer(snapshot, ipv6Rows);
+            } else {
+                this.table = IpRangeInfosTable.builder(expectedSize);
+                this.index = engine.builder(expectedSize);
+                this.snapshot = null;
+                this.rows = new DualStackConsumer(table, ipv6Rows);
+            }
+        }
+
+        @Override
+        public Builder stringColumn(String key) {
+            rows.stringColumn(key);
+            return this;
+        }
+
+        @Override
+        public Builder intColumn(String key) {
+            rows.intColumn(key);
+            return this;
+        }
+
+        @Override
+        public Builder addRow(Ipv4Range range) {
+            return addRow(range.start().asBigInteger().longValue(), range.end().asBigInteger().longValue());
+        }
+
+        @Override
+        public Builder addRow(long start, long end) {
+            if (index != null) {
+                index.add(start, end, table.size());
+            }
+            rows.addRow(start, end);
+            return this;
+        }
+
+        @Override
+        public Builder addIpv6Row(long high, long low, int prefixLength) {
+            rows.addIpv6Row(high, low, prefixLength);
+            return this;
+        }
+
+        @Override
+        public Builder setString(int column, String value) {
+            rows.setString(column, value);
+            return this;
+        }
+
+        @Override
+        public Builder setInt(int column, int value) {
+            rows.setInt(column, value);
+            return this;
+        }
+
+        /**
+         * @return whether anything was streamed to this builder
+         */
+        boolean isStarted() {
+            return rows.isStarted();
+        }
+
+        /**
+         * @return the provider, for an incremental builder the given previous one if no range changed
+         */
+        public RangeBasedIpInfoProvider build() {
+            if (snapshot == null) {
+                IpRangeInfosTable ipv6Table = ipv6Rows.build();
+                return new RangeBasedIpInfoProvider(name, index.build(), table.build(), null, ipv6Index(ipv6Table),
+                    ipv6Table);
+            }
+            RangeInfosSnapshot next = snapshot.build();
+            boolean ipv4Unchanged = previous != null && next == previous.snapshot;
+            boolean ipv6Unchanged = previous != null && ipv6Rows.rowsEqualPrevious();
+            if (ipv4Unchanged && ipv6Unchanged) {
+                return previous;
+            }
+            IpRangeInfosTable ipv6Table = ipv6Unchanged ? previous.ipv6Infos : ipv6Rows.build();
+            return new RangeBasedIpInfoProvider(name,
+                ipv4Unchanged ? previous.index : next.indexBuilder(engine).build(), next.table, next,
+                ipv6Unchanged ? previous.ipv6Index : ipv6Index(ipv6Table), ipv6Table);
+        }
+    }
+
+    private static final class ResolvedHandle {
+
+        private final ProviderHandles handles;
+        private final int handle;
+
+        ResolvedHandle(ProviderHandles handles, int handle) {
+            this.handles = handles;
+            this.handle = handle;
         }
     }
 
@@ -0,0 +1,271 @@
+package io.mkr.helloip;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+import io.mkr.helloip.index.Ipv4Index;
+import io.mkr.helloip.index.Ipv4IndexEngine;
+import io.mkr.helloip.sources.IpRangeInfosConsumer;
+import io.mkr.helloip.sources.IpRangeInfosTable;
+import net.ripe.commons.ip.Ipv4Range;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The ranges streamed from a source in a table, along with the order they were streamed in and their order by range
+ * start, so the next refresh can patch the table with the ranges which changed. Rows keep their numbers, new ranges
+ * are appended. The diff looks ahead {@value #LOOK_AHEAD} ranges for a match, reordered ranges count as removed and
+ * added.
+ */
+final class RangeInfosSnapshot {
+
+    private static final Logger logger = LoggerFactory.getLogger(RangeInfosSnapshot.class);
+
+    private static final int LOOK_AHEAD = 64;
+
+    final IpRangeInfosTable table;
+    // live rows of the table in the order streamed
+    final int[] streamOrder;
+    // live rows of the table sorted by range start, then by stream order
+    final int[] sortedRows;
+
+    private RangeInfosSnapshot(IpRangeInfosTable table, int[] streamOrder, int[] sortedRows) {
+        this.table = table;
+        this.streamOrder = streamOrder;
+        this.sortedRows = sortedRows;
+    }
+
+    /**
+     * @return the number of live rows
+     */
+    int size() {
+        return streamOrder.length;
+    }
+
+    /**
+     * @param previous the snapshot to patch or {@code null} for a full build
+     * @return a builder for the next snapshot
+     */
+    static Builder builder(RangeInfosSnapshot previous) {
+        return new Builder(previous);
+    }
+
+    /**
+     * @param engine the engine of the index
+     * @return a builder for an index over the live rows, filled in order of their start
+     */
+    Ipv4Index.Builder indexBuilder(Ipv4IndexEngine engine) {
+        Ipv4Index.Builder index = engine.builder(sortedRows.length);
+        for (int row: sortedRows) {
+            index.add(table.start(row), table.end(row), row);
+        }
+        return index;
+    }
+
+    static final class Builder implements IpRangeInfosConsumer {
+
+        private final RangeInfosSnapshot previous;
+        private final IpRangeInfosTable.Builder rows;
+        // previous rows (>= 0) and appended rows (~ position in rows) in stream order
+        private int[] sequence;
+        private int size = 0;
+        private final BitSet kept = new BitSet();
+        private int cursor = 0;
+        private boolean diffing;
+        private boolean pending = false;
+
+        private Builder(RangeInfosSnapshot previous) {
+            this.previous = previous;
+            this.rows = previous == null ? IpRangeInfosTable.builder() : IpRangeInfosTable.builder(previous.table);
+            this.sequence = new int[previous == null ? 16 : previous.size() + 16];
+        }
+
+        @Override
+        public Builder stringColumn(String key) {
+            rows.stringColumn(key);
+            return this;
+        }
+
+        @Override
+        public Builder intColumn(String key) {
+            rows.intColumn(key);
+            return this;
+        }
+
+        @Override
+        public Builder addRow(Ipv4Range range) {
+            return addRow(range.start().asBigInteger().longValue(), range.end().asBigInteger().longValue());
+        }
+
+        @Override
+        public Builder addRow(long start, long end) {
+            if (size == 0 && !pending) {
+                diffing = rows.matchesPrevious();
+            }
+            commitPending();
+            rows.addRow(start, end);
+            pending = true;
+            return this;
+        }
+
+        /**
+         * IPv6 prefixes are not part of snapshots, they are skipped.
+         */
+        @Override
+        public Builder addIpv6Row(long high, long low, int prefixLength) {
+            rows.addIpv6Row(high, low, prefixLength);
+            return this;
+        }
+
+        @Override
+        public Builder setString(int column, String value) {
+            rows.setString(column, value);
+            return this;
+        }
+
+        @Override
+        public Builder setInt(int column, int value) {
+            rows.setInt(column, value);
+            return this;
+        }
+
+        /**
+         * Matches the last row (complete once the next one is added) against the previous rows.
+         */
+        private void commitPending() {
+            if (!pending) {
+                return;
+            }
+            pending = false;
+            if (!diffing) {
+                return;
+            }
+            int entry = ~(rows.size() - 1);
+            int limit = Math.min(cursor + LOOK_AHEAD, previous.streamOrder.length);
+            for (int i = cursor; i < limit; i++) {
+                int row = previous.streamOrder[i];
+                if (rows.lastRowEquals(row)) {
+                    rows.removeLastRow();
+                    kept.set(row);
+                    cursor = i + 1;
+                    entry = row;
+                    break;
+                }
+            }
+            if (size == sequence.length) {
+                sequence = Arrays.copyOf(sequence, size + (size >> 1));
+            }
+            sequence[size++] = entry;
+        }
+
+        /**
+         * @return the new snapshot or the previous one if nothing changed
+         */
+        RangeInfosSnapshot build() {
+            commitPending();
+            if (!diffing) {
+                IpRangeInfosTable table = rows.build();
+                int[] streamOrder = new int[table.size()];
+                for (int row = 0; row < streamOrder.length; row++) {
+                    streamOrder[row] = row;
+                }
+                return new RangeInfosSnapshot(table, streamOrder, sortByStart(table, streamOrder));
+            }
+            int added = rows.size();
+            int removed = previous.size() - kept.cardinality();
+            if (added == 0 && removed == 0 && size == previous.size()) {
+                logger.debug("All {} ranges unchanged", size);
+                return previous;
+            }
+            IpRangeInfosTable table = rows.appendTo(previous.table);
+            int offset = previous.table.size();
+            int[] streamOrder = new int[size];
+            int[] appended = new int[added];
+            for (int i = 0; i < size; i++) {
+                int entry = sequence[i];
+                streamOrder[i] = entry >= 0 ? entry : offset + ~entry;
+                if (entry < 0) {
+                    appended[~entry] = offset + ~entry;
+                }
+            }
+            int[] positions = new int[table.size()];
+            for (int i = 0; i < size; i++) {
+                positions[streamOrder[i]] = i;
+            }
+            int[] sortedRows = merge(table, previous.sortedRows, kept, sortByStart(table, appended), positions);
+            logger.info("Patched {} ranges: {} kept, {} added, {} removed", size, size - added, added, removed);
+            RangeInfosSnapshot snapshot = new RangeInfosSnapshot(table, streamOrder, sortedRows);
+            return table.size() - size > size / 4 ? snapshot.compact() : snapshot;
+        }
+    }
+
+    /**
+     * @return a snapshot without dropped rows, rows numbered in stream order
+     */
+    private RangeInfosSnapshot compact() {
+        logger.info("Compacting {} ranges ({} dropped)", size(), table.size() - size());
+        int[] newRows = new int[table.size()];
+        for (int i = 0; i < streamOrder.length; i++) {
+            newRows[streamOrder[i]] = i;
+        }
+        int[] compactSortedRows = new int[sortedRows.length];
+        for (int i = 0; i < sortedRows.length; i++) {
+            compactSortedRows[i] = newRows[sortedRows[i]];
+        }
+        int[] compactStreamOrder = new int[streamOrder.length];
+        for (int i = 0; i < compactStreamOrder.length; i++) {
+            compactStreamOrder[i] = i;
+        }
+        return new RangeInfosSnapshot(table.select(streamOrder), compactStreamOrder, compactSortedRows);
+    }
+
+    /**
+     * @return the rows sorted by range start, rows with equal starts in the given order
+     */
+    private static int[] sortByStart(IpRangeInfosTable table, int[] rows) {
+        // (start << 32 | position) with the sign bit flipped to sort by unsigned start
+        long[] keys = new long[rows.length];
+        boolean sorted = true;
+        for (int i = 0; i < rows.length; i++) {
+            keys[i] = ((table.start(rows[i]) << 32) | i) ^ Long.MIN_VALUE;
+            sorted &= i == 0 || keys[i - 1] < keys[i];
+        }
+        if (sorted) {
+            return rows.clone();
+        }
+        Arrays.sort(keys);
+        int[] result = new int[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            result[i] = rows[(int) keys[i]];
+        }
+        return result;
+    }
+
+    /**
+     * Merges the kept previous rows with the appended ones into the order a full build sorts them in (see
+     * {@link #sortByStart(IpRangeInfosTable, int[])}).
+     *
+     * @param positions the position in stream order by row
+     */
+    private static int[] merge(IpRangeInfosTable table, int[] previousRows, BitSet kept, int[] appendedRows,
+                               int[] positions) {
+        int[] result = new int[kept.cardinality() + appendedRows.length];
+        int count = 0;
+        int next = 0;
+        for (int row: previousRows) {
+            if (!kept.get(row)) {
+                continue;
+            }
+            long start = table.start(row);
+            while (next < appendedRows.length && (table.start(appendedRows[next]) < start
+                    || table.start(appendedRows[next]) == start && positions[appendedRows[next]] < positions[row])) {
+                result[count++] = appendedRows[next++];
+            }
+            result[count++] = row;
+        }
+        while (next < appendedRows.length) {
+            result[count++] = appendedRows[next++];
+        }
+        return result;
+    }
+}
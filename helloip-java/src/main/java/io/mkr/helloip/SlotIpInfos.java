@@ -0,0 +1,135 @@
+package io.mkr.helloip;
+
+import io.mkr.helloip.sources.IpRangeInfos;
+
+/**
+ * Holds the infos of a lookup in a fixed array with one slot per {@link ProviderHandles handle}, an alternative to
+ * the map of {@link IpInfos}. Which providers had infos is kept as a bitmask:
+ * <pre>
+ * long clouds = handles.mask(AwsIpRangesSource.NAME, AzureIpRangesSource.NAME, GoogleCloudIpRangesSource.NAME);
+ * ...
+ * if (infos.hasAny(clouds)) ...
+ * </pre>
+ * Infos of an aspect provider like {@code AWS:EC2} fill its slot and, unless set already, the slot of its source
+ * {@code AWS}. An instance can be reused for many lookups, see {@link #clear()}. Not thread safe.
+ */
+public final class SlotIpInfos implements IpInfosSink {
+
+    private final ProviderHandles handles;
+    private final IpRangeInfos[] slots = new IpRangeInfos[ProviderHandles.MAX_HANDLES];
+    private long mask = 0;
+
+    public SlotIpInfos(ProviderHandles handles) {
+        this.handles = handles;
+    }
+
+    /**
+     * @return the handles of the slots
+     */
+    public ProviderHandles getHandles() {
+        return handles;
+    }
+
+    @Override
+    public void accept(String providerName, IpRangeInfos infos) {
+        accept(handles.handle(providerName), infos);
+    }
+
+    /**
+     * Accepts the infos of a provider by its handle.
+     *
+     * @param handle the handle of the provider name in the {@link #getHandles() handles} of this instance
+     * @param infos the infos of the range containing the IP
+     */
+    public void accept(int handle, IpRangeInfos infos) {
+        if (handle == ProviderHandles.NO_HANDLE) {
+            return;
+        }
+        slots[handle] = infos;
+        long bits = handles.bits(handle);
+        long sources = bits & ~mask & ~(1L << handle);
+        // the first aspect of a source fills the source's slot
+        for (; sources != 0; sources &= sources - 1) {
+            slots[Long.numberOfTrailingZeros(sources)] = infos;
+        }
+        mask |= bits;
+    }
+
+    /**
+     * @return the bits of the handles of the providers having infos
+     */
+    public long mask() {
+        return mask;
+    }
+
+    /**
+     * @param mask a mask of handles, see {@link ProviderHandles#mask(String...)}
+     * @return whether any of the providers has infos
+     */
+    public boolean hasAny(long mask) {
+        return (this.mask & mask) != 0;
+    }
+
+    /**
+     * @param handle a provider handle
+     * @return whether the provider has infos
+     */
+    public boolean has(int handle) {
+        return (mask & 1L << handle) != 0;
+    }
+
+    /**
+     * @param handle a provider handle
+     * @return the infos of the provider or {@code null}
+     */
+    public IpRangeInfos infos(int handle) {
+        return has(handle) ? slots[handle] : null;
+    }
+
+    /**
+     * @param handle a provider handle
+     * @param key the info key
+     * @return the info of the provider or {@code null} if the provider has no infos or not the key
+     */
+    public String info(int handle, String key) {
+        IpRangeInfos infos = infos(handle);
+        return infos != null ? infos.getInfos().get(key) : null;
+    }
+
+    /**
+     * Empties the slots for the next lookup.
+     */
+    public void clear() {
+        for (long remaining = mask; remaining != 0; remaining &= remaining - 1) {
+            slots[Long.numberOfTrailingZeros(remaining)] = null;
+        }
+        mask = 0;
+    }
+
+    /**
+     * Passes the infos to a sink, the slots of the sources filled for their aspects excluded.
+     *
+     * @param sink the sink
+     */
+    public void copyTo(IpInfosSink sink) {
+        long aspectSources = 0;
+        for (long remaining = mask; remaining != 0; remaining &= remaining - 1) {
+            int handle = Long.numberOfTrailingZeros(remaining);
+            aspectSources |= handles.bits(handle) & ~(1L << handle);
+        }
+        for (long remaining = mask & ~aspectSources; remaining != 0; remaining &= remaining - 1) {
+            int handle = Long.numberOfTrailingZeros(remaining);
+            sink.accept(handles.name(handle), slots[handle]);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("[");
+        for (long remaining = mask; remaining != 0; remaining &= remaining - 1) {
+            int handle = Long.numberOfTrailingZeros(remaining);
+            sb.append(sb.length() > 1 ? ", " : "").append(handles.name(handle)).append('=').append(slots[handle]);
+        }
+        return sb.append(']').toString();
+    }
+}
@@ -1,7 +1,11 @@
 package io.mkr.helloip;
 
 import com.google.common.base.Supplier;
+import io.mkr.helloip.index.Ipv4IndexEngine;
+import io.mkr.helloip.metrics.IpInfoMetrics;
+import io.mkr.helloip.sources.ChangeAwareIpRangeInfosSource;
 import io.mkr.helloip.sources.IpRangeInfosSource;
+import io.mkr.helloip.sources.MeteredIpRangeInfosSource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -9,26 +13,107 @@ import java.io.IOException;
 
 /**
  * Supplier which loads constructs a new {@link IpInfoProvider} on any call to {@link #get()} using the ranges
- * from a given {@link IpRangeInfosSource}.
+ * from a given {@link IpRangeInfosSource}. For a {@link ChangeAwareIpRangeInfosSource} the previous provider is
+ * returned as long as the source reports its ranges unchanged.
  */
 public class SourcingIpInfoProviderSupplier implements Supplier<IpInfoProvider> {
 
     private static final Logger logger = LoggerFactory.getLogger(SourcingIpInfoProviderSupplier.class);
 
     private final IpRangeInfosSource ipRangesSource;
+    private final boolean incremental;
+    private final Ipv4IndexEngine engine;
+
+    private IpInfoProvider current;
+    private String changeToken;
+    private volatile IpInfoMetrics metrics = IpInfoMetrics.NONE;
 
     public SourcingIpInfoProviderSupplier(IpRangeInfosSource ipRangesSource) {
+        this(ipRangesSource, false);
+    }
+
+    /**
+     * @param ipRangesSource the source
+     * @param incremental whether to patch the previous provider instead of building a new one on refresh
+     */
+    public SourcingIpInfoProviderSupplier(IpRangeInfosSource ipRangesSource, boolean incremental) {
+        this(ipRangesSource, incremental, Ipv4IndexEngine.RANGES);
+    }
+
+    /**
+     * @param ipRangesSource the source
+     * @param incremental whether to patch the previous provider instead of building a new one on refresh
+     * @param engine the engine of the providers' indexes
+     */
+    public SourcingIpInfoProviderSupplier(IpRangeInfosSource ipRangesSource, boolean incremental,
+                                          Ipv4IndexEngine engine) {
         this.ipRangesSource = ipRangesSource;
+        this.incremental = incremental;
+        this.engine = engine;
+    }
+
+    /**
+     * @param metrics the metrics to report refreshes to
+     */
+    public void setMetrics(IpInfoMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    private int expectedSize() {
+        // leave some room for growth
+        return current instanceof RangeBasedIpInfoProvider
+            ? ((RangeBasedIpInfoProvider) current).size() / 32 * 33 + 64 : 1024;
     }
 
     @Override
-    public IpInfoProvider get() {
+    public synchronized IpInfoProvider get() {
+        IpInfoMetrics metrics = this.metrics;
+        long started = System.nanoTime();
+        long charsRead = charsRead(ipRangesSource);
+        IpInfoProvider previous = current;
         try {
-            return new RangeBasedIpInfoProvider(ipRangesSource.getName(), ipRangesSource.getIpRanges());
-        } catch (IOException e) {
+            IpInfoProvider provider = refresh();
+            if (metrics != IpInfoMetrics.NONE) {
+                RangeBasedIpInfoProvider rangeBased = (RangeBasedIpInfoProvider) provider;
+                metrics.refreshed(ipRangesSource.getName(), provider != previous, System.nanoTime() - started,
+                    charsRead(ipRangesSource) - charsRead, rangeBased.size(), rangeBased.sizeInBytes());
+            }
+            return provider;
+        } catch (IOException | RuntimeException e) {
+            metrics.refreshFailed(ipRangesSource.getName(), System.nanoTime() - started, e);
             logger.error("Error creating IP info provider", e);
-            throw new RuntimeException(e);
+            throw e instanceof RuntimeException ? (RuntimeException) e : new RuntimeException(e);
         }
     }
 
+    private IpInfoProvider refresh() throws IOException {
+        RangeBasedIpInfoProvider.Builder builder = incremental
+            ? RangeBasedIpInfoProvider.incrementalBuilder(ipRangesSource.getName(), current, engine)
+            : RangeBasedIpInfoProvider.builder(ipRangesSource.getName(), expectedSize(), engine);
+        if (ipRangesSource instanceof ChangeAwareIpRangeInfosSource) {
+            String token = ((ChangeAwareIpRangeInfosSource) ipRangesSource).streamIpRangesIfChanged(builder,
+                current == null ? null : changeToken);
+            if (token == null) {
+                return current;
+            }
+            if (!builder.isStarted()) {
+                changeToken = token;
+                return current;
+            }
+            current = builder.build();
+            changeToken = token;
+            return current;
+        }
+        ipRangesSource.streamIpRanges(builder);
+        current = builder.build();
+        return current;
+    }
+
+    /**
+     * @return the characters read by the source so far, 0 if it does not count them
+     */
+    static long charsRead(IpRangeInfosSource source) {
+        return source instanceof MeteredIpRangeInfosSource ? ((MeteredIpRangeInfosSource) source).getCharsRead() : 0;
+    }
+
 }
@@ -3,11 +3,16 @@ package io.mkr.helloip;
 import com.google.common.base.Supplier;
 import io.mkr.helloip.base.AsyncRefreshingSupplier;
 import io.mkr.helloip.base.PrefetchingMemoizingSupplier;
+import io.mkr.helloip.base.RefreshCoordinator;
+import io.mkr.helloip.index.Ipv4IndexEngine;
+import io.mkr.helloip.metrics.IpInfoMetrics;
 import io.mkr.helloip.sources.ApnicAsnIpRangesSource;
 import io.mkr.helloip.sources.AwsIpRangesSource;
 import io.mkr.helloip.sources.AzureIpRangesSource;
 import io.mkr.helloip.sources.GoogleCloudIpRangesSource;
 
+import java.util.List;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
@@ -16,7 +21,7 @@ public class Suppliers {
     /**
      * A supplier of AWS IP range infos
      */
-    public static final Supplier<IpInfoProvider> aws = new MultiAspectIpInfoProviderSupplier(new AwsIpRangesSource(), AwsIpRangesSource.KEY_SERVICE);
+    public static final Supplier<IpInfoProvider> aws = new MultiAspectIpInfoProviderSupplier(new AwsIpRangesSource(), AwsIpRangesSource.KEY_SERVICE, true);
 
     /**
      * A supplier of MS Azure IP range infos
@@ -29,9 +34,20 @@ public class Suppliers {
     public static final Supplier<IpInfoProvider> googleCloud = new SourcingIpInfoProviderSupplier(new GoogleCloudIpRangesSource());
 
     /**
-     * A supplier of APNIC IP range infos
+     * A supplier of APNIC IP range infos, the most specific announcement of nested ones wins
      */
-    public static final Supplier<IpInfoProvider> apnic = new SourcingIpInfoProviderSupplier(new ApnicAsnIpRangesSource());
+    public static final Supplier<IpInfoProvider> apnic = new SourcingIpInfoProviderSupplier(new ApnicAsnIpRangesSource(), true,
+        Ipv4IndexEngine.LONGEST_PREFIX_MATCH);
+
+    /**
+     * Reports the refreshes of all suppliers above to the given metrics.
+     */
+    public static void reportRefreshesTo(IpInfoMetrics metrics) {
+        ((MultiAspectIpInfoProviderSupplier) aws).setMetrics(metrics);
+        ((SourcingIpInfoProviderSupplier) azure).setMetrics(metrics);
+        ((SourcingIpInfoProviderSupplier) googleCloud).setMetrics(metrics);
+        ((SourcingIpInfoProviderSupplier) apnic).setMetrics(metrics);
+    }
 
     public static Supplier<IpInfoProvider> fetchOnce(Supplier<IpInfoProvider> supplier) {
         return new PrefetchingMemoizingSupplier<>(supplier);
@@ -41,4 +57,25 @@ public class Suppliers {
                                                                  ScheduledExecutorService scheduledExecutorService) {
         return new AsyncRefreshingSupplier<>(supplier, period, unit, scheduledExecutorService);
     }
+
+    /**
+     * Refreshes all given suppliers concurrently on the workers and publishes their providers together, see
+     * {@link RefreshCoordinator}. Use {@link RefreshCoordinator#suppliers()} for the lookup.
+     */
+    public static RefreshCoordinator<IpInfoProvider> fetchAllAsyncWithRefresh(List<? extends Supplier<IpInfoProvider>> suppliers,
+                                                                             long period, TimeUnit unit, ExecutorService workers,
+                                                                             ScheduledExecutorService scheduledExecutorService) {
+        return new RefreshCoordinator<>(suppliers, workers, period, unit, scheduledExecutorService);
+    }
+
+    /**
+     * Like {@link #fetchAllAsyncWithRefresh(List, long, TimeUnit, ExecutorService, ScheduledExecutorService)}, but
+     * refreshing only as many suppliers concurrently as fit into the memory budget.
+     */
+    public static RefreshCoordinator<IpInfoProvider> fetchAllAsyncWithRefresh(List<? extends Supplier<IpInfoProvider>> suppliers,
+                                                                             long memoryBudget, long period, TimeUnit unit,
+                                                                             ExecutorService workers,
+                                                                             ScheduledExecutorService scheduledExecutorService) {
+        return new RefreshCoordinator<>(suppliers, workers, memoryBudget, period, unit, scheduledExecutorService);
+    }
 }
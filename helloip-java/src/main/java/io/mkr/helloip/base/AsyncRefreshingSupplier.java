@@ -1,33 +1,60 @@
 package io.mkr.helloip.base;
 
 import com.google.common.base.Supplier;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 /**
  * A {@link Supplier} which asynchronously refreshes the value it supplies. The value is immediately scheduled to be
  * pre-fetched asynchronously on instantiation of the supplier. {@link #get()} will return the last successfully
- * retrieved value or {@code null} if no value has been retrieved yet.
+ * retrieved value or {@code null} if no value has been retrieved yet. Refresh listeners are called after each
+ * successful retrieval which yielded a new instance. {@link #ready()} completes with the first value retrieved.
  *
  * @param <T> the type of value to supply
  */
-public class AsyncRefreshingSupplier<T> implements Supplier<T> {
+public class AsyncRefreshingSupplier<T> implements Supplier<T>, Refreshable {
 
     private static final Logger logger = LoggerFactory.getLogger(AsyncRefreshingSupplier.class);
 
     private volatile T value = null;
+    private volatile long lastRefreshPeakHeapBytes = -1;
+
+    private final List<Runnable> refreshListeners = new CopyOnWriteArrayList<>();
+    private final SettableFuture<T> ready = SettableFuture.create();
 
     public AsyncRefreshingSupplier(final Supplier<T> delegate, long period, TimeUnit unit, ScheduledExecutorService scheduledExecutorService) {
         Runnable runnable = new Runnable() {
             @Override
             public void run() {
+                T previous = value;
+                long before = HeapUsage.used();
                 try {
                     value = delegate.get();
                 } catch (Exception e) {
                     logger.error("Error getting value", e);
+                    return;
+                }
+                ready.set(value);
+                lastRefreshPeakHeapBytes = Math.max(before, HeapUsage.used());
+                logger.info("Refreshing {} used at least {} of heap (from {})", delegate,
+                    HeapUsage.megabytes(lastRefreshPeakHeapBytes), HeapUsage.megabytes(before));
+                if (value == previous) {
+                    logger.debug("Value unchanged, not notifying refresh listeners");
+                    return;
+                }
+                for (Runnable listener: refreshListeners) {
+                    try {
+                        listener.run();
+                    } catch (Exception e) {
+                        logger.error("Error notifying refresh listener", e);
+                    }
                 }
 
             }
@@ -39,5 +66,25 @@ public class AsyncRefreshingSupplier<T> implements Supplier<T> {
         return value;
     }
 
+    /**
+     * @return a future completing with the first value once {@link #get()} returns it, it stays pending while
+     * retrievals fail
+     */
+    public ListenableFuture<T> ready() {
+        return ready;
+    }
+
+    /**
+     * @return the higher heap bytes used before and after the last successful refresh or -1 before the first one
+     */
+    public long lastRefreshPeakHeapBytes() {
+        return lastRefreshPeakHeapBytes;
+    }
+
+    @Override
+    public void addRefreshListener(Runnable listener) {
+        refreshListeners.add(listener);
+    }
+
 
 }
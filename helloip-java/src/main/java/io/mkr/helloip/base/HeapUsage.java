@@ -0,0 +1,43 @@
+package io.mkr.helloip.base;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Heap usage as reported by the heap {@link MemoryPoolMXBean}s.
+ */
+final class HeapUsage {
+
+    private static final List<MemoryPoolMXBean> HEAP_POOLS = heapPools();
+
+    private HeapUsage() {
+    }
+
+    private static List<MemoryPoolMXBean> heapPools() {
+        List<MemoryPoolMXBean> pools = new ArrayList<>();
+        for (MemoryPoolMXBean pool: ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+                pools.add(pool);
+            }
+        }
+        return pools;
+    }
+
+    /**
+     * @return the bytes currently used
+     */
+    static long used() {
+        long used = 0;
+        for (MemoryPoolMXBean pool: HEAP_POOLS) {
+            used += pool.getUsage().getUsed();
+        }
+        return used;
+    }
+
+    static String megabytes(long bytes) {
+        return String.format("%.1f MB", bytes / (1024.0 * 1024.0));
+    }
+}
@@ -0,0 +1,273 @@
+package io.mkr.helloip.base;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Supplier;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Refreshes the values of several {@link Supplier}s concurrently on a pool of workers and publishes them together, as
+ * one generation visible through the {@link #suppliers()}. A delegate which fails or returns {@code null} keeps its
+ * value of the previous generation. The first value of each delegate is published as soon as it is retrieved.
+ * <p/>
+ * With a memory budget, delegates only refresh concurrently as long as their estimated heap needs fit into it. The
+ * need is estimated as {@value #HEAP_NEED_FACTOR} times the size of the previous value if that is {@link Sized},
+ * otherwise the delegate refreshes alone.
+ *
+ * @param <T> the type of values to supply
+ */
+public class RefreshCoordinator<T> implements Refreshable {
+
+    private static final Logger logger = LoggerFactory.getLogger(RefreshCoordinator.class);
+
+    private static final int HEAP_NEED_FACTOR = 2;
+
+    private final List<? extends Supplier<T>> delegates;
+    private final ExecutorService workers;
+    private final List<Supplier<T>> suppliers;
+    private final List<Runnable> refreshListeners = new CopyOnWriteArrayList<>();
+    private final long memoryBudget;
+    // budget in KiB, null if unbounded
+    private final Semaphore budgetPermits;
+    private final int budgetPermitCount;
+    private final List<SettableFuture<T>> ready;
+
+    private volatile Object[] generation;
+    private volatile long lastRefreshPeakHeapBytes = -1;
+    // highest heap usage sampled during the current refresh
+    private long refreshPeakHeapBytes;
+
+    /**
+     * Schedules the refresh of the given delegates, the first one immediately.
+     *
+     * @param delegates the suppliers to refresh
+     * @param workers the pool calling the delegates, should allow for one thread per delegate
+     * @param period the period between refreshes
+     * @param unit the unit of the period
+     * @param scheduledExecutorService the scheduler triggering refreshes, its thread waits for the workers
+     */
+    public RefreshCoordinator(List<? extends Supplier<T>> delegates, ExecutorService workers, long period,
+                              TimeUnit unit, ScheduledExecutorService scheduledExecutorService) {
+        this(delegates, workers, 0, period, unit, scheduledExecutorService);
+    }
+
+    /**
+     * Schedules the refresh of the given delegates, the first one immediately.
+     *
+     * @param delegates the suppliers to refresh
+     * @param workers the pool calling the delegates, should allow for one thread per delegate
+     * @param memoryBudget the heap bytes concurrent refreshes may need in total, 0 for no limit
+     * @param period the period between refreshes
+     * @param unit the unit of the period
+     * @param scheduledExecutorService the scheduler triggering refreshes, its thread waits for the workers
+     */
+    public RefreshCoordinator(List<? extends Supplier<T>> delegates, ExecutorService workers, long memoryBudget,
+                              long period, TimeUnit unit, ScheduledExecutorService scheduledExecutorService) {
+        if (memoryBudget < 0) {
+            throw new IllegalArgumentException("Memory budget must not be negative: " + memoryBudget);
+        }
+        this.delegates = new ArrayList<>(delegates);
+        this.workers = workers;
+        this.memoryBudget = memoryBudget;
+        this.budgetPermitCount = (int) Math.min(Integer.MAX_VALUE, Math.max(1, memoryBudget / 1024));
+        this.budgetPermits = memoryBudget > 0 ? new Semaphore(budgetPermitCount, true) : null;
+        this.generation = new Object[delegates.size()];
+        List<SettableFuture<T>> ready = new ArrayList<>(delegates.size());
+        for (int i = 0; i < delegates.size(); i++) {
+            ready.add(SettableFuture.<T>create());
+        }
+        this.ready = Collections.unmodifiableList(ready);
+        List<Supplier<T>> suppliers = new ArrayList<>(delegates.size());
+        for (int i = 0; i < delegates.size(); i++) {
+            suppliers.add(new GenerationSupplier(i));
+        }
+        this.suppliers = Collections.unmodifiableList(suppliers);
+        scheduledExecutorService.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                refresh();
+            }
+        }, 0, period, unit);
+    }
+
+    /**
+     * @return one supplier per delegate (in the same order) supplying the delegate's value of the current generation
+     * or {@code null} if it has not been retrieved yet
+     */
+    public List<Supplier<T>> suppliers() {
+        return suppliers;
+    }
+
+    /**
+     * @param index the index of the delegate
+     * @return a future completing with the delegate's first value once its supplier returns it, it stays pending
+     * while the delegate fails and fails if the delegate returns {@code null}
+     */
+    public ListenableFuture<T> ready(int index) {
+        return ready.get(index);
+    }
+
+    /**
+     * @return a future completing with the first values of all delegates once all suppliers return them
+     */
+    public ListenableFuture<List<T>> allReady() {
+        return Futures.allAsList(ready);
+    }
+
+    /**
+     * @return the highest heap bytes used before and after the refreshes of the delegates during the last refresh or
+     * -1 before the first refresh finished
+     */
+    public long lastRefreshPeakHeapBytes() {
+        return lastRefreshPeakHeapBytes;
+    }
+
+    @Override
+    public void addRefreshListener(Runnable listener) {
+        refreshListeners.add(listener);
+    }
+
+    void refresh() {
+        long start = System.nanoTime();
+        synchronized (this) {
+            refreshPeakHeapBytes = HeapUsage.used();
+        }
+        Object[] previous = generation;
+        List<Future<T>> futures = new ArrayList<>(delegates.size());
+        for (int i = 0; i < delegates.size(); i++) {
+            final int index = i;
+            final long heapNeed = heapNeed(previous[i]);
+            futures.add(workers.submit(new Callable<T>() {
+                @Override
+                public T call() throws Exception {
+                    T value = budgetPermits == null ? delegates.get(index).get() : getWithinBudget(index, heapNeed);
+                    sampleHeap();
+                    if (value == null) {
+                        NullPointerException e = new NullPointerException(delegates.get(index) + " returned null");
+                        ready.get(index).setException(e);
+                        throw e;
+                    }
+                    if (!ready.get(index).isDone()) {
+                        publishFirst(index, value);
+                    }
+                    return value;
+                }
+            }));
+        }
+        Object[] next = Arrays.copyOf(previous, previous.length);
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                next[i] = futures.get(i).get();
+            } catch (ExecutionException e) {
+                logger.error("Error getting value of {}", delegates.get(i), e.getCause());
+            } catch (CancellationException e) {
+                logger.warn("Refresh of {} was cancelled", delegates.get(i));
+            } catch (InterruptedException e) {
+                logger.warn("Interrupted while refreshing, discarding the new generation");
+                for (Future<T> future: futures) {
+                    future.cancel(true);
+                }
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        synchronized (this) {
+            lastRefreshPeakHeapBytes = refreshPeakHeapBytes;
+        }
+        logger.info("Refresh used at least {} of heap{}", HeapUsage.megabytes(lastRefreshPeakHeapBytes),
+            budgetPermits == null ? "" : " (refresh budget " + HeapUsage.megabytes(memoryBudget) + ")");
+        // compared to the current generation, which has the first values published already
+        Object[] current = generation;
+        boolean changed = false;
+        for (int i = 0; i < next.length; i++) {
+            changed |= next[i] != current[i];
+        }
+        if (!changed) {
+            logger.debug("No value changed, not publishing a new generation");
+            return;
+        }
+        generation = next;
+        logger.info("Published new generation after {} ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        notifyRefreshListeners();
+    }
+
+    /**
+     * Publishes the first value of a delegate on its own.
+     */
+    private void publishFirst(int index, T value) {
+        synchronized (this) {
+            Object[] next = generation.clone();
+            next[index] = value;
+            generation = next;
+        }
+        logger.info("Published first value of {}", delegates.get(index));
+        notifyRefreshListeners();
+        ready.get(index).set(value);
+    }
+
+    private void notifyRefreshListeners() {
+        for (Runnable listener: refreshListeners) {
+            try {
+                listener.run();
+            } catch (Exception e) {
+                logger.error("Error notifying refresh listener", e);
+            }
+        }
+    }
+
+    /**
+     * @param previous the previous value of a delegate or {@code null}
+     * @return the estimated heap bytes needed to refresh the value, the whole budget if unknown
+     */
+    private long heapNeed(Object previous) {
+        return previous instanceof Sized ? HEAP_NEED_FACTOR * ((Sized) previous).sizeInBytes() : memoryBudget;
+    }
+
+    private T getWithinBudget(int index, long heapNeed) throws InterruptedException {
+        int permits = (int) Math.min(budgetPermitCount, Math.max(1, heapNeed / 1024));
+        logger.debug("Refreshing {} with an estimated need of {} of heap", delegates.get(index),
+            HeapUsage.megabytes(heapNeed));
+        budgetPermits.acquire(permits);
+        try {
+            sampleHeap();
+            return delegates.get(index).get();
+        } finally {
+            budgetPermits.release(permits);
+        }
+    }
+
+    private synchronized void sampleHeap() {
+        refreshPeakHeapBytes = Math.max(refreshPeakHeapBytes, HeapUsage.used());
+    }
+
+    private class GenerationSupplier implements Supplier<T> {
+
+        private final int index;
+
+        GenerationSupplier(int index) {
+            this.index = index;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public T get() {
+            return (T) generation[index];
+        }
+    }
+}
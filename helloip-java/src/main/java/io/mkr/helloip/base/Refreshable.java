@@ -0,0 +1,15 @@
+package io.mkr.helloip.base;
+
+/**
+ * Something which replaces its value from time to time and can tell others about it, e.g. to invalidate values
+ * derived from the old one.
+ */
+public interface Refreshable {
+
+    /**
+     * Registers a listener which is called after each refresh, i.e. once the new value is visible.
+     *
+     * @param listener the listener
+     */
+    void addRefreshListener(Runnable listener);
+}
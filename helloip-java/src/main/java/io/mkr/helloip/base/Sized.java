@@ -0,0 +1,12 @@
+package io.mkr.helloip.base;
+
+/**
+ * A value which can estimate the heap it retains, see {@link RefreshCoordinator}.
+ */
+public interface Sized {
+
+    /**
+     * @return the approximate heap size in bytes retained by this value
+     */
+    long sizeInBytes();
+}
@@ -0,0 +1,107 @@
+package io.mkr.helloip.index;
+
+import java.util.Arrays;
+
+/**
+ * An {@link Ipv4Index} looking up addresses in DIR-24-8 tables: an entry per /24 holding the payload id + 1, 0 or
+ * the complement of a chunk of the second table, which holds an entry per address of a partially covered /24.
+ */
+public final class Dir248Index implements Ipv4Index {
+
+    private static final int CHUNK_BITS = 8;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private final Ipv4RangeIndex intervals;
+    private final int[] table24;
+    private final int[] table8;
+
+    Dir248Index(Ipv4RangeIndex intervals) {
+        this.intervals = intervals;
+        this.table24 = new int[1 << 24];
+        int[] chunks = new int[CHUNK_SIZE * 16];
+        int chunkCount = 0;
+        for (int i = 0; i < intervals.size(); i++) {
+            long start = intervals.start(i);
+            long end = intervals.end(i);
+            int entry = intervals.payloadId(i) + 1;
+            long address = start;
+            while (address <= end) {
+                int block = (int) (address >>> CHUNK_BITS);
+                long blockEnd = address | CHUNK_MASK;
+                if ((address & CHUNK_MASK) == 0 && blockEnd <= end) {
+                    // whole /24s, possibly many
+                    long lastBlock = ((end + 1) >>> CHUNK_BITS) - 1;
+                    Arrays.fill(table24, block, (int) lastBlock + 1, entry);
+                    address = (lastBlock + 1) << CHUNK_BITS;
+                    continue;
+                }
+                // part of a /24: the intervals are disjoint, so the rest of the chunk is empty or filled by others
+                int chunk;
+                if (table24[block] < 0) {
+                    chunk = ~table24[block];
+                } else {
+                    chunk = chunkCount++;
+                    if (chunkCount * CHUNK_SIZE > chunks.length) {
+                        chunks = Arrays.copyOf(chunks, chunks.length + (chunks.length >> 1) + CHUNK_SIZE);
+                    }
+                    table24[block] = ~chunk;
+                }
+                long partEnd = Math.min(end, blockEnd);
+                int offset = chunk << CHUNK_BITS;
+                Arrays.fill(chunks, offset + (int) (address & CHUNK_MASK), offset + (int) (partEnd & CHUNK_MASK) + 1,
+                    entry);
+                address = partEnd + 1;
+            }
+        }
+        this.table8 = Arrays.copyOf(chunks, chunkCount * CHUNK_SIZE);
+    }
+
+    @Override
+    public int find(int address) {
+        int entry = table24[address >>> CHUNK_BITS];
+        if (entry < 0) {
+            entry = table8[(~entry << CHUNK_BITS) | (address & CHUNK_MASK)];
+        }
+        return entry - 1;
+    }
+
+    @Override
+    public void findAll(long[] batch, int[] results) {
+        for (long entry: batch) {
+            results[(int) entry] = find(Ipv4RangeIndex.address(entry));
+        }
+    }
+
+    @Override
+    public int size() {
+        return intervals.size();
+    }
+
+    @Override
+    public long start(int idx) {
+        return intervals.start(idx);
+    }
+
+    @Override
+    public long end(int idx) {
+        return intervals.end(idx);
+    }
+
+    @Override
+    public int payloadId(int idx) {
+        return intervals.payloadId(idx);
+    }
+
+    /**
+     * @return the number of /24s only partially covered by ranges, each taking a chunk of 1 KB
+     */
+    public int chunkCount() {
+        return table8.length >> CHUNK_BITS;
+    }
+
+    @Override
+    public long sizeInBytes() {
+        return 4L * table24.length + 4L * table8.length + intervals.sizeInBytes();
+    }
+}
@@ -0,0 +1,76 @@
+package io.mkr.helloip.index;
+
+/**
+ * An immutable index of disjoint IPv4 ranges each pointing to an integer payload id, created by the
+ * {@link Builder} of an {@link Ipv4IndexEngine}. Addresses are passed as {@code int}s holding the 32 bits of the
+ * address.
+ */
+public interface Ipv4Index {
+
+    /** Payload id returned by {@link #find(int)} if no range contains the address */
+    int NO_PAYLOAD = -1;
+
+    /**
+     * Returns the payload id of the range containing the address.
+     *
+     * @param address the IPv4 address as int
+     * @return the payload id or {@link #NO_PAYLOAD}
+     */
+    int find(int address);
+
+    /**
+     * Finds the payload ids for a batch of addresses sorted by {@link Ipv4RangeIndex#sortBatch(int[], int)}.
+     *
+     * @param batch the addresses with their positions, sorted
+     * @param results receives the payload id (or {@link #NO_PAYLOAD}) for each address at its position
+     */
+    void findAll(long[] batch, int[] results);
+
+    /**
+     * @return the number of disjoint ranges in this index
+     */
+    int size();
+
+    /**
+     * @param idx the position of the range in this index, ranges are ordered by their start
+     * @return the first address of the range at the given position as unsigned value
+     */
+    long start(int idx);
+
+    /**
+     * @param idx the position of the range in this index, ranges are ordered by their start
+     * @return the last address of the range at the given position as unsigned value
+     */
+    long end(int idx);
+
+    /**
+     * @param idx the position of the range in this index, ranges are ordered by their start
+     * @return the payload id of the range at the given position
+     */
+    int payloadId(int idx);
+
+    /**
+     * Returns the approximate number of bytes retained by this index.
+     *
+     * @return the approximate heap size in bytes
+     */
+    long sizeInBytes();
+
+    /**
+     * Collects ranges in any order and builds the index. Ranges added in order of their start are not sorted again.
+     */
+    interface Builder {
+
+        /**
+         * Adds a range.
+         *
+         * @param start first address of the range as unsigned value
+         * @param end last address of the range as unsigned value
+         * @param payloadId the non-negative payload id
+         * @return this builder
+         */
+        Builder add(long start, long end, int payloadId);
+
+        Ipv4Index build();
+    }
+}
@@ -0,0 +1,61 @@
+package io.mkr.helloip.index;
+
+/**
+ * Creates the {@link Ipv4Index.Builder}s of a kind of {@link Ipv4Index}.
+ */
+public interface Ipv4IndexEngine {
+
+    /**
+     * {@link Ipv4RangeIndex}: a binary search over the ranges. Of overlapping ranges the enclosing one wins, partially
+     * overlapping ranges are skipped (see {@link Ipv4RangeIndex.Builder}).
+     */
+    Ipv4IndexEngine RANGES = new Ipv4IndexEngine() {
+        @Override
+        public Ipv4Index.Builder builder(int expectedSize) {
+            return Ipv4RangeIndex.builder(expectedSize);
+        }
+
+        @Override
+        public String toString() {
+            return "RANGES";
+        }
+    };
+
+    /**
+     * Longest prefix match: the most specific range containing an address wins, searched in an
+     * {@link Ipv4RangeIndex}.
+     */
+    Ipv4IndexEngine LONGEST_PREFIX_MATCH = new Ipv4IndexEngine() {
+        @Override
+        public Ipv4Index.Builder builder(int expectedSize) {
+            return new LongestPrefixMatchBuilder(expectedSize, false);
+        }
+
+        @Override
+        public String toString() {
+            return "LONGEST_PREFIX_MATCH";
+        }
+    };
+
+    /**
+     * Longest prefix match like {@link #LONGEST_PREFIX_MATCH}, looked up in a {@link Dir248Index}. Takes 64 MB per
+     * index plus 1 KB per /24 partially covered.
+     */
+    Ipv4IndexEngine DIR_24_8 = new Ipv4IndexEngine() {
+        @Override
+        public Ipv4Index.Builder builder(int expectedSize) {
+            return new LongestPrefixMatchBuilder(expectedSize, true);
+        }
+
+        @Override
+        public String toString() {
+            return "DIR_24_8";
+        }
+    };
+
+    /**
+     * @param expectedSize the expected number of ranges
+     * @return a builder of an index
+     */
+    Ipv4Index.Builder builder(int expectedSize);
+}
@@ -0,0 +1,305 @@
+package io.mkr.helloip.index;
+
+import java.util.Arrays;
+
+import net.ripe.commons.ip.Ipv4Range;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An immutable index of disjoint IPv4 ranges each pointing to an integer payload id, held in parallel arrays sorted
+ * by range start. Addresses are passed as {@code int}s holding the 32 bits of the address.
+ * <p/>
+ * This is the index of {@link Ipv4IndexEngine#RANGES}, also used for the disjoint intervals of other engines.
+ */
+public final class Ipv4RangeIndex implements Ipv4Index {
+
+    private static final Logger log = LoggerFactory.getLogger(Ipv4RangeIndex.class);
+
+    private static final int SIGN_FLIP = Integer.MIN_VALUE;
+
+    private final int[] starts;
+    private final int[] ends;
+    private final int[] payloadIds;
+
+    private Ipv4RangeIndex(int[] starts, int[] ends, int[] payloadIds) {
+        this.starts = starts;
+        this.ends = ends;
+        this.payloadIds = payloadIds;
+    }
+
+    /**
+     * Returns the payload id of the range containing the address.
+     *
+     * @param address the IPv4 address as int
+     * @return the payload id or {@link #NO_PAYLOAD}
+     */
+    @Override
+    public int find(int address) {
+        int idx = indexOf(address);
+        return idx < 0 ? NO_PAYLOAD : payloadIds[idx];
+    }
+
+    /**
+     * Returns the position of the range containing the address.
+     *
+     * @param address the IPv4 address as int
+     * @return the position of the range in this index or {@code -1}
+     */
+    public int indexOf(int address) {
+        int key = address ^ SIGN_FLIP;
+        int low = 0;
+        int high = starts.length - 1;
+        // find the last range starting at or before the key
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (starts[mid] <= key) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return high >= 0 && ends[high] >= key ? high : -1;
+    }
+
+    /**
+     * Finds the payload ids for a batch of addresses by sorting them and merge joining them with the ranges.
+     *
+     * @param addresses the IPv4 addresses as ints, in any order
+     * @param length the number of addresses to look up
+     * @param results receives the payload id (or {@link #NO_PAYLOAD}) for each address at the same position
+     */
+    public void findAll(int[] addresses, int length, int[] results) {
+        findAll(sortBatch(addresses, length), results);
+    }
+
+    /**
+     * Sorts a batch of addresses for {@link #findAll(long[], int[])}.
+     *
+     * @param addresses the IPv4 addresses as ints, in any order
+     * @param length the number of addresses
+     * @return the addresses with their positions, sorted by unsigned address
+     */
+    public static long[] sortBatch(int[] addresses, int length) {
+        // (biased address << 32 | position) sorts by unsigned address
+        long[] batch = new long[length];
+        for (int i = 0; i < length; i++) {
+            batch[i] = ((long) (addresses[i] ^ SIGN_FLIP) << 32) | i;
+        }
+        Arrays.sort(batch);
+        return batch;
+    }
+
+    /**
+     * @param entry an entry of a batch sorted by {@link #sortBatch(int[], int)}
+     * @return the address of the entry
+     */
+    static int address(long entry) {
+        return (int) (entry >> 32) ^ SIGN_FLIP;
+    }
+
+    @Override
+    public void findAll(long[] batch, int[] results) {
+        int idx = 0;
+        for (long entry: batch) {
+            int key = (int) (entry >> 32);
+            idx = firstEndingAtOrAfter(key, idx);
+            results[(int) entry] = idx < starts.length && starts[idx] <= key ? payloadIds[idx] : NO_PAYLOAD;
+        }
+    }
+
+    private int firstEndingAtOrAfter(int key, int from) {
+        if (from >= ends.length || ends[from] >= key) {
+            return from;
+        }
+        // gallop until overshooting, then binary search in the last step
+        int low = from + 1;
+        int bound = 1;
+        while (from + bound < ends.length && ends[from + bound] < key) {
+            low = from + bound + 1;
+            bound <<= 1;
+        }
+        int high = Math.min(from + bound, ends.length - 1);
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (ends[mid] < key) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return the number of ranges in this index
+     */
+    @Override
+    public int size() {
+        return starts.length;
+    }
+
+    /**
+     * @param idx the position of the range in this index
+     * @return the first address of the range at the given position as unsigned value
+     */
+    @Override
+    public long start(int idx) {
+        return (starts[idx] ^ SIGN_FLIP) & 0xFFFFFFFFL;
+    }
+
+    /**
+     * @param idx the position of the range in this index
+     * @return the last address of the range at the given position as unsigned value
+     */
+    @Override
+    public long end(int idx) {
+        return (ends[idx] ^ SIGN_FLIP) & 0xFFFFFFFFL;
+    }
+
+    /**
+     * @param idx the position of the range in this index
+     * @return the payload id of the range at the given position
+     */
+    @Override
+    public int payloadId(int idx) {
+        return payloadIds[idx];
+    }
+
+    /**
+     * Returns the approximate number of bytes retained by this index.
+     *
+     * @return the approximate heap size in bytes
+     */
+    @Override
+    public long sizeInBytes() {
+        return 3L * 4L * starts.length;
+    }
+
+    public static Builder builder() {
+        return new Builder(16);
+    }
+
+    public static Builder builder(int expectedSize) {
+        return new Builder(expectedSize);
+    }
+
+    /**
+     * Collects ranges in any order and resolves overlaps on {@link #build()}: a range enclosed by an earlier
+     * (lower start) or equal range is skipped, a range enclosing a range with the same start replaces it, and a
+     * range partially overlapping another one is skipped. For identical ranges the first one added wins.
+     */
+    public static final class Builder implements Ipv4Index.Builder {
+
+        // (start << 32 | sequence number) with the sign bit flipped to sort by unsigned start, then insertion order
+        private long[] keys;
+        private int[] ends;
+        private int[] payloadIds;
+        private int size = 0;
+        private boolean sorted = true;
+
+        private Builder(int expectedSize) {
+            int capacity = Math.max(expectedSize, 1);
+            this.keys = new long[capacity];
+            this.ends = new int[capacity];
+            this.payloadIds = new int[capacity];
+        }
+
+        /**
+         * Adds a range.
+         *
+         * @param start first address of the range as unsigned value
+         * @param end last address of the range as unsigned value
+         * @param payloadId the non-negative payload id
+         * @return this builder
+         */
+        @Override
+        public Builder add(long start, long end, int payloadId) {
+            if (start < 0 || end > 0xFFFFFFFFL || start > end) {
+                throw new IllegalArgumentException("Invalid IPv4 range " + start + "-" + end);
+            }
+            if (payloadId < 0) {
+                throw new IllegalArgumentException("Payload id must not be negative: " + payloadId);
+            }
+            if (size == keys.length) {
+                int capacity = size + (size >> 1) + 1;
+                keys = Arrays.copyOf(keys, capacity);
+                ends = Arrays.copyOf(ends, capacity);
+                payloadIds = Arrays.copyOf(payloadIds, capacity);
+            }
+            keys[size] = ((start << 32) | size) ^ Long.MIN_VALUE;
+            sorted &= size == 0 || keys[size - 1] < keys[size];
+            ends[size] = (int) end;
+            payloadIds[size] = payloadId;
+            size++;
+            return this;
+        }
+
+        /**
+         * Adds a range.
+         *
+         * @param range the range
+         * @param payloadId the non-negative payload id
+         * @return this builder
+         */
+        public Builder add(Ipv4Range range, int payloadId) {
+            return add(range.start().asBigInteger().longValue(), range.end().asBigInteger().longValue(), payloadId);
+        }
+
+        @Override
+        public Ipv4RangeIndex build() {
+            long[] sortedKeys = keys;
+            if (!sorted) {
+                sortedKeys = Arrays.copyOf(keys, size);
+                Arrays.sort(sortedKeys);
+            }
+            int[] resultStarts = new int[size];
+            int[] resultEnds = new int[size];
+            int[] resultPayloadIds = new int[size];
+            int count = 0;
+            for (int i = 0; i < size; i++) {
+                long key = sortedKeys[i];
+                int seq = (int) key;
+                int start = (int) ((key ^ Long.MIN_VALUE) >>> 32) ^ SIGN_FLIP;
+                int end = ends[seq] ^ SIGN_FLIP;
+                if (count > 0 && start <= resultEnds[count - 1]) {
+                    int existingStart = resultStarts[count - 1];
+                    int existingEnd = resultEnds[count - 1];
+                    if (end <= existingEnd) {
+                        if (log.isDebugEnabled()) {
+                            log.debug("Existing range enclosing new one, skipping (new: {}, existing: {})",
+                                rangeString(start, end), rangeString(existingStart, existingEnd));
+                        }
+                    } else if (start == existingStart) {
+                        if (log.isDebugEnabled()) {
+                            log.debug("New range enclosing existing one, replacing existing (new: {}, existing: {})",
+                                rangeString(start, end), rangeString(existingStart, existingEnd));
+                        }
+                        resultEnds[count - 1] = end;
+                        resultPayloadIds[count - 1] = payloadIds[seq];
+                    } else if (log.isWarnEnabled()) {
+                        log.warn("Range overlap between existing and new range, skipping (new: {}, existing: {})",
+                            rangeString(start, end), rangeString(existingStart, existingEnd));
+                    }
+                } else {
+                    resultStarts[count] = start;
+                    resultEnds[count] = end;
+                    resultPayloadIds[count] = payloadIds[seq];
+                    count++;
+                }
+            }
+            if (count == size) {
+                return new Ipv4RangeIndex(resultStarts, resultEnds, resultPayloadIds);
+            }
+            return new Ipv4RangeIndex(
+                Arrays.copyOf(resultStarts, count),
+                Arrays.copyOf(resultEnds, count),
+                Arrays.copyOf(resultPayloadIds, count));
+        }
+
+        private static String rangeString(int biasedStart, int biasedEnd) {
+            return Ipv4Range.from((biasedStart ^ SIGN_FLIP) & 0xFFFFFFFFL).to((biasedEnd ^ SIGN_FLIP) & 0xFFFFFFFFL).toString();
+        }
+    }
+
+}
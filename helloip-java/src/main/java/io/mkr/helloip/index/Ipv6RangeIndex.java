@@ -0,0 +1,318 @@
+package io.mkr.helloip.index;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import io.mkr.helloip.Ipv6Addresses;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An immutable index of disjoint IPv6 ranges each pointing to an integer payload id, the IPv6 counterpart of
+ * {@link Ipv4RangeIndex}. Addresses are passed as two {@code long}s (see {@link Ipv6Addresses}). The index is built
+ * from prefixes, the most specific prefix wins.
+ */
+public final class Ipv6RangeIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(Ipv6RangeIndex.class);
+
+    /** Returned by {@link #find(long, long)} for addresses not in any range */
+    public static final int NO_PAYLOAD = Ipv4Index.NO_PAYLOAD;
+
+    private static final long SIGN_FLIP = Long.MIN_VALUE;
+
+    // (high, low) of each range, sign bits flipped
+    private final long[] starts;
+    private final long[] ends;
+    private final int[] payloadIds;
+
+    private Ipv6RangeIndex(long[] starts, long[] ends, int[] payloadIds) {
+        this.starts = starts;
+        this.ends = ends;
+        this.payloadIds = payloadIds;
+    }
+
+    /**
+     * Returns the payload id of the range containing the address.
+     *
+     * @param high the high 64 bits of the address
+     * @param low the low 64 bits of the address
+     * @return the payload id or {@link #NO_PAYLOAD}
+     */
+    public int find(long high, long low) {
+        int idx = indexOf(high, low);
+        return idx < 0 ? NO_PAYLOAD : payloadIds[idx];
+    }
+
+    /**
+     * Returns the position of the range containing the address.
+     *
+     * @param high the high 64 bits of the address
+     * @param low the low 64 bits of the address
+     * @return the position of the range in this index or {@code -1}
+     */
+    public int indexOf(long high, long low) {
+        long keyHigh = high ^ SIGN_FLIP;
+        long keyLow = low ^ SIGN_FLIP;
+        int lower = 0;
+        int upper = payloadIds.length - 1;
+        // find the last range starting at or before the key
+        while (lower <= upper) {
+            int mid = (lower + upper) >>> 1;
+            long startHigh = starts[2 * mid];
+            if (startHigh < keyHigh || startHigh == keyHigh && starts[2 * mid + 1] <= keyLow) {
+                lower = mid + 1;
+            } else {
+                upper = mid - 1;
+            }
+        }
+        if (upper < 0) {
+            return -1;
+        }
+        long endHigh = ends[2 * upper];
+        return endHigh > keyHigh || endHigh == keyHigh && ends[2 * upper + 1] >= keyLow ? upper : -1;
+    }
+
+    /**
+     * @return the number of ranges in this index
+     */
+    public int size() {
+        return payloadIds.length;
+    }
+
+    /**
+     * @param idx the position of the range in this index
+     * @return the high 64 bits of the first address of the range
+     */
+    public long startHigh(int idx) {
+        return starts[2 * idx] ^ SIGN_FLIP;
+    }
+
+    /**
+     * @param idx the position of the range in this index
+     * @return the low 64 bits of the first address of the range
+     */
+    public long startLow(int idx) {
+        return starts[2 * idx + 1] ^ SIGN_FLIP;
+    }
+
+    /**
+     * @param idx the position of the range in this index
+     * @return the high 64 bits of the last address of the range
+     */
+    public long endHigh(int idx) {
+        return ends[2 * idx] ^ SIGN_FLIP;
+    }
+
+    /**
+     * @param idx the position of the range in this index
+     * @return the low 64 bits of the last address of the range
+     */
+    public long endLow(int idx) {
+        return ends[2 * idx + 1] ^ SIGN_FLIP;
+    }
+
+    /**
+     * @param idx the position of the range in this index
+     * @return the payload id of the range at the given position
+     */
+    public int payloadId(int idx) {
+        return payloadIds[idx];
+    }
+
+    /**
+     * Returns the approximate number of bytes retained by this index.
+     *
+     * @return the approximate heap size in bytes
+     */
+    public long sizeInBytes() {
+        return 36L * payloadIds.length;
+    }
+
+    public static Builder builder() {
+        return new Builder(16);
+    }
+
+    public static Builder builder(int expectedSize) {
+        return new Builder(expectedSize);
+    }
+
+    /**
+     * Collects prefixes in any order and flattens them into disjoint ranges on {@link #build()}, the most specific
+     * prefix winning. For identical prefixes the first one added wins.
+     */
+    public static final class Builder {
+
+        private long[] highs;
+        private long[] lows;
+        private int[] prefixLengths;
+        private int[] payloadIds;
+        private int size = 0;
+        private boolean sorted = true;
+
+        // the ranges built
+        private long[] starts;
+        private long[] ends;
+        private int[] resultPayloadIds;
+        private int count;
+
+        private Builder(int expectedSize) {
+            int capacity = Math.max(expectedSize, 1);
+            this.highs = new long[capacity];
+            this.lows = new long[capacity];
+            this.prefixLengths = new int[capacity];
+            this.payloadIds = new int[capacity];
+        }
+
+        /**
+         * Adds a prefix.
+         *
+         * @param high the high 64 bits of the prefix
+         * @param low the low 64 bits of the prefix
+         * @param prefixLength the prefix length from 0 to 128
+         * @param payloadId the non-negative payload id
+         * @return this builder
+         */
+        public Builder add(long high, long low, int prefixLength, int payloadId) {
+            if (prefixLength < 0 || prefixLength > 128) {
+                throw new IllegalArgumentException("Invalid IPv6 prefix length " + prefixLength);
+            }
+            if ((high & Ipv6Addresses.hostMaskHigh(prefixLength)) != 0
+                    || (low & Ipv6Addresses.hostMaskLow(prefixLength)) != 0) {
+                throw new IllegalArgumentException("Not an IPv6 prefix: "
+                    + Ipv6Addresses.toIpv6(high, low) + "/" + prefixLength);
+            }
+            if (payloadId < 0) {
+                throw new IllegalArgumentException("Payload id must not be negative: " + payloadId);
+            }
+            if (size == highs.length) {
+                int capacity = size + (size >> 1) + 1;
+                highs = Arrays.copyOf(highs, capacity);
+                lows = Arrays.copyOf(lows, capacity);
+                prefixLengths = Arrays.copyOf(prefixLengths, capacity);
+                payloadIds = Arrays.copyOf(payloadIds, capacity);
+            }
+            highs[size] = high;
+            lows[size] = low;
+            prefixLengths[size] = prefixLength;
+            payloadIds[size] = payloadId;
+            sorted &= size == 0 || compare(size - 1, size) < 0;
+            size++;
+            return this;
+        }
+
+        /**
+         * Orders by start, then by prefix length (enclosing prefixes first), then by insertion order.
+         */
+        private int compare(int seq1, int seq2) {
+            int order = Ipv6Addresses.compare(highs[seq1], lows[seq1], highs[seq2], lows[seq2]);
+            if (order == 0) {
+                order = prefixLengths[seq1] - prefixLengths[seq2];
+            }
+            return order == 0 ? seq1 - seq2 : order;
+        }
+
+        public Ipv6RangeIndex build() {
+            int[] order = sortedOrder();
+            // each prefix adds at most two ranges, one before and one after its nested prefixes
+            starts = new long[4 * size];
+            ends = new long[4 * size];
+            resultPayloadIds = new int[2 * size];
+            count = 0;
+            // the enclosing prefixes of the current one, the innermost on top
+            int[] stack = new int[Math.min(size, 129)];
+            int depth = 0;
+            // first address of the innermost prefix not yet covered by a range
+            long cursorHigh = 0;
+            long cursorLow = 0;
+            for (int seq: order) {
+                while (depth > 0 && Ipv6Addresses.compare(endHigh(stack[depth - 1]), endLow(stack[depth - 1]),
+                        highs[seq], lows[seq]) < 0) {
+                    int top = stack[--depth];
+                    emit(cursorHigh, cursorLow, endHigh(top), endLow(top), payloadIds[top]);
+                    cursorLow = endLow(top) + 1;
+                    cursorHigh = cursorLow == 0 ? endHigh(top) + 1 : endHigh(top);
+                }
+                if (depth > 0) {
+                    int top = stack[depth - 1];
+                    if (highs[top] == highs[seq] && lows[top] == lows[seq] && prefixLengths[top] == prefixLengths[seq]) {
+                        if (log.isDebugEnabled()) {
+                            log.debug("Identical prefix, skipping: {}/{}", Ipv6Addresses.toIpv6(highs[seq], lows[seq]),
+                                prefixLengths[seq]);
+                        }
+                        continue;
+                    }
+                    // nested in the top prefix, which covers everything up to this one, if it starts after the
+                    // cursor (the address before :: would wrap around)
+                    if (highs[seq] != cursorHigh || lows[seq] != cursorLow) {
+                        long beforeLow = lows[seq] - 1;
+                        long beforeHigh = lows[seq] == 0 ? highs[seq] - 1 : highs[seq];
+                        emit(cursorHigh, cursorLow, beforeHigh, beforeLow, payloadIds[top]);
+                    }
+                }
+                stack[depth++] = seq;
+                cursorHigh = highs[seq];
+                cursorLow = lows[seq];
+            }
+            boolean exhausted = false;
+            while (depth > 0 && !exhausted) {
+                int top = stack[--depth];
+                emit(cursorHigh, cursorLow, endHigh(top), endLow(top), payloadIds[top]);
+                // all enclosing prefixes end at the same address if the last address was reached
+                exhausted = endHigh(top) == -1L && endLow(top) == -1L;
+                cursorLow = endLow(top) + 1;
+                cursorHigh = cursorLow == 0 ? endHigh(top) + 1 : endHigh(top);
+            }
+            return new Ipv6RangeIndex(Arrays.copyOf(starts, 2 * count), Arrays.copyOf(ends, 2 * count),
+                Arrays.copyOf(resultPayloadIds, count));
+        }
+
+        private long endHigh(int seq) {
+            return highs[seq] | Ipv6Addresses.hostMaskHigh(prefixLengths[seq]);
+        }
+
+        private long endLow(int seq) {
+            return lows[seq] | Ipv6Addresses.hostMaskLow(prefixLengths[seq]);
+        }
+
+        /**
+         * Adds the range if not empty.
+         */
+        private void emit(long startHigh, long startLow, long endHigh, long endLow, int payloadId) {
+            if (Ipv6Addresses.compare(startHigh, startLow, endHigh, endLow) > 0) {
+                return;
+            }
+            starts[2 * count] = startHigh ^ SIGN_FLIP;
+            starts[2 * count + 1] = startLow ^ SIGN_FLIP;
+            ends[2 * count] = endHigh ^ SIGN_FLIP;
+            ends[2 * count + 1] = endLow ^ SIGN_FLIP;
+            resultPayloadIds[count] = payloadId;
+            count++;
+        }
+
+        private int[] sortedOrder() {
+            int[] order = new int[size];
+            if (sorted) {
+                for (int seq = 0; seq < size; seq++) {
+                    order[seq] = seq;
+                }
+                return order;
+            }
+            Integer[] boxed = new Integer[size];
+            for (int seq = 0; seq < size; seq++) {
+                boxed[seq] = seq;
+            }
+            Arrays.sort(boxed, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer seq1, Integer seq2) {
+                    return Builder.this.compare(seq1, seq2);
+                }
+            });
+            for (int i = 0; i < size; i++) {
+                order[i] = boxed[i];
+            }
+            return order;
+        }
+    }
+
+}
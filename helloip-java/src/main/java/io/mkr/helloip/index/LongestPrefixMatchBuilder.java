@@ -0,0 +1,184 @@
+package io.mkr.helloip.index;
+
+import java.util.Arrays;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Builds an index in which the most specific range containing an address wins (see
+ * {@link Ipv4IndexEngine#LONGEST_PREFIX_MATCH}), for partially overlapping ranges the smaller one. Of identical
+ * ranges the first one added wins.
+ */
+final class LongestPrefixMatchBuilder implements Ipv4Index.Builder {
+
+    private static final Logger log = LoggerFactory.getLogger(LongestPrefixMatchBuilder.class);
+
+    private final boolean dir248;
+    // (start << 32 | sequence number) with the sign bit flipped to sort by unsigned start, then insertion order
+    private long[] keys;
+    private int[] ends;
+    private int[] payloadIds;
+    private int size = 0;
+    private boolean sorted = true;
+
+    /**
+     * @param expectedSize the expected number of ranges
+     * @param dir248 whether to build a {@link Dir248Index} instead of an {@link Ipv4RangeIndex}
+     */
+    LongestPrefixMatchBuilder(int expectedSize, boolean dir248) {
+        int capacity = Math.max(expectedSize, 1);
+        this.dir248 = dir248;
+        this.keys = new long[capacity];
+        this.ends = new int[capacity];
+        this.payloadIds = new int[capacity];
+    }
+
+    @Override
+    public LongestPrefixMatchBuilder add(long start, long end, int payloadId) {
+        if (start < 0 || end > 0xFFFFFFFFL || start > end) {
+            throw new IllegalArgumentException("Invalid IPv4 range " + start + "-" + end);
+        }
+        if (payloadId < 0) {
+            throw new IllegalArgumentException("Payload id must not be negative: " + payloadId);
+        }
+        if (size == keys.length) {
+            int capacity = size + (size >> 1) + 1;
+            keys = Arrays.copyOf(keys, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+            payloadIds = Arrays.copyOf(payloadIds, capacity);
+        }
+        keys[size] = ((start << 32) | size) ^ Long.MIN_VALUE;
+        sorted &= size == 0 || keys[size - 1] < keys[size];
+        ends[size] = (int) end;
+        payloadIds[size] = payloadId;
+        size++;
+        return this;
+    }
+
+    @Override
+    public Ipv4Index build() {
+        long[] sortedKeys = keys;
+        if (!sorted) {
+            sortedKeys = Arrays.copyOf(keys, size);
+            Arrays.sort(sortedKeys);
+        }
+        Intervals intervals = new Intervals(size);
+        // (length << 31 | sequence number) of the ranges containing the position, smallest (then first) on top
+        long[] heap = new long[Math.max(size, 1)];
+        int heapSize = 0;
+        long position = 0;
+        int next = 0;
+        while (next < size || heapSize > 0) {
+            if (heapSize == 0) {
+                position = start(sortedKeys[next]);
+            }
+            while (next < size && start(sortedKeys[next]) == position) {
+                int seq = (int) sortedKeys[next];
+                heapSize = push(heap, heapSize, ((end(seq) - position) << 31) | seq);
+                next++;
+            }
+            while (heapSize > 0 && end(top(heap)) < position) {
+                heapSize = pop(heap, heapSize);
+            }
+            if (heapSize == 0) {
+                continue;
+            }
+            int seq = top(heap);
+            long nextStart = next < size ? start(sortedKeys[next]) : Long.MAX_VALUE;
+            long intervalEnd = Math.min(end(seq), nextStart - 1);
+            intervals.add(position, intervalEnd, payloadIds[seq]);
+            position = intervalEnd + 1;
+        }
+        Ipv4RangeIndex index = intervals.build();
+        if (log.isDebugEnabled()) {
+            log.debug("Flattened {} ranges into {} intervals", size, index.size());
+        }
+        return dir248 ? new Dir248Index(index) : index;
+    }
+
+    private static long start(long key) {
+        return (key ^ Long.MIN_VALUE) >>> 32;
+    }
+
+    private long end(int seq) {
+        return ends[seq] & 0xFFFFFFFFL;
+    }
+
+    private static int top(long[] heap) {
+        return (int) (heap[0] & Integer.MAX_VALUE);
+    }
+
+    private static int push(long[] heap, int heapSize, long value) {
+        int child = heapSize;
+        while (child > 0) {
+            int parent = (child - 1) >>> 1;
+            if (heap[parent] <= value) {
+                break;
+            }
+            heap[child] = heap[parent];
+            child = parent;
+        }
+        heap[child] = value;
+        return heapSize + 1;
+    }
+
+    private static int pop(long[] heap, int heapSize) {
+        int size = heapSize - 1;
+        long value = heap[size];
+        int parent = 0;
+        while (true) {
+            int child = 2 * parent + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && heap[child + 1] < heap[child]) {
+                child++;
+            }
+            if (value <= heap[child]) {
+                break;
+            }
+            heap[parent] = heap[child];
+            parent = child;
+        }
+        heap[parent] = value;
+        return size;
+    }
+
+    /**
+     * Collects the disjoint intervals in order, merging adjacent ones with the same payload.
+     */
+    private static final class Intervals {
+
+        private final Ipv4RangeIndex.Builder index;
+        private long start = -1;
+        private long end = -1;
+        private int payloadId = Ipv4Index.NO_PAYLOAD;
+
+        Intervals(int expectedSize) {
+            this.index = Ipv4RangeIndex.builder(expectedSize);
+        }
+
+        void add(long start, long end, int payloadId) {
+            if (payloadId == this.payloadId && start == this.end + 1) {
+                this.end = end;
+                return;
+            }
+            flush();
+            this.start = start;
+            this.end = end;
+            this.payloadId = payloadId;
+        }
+
+        private void flush() {
+            if (start >= 0) {
+                index.add(start, end, payloadId);
+            }
+        }
+
+        Ipv4RangeIndex build() {
+            flush();
+            return index.build();
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package io.mkr.helloip.io;
+
+import java.io.IOException;
+
+/**
+ * A {@link ReaderProvider} which can tell cheaply whether a resource changed since a version read before, e.g. by a
+ * conditional HTTP request.
+ */
+public interface ChangeAwareReaderProvider extends ReaderProvider {
+
+    /**
+     * Creates a reader on the resource unless it is still at the given version.
+     *
+     * @param version the version read before (see {@link VersionedReader#getVersion()}) or {@code null}
+     * @return a reader on the current version or {@code null} if the resource did not change
+     * @throws IOException if the resource could not be read
+     */
+    VersionedReader createReaderIfChanged(String version) throws IOException;
+}
@@ -0,0 +1,45 @@
+package io.mkr.helloip.io;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * A {@link ReaderProvider} for local files, e.g. copies of the range lists for offline use. As
+ * {@link ChangeAwareReaderProvider} the version is the file's size and modification time.
+ */
+public class FileReaderProvider implements ChangeAwareReaderProvider {
+
+    private final Path path;
+    private final Charset charset;
+
+    public FileReaderProvider(Path path) {
+        this(path, StandardCharsets.UTF_8);
+    }
+
+    public FileReaderProvider(Path path, Charset charset) {
+        this.path = path;
+        this.charset = charset;
+    }
+
+    @Override
+    public Reader createReader() throws IOException {
+        return Files.newBufferedReader(path, charset);
+    }
+
+    @Override
+    public VersionedReader createReaderIfChanged(String version) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        String current = attributes.size() + "@" + attributes.lastModifiedTime().toMillis();
+        return current.equals(version) ? null : new VersionedReader(createReader(), current);
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getName() + " from " + path;
+    }
+}
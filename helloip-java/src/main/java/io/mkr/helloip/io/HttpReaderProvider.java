@@ -6,51 +6,112 @@ import java.io.Reader;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 
+import org.apache.http.Header;
 import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
 import org.apache.http.HttpStatus;
 import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
-import org.apache.http.config.ConnectionConfig;
 import org.apache.http.entity.ContentType;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
- * A {@link ReaderProvider} for HTTP response bodies using {@link org.apache.http.client.HttpClient}. Fully consuming the reader is required
- * to close the underyling connection (according to
- * <a href="https://mail-archives.apache.org/mod_mbox/hc-httpclient-users/200909.mbox/%3C4A9EBECB.3030708@apache.org%3E">the
- * HttpClient authors</a>).
+ * A {@link ReaderProvider} for HTTP response bodies using {@link org.apache.http.client.HttpClient}, by default one
+ * pooled client shared by all instances. Closing a reader before the end of the body closes the connection.
+ * <p/>
+ * As {@link ChangeAwareReaderProvider} the version of a response is its {@code ETag} or else its
+ * {@code Last-Modified} header.
  */
-public class HttpReaderProvider implements ReaderProvider {
+public class HttpReaderProvider implements ChangeAwareReaderProvider {
+
+    private static final Logger logger = LoggerFactory.getLogger(HttpReaderProvider.class);
 
     private static final int DEFAULT_CONNECT_TIMEOUT = 60000;
     private static final int DEFAULT_SOCKET_TIMEOUT = 60000;
 
+    private static final String ETAG_VERSION = "etag:";
+    private static final String LAST_MODIFIED_VERSION = "modified:";
+
+    private static final CloseableHttpClient SHARED_CLIENT = createSharedClient();
+
     private final String location;
+    private final CloseableHttpClient httpClient;
 
     public HttpReaderProvider(String location) {
+        this(location, SHARED_CLIENT);
+    }
+
+    /**
+     * @param location the URL
+     * @param httpClient the client to use, not closed by this provider
+     */
+    public HttpReaderProvider(String location, CloseableHttpClient httpClient) {
         this.location = location;
+        this.httpClient = httpClient;
+    }
+
+    private static CloseableHttpClient createSharedClient() {
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(20);
+        connectionManager.setDefaultMaxPerRoute(4);
+        RequestConfig requestConfig = RequestConfig
+            .copy(RequestConfig.DEFAULT)
+            .setConnectTimeout(DEFAULT_CONNECT_TIMEOUT)
+            .setSocketTimeout(DEFAULT_SOCKET_TIMEOUT)
+            .build();
+        return HttpClients.custom()
+            .setConnectionManager(connectionManager)
+            .setDefaultRequestConfig(requestConfig)
+            .build();
     }
 
     /**
      * Create a {@link Reader} for a HTTP response body. {@code null} is returned on any unexpected circumstances: response code not 200,
-     * no response entity. Note: Fully consuming the reader is required to close the underlying connection.
+     * no response entity. Note: Closing the reader is required to release the underlying connection.
      *
      * @return the {@link Reader} for the HTTP response body or null
      * @throws IOException
      */
     @Override
     public Reader createReader() throws IOException {
-        CloseableHttpClient httpclient = HttpClients.createDefault();
+        CloseableHttpResponse response = httpClient.execute(new HttpGet(location));
+        Reader reader = readerOrNull(response);
+        if (reader == null) {
+            response.close();
+            return null;
+        }
+        return new VersionedReader(reader, null, response);
+    }
+
+    @Override
+    public VersionedReader createReaderIfChanged(String version) throws IOException {
         HttpGet httpget = new HttpGet(location);
-        RequestConfig requestConfig = RequestConfig
-            .copy(RequestConfig.DEFAULT)
-            .setConnectTimeout(DEFAULT_CONNECT_TIMEOUT)
-            .setSocketTimeout(DEFAULT_SOCKET_TIMEOUT)
-            .build();
-        httpget.setConfig(requestConfig);
-        CloseableHttpResponse response = httpclient.execute(httpget);
+        if (version != null && version.startsWith(ETAG_VERSION)) {
+            httpget.setHeader(HttpHeaders.IF_NONE_MATCH, version.substring(ETAG_VERSION.length()));
+        } else if (version != null && version.startsWith(LAST_MODIFIED_VERSION)) {
+            httpget.setHeader(HttpHeaders.IF_MODIFIED_SINCE, version.substring(LAST_MODIFIED_VERSION.length()));
+        }
+        CloseableHttpResponse response = httpClient.execute(httpget);
+        int statusCode = response.getStatusLine().getStatusCode();
+        if (statusCode == HttpStatus.SC_NOT_MODIFIED) {
+            logger.debug("{} not modified", location);
+            response.close();
+            return null;
+        }
+        Reader reader = readerOrNull(response);
+        if (reader == null) {
+            response.close();
+            throw new IOException("Unexpected response " + response.getStatusLine() + " from " + location);
+        }
+        return new VersionedReader(reader, version(response), response);
+    }
+
+    private static Reader readerOrNull(CloseableHttpResponse response) throws IOException {
         if (response.getStatusLine().getStatusCode() == HttpStatus.SC_OK) {
             HttpEntity responseEntity = response.getEntity();
             if (responseEntity != null) {
@@ -58,11 +119,18 @@ public class HttpReaderProvider implements ReaderProvider {
                 return new InputStreamReader(responseEntity.getContent(), charset == null ? StandardCharsets.ISO_8859_1 : charset);
             }
         }
-        response.close();
-        httpclient.close();
         return null;
     }
 
+    private static String version(CloseableHttpResponse response) {
+        Header etag = response.getFirstHeader(HttpHeaders.ETAG);
+        if (etag != null) {
+            return ETAG_VERSION + etag.getValue();
+        }
+        Header lastModified = response.getFirstHeader(HttpHeaders.LAST_MODIFIED);
+        return lastModified != null ? LAST_MODIFIED_VERSION + lastModified.getValue() : null;
+    }
+
     @Override
     public String toString() {
         return getClass().getName() + " from " + location;
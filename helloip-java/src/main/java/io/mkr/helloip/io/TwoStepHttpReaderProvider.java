@@ -11,9 +11,10 @@ import org.slf4j.LoggerFactory;
 
 /**
  * An HTTP {@link ReaderProvider} which gets the location it should read from by a regex-match+replace on another
- * {@link ReaderProvider}s fully consumed content.
+ * {@link ReaderProvider}s fully consumed content. As {@link ChangeAwareReaderProvider} the version is the extracted
+ * location.
  */
-public class TwoStepHttpReaderProvider implements ReaderProvider {
+public class TwoStepHttpReaderProvider implements ChangeAwareReaderProvider {
 
     private static final Logger logger = LoggerFactory.getLogger(TwoStepHttpReaderProvider.class);
 
@@ -30,6 +31,25 @@ public class TwoStepHttpReaderProvider implements ReaderProvider {
 
     @Override
     public Reader createReader() throws IOException {
+        String location = location();
+        return location != null ? new HttpReaderProvider(location).createReader() : null;
+    }
+
+    @Override
+    public VersionedReader createReaderIfChanged(String version) throws IOException {
+        String location = location();
+        if (location == null) {
+            throw new IOException("No location found via " + locationReaderProvider);
+        }
+        if (location.equals(version)) {
+            logger.debug("Location {} unchanged", location);
+            return null;
+        }
+        VersionedReader reader = new HttpReaderProvider(location).createReaderIfChanged(null);
+        return new VersionedReader(reader, location);
+    }
+
+    private String location() throws IOException {
         logger.info("Getting location information via {}", locationReaderProvider);
         String location = null;
         try (BufferedReader br = new BufferedReader(locationReaderProvider.createReader())) {
@@ -41,6 +61,6 @@ public class TwoStepHttpReaderProvider implements ReaderProvider {
                 }
             }
         }
-        return location != null ? new HttpReaderProvider(location).createReader() : null;
+        return location;
     }
 }
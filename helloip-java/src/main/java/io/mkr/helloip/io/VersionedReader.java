@@ -0,0 +1,47 @@
+package io.mkr.helloip.io;
+
+import java.io.Closeable;
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * A {@link Reader} on a specific version of a resource, see {@link ChangeAwareReaderProvider}.
+ */
+public class VersionedReader extends FilterReader {
+
+    private final String version;
+    private final Closeable resource;
+
+    /**
+     * @param in the reader
+     * @param version the version of the resource read, {@code null} if unknown
+     */
+    public VersionedReader(Reader in, String version) {
+        this(in, version, in);
+    }
+
+    /**
+     * @param in the reader
+     * @param version the version of the resource read, {@code null} if unknown
+     * @param resource closed instead of the reader, e.g. an HTTP response which can be closed without reading the
+     *                 rest of the body
+     */
+    public VersionedReader(Reader in, String version, Closeable resource) {
+        super(in);
+        this.version = version;
+        this.resource = resource;
+    }
+
+    /**
+     * @return the version of the resource read or {@code null} if unknown
+     */
+    public String getVersion() {
+        return version;
+    }
+
+    @Override
+    public void close() throws IOException {
+        resource.close();
+    }
+}
@@ -0,0 +1,56 @@
+package io.mkr.helloip.metrics;
+
+/**
+ * Listener for metrics of lookups and refreshes. Implementations must be thread safe, see
+ * {@link RecordingIpInfoMetrics}.
+ */
+public interface IpInfoMetrics {
+
+    /**
+     * Metrics which are discarded
+     */
+    IpInfoMetrics NONE = new IpInfoMetrics() {
+        @Override
+        public void lookup(String providerName, boolean hit, long nanos) {
+        }
+
+        @Override
+        public void refreshed(String sourceName, boolean changed, long nanos, long charsRead, int ranges,
+                              long sizeInBytes) {
+        }
+
+        @Override
+        public void refreshFailed(String sourceName, long nanos, Throwable cause) {
+        }
+    };
+
+    /**
+     * A lookup of one provider.
+     *
+     * @param providerName the provider looked up
+     * @param hit whether the provider had infos on the IP
+     * @param nanos the time taken
+     */
+    void lookup(String providerName, boolean hit, long nanos);
+
+    /**
+     * A successful refresh of the provider of a source.
+     *
+     * @param sourceName the source refreshed
+     * @param changed whether the ranges changed, if not the previous provider is kept
+     * @param nanos the time taken
+     * @param charsRead the characters read from the source
+     * @param ranges the number of ranges of the provider
+     * @param sizeInBytes the (approximate) memory size of the provider's index and infos
+     */
+    void refreshed(String sourceName, boolean changed, long nanos, long charsRead, int ranges, long sizeInBytes);
+
+    /**
+     * A failed refresh of the provider of a source, the previous provider is kept.
+     *
+     * @param sourceName the source refreshed
+     * @param nanos the time taken
+     * @param cause the failure
+     */
+    void refreshFailed(String sourceName, long nanos, Throwable cause);
+}
@@ -0,0 +1,248 @@
+package io.mkr.helloip.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * {@link IpInfoMetrics} kept in memory for reading them, e.g. for exporting to a monitoring system: per provider hit
+ * and miss counts and lookup latencies in power of two buckets, per source the numbers of the last refresh.
+ */
+public final class RecordingIpInfoMetrics implements IpInfoMetrics {
+
+    private final ConcurrentMap<String, ProviderStats> providers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, SourceStats> sources = new ConcurrentHashMap<>();
+
+    @Override
+    public void lookup(String providerName, boolean hit, long nanos) {
+        ProviderStats stats = providers.get(providerName);
+        if (stats == null) {
+            ProviderStats created = new ProviderStats();
+            stats = providers.putIfAbsent(providerName, created);
+            if (stats == null) {
+                stats = created;
+            }
+        }
+        stats.record(hit, nanos);
+    }
+
+    @Override
+    public void refreshed(String sourceName, boolean changed, long nanos, long charsRead, int ranges,
+                          long sizeInBytes) {
+        source(sourceName).refreshed(changed, nanos, charsRead, ranges, sizeInBytes);
+    }
+
+    @Override
+    public void refreshFailed(String sourceName, long nanos, Throwable cause) {
+        source(sourceName).refreshFailed(nanos, cause);
+    }
+
+    /**
+     * @return the stats by provider name
+     */
+    public Map<String, ProviderStats> getProviders() {
+        return Collections.unmodifiableMap(providers);
+    }
+
+    /**
+     * @return the stats by source name
+     */
+    public Map<String, SourceStats> getSources() {
+        return Collections.unmodifiableMap(sources);
+    }
+
+    private SourceStats source(String sourceName) {
+        SourceStats stats = sources.get(sourceName);
+        if (stats == null) {
+            SourceStats created = new SourceStats();
+            stats = sources.putIfAbsent(sourceName, created);
+            if (stats == null) {
+                stats = created;
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Lookup metrics of a provider.
+     */
+    public static final class ProviderStats {
+
+        private static final int HITS = 0;
+        private static final int MISSES = 1;
+        private static final int BUCKETS = 2;
+        // bucket 0 counts lookups taking 0 ns, bucket b > 0 those taking [2^(b-1), 2^b) ns
+        private static final int BUCKET_COUNT = 65;
+
+        private final StripedCounter counters = new StripedCounter(BUCKETS + BUCKET_COUNT);
+
+        private ProviderStats() {
+        }
+
+        private void record(boolean hit, long nanos) {
+            counters.increment(hit ? HITS : MISSES);
+            counters.increment(BUCKETS + 64 - Long.numberOfLeadingZeros(Math.max(nanos, 0)));
+        }
+
+        public long getHits() {
+            return counters.sum(HITS);
+        }
+
+        public long getMisses() {
+            return counters.sum(MISSES);
+        }
+
+        /**
+         * @return the lookup counts per latency bucket, bucket 0 counts lookups taking 0 ns, bucket b > 0 those
+         * taking at least 2^(b-1) and less than 2^b ns
+         */
+        public long[] getLatencyHistogram() {
+            long[] histogram = new long[BUCKET_COUNT];
+            for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+                histogram[bucket] = counters.sum(BUCKETS + bucket);
+            }
+            return histogram;
+        }
+
+        /**
+         * @param quantile the quantile, e.g. 0.99
+         * @return an upper bound of the latency quantile in ns (the upper bound of its bucket), 0 without lookups
+         */
+        public long getLatencyQuantileNanos(double quantile) {
+            long[] histogram = getLatencyHistogram();
+            long total = 0;
+            for (long count: histogram) {
+                total += count;
+            }
+            long rank = (long) Math.ceil(quantile * total);
+            long seen = 0;
+            for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+                seen += histogram[bucket];
+                if (seen >= rank && seen > 0) {
+                    return bucket == 0 ? 0 : bucket == 64 ? Long.MAX_VALUE : (1L << bucket) - 1;
+                }
+            }
+            return 0;
+        }
+
+        @Override
+        public String toString() {
+            return "hits=" + getHits() + ", misses=" + getMisses() + ", p50<=" + getLatencyQuantileNanos(0.5)
+                + "ns, p99<=" + getLatencyQuantileNanos(0.99) + "ns";
+        }
+    }
+
+    /**
+     * Refresh metrics of a source.
+     */
+    public static final class SourceStats {
+
+        private long refreshes;
+        private long changes;
+        private long failures;
+        private long lastDurationNanos;
+        private long lastCharsRead;
+        private long charsRead;
+        private int ranges;
+        private long sizeInBytes;
+        private long lastSuccessMillis = -1;
+        private Throwable lastFailure;
+
+        private SourceStats() {
+        }
+
+        private synchronized void refreshed(boolean changed, long nanos, long charsRead, int ranges,
+                                            long sizeInBytes) {
+            refreshes++;
+            if (changed) {
+                changes++;
+            }
+            lastDurationNanos = nanos;
+            lastCharsRead = charsRead;
+            this.charsRead += charsRead;
+            this.ranges = ranges;
+            this.sizeInBytes = sizeInBytes;
+            lastSuccessMillis = System.currentTimeMillis();
+        }
+
+        private synchronized void refreshFailed(long nanos, Throwable cause) {
+            failures++;
+            lastDurationNanos = nanos;
+            lastFailure = cause;
+        }
+
+        /**
+         * @return the number of successful refreshes
+         */
+        public synchronized long getRefreshes() {
+            return refreshes;
+        }
+
+        /**
+         * @return the number of successful refreshes which found changed ranges
+         */
+        public synchronized long getChanges() {
+            return changes;
+        }
+
+        public synchronized long getFailures() {
+            return failures;
+        }
+
+        /**
+         * @return the duration of the last refresh, successful or not
+         */
+        public synchronized long getLastDurationNanos() {
+            return lastDurationNanos;
+        }
+
+        /**
+         * @return the characters read by the last successful refresh
+         */
+        public synchronized long getLastCharsRead() {
+            return lastCharsRead;
+        }
+
+        /**
+         * @return the characters read by all successful refreshes
+         */
+        public synchronized long getCharsRead() {
+            return charsRead;
+        }
+
+        /**
+         * @return the number of ranges of the current provider
+         */
+        public synchronized int getRanges() {
+            return ranges;
+        }
+
+        /**
+         * @return the approximate memory size of the current provider
+         */
+        public synchronized long getSizeInBytes() {
+            return sizeInBytes;
+        }
+
+        /**
+         * @return the milliseconds since the source was last read successfully, -1 if never
+         */
+        public synchronized long getAgeMillis() {
+            return lastSuccessMillis < 0 ? -1 : System.currentTimeMillis() - lastSuccessMillis;
+        }
+
+        /**
+         * @return the cause of the last failed refresh or {@code null}
+         */
+        public synchronized Throwable getLastFailure() {
+            return lastFailure;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return "refreshes=" + refreshes + ", changes=" + changes + ", failures=" + failures + ", ranges=" + ranges
+                + ", sizeInBytes=" + sizeInBytes + ", lastCharsRead=" + lastCharsRead + ", ageMillis=" + getAgeMillis();
+        }
+    }
+}
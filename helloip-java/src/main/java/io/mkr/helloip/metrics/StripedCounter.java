@@ -0,0 +1,56 @@
+package io.mkr.helloip.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters which threads add to on separate cache lines, reading sums the stripes. A poor man's {@code LongAdder},
+ * which needs Java 8.
+ */
+final class StripedCounter {
+
+    // 16 longs, 128 bytes
+    private static final int PADDING = 16;
+
+    private static final int STRIPES = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1);
+
+    private final int counters;
+    private final int stride;
+    private final AtomicLongArray cells;
+
+    /**
+     * @param counters the number of counters
+     */
+    StripedCounter(int counters) {
+        this.counters = counters;
+        this.stride = (counters + PADDING - 1) / PADDING * PADDING;
+        this.cells = new AtomicLongArray(STRIPES * stride);
+    }
+
+    void add(int counter, long value) {
+        int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+        cells.addAndGet(stripe * stride + counter, value);
+    }
+
+    void increment(int counter) {
+        add(counter, 1);
+    }
+
+    long sum(int counter) {
+        long sum = 0;
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            sum += cells.get(stripe * stride + counter);
+        }
+        return sum;
+    }
+
+    /**
+     * @return the sums of all counters
+     */
+    long[] sums() {
+        long[] sums = new long[counters];
+        for (int counter = 0; counter < counters; counter++) {
+            sums[counter] = sum(counter);
+        }
+        return sums;
+    }
+}
@@ -0,0 +1,291 @@
+package io.mkr.helloip.snapshot;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.zip.CRC32;
+
+import io.mkr.helloip.IpInfoLookup;
+import io.mkr.helloip.IpInfos;
+import io.mkr.helloip.IpInfosSink;
+import io.mkr.helloip.Ipv4Addresses;
+import io.mkr.helloip.index.Ipv4RangeIndex;
+import io.mkr.helloip.sources.IpRangeInfos;
+import net.ripe.commons.ip.Ipv4;
+import net.ripe.commons.ip.Ipv4Range;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An {@link IpInfoLookup} running directly against a memory mapped snapshot file written by {@link SnapshotWriter}.
+ * Only the string dictionary is decoded on open, results are decoded on first use.
+ */
+public class MappedSnapshotIpInfoLookup implements IpInfoLookup {
+
+    private static final Logger logger = LoggerFactory.getLogger(MappedSnapshotIpInfoLookup.class);
+
+    private static final IpInfos EMPTY = IpInfos.shared(Collections.<String, IpRangeInfos>emptyMap());
+
+    private final ByteBuffer buffer;
+    private final long createdMillis;
+    private final String[] strings;
+    private final IntBuffer starts;
+    private final IntBuffer ends;
+    private final IntBuffer resultIds;
+    private final int rangeInfosOffset;
+    private final int resultsOffset;
+    private final AtomicReferenceArray<IpRangeInfos> rangeInfos;
+    private final AtomicReferenceArray<IpInfos> results;
+
+    MappedSnapshotIpInfoLookup(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.capacity() < SnapshotFormat.HEADER_SIZE || buffer.getInt(0) != SnapshotFormat.MAGIC) {
+            throw new IOException("Not a snapshot file");
+        }
+        int version = buffer.getInt(4);
+        if (version != SnapshotFormat.VERSION) {
+            throw new IOException("Unsupported snapshot version " + version + ", expected " + SnapshotFormat.VERSION);
+        }
+        long length = buffer.getLong(SnapshotFormat.OFFSET_LENGTH);
+        if (length != buffer.capacity()) {
+            throw new IOException("Snapshot has " + buffer.capacity() + " bytes, expected " + length);
+        }
+        int checksum = checksum(buffer);
+        if (checksum != buffer.getInt(SnapshotFormat.OFFSET_CHECKSUM)) {
+            throw new IOException("Snapshot checksum " + Integer.toHexString(checksum) + " does not match "
+                + Integer.toHexString(buffer.getInt(SnapshotFormat.OFFSET_CHECKSUM)));
+        }
+        this.createdMillis = buffer.getLong(SnapshotFormat.OFFSET_CREATED);
+        int stringCount = count(SnapshotFormat.OFFSET_STRING_COUNT);
+        int intervalCount = count(SnapshotFormat.OFFSET_INTERVAL_COUNT);
+        int rangeInfosCount = count(SnapshotFormat.OFFSET_RANGE_INFOS_COUNT);
+        int resultCount = count(SnapshotFormat.OFFSET_RESULT_COUNT);
+        int stringsOffset = buffer.getInt(SnapshotFormat.OFFSET_STRINGS);
+        int intervalsOffset = buffer.getInt(SnapshotFormat.OFFSET_INTERVALS);
+        this.rangeInfosOffset = buffer.getInt(SnapshotFormat.OFFSET_RANGE_INFOS);
+        this.resultsOffset = buffer.getInt(SnapshotFormat.OFFSET_RESULTS);
+        // the sections have to follow each other, each large enough for its counts
+        if (stringsOffset != SnapshotFormat.HEADER_SIZE
+            || intervalsOffset < stringsOffset + 4L * stringCount
+            || rangeInfosOffset != intervalsOffset + 12L * intervalCount
+            || resultsOffset < rangeInfosOffset + 4L * rangeInfosCount
+            || length < resultsOffset + 4L * resultCount) {
+            throw new IOException("Snapshot sections do not match their counts");
+        }
+        this.strings = readStrings(stringCount, stringsOffset, intervalsOffset);
+        this.starts = intBuffer(intervalsOffset, intervalCount);
+        this.ends = intBuffer(intervalsOffset + 4 * intervalCount, intervalCount);
+        this.resultIds = intBuffer(intervalsOffset + 8 * intervalCount, intervalCount);
+        this.rangeInfos = new AtomicReferenceArray<>(rangeInfosCount);
+        this.results = new AtomicReferenceArray<>(resultCount);
+    }
+
+    private int count(int headerOffset) throws IOException {
+        int count = buffer.getInt(headerOffset);
+        if (count < 0) {
+            throw new IOException("Negative count " + count + " in snapshot header");
+        }
+        return count;
+    }
+
+    private static int checksum(ByteBuffer buffer) {
+        CRC32 crc = new CRC32();
+        ByteBuffer body = buffer.duplicate();
+        // Buffer methods, so the calls link on Java 7 and 8 without the covariant overrides of Java 9
+        ((Buffer) body).position(SnapshotFormat.HEADER_SIZE);
+        byte[] chunk = new byte[64 * 1024];
+        while (body.hasRemaining()) {
+            int length = Math.min(chunk.length, body.remaining());
+            body.get(chunk, 0, length);
+            crc.update(chunk, 0, length);
+        }
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Memory maps a snapshot file.
+     *
+     * @param snapshot the snapshot file
+     * @return the lookup on the mapped file
+     * @throws IOException if the file can not be read, is no snapshot of a supported version, is truncated or corrupt
+     */
+    public static MappedSnapshotIpInfoLookup open(Path snapshot) throws IOException {
+        try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            MappedSnapshotIpInfoLookup lookup = new MappedSnapshotIpInfoLookup(buffer);
+            logger.info("Mapped snapshot {} with {} intervals", snapshot, lookup.intervalCount());
+            return lookup;
+        }
+    }
+
+    @Override
+    public IpInfos infosFor(Ipv4 ipv4) {
+        return result(resultId(Ipv4Addresses.toInt(ipv4)));
+    }
+
+    @Override
+    public void infosFor(int address, IpInfosSink sink) {
+        int resultId = resultId(address);
+        if (resultId >= 0) {
+            result(resultId).copyTo(sink);
+        }
+    }
+
+    /**
+     * Looks up a batch of IPs like {@link Ipv4RangeIndex#findAll(int[], int, int[])}.
+     */
+    @Override
+    public void infosFor(int[] addresses, int length, IpInfos[] results) {
+        int idx = 0;
+        int intervals = starts.capacity();
+        for (long entry: Ipv4RangeIndex.sortBatch(addresses, length)) {
+            int key = (int) (entry >> 32);
+            idx = firstEndingAtOrAfter(key, idx);
+            results[(int) entry] = result(idx < intervals && starts.get(idx) <= key ? resultIds.get(idx) : -1);
+        }
+    }
+
+    private int firstEndingAtOrAfter(int key, int from) {
+        if (from >= ends.capacity() || ends.get(from) >= key) {
+            return from;
+        }
+        // gallop until overshooting, then binary search in the last step
+        int low = from + 1;
+        int bound = 1;
+        while (from + bound < ends.capacity() && ends.get(from + bound) < key) {
+            low = from + bound + 1;
+            bound <<= 1;
+        }
+        int high = Math.min(from + bound, ends.capacity() - 1);
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (ends.get(mid) < key) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the id of the result for an IP.
+     *
+     * @param address the IPv4 address as int
+     * @return the result id or {@code -1} if there are no infos for the IP
+     */
+    public int resultId(int address) {
+        int key = address ^ Integer.MIN_VALUE;
+        int low = 0;
+        int high = starts.capacity() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (starts.get(mid) <= key) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return high >= 0 && ends.get(high) >= key ? resultIds.get(high) : -1;
+    }
+
+    /**
+     * Returns the result for a result id.
+     *
+     * @param resultId a result id as returned by {@link #resultId(int)}
+     * @return the shared result, empty for {@code -1}
+     */
+    public IpInfos result(int resultId) {
+        if (resultId < 0) {
+            return EMPTY;
+        }
+        IpInfos result = results.get(resultId);
+        if (result == null) {
+            int offset = buffer.getInt(resultsOffset + 4 * resultId);
+            int entryCount = buffer.getInt(offset);
+            Map<String, IpRangeInfos> infos = new LinkedHashMap<>();
+            for (int i = 0; i < entryCount; i++) {
+                int entryOffset = offset + 4 + 8 * i;
+                infos.put(strings[buffer.getInt(entryOffset)], rangeInfos(buffer.getInt(entryOffset + 4)));
+            }
+            result = IpInfos.shared(infos);
+            // concurrent decoding of the same result is harmless, the results are equal
+            results.set(resultId, result);
+        }
+        return result;
+    }
+
+    private IpRangeInfos rangeInfos(int rangeInfosId) {
+        IpRangeInfos infos = rangeInfos.get(rangeInfosId);
+        if (infos == null) {
+            int offset = buffer.getInt(rangeInfosOffset + 4 * rangeInfosId);
+            long start = buffer.getInt(offset) & 0xFFFFFFFFL;
+            long end = buffer.getInt(offset + 4) & 0xFFFFFFFFL;
+            int attributeCount = buffer.getInt(offset + 8);
+            Map<String, String> attributes = new LinkedHashMap<>();
+            for (int i = 0; i < attributeCount; i++) {
+                int attributeOffset = offset + 12 + 8 * i;
+                attributes.put(string(buffer.getInt(attributeOffset)), string(buffer.getInt(attributeOffset + 4)));
+            }
+            infos = new IpRangeInfos(Ipv4Range.from(start).to(end), Collections.unmodifiableMap(attributes));
+            rangeInfos.set(rangeInfosId, infos);
+        }
+        return infos;
+    }
+
+    /**
+     * @return the creation time of the snapshot in milliseconds since the epoch
+     */
+    public long getCreatedMillis() {
+        return createdMillis;
+    }
+
+    /**
+     * @return the number of elementary intervals in the snapshot
+     */
+    public int intervalCount() {
+        return starts.capacity();
+    }
+
+    private String string(int id) {
+        return id < 0 ? null : strings[id];
+    }
+
+    private String[] readStrings(int count, int offset, int end) throws IOException {
+        String[] result = new String[count];
+        int position = offset;
+        for (int i = 0; i < count; i++) {
+            int length = buffer.getInt(position);
+            if (length < 0 || position + 4L + length > end) {
+                throw new IOException("String " + i + " exceeds the strings of the snapshot");
+            }
+            byte[] bytes = new byte[length];
+            ByteBuffer slice = buffer.duplicate();
+            ((Buffer) slice).position(position + 4);
+            slice.get(bytes);
+            result[i] = new String(bytes, StandardCharsets.UTF_8);
+            position += 4 + length;
+        }
+        if (position != end) {
+            throw new IOException("Strings of the snapshot end at " + position + ", expected " + end);
+        }
+        return result;
+    }
+
+    private IntBuffer intBuffer(int offset, int count) {
+        ByteBuffer slice = buffer.duplicate();
+        ((Buffer) slice).position(offset);
+        ((Buffer) slice).limit(offset + 4 * count);
+        return slice.slice().asIntBuffer();
+    }
+}
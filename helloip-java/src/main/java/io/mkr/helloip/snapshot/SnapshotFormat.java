@@ -0,0 +1,39 @@
+package io.mkr.helloip.snapshot;
+
+/**
+ * Layout of the binary snapshot files written by {@link SnapshotWriter} and read by {@link MappedSnapshotIpInfoLookup}.
+ * All values are big endian {@code int}s unless noted otherwise, offsets are absolute file positions.
+ * <pre>
+ * header:      magic, version, created millis (long), file length (long), CRC32 of all bytes after the header,
+ *              string count, interval count, range infos count, result count, strings offset, intervals offset,
+ *              range infos offset, results offset
+ * strings:     per string: byte length, UTF-8 bytes
+ * intervals:   interval starts[], interval ends[], result ids[] (starts and ends with flipped sign bit)
+ * range infos: offsets[], per range infos: start, end, attribute count, (key string id, value string id)[]
+ * results:     offsets[], per result: entry count, (provider name string id, range infos id)[]
+ * </pre>
+ * The sections follow each other in this order without gaps.
+ */
+final class SnapshotFormat {
+
+    static final int MAGIC = 0x48495053;
+
+    static final int VERSION = 2;
+
+    static final int HEADER_SIZE = 60;
+
+    static final int OFFSET_CREATED = 8;
+    static final int OFFSET_LENGTH = 16;
+    static final int OFFSET_CHECKSUM = 24;
+    static final int OFFSET_STRING_COUNT = 28;
+    static final int OFFSET_INTERVAL_COUNT = 32;
+    static final int OFFSET_RANGE_INFOS_COUNT = 36;
+    static final int OFFSET_RESULT_COUNT = 40;
+    static final int OFFSET_STRINGS = 44;
+    static final int OFFSET_INTERVALS = 48;
+    static final int OFFSET_RANGE_INFOS = 52;
+    static final int OFFSET_RESULTS = 56;
+
+    private SnapshotFormat() {
+    }
+}
@@ -0,0 +1,207 @@
+package io.mkr.helloip.snapshot;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import io.mkr.helloip.CompiledIpInfoLookup;
+import io.mkr.helloip.IpInfos;
+import io.mkr.helloip.index.Ipv4RangeIndex;
+import io.mkr.helloip.sources.IpRangeInfos;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes a {@link CompiledIpInfoLookup} to a binary snapshot file (see {@link SnapshotFormat}) which can be memory
+ * mapped with {@link MappedSnapshotIpInfoLookup}.
+ */
+public class SnapshotWriter {
+
+    private static final Logger logger = LoggerFactory.getLogger(SnapshotWriter.class);
+
+    /**
+     * Writes the snapshot to a temporary file next to the target and moves it into place.
+     *
+     * @param lookup the compiled lookup
+     * @param target the snapshot file
+     * @throws IOException on any error writing the file or if the snapshot exceeds 2GB
+     */
+    public void write(CompiledIpInfoLookup lookup, Path target) throws IOException {
+        Path absoluteTarget = target.toAbsolutePath();
+        Path tmp = Files.createTempFile(absoluteTarget.getParent(), absoluteTarget.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                write(lookup, channel);
+                channel.force(true);
+            }
+            Files.move(tmp, absoluteTarget, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        logger.info("Wrote snapshot with {} intervals and {} results to {}", lookup.intervalCount(),
+            lookup.resultCount(), absoluteTarget);
+    }
+
+    private void write(CompiledIpInfoLookup lookup, FileChannel channel) throws IOException {
+        Dictionary strings = new Dictionary();
+        Map<IpRangeInfos, Integer> rangeInfosIds = new IdentityHashMap<>();
+        List<IpRangeInfos> rangeInfos = new ArrayList<>();
+        int[][] results = new int[lookup.resultCount()][];
+        for (int resultId = 0; resultId < lookup.resultCount(); resultId++) {
+            IpInfos infos = lookup.result(resultId);
+            int[] entries = new int[infos.getProviderNames().size() * 2];
+            int i = 0;
+            for (String providerName: infos.getProviderNames()) {
+                IpRangeInfos providerInfos = infos.infosFromProvider(providerName);
+                Integer rangeInfosId = rangeInfosIds.get(providerInfos);
+                if (rangeInfosId == null) {
+                    rangeInfosId = rangeInfos.size();
+                    rangeInfosIds.put(providerInfos, rangeInfosId);
+                    rangeInfos.add(providerInfos);
+                    for (Map.Entry<String, String> attribute: providerInfos.getInfos().entrySet()) {
+                        strings.id(attribute.getKey());
+                        strings.id(attribute.getValue());
+                    }
+                }
+                entries[i++] = strings.id(providerName);
+                entries[i++] = rangeInfosId;
+            }
+            results[resultId] = entries;
+        }
+
+        Ipv4RangeIndex index = lookup.getIndex();
+        long stringsOffset = SnapshotFormat.HEADER_SIZE;
+        long intervalsOffset = stringsOffset + strings.sizeInBytes();
+        long rangeInfosOffset = intervalsOffset + 3L * 4L * index.size();
+        long resultsOffset = rangeInfosOffset + 4L * rangeInfos.size();
+        for (IpRangeInfos providerInfos: rangeInfos) {
+            resultsOffset += 4L * (3 + 2 * providerInfos.getInfos().size());
+        }
+        long end = resultsOffset + 4L * results.length;
+        for (int[] entries: results) {
+            end += 4L * (1 + entries.length);
+        }
+        if (end > Integer.MAX_VALUE) {
+            throw new IOException("Snapshot exceeds maximum size of 2GB");
+        }
+
+        // the body first, the header with the checksum of the body after
+        channel.position(SnapshotFormat.HEADER_SIZE);
+        CRC32 checksum = new CRC32();
+        // not closed, which would close the channel
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+            new CheckedOutputStream(Channels.newOutputStream(channel), checksum)));
+
+        for (byte[] string: strings.values) {
+            out.writeInt(string.length);
+            out.write(string);
+        }
+
+        for (int i = 0; i < index.size(); i++) {
+            out.writeInt((int) index.start(i) ^ Integer.MIN_VALUE);
+        }
+        for (int i = 0; i < index.size(); i++) {
+            out.writeInt((int) index.end(i) ^ Integer.MIN_VALUE);
+        }
+        for (int i = 0; i < index.size(); i++) {
+            out.writeInt(index.payloadId(i));
+        }
+
+        long offset = rangeInfosOffset + 4L * rangeInfos.size();
+        for (IpRangeInfos providerInfos: rangeInfos) {
+            out.writeInt((int) offset);
+            offset += 4L * (3 + 2 * providerInfos.getInfos().size());
+        }
+        for (IpRangeInfos providerInfos: rangeInfos) {
+            out.writeInt((int) providerInfos.getRange().start().asBigInteger().longValue());
+            out.writeInt((int) providerInfos.getRange().end().asBigInteger().longValue());
+            out.writeInt(providerInfos.getInfos().size());
+            for (Map.Entry<String, String> attribute: providerInfos.getInfos().entrySet()) {
+                out.writeInt(strings.id(attribute.getKey()));
+                out.writeInt(strings.id(attribute.getValue()));
+            }
+        }
+
+        offset = resultsOffset + 4L * results.length;
+        for (int[] entries: results) {
+            out.writeInt((int) offset);
+            offset += 4L * (1 + entries.length);
+        }
+        for (int[] entries: results) {
+            out.writeInt(entries.length / 2);
+            for (int entry: entries) {
+                out.writeInt(entry);
+            }
+        }
+        out.flush();
+        if (channel.size() != end) {
+            throw new IOException("Wrote " + channel.size() + " bytes, expected " + end);
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(SnapshotFormat.HEADER_SIZE);
+        header.putInt(SnapshotFormat.MAGIC);
+        header.putInt(SnapshotFormat.VERSION);
+        header.putLong(System.currentTimeMillis());
+        header.putLong(end);
+        header.putInt((int) checksum.getValue());
+        header.putInt(strings.size());
+        header.putInt(index.size());
+        header.putInt(rangeInfos.size());
+        header.putInt(results.length);
+        header.putInt((int) stringsOffset);
+        header.putInt((int) intervalsOffset);
+        header.putInt((int) rangeInfosOffset);
+        header.putInt((int) resultsOffset);
+        // a Buffer method, so the call links on Java 7 and 8 without the covariant override of Java 9
+        ((Buffer) header).flip();
+        while (header.hasRemaining()) {
+            channel.write(header, header.position());
+        }
+    }
+
+    private static class Dictionary {
+
+        private final Map<String, Integer> ids = new HashMap<>();
+        private final List<byte[]> values = new ArrayList<>();
+        private long sizeInBytes = 0;
+
+        int id(String value) {
+            if (value == null) {
+                return -1;
+            }
+            Integer id = ids.get(value);
+            if (id == null) {
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                id = values.size();
+                ids.put(value, id);
+                values.add(bytes);
+                sizeInBytes += 4 + bytes.length;
+            }
+            return id;
+        }
+
+        int size() {
+            return values.size();
+        }
+
+        long sizeInBytes() {
+            return sizeInBytes;
+        }
+    }
+}
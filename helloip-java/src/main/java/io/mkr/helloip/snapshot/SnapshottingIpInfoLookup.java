@@ -0,0 +1,196 @@
+package io.mkr.helloip.snapshot;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Supplier;
+import io.mkr.helloip.CompiledIpInfoLookup;
+import io.mkr.helloip.IpInfoLookup;
+import io.mkr.helloip.IpInfoProvider;
+import io.mkr.helloip.IpInfos;
+import io.mkr.helloip.IpInfosSink;
+import io.mkr.helloip.base.Refreshable;
+import io.mkr.helloip.sources.IpRangeInfos;
+import net.ripe.commons.ip.Ipv4;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An {@link IpInfoLookup} answering from the snapshot file of a previous run until all providers are loaded. Their
+ * {@link CompiledIpInfoLookup} then replaces it and is written as the next snapshot after every refresh (see
+ * {@link #refreshOn(Refreshable)}). A missing, outdated or invalid snapshot is ignored.
+ */
+public class SnapshottingIpInfoLookup implements IpInfoLookup, Refreshable {
+
+    private static final Logger logger = LoggerFactory.getLogger(SnapshottingIpInfoLookup.class);
+
+    private static final IpInfos EMPTY = IpInfos.shared(Collections.<String, IpRangeInfos>emptyMap());
+
+    private final List<Supplier<IpInfoProvider>> providerSuppliers;
+    private final Path snapshot;
+    private final SnapshotWriter writer = new SnapshotWriter();
+    private final List<Runnable> refreshListeners = new CopyOnWriteArrayList<>();
+    private final boolean startedFromSnapshot;
+
+    // null until the snapshot is mapped or the providers are compiled
+    private volatile IpInfoLookup current;
+    private volatile boolean fromSnapshot;
+
+    private final Runnable rebuilder = new Runnable() {
+        @Override
+        public void run() {
+            rebuild();
+        }
+    };
+
+    /**
+     * Maps the snapshot if valid.
+     *
+     * @param providerSuppliers suppliers of {@link io.mkr.helloip.IndexedIpInfoProvider}s
+     * @param snapshot the snapshot file to start from and to write
+     * @param maxAge the maximum age of a snapshot to start from
+     * @param unit the unit of the maximum age
+     */
+    public SnapshottingIpInfoLookup(List<Supplier<IpInfoProvider>> providerSuppliers, Path snapshot, long maxAge,
+                                    TimeUnit unit) {
+        this.providerSuppliers = new ArrayList<>(providerSuppliers);
+        this.snapshot = snapshot;
+        this.current = open(snapshot, unit.toMillis(maxAge));
+        this.fromSnapshot = current != null;
+        this.startedFromSnapshot = fromSnapshot;
+    }
+
+    private static MappedSnapshotIpInfoLookup open(Path snapshot, long maxAgeMillis) {
+        if (!Files.exists(snapshot)) {
+            logger.info("No snapshot {} yet, building from the sources", snapshot);
+            return null;
+        }
+        try {
+            MappedSnapshotIpInfoLookup lookup = MappedSnapshotIpInfoLookup.open(snapshot);
+            long ageMillis = System.currentTimeMillis() - lookup.getCreatedMillis();
+            if (ageMillis > maxAgeMillis) {
+                logger.info("Snapshot {} is {} hours old, building from the sources", snapshot,
+                    TimeUnit.MILLISECONDS.toHours(ageMillis));
+                return null;
+            }
+            return lookup;
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Ignoring invalid snapshot {}, building from the sources", snapshot, e);
+            return null;
+        }
+    }
+
+    /**
+     * Compiles the providers whenever the given suppliers (if {@link Refreshable}) swap in new values.
+     *
+     * @param suppliers the suppliers of the providers or what refreshes them
+     * @return this lookup
+     */
+    public SnapshottingIpInfoLookup refreshOn(Iterable<?> suppliers) {
+        for (Object supplier: suppliers) {
+            if (supplier instanceof Refreshable) {
+                ((Refreshable) supplier).addRefreshListener(rebuilder);
+            }
+        }
+        // providers loaded before registering would not be seen until the next refresh
+        rebuild();
+        return this;
+    }
+
+    /**
+     * Like {@link #refreshOn(Iterable)} for one refreshable.
+     *
+     * @param refreshable what refreshes the providers
+     * @return this lookup
+     */
+    public SnapshottingIpInfoLookup refreshOn(Refreshable refreshable) {
+        return refreshOn(Arrays.asList(refreshable));
+    }
+
+    /**
+     * @return whether lookups started from a valid snapshot, i.e. could be answered right away
+     */
+    public boolean isStartedFromSnapshot() {
+        return startedFromSnapshot;
+    }
+
+    /**
+     * @return whether lookups are currently answered from the snapshot
+     */
+    public boolean isFromSnapshot() {
+        return fromSnapshot;
+    }
+
+    @Override
+    public void addRefreshListener(Runnable listener) {
+        refreshListeners.add(listener);
+    }
+
+    /**
+     * Compiles the current providers, unless the snapshot is still serving and some providers are not loaded yet, and
+     * writes the snapshot once all are loaded.
+     */
+    synchronized void rebuild() {
+        boolean complete = true;
+        boolean any = false;
+        for (Supplier<IpInfoProvider> providerSupplier: providerSuppliers) {
+            boolean loaded = providerSupplier.get() != null;
+            complete &= loaded;
+            any |= loaded;
+        }
+        if (!any || (fromSnapshot && !complete)) {
+            return;
+        }
+        long start = System.nanoTime();
+        CompiledIpInfoLookup compiled = CompiledIpInfoLookup.compile(providerSuppliers);
+        current = compiled;
+        fromSnapshot = false;
+        logger.info("Compiled {} intervals in {} ms", compiled.intervalCount(),
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        for (Runnable listener: refreshListeners) {
+            try {
+                listener.run();
+            } catch (Exception e) {
+                logger.error("Error notifying refresh listener", e);
+            }
+        }
+        if (complete) {
+            try {
+                writer.write(compiled, snapshot);
+            } catch (IOException e) {
+                logger.error("Error writing snapshot {}", snapshot, e);
+            }
+        }
+    }
+
+    @Override
+    public IpInfos infosFor(Ipv4 ipv4) {
+        IpInfoLookup lookup = current;
+        return lookup != null ? lookup.infosFor(ipv4) : EMPTY;
+    }
+
+    @Override
+    public void infosFor(int address, IpInfosSink sink) {
+        IpInfoLookup lookup = current;
+        if (lookup != null) {
+            lookup.infosFor(address, sink);
+        }
+    }
+
+    @Override
+    public void infosFor(int[] addresses, int length, IpInfos[] results) {
+        IpInfoLookup lookup = current;
+        if (lookup != null) {
+            lookup.infosFor(addresses, length, results);
+        } else {
+            Arrays.fill(results, 0, length, EMPTY);
+        }
+    }
+}
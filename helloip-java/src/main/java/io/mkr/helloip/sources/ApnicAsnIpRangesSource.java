@@ -2,13 +2,27 @@ package io.mkr.helloip.sources;
 
 import java.io.BufferedReader;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+import com.google.common.base.Throwables;
+import com.google.common.io.Closeables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import io.mkr.helloip.io.HttpReaderProvider;
 import io.mkr.helloip.io.ReaderProvider;
+import io.mkr.helloip.io.VersionedReader;
 import net.ripe.commons.ip.Ipv4Range;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -16,7 +30,7 @@ import org.slf4j.LoggerFactory;
 /**
  * A source for the IP ranges, their ASNs and the organisations behind the ASN as offered by APNIC.
  */
-public class ApnicAsnIpRangesSource implements IpRangeInfosSource {
+public class ApnicAsnIpRangesSource implements ChangeAwareIpRangeInfosSource, MeteredIpRangeInfosSource {
 
     private static final Logger logger = LoggerFactory.getLogger(ApnicAsnIpRangesSource.class);
 
@@ -32,22 +46,37 @@ public class ApnicAsnIpRangesSource implements IpRangeInfosSource {
     /** Value for an ASN with an unknown org */
     public static final String VALUE_UNKNOWN = "unknown";
 
+    private static final int COLUMN_ASN = 0;
+    private static final int COLUMN_ASNORG = 1;
+
     /** URL to retrieve ASN to company mapping*/
     private static final String ASNTOCOMPANY_URL = "http://thyme.apnic.net/current/data-used-autnums";
 
     /** URL to retrieve ip range to ASN mapping */
     private static final String ASN_URL = "http://thyme.apnic.net/current/data-raw-table";
 
+    /** URL to retrieve IPv6 prefix to ASN mapping */
+    private static final String IPV6_ASN_URL = "http://thyme.apnic.net/current/ipv6-raw-table";
+
+    /** Reads the ASN to company lists of all sources created without an executor */
+    private static final Executor SHARED_EXECUTOR = sharedExecutor();
+
     private final ReaderProvider asnToCompanyReaderProvider;
 
     private final ReaderProvider asnReaderProvider;
 
+    private final ReaderProvider ipv6AsnReaderProvider;
+
+    private final Executor executor;
+
+    private final AtomicLong charsRead = new AtomicLong();
+
     /**
-     * Constructor configuring HTTP retrieval
+     * Constructor configuring HTTP retrieval of the IPv4 and IPv6 lists
      */
     public ApnicAsnIpRangesSource() {
-        this.asnToCompanyReaderProvider = new HttpReaderProvider(ASNTOCOMPANY_URL);
-        this.asnReaderProvider = new HttpReaderProvider(ASN_URL);
+        this(new HttpReaderProvider(ASNTOCOMPANY_URL), new HttpReaderProvider(ASN_URL),
+            new HttpReaderProvider(IPV6_ASN_URL), SHARED_EXECUTOR);
     }
 
     /**
@@ -57,8 +86,49 @@ public class ApnicAsnIpRangesSource implements IpRangeInfosSource {
      * @param asnReaderProvider the {@link ReaderProvider} for accessing the IP range to ASN list
      */
     public ApnicAsnIpRangesSource(ReaderProvider asnToCompanyReaderProvider, ReaderProvider asnReaderProvider) {
+        this(asnToCompanyReaderProvider, asnReaderProvider, SHARED_EXECUTOR);
+    }
+
+    /**
+     * @return an executor of at most two daemon threads, which end when idle for a minute
+     */
+    private static Executor sharedExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(2, 2, 1, TimeUnit.MINUTES,
+            new LinkedBlockingQueue<Runnable>(),
+            new ThreadFactoryBuilder().setNameFormat("apnic-autnums-%d").setDaemon(true).build());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * @param asnToCompanyReaderProvider the {@link ReaderProvider} for accessing the ASN to company list
+     * @param asnReaderProvider the {@link ReaderProvider} for accessing the IP range to ASN list
+     * @param executor the executor reading the ASN to company list concurrently to the IP range to ASN list, by
+     *                 default two daemon threads shared by all sources
+     */
+    public ApnicAsnIpRangesSource(ReaderProvider asnToCompanyReaderProvider, ReaderProvider asnReaderProvider,
+                                  Executor executor) {
+        this(asnToCompanyReaderProvider, asnReaderProvider, null, executor);
+    }
+
+    /**
+     * @param asnToCompanyReaderProvider the {@link ReaderProvider} for accessing the ASN to company list
+     * @param asnReaderProvider the {@link ReaderProvider} for accessing the IP range to ASN list
+     * @param ipv6AsnReaderProvider the {@link ReaderProvider} for accessing the IPv6 prefix to ASN list (in the same
+     *                              format) or {@code null} for IPv4 ranges only
+     * @param executor the executor reading the ASN to company list concurrently to the IP range to ASN list
+     */
+    public ApnicAsnIpRangesSource(ReaderProvider asnToCompanyReaderProvider, ReaderProvider asnReaderProvider,
+                                  ReaderProvider ipv6AsnReaderProvider, Executor executor) {
         this.asnToCompanyReaderProvider = asnToCompanyReaderProvider;
         this.asnReaderProvider = asnReaderProvider;
+        this.ipv6AsnReaderProvider = ipv6AsnReaderProvider;
+        this.executor = executor;
+    }
+
+    @Override
+    public long getCharsRead() {
+        return charsRead.get();
     }
 
     @Override
@@ -68,32 +138,269 @@ public class ApnicAsnIpRangesSource implements IpRangeInfosSource {
 
     @Override
     public List<IpRangeInfos> getIpRanges() throws IOException {
-        Map<Integer, String> autnumOrg = new HashMap<>();
-        logger.info("Retrieving ASN to company information with {}", asnToCompanyReaderProvider);
-        try (BufferedReader br = new BufferedReader(asnToCompanyReaderProvider.createReader())) {
+        IpRangeInfosTable.Builder ipRangeInfos = IpRangeInfosTable.builder();
+        streamIpRanges(ipRangeInfos);
+        return ipRangeInfos.build();
+    }
+
+    @Override
+    public void streamIpRanges(IpRangeInfosConsumer consumer) throws IOException {
+        streamIpRangesIfChanged(consumer, null);
+    }
+
+    /**
+     * Downloads the ASN to company list on the executor while the IP range to ASN list is streamed. The change
+     * token holds the versions of all lists, if any changed all are read.
+     */
+    @Override
+    public String streamIpRangesIfChanged(IpRangeInfosConsumer consumer, String changeToken) throws IOException {
+        String[] previous = ChangeTokens.split(changeToken, ipv6AsnReaderProvider == null ? 2 : 3);
+        FutureTask<Autnums> autnumsTask = new FutureTask<>(autnumsIfChanged(previous[0]));
+        executor.execute(autnumsTask);
+        VersionedReader rangesReader = null;
+        VersionedReader ipv6RangesReader = null;
+        try {
+            logger.info("Retrieving ASNs for IP ranges with {}", asnReaderProvider);
+            rangesReader = ChangeTokens.createReaderIfChanged(asnReaderProvider, previous[1], charsRead);
+            if (ipv6AsnReaderProvider != null) {
+                logger.info("Retrieving ASNs for IPv6 prefixes with {}", ipv6AsnReaderProvider);
+                ipv6RangesReader = ChangeTokens.createReaderIfChanged(ipv6AsnReaderProvider, previous[2], charsRead);
+            }
+            if (rangesReader == null && ipv6RangesReader == null && await(autnumsTask) == null) {
+                logger.info("APNIC ASN lists not modified");
+                return null;
+            }
+            if (rangesReader == null) {
+                logger.info("Retrieving ASNs for IP ranges with {}", asnReaderProvider);
+                rangesReader = ChangeTokens.createReaderIfChanged(asnReaderProvider, null, charsRead);
+            }
+            if (ipv6AsnReaderProvider != null && ipv6RangesReader == null) {
+                logger.info("Retrieving ASNs for IPv6 prefixes with {}", ipv6AsnReaderProvider);
+                ipv6RangesReader = ChangeTokens.createReaderIfChanged(ipv6AsnReaderProvider, null, charsRead);
+            }
+            consumer.intColumn(KEY_ASN).stringColumn(KEY_ASNORG);
+            Autnums autnums = streamRanges(rangesReader, autnumsTask, consumer);
+            if (ipv6RangesReader == null) {
+                return ChangeTokens.join(autnums.version, rangesReader.getVersion());
+            }
+            BufferedReader br = new BufferedReader(ipv6RangesReader);
             String line;
             while ((line = br.readLine()) != null) {
-                String autNum = line.substring(0, 5).trim();
-                String organisation = line.substring(6).trim();
-                autnumOrg.put(Integer.parseInt(autNum), organisation);
+                addRow(line, autnums, consumer);
             }
+            return ChangeTokens.join(autnums.version, rangesReader.getVersion(), ipv6RangesReader.getVersion());
+        } finally {
+            // stops the download if streaming failed, a no-op once it is complete
+            autnumsTask.cancel(true);
+            Closeables.close(rangesReader, true);
+            Closeables.close(ipv6RangesReader, true);
         }
-        List<IpRangeInfos> ipRangeInfos = new ArrayList<>();
-        logger.info("Retrieving ASNs for IP ranges with {}", asnReaderProvider);
-        try (BufferedReader br = new BufferedReader(asnReaderProvider.createReader())) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                String[] cidrAndAsn = line.split("\t");
-                Ipv4Range ipv4Range = Ipv4Range.parseCidr(cidrAndAsn[0]);
-                Integer asn = Integer.parseInt(cidrAndAsn[1].trim());
-                String company = autnumOrg.get(asn);
-                Map<String, String> infos = new HashMap<>();
-                infos.put(KEY_ASN, asn.toString());
-                infos.put(KEY_ASNORG, company == null ? VALUE_UNKNOWN : company);
-                ipRangeInfos.add(new IpRangeInfos(ipv4Range, infos));
+    }
+
+    private Callable<Autnums> autnumsIfChanged(final String version) {
+        return new Callable<Autnums>() {
+            @Override
+            public Autnums call() throws Exception {
+                logger.info("Retrieving ASN to company information with {}", asnToCompanyReaderProvider);
+                try (VersionedReader reader = ChangeTokens.createReaderIfChanged(asnToCompanyReaderProvider, version, charsRead)) {
+                    return reader == null ? null : readAutnums(reader);
+                }
             }
+        };
+    }
+
+    private static Autnums readAutnums(VersionedReader reader) throws IOException {
+        Autnums autnums = new Autnums(reader.getVersion());
+        BufferedReader br = new BufferedReader(reader);
+        String line;
+        while ((line = br.readLine()) != null) {
+            String autNum = line.substring(0, 5).trim();
+            String organisation = line.substring(6).trim();
+            autnums.add(Integer.parseInt(autNum), organisation);
+        }
+        autnums.sort();
+        return autnums;
+    }
+
+    /**
+     * @return the ASN to company list of the task or {@code null} if unchanged
+     */
+    private static Autnums await(Future<Autnums> autnumsTask) throws IOException {
+        try {
+            return autnumsTask.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for the ASN to company list");
+        } catch (ExecutionException e) {
+            Throwables.propagateIfPossible(e.getCause(), IOException.class);
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * @return the ASN to company list of the task, read again unconditionally if the task found it unchanged
+     */
+    private Autnums awaitChanged(Future<Autnums> autnumsTask) throws IOException {
+        Autnums autnums = await(autnumsTask);
+        if (autnums == null) {
+            FutureTask<Autnums> unconditional = new FutureTask<>(autnumsIfChanged(null));
+            unconditional.run();
+            autnums = await(unconditional);
+        }
+        return autnums;
+    }
+
+    private Autnums streamRanges(Reader reader, Future<Autnums> autnumsTask, IpRangeInfosConsumer consumer)
+            throws IOException {
+        BufferedReader br = new BufferedReader(reader);
+        PendingRows pending = new PendingRows();
+        Autnums autnums = null;
+        String line;
+        while ((line = br.readLine()) != null) {
+            if (autnums == null) {
+                if (!autnumsTask.isDone()) {
+                    int tab = line.indexOf('\t');
+                    Cidrs.addRow(pending, line, 0, tab).setAsn(asn(line, tab));
+                    continue;
+                }
+                autnums = awaitChanged(autnumsTask);
+                pending.addTo(consumer, autnums);
+                pending = null;
+            }
+            addRow(line, autnums, consumer);
+        }
+        if (autnums == null) {
+            autnums = awaitChanged(autnumsTask);
+            pending.addTo(consumer, autnums);
+        }
+        return autnums;
+    }
+
+    private static void addRow(String line, Autnums autnums, IpRangeInfosConsumer consumer) {
+        int tab = line.indexOf('\t');
+        int asn = asn(line, tab);
+        Cidrs.addRow(consumer, line, 0, tab)
+            .setInt(COLUMN_ASN, asn)
+            .setString(COLUMN_ASNORG, organisation(autnums, asn));
+    }
+
+    private static int asn(String line, int tab) {
+        return Integer.parseInt(line.substring(tab + 1).trim());
+    }
+
+    private static String organisation(Autnums autnums, int asn) {
+        String company = autnums.organisation(asn);
+        return company == null ? VALUE_UNKNOWN : company;
+    }
+
+    /**
+     * Ranges and ASNs read before the ASN to company list is complete. IPv4 ranges have a prefix length of -1.
+     */
+    private static final class PendingRows implements IpRangeConsumer<PendingRows> {
+
+        private long[] first = new long[1024];
+        private long[] second = new long[1024];
+        private int[] prefixLengths = new int[1024];
+        private int[] asns = new int[1024];
+        private int size = 0;
+
+        @Override
+        public PendingRows addRow(Ipv4Range range) {
+            return addRow(range.start().asBigInteger().longValue(), range.end().asBigInteger().longValue());
+        }
+
+        @Override
+        public PendingRows addRow(long start, long end) {
+            return add(start, end, -1);
+        }
+
+        @Override
+        public PendingRows addIpv6Row(long high, long low, int prefixLength) {
+            return add(high, low, prefixLength);
+        }
+
+        private PendingRows add(long a, long b, int prefixLength) {
+            if (size == first.length) {
+                first = Arrays.copyOf(first, size * 2);
+                second = Arrays.copyOf(second, size * 2);
+                prefixLengths = Arrays.copyOf(prefixLengths, size * 2);
+                asns = Arrays.copyOf(asns, size * 2);
+            }
+            first[size] = a;
+            second[size] = b;
+            prefixLengths[size] = prefixLength;
+            size++;
+            return this;
+        }
+
+        void setAsn(int asn) {
+            asns[size - 1] = asn;
+        }
+
+        void addTo(IpRangeInfosConsumer consumer, Autnums autnums) {
+            for (int i = 0; i < size; i++) {
+                IpRangeInfosConsumer row = prefixLengths[i] < 0 ? consumer.addRow(first[i], second[i])
+                    : consumer.addIpv6Row(first[i], second[i], prefixLengths[i]);
+                row.setInt(COLUMN_ASN, asns[i]).setString(COLUMN_ASNORG, organisation(autnums, asns[i]));
+            }
+        }
+    }
+
+    /**
+     * ASN to organisation lookup held in parallel arrays sorted by ASN.
+     */
+    private static class Autnums {
+
+        private final String version;
+        private int[] asns = new int[1024];
+        private String[] organisations = new String[1024];
+        private int size = 0;
+        private boolean sorted = true;
+
+        Autnums(String version) {
+            this.version = version;
+        }
+
+        void add(int asn, String organisation) {
+            if (size == asns.length) {
+                asns = Arrays.copyOf(asns, size * 2);
+                organisations = Arrays.copyOf(organisations, size * 2);
+            }
+            sorted &= size == 0 || asns[size - 1] < asn;
+            asns[size] = asn;
+            organisations[size] = organisation;
+            size++;
+        }
+
+        void sort() {
+            // the list comes sorted by ASN, so this is only a fallback
+            if (!sorted) {
+                Integer[] order = new Integer[size];
+                for (int i = 0; i < size; i++) {
+                    order[i] = i;
+                }
+                Arrays.sort(order, new Comparator<Integer>() {
+                    @Override
+                    public int compare(Integer a, Integer b) {
+                        return Integer.compare(asns[a], asns[b]);
+                    }
+                });
+                int[] sortedAsns = new int[size];
+                String[] sortedOrganisations = new String[size];
+                for (int i = 0; i < size; i++) {
+                    sortedAsns[i] = asns[order[i]];
+                    sortedOrganisations[i] = organisations[order[i]];
+                }
+                asns = sortedAsns;
+                organisations = sortedOrganisations;
+                sorted = true;
+            }
+        }
+
+        String organisation(int asn) {
+            int idx = Arrays.binarySearch(asns, 0, size, asn);
+            return idx >= 0 ? organisations[idx] : null;
         }
-        return ipRangeInfos;
     }
 
     public static void main(String[] args) throws Exception {
@@ -0,0 +1,101 @@
+package io.mkr.helloip.sources;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Immutable attributes of the rows of an {@link IpRangeInfosTable}, the keys are shared by all rows of the table.
+ * Keys without value map to {@code null}.
+ */
+public final class AttributeMap extends AbstractMap<String, String> {
+
+    private final String[] keys;
+    private final String[] values;
+
+    AttributeMap(String[] keys, String[] values) {
+        this.keys = keys;
+        this.values = values;
+    }
+
+    @Override
+    public int size() {
+        return keys.length;
+    }
+
+    /**
+     * @param index the index of the attribute, from 0 to {@link #size()} - 1
+     * @return the key of the attribute
+     */
+    public String key(int index) {
+        return keys[index];
+    }
+
+    /**
+     * @param index the index of the attribute, from 0 to {@link #size()} - 1
+     * @return the value of the attribute, may be {@code null}
+     */
+    public String value(int index) {
+        return values[index];
+    }
+
+    @Override
+    public String get(Object key) {
+        int index = indexOf(key);
+        return index < 0 ? null : values[index];
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf(key) >= 0;
+    }
+
+    private int indexOf(Object key) {
+        for (int index = 0; index < keys.length; index++) {
+            if (keys[index].equals(key)) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public Set<Entry<String, String>> entrySet() {
+        return new AbstractSet<Entry<String, String>>() {
+            @Override
+            public Iterator<Entry<String, String>> iterator() {
+                return new Iterator<Entry<String, String>>() {
+
+                    private int index = 0;
+
+                    @Override
+                    public boolean hasNext() {
+                        return index < keys.length;
+                    }
+
+                    @Override
+                    public Entry<String, String> next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        Entry<String, String> entry = new SimpleImmutableEntry<>(keys[index], values[index]);
+                        index++;
+                        return entry;
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return keys.length;
+            }
+        };
+    }
+}
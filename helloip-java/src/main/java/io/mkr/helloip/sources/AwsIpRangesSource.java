@@ -1,36 +1,47 @@
 package io.mkr.helloip.sources;
 
 import java.io.IOException;
-import java.io.Reader;
-import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
-import com.fasterxml.jackson.annotation.JsonProperty;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.google.common.collect.ImmutableMap;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import io.mkr.helloip.io.HttpReaderProvider;
 import io.mkr.helloip.io.ReaderProvider;
-import net.ripe.commons.ip.Ipv4Range;
+import io.mkr.helloip.io.VersionedReader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * Collects the AWS IP ranges as recommended in <a href="http://docs.aws.amazon.com/general/latest/gr/aws-ip-ranges.html">their document</a>.
  */
-public class AwsIpRangesSource implements IpRangeInfosSource {
+public class AwsIpRangesSource implements ChangeAwareIpRangeInfosSource, MeteredIpRangeInfosSource {
 
-    private static final Logger logger = LoggerFactory.getLogger(AwsIpRanges.class);
+    private static final Logger logger = LoggerFactory.getLogger(AwsIpRangesSource.class);
 
     public static final String NAME = "AWS";
 
     public static final String KEY_SERVICE = "service";
     public static final String KEY_REGION = "region";
 
+    private static final int COLUMN_SERVICE = 0;
+    private static final int COLUMN_REGION = 1;
+
     private static final String AMAZON_URL = "https://ip-ranges.amazonaws.com/ip-ranges.json";
 
+    private static final String FIELD_SYNC_TOKEN = "syncToken";
+    private static final String FIELD_PREFIXES = "prefixes";
+    private static final String FIELD_IP_PREFIX = "ip_prefix";
+    private static final String FIELD_IPV6_PREFIXES = "ipv6_prefixes";
+    private static final String FIELD_IPV6_PREFIX = "ipv6_prefix";
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
     private final ReaderProvider awsJsonReaderProvider;
 
+    private final AtomicLong charsRead = new AtomicLong();
+
     public AwsIpRangesSource(ReaderProvider awsJsonReaderProvider) {
         this.awsJsonReaderProvider = awsJsonReaderProvider;
     }
@@ -39,6 +50,11 @@ public class AwsIpRangesSource implements IpRangeInfosSource {
         this.awsJsonReaderProvider = new HttpReaderProvider(AMAZON_URL);
     }
 
+    @Override
+    public long getCharsRead() {
+        return charsRead.get();
+    }
+
     @Override
     public String getName() {
         return NAME;
@@ -52,94 +68,100 @@ public class AwsIpRangesSource implements IpRangeInfosSource {
      */
     @Override
     public List<IpRangeInfos> getIpRanges() throws IOException {
-        List<IpRangeInfos> result = new ArrayList<>();
-        logger.info("Retrieving AWS IP ranges with {}", awsJsonReaderProvider);
-        try (Reader reader = awsJsonReaderProvider.createReader()) {
-            AwsIpRanges awsIpRanges = new ObjectMapper().readValue(reader, AwsIpRanges.class);
-            for (AwsIpRanges.AwsIpRange awsIpRange: awsIpRanges.getPrefixes()) {
-                Ipv4Range range = Ipv4Range.parseCidr(awsIpRange.getIp_prefix());
-                Map<String, String> infos = ImmutableMap.of(KEY_SERVICE, awsIpRange.getService(), KEY_REGION, awsIpRange.getRegion());
-                result.add(new IpRangeInfos(range, infos));
-            }
-        }
-        return result;
+        IpRangeInfosTable.Builder result = IpRangeInfosTable.builder();
+        streamIpRanges(result);
+        return result.build();
+    }
+
+    @Override
+    public void streamIpRanges(IpRangeInfosConsumer consumer) throws IOException {
+        streamIpRangesIfChanged(consumer, null);
     }
 
     /**
-     * JSON data transfer object representing an IP range in AWS.
+     * The change token combines the HTTP version of the document and its {@code syncToken}. If only the HTTP
+     * version changed, reading stops at the {@code syncToken}.
      */
-    public static class AwsIpRanges {
-
-        @JsonProperty
-        private String syncToken;
-
-        @JsonProperty
-        private String createDate;
-
-        @JsonProperty
-        private List<AwsIpRange> prefixes = new ArrayList<>();
-
-        public String getSyncToken() {
-            return syncToken;
-        }
-
-        public void setSyncToken(String syncToken) {
-            this.syncToken = syncToken;
-        }
-
-        public String getCreateDate() {
-            return createDate;
-        }
-
-        public void setCreateDate(String createDate) {
-            this.createDate = createDate;
-        }
-
-        public List<AwsIpRange> getPrefixes() {
-            return prefixes;
-        }
-
-        public void setPrefixes(List<AwsIpRange> prefixes) {
-            this.prefixes = prefixes;
-        }
-
-        public static class AwsIpRange {
-
-            @JsonProperty
-            private String ip_prefix;
-
-            @JsonProperty
-            private String region;
-
-            @JsonProperty
-            private String service;
-
-
-            public String getIp_prefix() {
-                return ip_prefix;
+    @Override
+    public String streamIpRangesIfChanged(IpRangeInfosConsumer consumer, String changeToken) throws IOException {
+        String[] previous = ChangeTokens.split(changeToken, 2);
+        logger.info("Retrieving AWS IP ranges with {}", awsJsonReaderProvider);
+        try (VersionedReader reader = ChangeTokens.createReaderIfChanged(awsJsonReaderProvider, previous[0], charsRead)) {
+            if (reader == null) {
+                logger.info("AWS IP ranges not modified");
+                return null;
             }
-
-            public void setIp_prefix(String ip_prefix) {
-                this.ip_prefix = ip_prefix;
+            JsonParser parser = JSON_FACTORY.createParser(reader);
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Expected a JSON object");
             }
-
-            public String getRegion() {
-                return region;
+            String syncToken = null;
+            boolean streaming = false;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if (FIELD_SYNC_TOKEN.equals(field)) {
+                    syncToken = parser.getValueAsString();
+                    if (!streaming && syncToken != null && syncToken.equals(previous[1])) {
+                        logger.info("AWS IP ranges unchanged (syncToken {})", syncToken);
+                        // the next request is conditional on the new HTTP version
+                        return ChangeTokens.join(reader.getVersion(), syncToken);
+                    }
+                } else if (FIELD_PREFIXES.equals(field) && value == JsonToken.START_ARRAY) {
+                    streaming = startStreaming(consumer, streaming);
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        streamPrefix(parser, consumer, FIELD_IP_PREFIX);
+                    }
+                } else if (FIELD_IPV6_PREFIXES.equals(field) && value == JsonToken.START_ARRAY) {
+                    streaming = startStreaming(consumer, streaming);
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        streamPrefix(parser, consumer, FIELD_IPV6_PREFIX);
+                    }
+                } else {
+                    parser.skipChildren();
+                }
             }
+            startStreaming(consumer, streaming);
+            return ChangeTokens.join(reader.getVersion(), syncToken);
+        }
+    }
 
-            public void setRegion(String region) {
-                this.region = region;
-            }
+    private static boolean startStreaming(IpRangeInfosConsumer consumer, boolean streaming) {
+        if (!streaming) {
+            consumer.stringColumn(KEY_SERVICE).stringColumn(KEY_REGION);
+        }
+        return true;
+    }
 
-            public String getService() {
-                return service;
+    private static void streamPrefix(JsonParser parser, IpRangeInfosConsumer consumer, String prefixField)
+            throws IOException {
+        String prefix = null;
+        String service = null;
+        String region = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+            if (field.equals(prefixField)) {
+                prefix = parser.getValueAsString();
+                continue;
             }
-
-            public void setService(String service) {
-                this.service = service;
-
+            switch (field) {
+                case KEY_SERVICE:
+                    service = parser.getValueAsString();
+                    break;
+                case KEY_REGION:
+                    region = parser.getValueAsString();
+                    break;
+                default:
+                    parser.skipChildren();
             }
         }
+        if (prefix == null) {
+            throw new IOException("Prefix without " + prefixField + " at " + parser.getCurrentLocation());
+        }
+        Cidrs.addRow(consumer, prefix)
+            .setString(COLUMN_SERVICE, service)
+            .setString(COLUMN_REGION, region);
     }
 
     public static void main(String[] args) throws Exception {
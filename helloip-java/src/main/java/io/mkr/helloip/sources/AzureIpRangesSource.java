@@ -3,18 +3,14 @@ package io.mkr.helloip.sources;
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
 import java.io.IOException;
-import java.io.Reader;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Pattern;
 
 import io.mkr.helloip.io.TwoStepHttpReaderProvider;
 import io.mkr.helloip.io.HttpReaderProvider;
 import io.mkr.helloip.io.ReaderProvider;
-import net.ripe.commons.ip.Ipv4Range;
+import io.mkr.helloip.io.VersionedReader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xml.sax.Attributes;
@@ -25,13 +21,14 @@ import org.xml.sax.helpers.DefaultHandler;
 /**
  * A {@link IpRangeInfosSource} for the MS Azure IP ranges.
  */
-public class AzureIpRangesSource implements IpRangeInfosSource {
+public class AzureIpRangesSource implements ChangeAwareIpRangeInfosSource, MeteredIpRangeInfosSource {
 
     private static final Logger logger = LoggerFactory.getLogger(AzureIpRangesSource.class);
 
     public static final String NAME = "AZURE";
 
     private static final String KEY_REGION = "region";
+    private static final int COLUMN_REGION = 0;
     private static final String AZURE_IP_URL = "https://www.microsoft.com/en-us/download/confirmation.aspx?id=41653";
     private static final Pattern METAPATTERN_REGEX = Pattern.compile(
         ".*href=\"(https://download.microsoft.com/download/0/1/8/018E208D-54F8-44CD-AA26-CD7BC9524A8C/)(.*?)(.xml).*");
@@ -39,10 +36,27 @@ public class AzureIpRangesSource implements IpRangeInfosSource {
 
     private ReaderProvider readerProvider;
 
+    private final AtomicLong charsRead = new AtomicLong();
+
     public AzureIpRangesSource() {
         this.readerProvider = new TwoStepHttpReaderProvider(new HttpReaderProvider(AZURE_IP_URL), METAPATTERN_REGEX, METAPATTERN_REPLACE);
     }
 
+    /**
+     * Constructor to be used when passing non HTTP {@link ReaderProvider}s, e.g. for accessing a filesystem copy of the
+     * Azure IP ranges XML.
+     *
+     * @param readerProvider the {@link ReaderProvider} for accessing the Azure IP ranges XML
+     */
+    public AzureIpRangesSource(ReaderProvider readerProvider) {
+        this.readerProvider = readerProvider;
+    }
+
+    @Override
+    public long getCharsRead() {
+        return charsRead.get();
+    }
+
     @Override
     public String getName() {
         return NAME;
@@ -50,21 +64,39 @@ public class AzureIpRangesSource implements IpRangeInfosSource {
 
     @Override
     public List<IpRangeInfos> getIpRanges() throws IOException {
+        IpRangeInfosTable.Builder rangeInfos = IpRangeInfosTable.builder();
+        streamIpRanges(rangeInfos);
+        return rangeInfos.build();
+    }
+
+    @Override
+    public void streamIpRanges(IpRangeInfosConsumer consumer) throws IOException {
+        streamIpRangesIfChanged(consumer, null);
+    }
+
+    /**
+     * The change token is the version of the XML document, with the default {@link TwoStepHttpReaderProvider} its
+     * download location.
+     */
+    @Override
+    public String streamIpRangesIfChanged(IpRangeInfosConsumer consumer, String changeToken) throws IOException {
         logger.info("Retrieving Microsoft Azure Datacenter IP ranges with {}", readerProvider);
-        Reader reader = readerProvider.createReader();
-        if (reader != null) {
+        try (VersionedReader reader = ChangeTokens.createReaderIfChanged(readerProvider, changeToken, charsRead)) {
+            if (reader == null) {
+                logger.info("Microsoft Azure Datacenter IP ranges not modified");
+                return null;
+            }
+            consumer.stringColumn(KEY_REGION);
             try {
                 SAXParser saxParser = SAXParserFactory.newInstance().newSAXParser();
-                AzureIpRangesHandler saxHandler = new AzureIpRangesHandler();
-                saxParser.parse(new InputSource(reader), saxHandler);
-                return saxHandler.getRangeInfos();
+                saxParser.parse(new InputSource(reader), new AzureIpRangesHandler(consumer));
+            } catch (IOException e) {
+                throw e;
             } catch (Exception e) {
                 throw new IOException(e);
-            } finally {
-                reader.close();
             }
+            return reader.getVersion();
         }
-        return Collections.emptyList();
     }
 
     private static class AzureIpRangesHandler extends DefaultHandler {
@@ -75,23 +107,22 @@ public class AzureIpRangesSource implements IpRangeInfosSource {
         private static final String ATT_SUBNET = "Subnet";
 
 
-        private List<IpRangeInfos> rangeInfos = new ArrayList<>();
+        private final IpRangeInfosConsumer rangeInfos;
         private String currentRegion = null;
 
+        AzureIpRangesHandler(IpRangeInfosConsumer rangeInfos) {
+            this.rangeInfos = rangeInfos;
+        }
+
         @Override
         public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
             if (qName.equals(EL_REGION)) {
                 currentRegion = attributes.getValue(ATT_NAME);
             } else if (qName.equals(EL_IPRANGE)) {
-                Map<String, String> azureIpRangeInfos = new HashMap<>();
-                azureIpRangeInfos.put(KEY_REGION, currentRegion);
-                rangeInfos.add(new IpRangeInfos(Ipv4Range.parseCidr(attributes.getValue(ATT_SUBNET)), azureIpRangeInfos));
+                Cidrs.addRow(rangeInfos, attributes.getValue(ATT_SUBNET))
+                    .setString(COLUMN_REGION, currentRegion);
             }
         }
-
-        public List<IpRangeInfos> getRangeInfos() {
-            return rangeInfos;
-        }
     }
 
     public static void main(String[] args) throws Exception {
@@ -0,0 +1,21 @@
+package io.mkr.helloip.sources;
+
+import java.io.IOException;
+
+/**
+ * A {@link IpRangeInfosSource} which can cheaply tell whether its ranges changed, e.g. by conditional requests.
+ */
+public interface ChangeAwareIpRangeInfosSource extends IpRangeInfosSource {
+
+    /**
+     * Like {@link #streamIpRanges(IpRangeInfosConsumer)}, but only if the ranges changed compared to the ranges
+     * streamed with the given change token.
+     *
+     * @param consumer the consumer, not called at all if the ranges did not change
+     * @param changeToken the token returned when streaming the ranges last time or {@code null}
+     * @return the token of the streamed ranges; if they did not change {@code null} or, if the consumer was not
+     * called, an updated token for the same ranges (e.g. when only the HTTP version of the resource changed)
+     * @throws IOException
+     */
+    String streamIpRangesIfChanged(IpRangeInfosConsumer consumer, String changeToken) throws IOException;
+}
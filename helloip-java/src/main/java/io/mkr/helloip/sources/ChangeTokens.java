@@ -0,0 +1,116 @@
+package io.mkr.helloip.sources;
+
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.mkr.helloip.io.ChangeAwareReaderProvider;
+import io.mkr.helloip.io.ReaderProvider;
+import io.mkr.helloip.io.VersionedReader;
+
+/**
+ * Helpers for the change tokens of {@link ChangeAwareIpRangeInfosSource}s, which combine the versions of the
+ * resources a source reads.
+ */
+final class ChangeTokens {
+
+    private static final char SEPARATOR = '\n';
+
+    private ChangeTokens() {
+    }
+
+    /**
+     * @param versions the versions, {@code null} if unknown
+     * @return a token holding all versions
+     */
+    static String join(String... versions) {
+        StringBuilder token = new StringBuilder();
+        for (int i = 0; i < versions.length; i++) {
+            if (i > 0) {
+                token.append(SEPARATOR);
+            }
+            if (versions[i] != null) {
+                token.append(versions[i]);
+            }
+        }
+        return token.toString();
+    }
+
+    /**
+     * @param token a token created by {@link #join(String...)} or {@code null}
+     * @param count the number of versions in the token
+     * @return the versions, {@code null} for unknown ones
+     */
+    static String[] split(String token, int count) {
+        String[] versions = new String[count];
+        if (token != null) {
+            String[] parts = token.split(String.valueOf(SEPARATOR), -1);
+            if (parts.length == count) {
+                for (int i = 0; i < count; i++) {
+                    versions[i] = parts[i].isEmpty() ? null : parts[i];
+                }
+            }
+        }
+        return versions;
+    }
+
+    /**
+     * Creates a reader unless the resource is known to be unchanged, resources of providers which are no
+     * {@link ChangeAwareReaderProvider}s are always considered changed.
+     *
+     * @param provider the reader provider
+     * @param version the version read before or {@code null}
+     * @return the reader or {@code null} if unchanged
+     * @throws IOException if no reader could be created
+     */
+    static VersionedReader createReaderIfChanged(ReaderProvider provider, String version) throws IOException {
+        if (provider instanceof ChangeAwareReaderProvider) {
+            return ((ChangeAwareReaderProvider) provider).createReaderIfChanged(version);
+        }
+        Reader reader = provider.createReader();
+        if (reader == null) {
+            throw new IOException("Could not read with " + provider);
+        }
+        return new VersionedReader(reader, null);
+    }
+
+    /**
+     * Like {@link #createReaderIfChanged(ReaderProvider, String)}, counting the characters read.
+     *
+     * @param charsRead the counter to add the characters read to
+     */
+    static VersionedReader createReaderIfChanged(ReaderProvider provider, String version, AtomicLong charsRead)
+            throws IOException {
+        VersionedReader reader = createReaderIfChanged(provider, version);
+        return reader == null ? null : new VersionedReader(new CountingReader(reader, charsRead), reader.getVersion());
+    }
+
+    private static final class CountingReader extends FilterReader {
+
+        private final AtomicLong charsRead;
+
+        CountingReader(Reader in, AtomicLong charsRead) {
+            super(in);
+            this.charsRead = charsRead;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int c = super.read();
+            if (c >= 0) {
+                charsRead.incrementAndGet();
+            }
+            return c;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) throws IOException {
+            int count = super.read(buffer, offset, length);
+            if (count > 0) {
+                charsRead.addAndGet(count);
+            }
+            return count;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package io.mkr.helloip.sources;
+
+import java.net.InetAddress;
+
+import com.google.common.net.InetAddresses;
+import io.mkr.helloip.Ipv4Addresses;
+import io.mkr.helloip.Ipv6Addresses;
+import net.ripe.commons.ip.Ipv4Range;
+
+/**
+ * Adds CIDR notated IPv4 and IPv6 ranges to {@link IpRangeConsumer}s. Anything but a plain, aligned IPv4 prefix is
+ * passed to {@link Ipv4Range#parseCidr(String)}.
+ */
+final class Cidrs {
+
+    private Cidrs() {
+    }
+
+    static <C> C addRow(IpRangeConsumer<C> consumer, String cidr) {
+        return addRow(consumer, cidr, 0, cidr.length());
+    }
+
+    static <C> C addRow(IpRangeConsumer<C> consumer, CharSequence chars, int from, int to) {
+        while (from < to && chars.charAt(from) <= ' ') {
+            from++;
+        }
+        while (to > from && chars.charAt(to - 1) <= ' ') {
+            to--;
+        }
+        int slash = from;
+        boolean ipv6 = false;
+        while (slash < to && chars.charAt(slash) != '/') {
+            ipv6 |= chars.charAt(slash) == ':';
+            slash++;
+        }
+        if (ipv6) {
+            return addIpv6Row(consumer, chars, from, slash, to);
+        }
+        long address = Ipv4Addresses.parse(chars, from, slash);
+        int prefixLength = prefixLength(chars, slash, to);
+        if (address != Ipv4Addresses.INVALID && prefixLength >= 0 && prefixLength <= 32) {
+            long hostMask = 0xFFFFFFFFL >>> prefixLength;
+            if ((address & hostMask) == 0) {
+                return consumer.addRow(address, address | hostMask);
+            }
+        }
+        return consumer.addRow(Ipv4Range.parseCidr(chars.subSequence(from, to).toString()));
+    }
+
+    /**
+     * @return the prefix length following the slash or -1 if there is none
+     */
+    private static int prefixLength(CharSequence chars, int slash, int to) {
+        int prefixLength = slash < to - 1 && to - slash <= 4 ? 0 : -1;
+        for (int i = slash + 1; i < to && prefixLength >= 0; i++) {
+            char c = chars.charAt(i);
+            prefixLength = c >= '0' && c <= '9' ? prefixLength * 10 + (c - '0') : -1;
+        }
+        return prefixLength;
+    }
+
+    private static <C> C addIpv6Row(IpRangeConsumer<C> consumer, CharSequence chars, int from, int slash, int to) {
+        String cidr = chars.subSequence(from, to).toString();
+        int prefixLength = prefixLength(chars, slash, to);
+        if (prefixLength < 0 || prefixLength > 128) {
+            throw new IllegalArgumentException("Invalid IPv6 CIDR " + cidr);
+        }
+        // throws an IllegalArgumentException itself for invalid addresses
+        InetAddress address = InetAddresses.forString(chars.subSequence(from, slash).toString());
+        byte[] bytes = address.getAddress();
+        if (bytes.length != 16) {
+            throw new IllegalArgumentException("Not an IPv6 CIDR " + cidr);
+        }
+        long high = Ipv6Addresses.toLong(bytes, 0);
+        long low = Ipv6Addresses.toLong(bytes, 8);
+        if ((high & Ipv6Addresses.hostMaskHigh(prefixLength)) != 0
+                || (low & Ipv6Addresses.hostMaskLow(prefixLength)) != 0) {
+            throw new IllegalArgumentException("Host bits set in IPv6 CIDR " + cidr);
+        }
+        return consumer.addIpv6Row(high, low, prefixLength);
+    }
+}
@@ -6,14 +6,16 @@ import javax.naming.directory.Attribute;
 import javax.naming.directory.DirContext;
 import javax.naming.directory.InitialDirContext;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
 
-import com.google.common.collect.ImmutableMap;
-import net.ripe.commons.ip.Ipv4Range;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -22,7 +24,7 @@ import org.slf4j.LoggerFactory;
  * Implements the Google Compute Engine IP range lookup via DNS TXT record requests as recommended in
  * their <a href="https://cloud.google.com/compute/docs/faq#ipranges">FAQ</a>.
  */
-public class GoogleCloudIpRangesSource implements IpRangeInfosSource {
+public class GoogleCloudIpRangesSource implements ChangeAwareIpRangeInfosSource, MeteredIpRangeInfosSource {
 
     private static final Logger logger = LoggerFactory.getLogger(GoogleCloudIpRangesSource.class);
 
@@ -30,13 +32,34 @@ public class GoogleCloudIpRangesSource implements IpRangeInfosSource {
 
     public static final String KEY_GROUP = "group";
 
+    private static final int COLUMN_GROUP = 0;
+
     private static final String INITIAL_QUERY_DOMAIN = "_cloud-netblocks.googleusercontent.com";
 
     private static final String SPF_PREFIX = "v=spf1";
     private static final String INCLUDE_PREFIX = "include:";
     private static final String IP4_PREFIX = "ip4:";
+    private static final String IP6_PREFIX = "ip6:";
+
+    private final DnsTextRecordRetriever textRecordRetriever;
+
+    private final AtomicLong charsRead = new AtomicLong();
+
+    public GoogleCloudIpRangesSource() {
+        this(new JdkDnsTextRecordRetriever());
+    }
+
+    /**
+     * @param textRecordRetriever retrieves the TXT records, e.g. recorded copies instead of DNS
+     */
+    public GoogleCloudIpRangesSource(DnsTextRecordRetriever textRecordRetriever) {
+        this.textRecordRetriever = textRecordRetriever;
+    }
 
-    private DnsTextRecordRetriever textRecordRetriever = new JdkDnsTextRecordRetriever();
+    @Override
+    public long getCharsRead() {
+        return charsRead.get();
+    }
 
     @Override
     public String getName() {
@@ -45,28 +68,58 @@ public class GoogleCloudIpRangesSource implements IpRangeInfosSource {
 
     @Override
     public List<IpRangeInfos> getIpRanges() throws IOException {
-        List<IpRangeInfos> ipRangeInfos = new ArrayList<>();
+        IpRangeInfosTable.Builder ipRangeInfos = IpRangeInfosTable.builder();
+        streamIpRanges(ipRangeInfos);
+        return ipRangeInfos.build();
+    }
+
+    @Override
+    public void streamIpRanges(IpRangeInfosConsumer consumer) throws IOException {
+        streamIpRangesIfChanged(consumer, null);
+    }
+
+    /**
+     * The netblocks are always retrieved, the change token is a hash over them.
+     */
+    @Override
+    public String streamIpRangesIfChanged(IpRangeInfosConsumer consumer, String changeToken) throws IOException {
+        List<String[]> netblocks = new ArrayList<>();
+        List<String> entries = new ArrayList<>();
         Collection<String> level1Domains = retrieveSpfRule(INITIAL_QUERY_DOMAIN, INCLUDE_PREFIX);
         for (String level1Domain: level1Domains) {
-            Collection<String> cidrs = retrieveSpfRule(level1Domain, IP4_PREFIX);
+            Collection<String> cidrs = retrieveSpfRule(level1Domain, IP4_PREFIX, IP6_PREFIX);
             for (String cidr: cidrs) {
-                Ipv4Range range = Ipv4Range.parseCidr(cidr);
-                Map<String, String> infos = ImmutableMap.of(KEY_GROUP, level1Domain);
-                ipRangeInfos.add(new IpRangeInfos(range, infos));
+                netblocks.add(new String[] {level1Domain, cidr});
+                entries.add(level1Domain + ' ' + cidr);
             }
         }
-        return ipRangeInfos;
+        Collections.sort(entries);
+        Hasher hasher = Hashing.sha256().newHasher();
+        for (String entry: entries) {
+            hasher.putString(entry, StandardCharsets.UTF_8).putByte((byte) '\n');
+        }
+        String token = hasher.hash().toString();
+        if (token.equals(changeToken)) {
+            logger.info("Google Cloud netblocks unchanged");
+            return null;
+        }
+        consumer.stringColumn(KEY_GROUP);
+        for (String[] netblock: netblocks) {
+            Cidrs.addRow(consumer, netblock[1]).setString(COLUMN_GROUP, netblock[0]);
+        }
+        return token;
     }
 
-    private Collection<String> retrieveSpfRule(String domainName, String rulePrefix) throws IOException {
+    private Collection<String> retrieveSpfRule(String domainName, String... rulePrefixes) throws IOException {
         Collection<String> includeDomains = new ArrayList<>();
         logger.info("Retrieving TXT records record for {}", domainName);
         try {
             Collection<String> textRecords = textRecordRetriever.retrieveTextRecords(domainName);
             for (String textRecord: textRecords) {
+                charsRead.addAndGet(textRecord.length());
                 logger.debug("Text record: {}", textRecord);
                 if (textRecord.startsWith(SPF_PREFIX)) {
-                    includeDomains.addAll(scanSpfForStatements(textRecord, rulePrefix));
+                    includeDomains.addAll(scanSpfForStatements(textRecord, rulePrefixes));
                 }
             }
             return includeDomains;
@@ -76,22 +129,24 @@ public class GoogleCloudIpRangesSource implements IpRangeInfosSource {
         }
     }
 
-    private static List<String> scanSpfForStatements(String spf, String statement) {
+    private static List<String> scanSpfForStatements(String spf, String... statements) {
         List<String> includes = new ArrayList<>();
         String[] tokens = spf.split(" ");
         for (String token: tokens) {
-            if (token.startsWith(statement)) {
-                String include = token.substring(statement.length());
-                includes.add(include);
+            for (String statement: statements) {
+                if (token.startsWith(statement)) {
+                    String include = token.substring(statement.length());
+                    includes.add(include);
+                }
             }
         }
         return includes;
     }
 
     /**
-     * Internal interface for DNS requests for the TXT record. Accessible for the provider to be more testable.
+     * Interface for DNS requests for the TXT record.
      */
-    interface DnsTextRecordRetriever {
+    public interface DnsTextRecordRetriever {
 
         /**
          * Retrieves the DNS TXT record entries for the given domain. Returns an empty collection if there were no TXT records, or there was
@@ -103,7 +158,7 @@ public class GoogleCloudIpRangesSource implements IpRangeInfosSource {
         Collection<String> retrieveTextRecords(String domainName) throws NamingException;
     }
 
-    static class JdkDnsTextRecordRetriever implements DnsTextRecordRetriever {
+    public static class JdkDnsTextRecordRetriever implements DnsTextRecordRetriever {
 
         @Override
         public Collection<String> retrieveTextRecords(String domainName) throws NamingException {
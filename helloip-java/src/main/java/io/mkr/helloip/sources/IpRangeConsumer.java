@@ -0,0 +1,38 @@
+package io.mkr.helloip.sources;
+
+import net.ripe.commons.ip.Ipv4Range;
+
+/**
+ * Receives ranges without attributes, the ranges part of an {@link IpRangeInfosConsumer}.
+ *
+ * @param <C> the type returned for setting the attributes of a range
+ */
+public interface IpRangeConsumer<C> {
+
+    /**
+     * Adds a range.
+     *
+     * @param range the range
+     * @return the consumer of the attributes of the range
+     */
+    C addRow(Ipv4Range range);
+
+    /**
+     * Adds a range.
+     *
+     * @param start first address of the range as unsigned value
+     * @param end last address of the range as unsigned value
+     * @return the consumer of the attributes of the range
+     */
+    C addRow(long start, long end);
+
+    /**
+     * Adds an IPv6 prefix.
+     *
+     * @param high the high 64 bits of the prefix (see {@link io.mkr.helloip.Ipv6Addresses})
+     * @param low the low 64 bits of the prefix
+     * @param prefixLength the prefix length from 0 to 128
+     * @return the consumer of the attributes of the range
+     */
+    C addIpv6Row(long high, long low, int prefixLength);
+}
@@ -3,30 +3,57 @@ package io.mkr.helloip.sources;
 import java.util.Map;
 
 import net.ripe.commons.ip.Ipv4Range;
+import net.ripe.commons.ip.Ipv6Range;
 
 /**
- * Contains infos about an IPv4 range. Infos can be arbitrary key value pairs represented as a Java Map.
+ * Contains infos about an IPv4 range (or an IPv6 range, see {@link #getIpv6Range()}). Infos can be arbitrary key value
+ * pairs represented as a Java Map.
  */
 public class IpRangeInfos {
 
     private final Ipv4Range range;
+    private final Ipv6Range ipv6Range;
     private final Map<String, String> infos;
 
     public IpRangeInfos(Ipv4Range range, Map<String, String> info) {
         this.range = range;
+        this.ipv6Range = null;
         this.infos = info;
     }
 
+    public IpRangeInfos(Ipv6Range ipv6Range, Map<String, String> info) {
+        this.range = null;
+        this.ipv6Range = ipv6Range;
+        this.infos = info;
+    }
+
+    /**
+     * For subclasses creating the range on access.
+     */
+    IpRangeInfos(Map<String, String> infos) {
+        this.range = null;
+        this.ipv6Range = null;
+        this.infos = infos;
+    }
+
     public Ipv4Range getRange() {
         return range;
     }
 
+    /**
+     * @return the IPv6 range for infos about an IPv6 range (whose {@link #getRange()} is {@code null}), otherwise
+     * {@code null}
+     */
+    public Ipv6Range getIpv6Range() {
+        return ipv6Range;
+    }
+
     public Map<String, String> getInfos() {
         return infos;
     }
 
     @Override
     public String toString() {
-        return range.toString() + "[" + infos + "]";
+        return (getRange() != null ? getRange() : getIpv6Range()) + "[" + infos + "]";
     }
 }
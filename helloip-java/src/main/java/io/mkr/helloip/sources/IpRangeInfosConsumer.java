@@ -0,0 +1,75 @@
+package io.mkr.helloip.sources;
+
+import net.ripe.commons.ip.Ipv4Range;
+
+/**
+ * Receives the ranges of an {@link IpRangeInfosSource} while they are parsed (see
+ * {@link IpRangeInfosSource#streamIpRanges(IpRangeInfosConsumer)}). Attribute columns are defined before the first
+ * range, the attribute values of a range are set right after adding it.
+ */
+public interface IpRangeInfosConsumer extends IpRangeConsumer<IpRangeInfosConsumer> {
+
+    /**
+     * Defines a string attribute.
+     *
+     * @param key the attribute key
+     * @return this consumer
+     */
+    IpRangeInfosConsumer stringColumn(String key);
+
+    /**
+     * Defines an int attribute (e.g. an ASN).
+     *
+     * @param key the attribute key
+     * @return this consumer
+     */
+    IpRangeInfosConsumer intColumn(String key);
+
+    /**
+     * Adds a range.
+     *
+     * @param range the range
+     * @return this consumer
+     */
+    @Override
+    IpRangeInfosConsumer addRow(Ipv4Range range);
+
+    /**
+     * Adds a range.
+     *
+     * @param start first address of the range as unsigned value
+     * @param end last address of the range as unsigned value
+     * @return this consumer
+     */
+    @Override
+    IpRangeInfosConsumer addRow(long start, long end);
+
+    /**
+     * Adds an IPv6 prefix.
+     *
+     * @param high the high 64 bits of the prefix (see {@link io.mkr.helloip.Ipv6Addresses})
+     * @param low the low 64 bits of the prefix
+     * @param prefixLength the prefix length from 0 to 128
+     * @return this consumer
+     */
+    @Override
+    IpRangeInfosConsumer addIpv6Row(long high, long low, int prefixLength);
+
+    /**
+     * Sets a string attribute of the last range added.
+     *
+     * @param column the column index (in order of definition)
+     * @param value the value, may be {@code null}
+     * @return this consumer
+     */
+    IpRangeInfosConsumer setString(int column, String value);
+
+    /**
+     * Sets an int attribute of the last range added.
+     *
+     * @param column the column index (in order of definition)
+     * @param value the value
+     * @return this consumer
+     */
+    IpRangeInfosConsumer setInt(int column, int value);
+}
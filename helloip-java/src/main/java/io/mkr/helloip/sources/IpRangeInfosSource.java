@@ -23,4 +23,12 @@ public interface IpRangeInfosSource {
      */
     List<IpRangeInfos> getIpRanges() throws IOException;
 
+    /**
+     * Passes all IP ranges this source knows of and their infos to a consumer while parsing them.
+     *
+     * @param consumer the consumer
+     * @throws IOException
+     */
+    void streamIpRanges(IpRangeInfosConsumer consumer) throws IOException;
+
 }
@@ -0,0 +1,700 @@
+package io.mkr.helloip.sources;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+import io.mkr.helloip.Ipv6Addresses;
+import net.ripe.commons.ip.Ipv4Range;
+import net.ripe.commons.ip.Ipv6Range;
+
+/**
+ * Columnar storage of {@link IpRangeInfos} sharing the same attribute keys. String attributes are dictionary encoded
+ * per column, integer attributes are kept as primitives. A table holds either IPv4 ranges (see {@link #builder()}) or
+ * IPv6 prefixes (see {@link #ipv6Builder()}).
+ */
+public class IpRangeInfosTable extends AbstractList<IpRangeInfos> implements RandomAccess {
+
+    private static final int NULL_CODE = -1;
+
+    private final int size;
+    private final String[] keys;
+    private final boolean[] intColumns;
+    // ranges of an IPv4 table, null for an IPv6 table
+    private final int[] starts;
+    private final int[] ends;
+    // prefixes of an IPv6 table (high and low half interleaved), null for an IPv4 table
+    private final long[] prefixes;
+    private final byte[] prefixLengths;
+    // dictionary codes for string columns, values for int columns
+    private final int[][] columns;
+    private final String[][] dictionaries;
+    // the attributes of each row, shared by rows with the same codes
+    private final int[] attributeIds;
+    private final AttributeMap[] attributeMaps;
+
+    /**
+     * @param attributeIds the attributes of the rows, the first known ones set, the others assigned from the columns
+     * @param known the number of rows with attributes
+     * @param knownAttributeMaps the attributes the known rows refer to
+     */
+    private IpRangeInfosTable(String[] keys, boolean[] intColumns, int[] starts, int[] ends, long[] prefixes,
+                              byte[] prefixLengths, int[][] columns, String[][] dictionaries, int[] attributeIds,
+                              int known, AttributeMap[] knownAttributeMaps) {
+        this.size = starts != null ? starts.length : prefixLengths.length;
+        this.keys = keys;
+        this.intColumns = intColumns;
+        this.starts = starts;
+        this.ends = ends;
+        this.prefixes = prefixes;
+        this.prefixLengths = prefixLengths;
+        this.columns = columns;
+        this.dictionaries = dictionaries;
+        this.attributeIds = attributeIds;
+        this.attributeMaps = assignAttributes(known, knownAttributeMaps);
+    }
+
+    private AttributeMap[] assignAttributes(int known, AttributeMap[] knownAttributeMaps) {
+        if (known == size) {
+            return knownAttributeMaps;
+        }
+        // rows with equal codes share their attributes, new rows may share the ones of known rows
+        List<AttributeMap> maps = new ArrayList<>(Arrays.asList(knownAttributeMaps));
+        Map<Codes, Integer> ids = new HashMap<>();
+        Codes probe = new Codes(new int[columns.length]);
+        for (int row = 0; row < size; row++) {
+            for (int column = 0; column < columns.length; column++) {
+                probe.codes[column] = columns[column][row];
+            }
+            probe.hash = Arrays.hashCode(probe.codes);
+            Integer id = ids.get(probe);
+            if (id == null) {
+                if (row < known) {
+                    id = attributeIds[row];
+                } else {
+                    String[] values = new String[columns.length];
+                    for (int column = 0; column < columns.length; column++) {
+                        values[column] = value(row, column);
+                    }
+                    id = maps.size();
+                    maps.add(new AttributeMap(keys, values));
+                }
+                Codes codes = new Codes(probe.codes.clone());
+                codes.hash = probe.hash;
+                ids.put(codes, id);
+            }
+            attributeIds[row] = id;
+        }
+        return maps.toArray(new AttributeMap[maps.size()]);
+    }
+
+    public static Builder builder() {
+        return new Builder(null, 1024, false);
+    }
+
+    /**
+     * @param expectedSize the expected number of rows, to avoid growing the builder's arrays
+     * @return the builder
+     */
+    public static Builder builder(int expectedSize) {
+        return new Builder(null, expectedSize, false);
+    }
+
+    /**
+     * Creates a builder for rows to be compared with or appended to the rows of a previous table, see
+     * {@link Builder#lastRowEquals(int)} and {@link Builder#appendTo(IpRangeInfosTable)}.
+     *
+     * @param previous the previous table
+     * @return the builder
+     */
+    public static Builder builder(IpRangeInfosTable previous) {
+        return new Builder(previous, 1024, false);
+    }
+
+    /**
+     * Creates a builder for a table of IPv6 prefixes, which skips IPv4 ranges streamed to it.
+     *
+     * @return the builder
+     */
+    public static Builder ipv6Builder() {
+        return new Builder(null, 64, true);
+    }
+
+    /**
+     * Creates a builder like {@link #ipv6Builder()} for rows to be compared with the rows of a previous table of IPv6
+     * prefixes, see {@link Builder#rowsEqualPrevious()}.
+     *
+     * @param previous the previous table or {@code null}
+     * @return the builder
+     */
+    public static Builder ipv6Builder(IpRangeInfosTable previous) {
+        return new Builder(previous, previous == null ? 64 : previous.size(), true);
+    }
+
+    @Override
+    public IpRangeInfos get(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("Row " + row + ", size " + size);
+        }
+        return new Row(row, attributeMaps[attributeIds[row]]);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return whether this table holds IPv6 prefixes rather than IPv4 ranges
+     */
+    public boolean isIpv6() {
+        return prefixes != null;
+    }
+
+    /**
+     * @param row the row
+     * @return the first address of the row's range as unsigned value
+     */
+    public long start(int row) {
+        return starts[row] & 0xFFFFFFFFL;
+    }
+
+    /**
+     * @param row the row
+     * @return the last address of the row's range as unsigned value
+     */
+    public long end(int row) {
+        return ends[row] & 0xFFFFFFFFL;
+    }
+
+    /**
+     * @param row the row of an IPv6 table
+     * @return the high 64 bits of the row's prefix
+     */
+    public long prefixHigh(int row) {
+        return prefixes[2 * row];
+    }
+
+    /**
+     * @param row the row of an IPv6 table
+     * @return the low 64 bits of the row's prefix
+     */
+    public long prefixLow(int row) {
+        return prefixes[2 * row + 1];
+    }
+
+    /**
+     * @param row the row of an IPv6 table
+     * @return the length of the row's prefix
+     */
+    public int prefixLength(int row) {
+        return prefixLengths[row] & 0xFF;
+    }
+
+    /**
+     * @param key the attribute key
+     * @return the column index of the attribute or {@code -1}
+     */
+    public int column(String key) {
+        for (int column = 0; column < keys.length; column++) {
+            if (keys[column].equals(key)) {
+                return column;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param row the row
+     * @param column the column index of an int column
+     * @return the primitive value
+     */
+    public int intValue(int row, int column) {
+        return columns[column][row];
+    }
+
+    /**
+     * @param row the row
+     * @param column the column index
+     * @return the value as string, int columns are converted (use {@link #intValue(int, int)} to avoid that)
+     */
+    public String value(int row, int column) {
+        int value = columns[column][row];
+        if (intColumns[column]) {
+            return Integer.toString(value);
+        }
+        return value == NULL_CODE ? null : dictionaries[column][value];
+    }
+
+    /**
+     * Creates a table of the given rows of this table in the given order, sharing the dictionaries.
+     *
+     * @param rows the rows to select
+     * @return the new table
+     */
+    public IpRangeInfosTable select(int[] rows) {
+        int[] selectedStarts = starts == null ? null : new int[rows.length];
+        int[] selectedEnds = starts == null ? null : new int[rows.length];
+        long[] selectedPrefixes = prefixes == null ? null : new long[2 * rows.length];
+        byte[] selectedPrefixLengths = prefixes == null ? null : new byte[rows.length];
+        int[][] selectedColumns = new int[columns.length][rows.length];
+        int[] selectedAttributeIds = new int[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            int row = rows[i];
+            selectedAttributeIds[i] = attributeIds[row];
+            if (starts != null) {
+                selectedStarts[i] = starts[row];
+                selectedEnds[i] = ends[row];
+            } else {
+                selectedPrefixes[2 * i] = prefixes[2 * row];
+                selectedPrefixes[2 * i + 1] = prefixes[2 * row + 1];
+                selectedPrefixLengths[i] = prefixLengths[row];
+            }
+            for (int column = 0; column < columns.length; column++) {
+                selectedColumns[column][i] = columns[column][row];
+            }
+        }
+        return new IpRangeInfosTable(keys, intColumns, selectedStarts, selectedEnds, selectedPrefixes,
+            selectedPrefixLengths, selectedColumns, dictionaries, selectedAttributeIds, rows.length, attributeMaps);
+    }
+
+    /**
+     * Returns the approximate number of bytes retained by this table.
+     *
+     * @return the approximate heap size in bytes
+     */
+    public long sizeInBytes() {
+        long size = (prefixes == null ? 12L : 21L) * this.size + 4L * this.size * columns.length;
+        size += (48L + 4L * columns.length) * attributeMaps.length;
+        for (String[] dictionary: dictionaries) {
+            if (dictionary != null) {
+                for (String value: dictionary) {
+                    size += 48 + 2 * value.length();
+                }
+            }
+        }
+        return size;
+    }
+
+    /**
+     * The infos of a row, with the range created from the columns on access.
+     */
+    private final class Row extends IpRangeInfos {
+
+        private final int row;
+
+        Row(int row, AttributeMap attributes) {
+            super(attributes);
+            this.row = row;
+        }
+
+        @Override
+        public Ipv4Range getRange() {
+            return isIpv6() ? null : Ipv4Range.from(start(row)).to(end(row));
+        }
+
+        @Override
+        public Ipv6Range getIpv6Range() {
+            return isIpv6() ? Ipv6Addresses.toIpv6Range(prefixHigh(row), prefixLow(row), prefixLength(row)) : null;
+        }
+    }
+
+    /**
+     * The codes of a row as key of its attributes.
+     */
+    private static final class Codes {
+
+        private final int[] codes;
+        private int hash;
+
+        Codes(int[] codes) {
+            this.codes = codes;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Codes && Arrays.equals(codes, ((Codes) o).codes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * Builds a table row by row. Columns have to be defined before the first row is added, values of a row are set
+     * after adding it with {@link #addRow(Ipv4Range)}. Rows of the other address family are skipped. A builder must
+     * not be used after building.
+     */
+    public static class Builder implements IpRangeInfosConsumer {
+
+        private final IpRangeInfosTable previous;
+        private final boolean ipv6;
+        private final List<String> keys = new ArrayList<>();
+        private final List<Boolean> intColumns = new ArrayList<>();
+        private final List<Map<String, Integer>> dictionaries = new ArrayList<>();
+        private int capacity;
+        private int[] starts;
+        private int[] ends;
+        private long[] prefixes;
+        private byte[] prefixLengths;
+        private int[][] columns = new int[0][];
+        private int size = 0;
+        // whether the last row added was skipped
+        private boolean skipping = false;
+
+        private Builder(IpRangeInfosTable previous, int expectedSize, boolean ipv6) {
+            this.previous = previous;
+            this.ipv6 = ipv6;
+            this.capacity = Math.max(expectedSize, 16);
+            if (ipv6) {
+                this.prefixes = new long[2 * capacity];
+                this.prefixLengths = new byte[capacity];
+            } else {
+                this.starts = new int[capacity];
+                this.ends = new int[capacity];
+            }
+        }
+
+        /**
+         * Adds a dictionary encoded string column.
+         *
+         * @param key the attribute key
+         * @return this builder
+         */
+        @Override
+        public Builder stringColumn(String key) {
+            return column(key, false);
+        }
+
+        /**
+         * Adds a column of primitive int values.
+         *
+         * @param key the attribute key
+         * @return this builder
+         */
+        @Override
+        public Builder intColumn(String key) {
+            return column(key, true);
+        }
+
+        private Builder column(String key, boolean intColumn) {
+            if (size > 0) {
+                throw new IllegalStateException("Columns have to be defined before adding rows");
+            }
+            int column = keys.size();
+            keys.add(key);
+            intColumns.add(intColumn);
+            Map<String, Integer> dictionary = null;
+            if (!intColumn) {
+                dictionary = new HashMap<>();
+                if (matchesPrevious(column)) {
+                    String[] values = previous.dictionaries[column];
+                    for (int code = 0; code < values.length; code++) {
+                        dictionary.put(values[code], code);
+                    }
+                }
+            }
+            dictionaries.add(dictionary);
+            columns = Arrays.copyOf(columns, keys.size());
+            columns[keys.size() - 1] = new int[capacity];
+            return this;
+        }
+
+        /**
+         * Adds a row for a range.
+         *
+         * @param range the range
+         * @return this builder
+         */
+        @Override
+        public Builder addRow(Ipv4Range range) {
+            return addRow(range.start().asBigInteger().longValue(), range.end().asBigInteger().longValue());
+        }
+
+        /**
+         * Adds a row for a range.
+         *
+         * @param start first address of the range as unsigned value
+         * @param end last address of the range as unsigned value
+         * @return this builder
+         */
+        @Override
+        public Builder addRow(long start, long end) {
+            skipping = ipv6;
+            if (skipping) {
+                return this;
+            }
+            ensureCapacity();
+            starts[size] = (int) start;
+            ends[size] = (int) end;
+            return addValues();
+        }
+
+        /**
+         * Adds a row for an IPv6 prefix.
+         *
+         * @param high the high 64 bits of the prefix
+         * @param low the low 64 bits of the prefix
+         * @param prefixLength the prefix length from 0 to 128
+         * @return this builder
+         */
+        @Override
+        public Builder addIpv6Row(long high, long low, int prefixLength) {
+            skipping = !ipv6;
+            if (skipping) {
+                return this;
+            }
+            if (prefixLength < 0 || prefixLength > 128) {
+                throw new IllegalArgumentException("Invalid IPv6 prefix length " + prefixLength);
+            }
+            ensureCapacity();
+            prefixes[2 * size] = high;
+            prefixes[2 * size + 1] = low;
+            prefixLengths[size] = (byte) prefixLength;
+            return addValues();
+        }
+
+        private void ensureCapacity() {
+            if (size < capacity) {
+                return;
+            }
+            capacity = size + (size >> 1);
+            if (ipv6) {
+                prefixes = Arrays.copyOf(prefixes, 2 * capacity);
+                prefixLengths = Arrays.copyOf(prefixLengths, capacity);
+            } else {
+                starts = Arrays.copyOf(starts, capacity);
+                ends = Arrays.copyOf(ends, capacity);
+            }
+            for (int column = 0; column < columns.length; column++) {
+                columns[column] = Arrays.copyOf(columns[column], capacity);
+            }
+        }
+
+        private Builder addValues() {
+            for (int column = 0; column < columns.length; column++) {
+                columns[column][size] = intColumns.get(column) ? 0 : NULL_CODE;
+            }
+            size++;
+            return this;
+        }
+
+        /**
+         * Sets a string value of the last row.
+         *
+         * @param column the column index (in order of definition)
+         * @param value the value, may be {@code null}
+         * @return this builder
+         */
+        @Override
+        public Builder setString(int column, String value) {
+            if (skipping) {
+                return this;
+            }
+            Map<String, Integer> dictionary = dictionaries.get(column);
+            if (dictionary == null) {
+                throw new IllegalArgumentException("Not a string column: " + keys.get(column));
+            }
+            int code = NULL_CODE;
+            if (value != null) {
+                Integer existing = dictionary.get(value);
+                if (existing == null) {
+                    existing = dictionary.size();
+                    dictionary.put(value, existing);
+                }
+                code = existing;
+            }
+            columns[column][size - 1] = code;
+            return this;
+        }
+
+        /**
+         * Sets an int value of the last row.
+         *
+         * @param column the column index (in order of definition)
+         * @param value the value
+         * @return this builder
+         */
+        @Override
+        public Builder setInt(int column, int value) {
+            if (skipping) {
+                return this;
+            }
+            if (!intColumns.get(column)) {
+                throw new IllegalArgumentException("Not an int column: " + keys.get(column));
+            }
+            columns[column][size - 1] = value;
+            return this;
+        }
+
+        /**
+         * @return the number of rows added so far
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * @return whether this builder was created for a previous table with the same columns (so far)
+         */
+        public boolean matchesPrevious() {
+            if (previous == null || previous.keys.length != keys.size()) {
+                return false;
+            }
+            for (int column = 0; column < keys.size(); column++) {
+                if (!matchesPrevious(column)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean matchesPrevious(int column) {
+            return previous != null && column < previous.keys.length && previous.keys[column].equals(keys.get(column))
+                && previous.intColumns[column] == intColumns.get(column);
+        }
+
+        /**
+         * Compares the last row with a row of the previous table, which must have the same columns (see
+         * {@link #matchesPrevious()}).
+         *
+         * @param row the row of the previous table
+         * @return whether range and values are equal
+         */
+        public boolean lastRowEquals(int row) {
+            return rowEquals(size - 1, row);
+        }
+
+        /**
+         * Compares the rows added with the rows of the previous table.
+         *
+         * @return whether the previous table has the same columns and the same rows in the same order
+         */
+        public boolean rowsEqualPrevious() {
+            if (!matchesPrevious() || previous.size() != size || previous.isIpv6() != ipv6) {
+                return false;
+            }
+            for (int row = 0; row < size; row++) {
+                if (!rowEquals(row, row)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean rowEquals(int row, int previousRow) {
+            if (ipv6) {
+                if (prefixes[2 * row] != previous.prefixes[2 * previousRow]
+                        || prefixes[2 * row + 1] != previous.prefixes[2 * previousRow + 1]
+                        || prefixLengths[row] != previous.prefixLengths[previousRow]) {
+                    return false;
+                }
+            } else if (starts[row] != previous.starts[previousRow] || ends[row] != previous.ends[previousRow]) {
+                return false;
+            }
+            for (int column = 0; column < columns.length; column++) {
+                if (columns[column][row] != previous.columns[column][previousRow]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Removes the last row.
+         */
+        public void removeLastRow() {
+            if (size == 0) {
+                throw new IllegalStateException("No row to remove");
+            }
+            size--;
+        }
+
+        /**
+         * Builds a table holding the rows of the previous table followed by the rows of this builder, which must
+         * have the same columns (see {@link #matchesPrevious()}).
+         *
+         * @param previous the table this builder was created for
+         * @return the previous table if no rows were added, otherwise the new table
+         */
+        public IpRangeInfosTable appendTo(IpRangeInfosTable previous) {
+            if (previous != this.previous || !matchesPrevious() || previous.isIpv6() != ipv6) {
+                throw new IllegalStateException("Builder was not created for the table or columns differ");
+            }
+            if (size == 0) {
+                return previous;
+            }
+            int previousSize = previous.size();
+            int[] resultStarts = null;
+            int[] resultEnds = null;
+            long[] resultPrefixes = null;
+            byte[] resultPrefixLengths = null;
+            if (ipv6) {
+                resultPrefixes = Arrays.copyOf(previous.prefixes, 2 * (previousSize + size));
+                resultPrefixLengths = Arrays.copyOf(previous.prefixLengths, previousSize + size);
+                System.arraycopy(prefixes, 0, resultPrefixes, 2 * previousSize, 2 * size);
+                System.arraycopy(prefixLengths, 0, resultPrefixLengths, previousSize, size);
+            } else {
+                resultStarts = Arrays.copyOf(previous.starts, previousSize + size);
+                resultEnds = Arrays.copyOf(previous.ends, previousSize + size);
+                System.arraycopy(starts, 0, resultStarts, previousSize, size);
+                System.arraycopy(ends, 0, resultEnds, previousSize, size);
+            }
+            int[][] resultColumns = new int[columns.length][];
+            for (int column = 0; column < columns.length; column++) {
+                resultColumns[column] = Arrays.copyOf(previous.columns[column], previousSize + size);
+                System.arraycopy(columns[column], 0, resultColumns[column], previousSize, size);
+            }
+            return new IpRangeInfosTable(previous.keys, previous.intColumns, resultStarts, resultEnds, resultPrefixes,
+                resultPrefixLengths, resultColumns, buildDictionaries(),
+                Arrays.copyOf(previous.attributeIds, previousSize + size), previousSize, previous.attributeMaps);
+        }
+
+        private String[][] buildDictionaries() {
+            String[][] resultDictionaries = new String[keys.size()][];
+            for (int column = 0; column < keys.size(); column++) {
+                Map<String, Integer> dictionary = dictionaries.get(column);
+                if (dictionary != null) {
+                    if (matchesPrevious(column) && dictionary.size() == previous.dictionaries[column].length) {
+                        resultDictionaries[column] = previous.dictionaries[column];
+                    } else {
+                        resultDictionaries[column] = new String[dictionary.size()];
+                        for (Map.Entry<String, Integer> entry: dictionary.entrySet()) {
+                            resultDictionaries[column][entry.getValue()] = entry.getKey();
+                        }
+                    }
+                }
+            }
+            return resultDictionaries;
+        }
+
+        public IpRangeInfosTable build() {
+            int columnCount = keys.size();
+            boolean[] resultIntColumns = new boolean[columnCount];
+            int[][] resultColumns = new int[columnCount][];
+            for (int column = 0; column < columnCount; column++) {
+                resultIntColumns[column] = intColumns.get(column);
+                resultColumns[column] = trim(columns[column], size);
+            }
+            if (ipv6) {
+                return new IpRangeInfosTable(keys.toArray(new String[columnCount]), resultIntColumns, null, null,
+                    prefixes.length == 2 * size ? prefixes : Arrays.copyOf(prefixes, 2 * size),
+                    prefixLengths.length == size ? prefixLengths : Arrays.copyOf(prefixLengths, size),
+                    resultColumns, buildDictionaries(), new int[size], 0, new AttributeMap[0]);
+            }
+            return new IpRangeInfosTable(keys.toArray(new String[columnCount]), resultIntColumns,
+                trim(starts, size), trim(ends, size), null, null, resultColumns, buildDictionaries(),
+                new int[size], 0, new AttributeMap[0]);
+        }
+
+        private static int[] trim(int[] values, int size) {
+            return values.length == size ? values : Arrays.copyOf(values, size);
+        }
+    }
+}
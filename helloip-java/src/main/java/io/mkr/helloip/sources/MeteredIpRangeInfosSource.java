@@ -0,0 +1,12 @@
+package io.mkr.helloip.sources;
+
+/**
+ * A {@link IpRangeInfosSource} counting how much it read, e.g. for reporting the size of downloads per refresh.
+ */
+public interface MeteredIpRangeInfosSource extends IpRangeInfosSource {
+
+    /**
+     * @return the characters read from the resources of this source so far
+     */
+    long getCharsRead();
+}
@@ -0,0 +1,98 @@
+package io.mkr.helloip;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.mkr.helloip.base.Refreshable;
+import io.mkr.helloip.sources.IpRangeInfos;
+import net.ripe.commons.ip.Ipv4;
+import net.ripe.commons.ip.Ipv4Range;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class CachingIpInfoLookupTest {
+
+    @Test
+    public void testCachesUntilRefresh() throws Exception {
+        CountingLookup counting = new CountingLookup();
+        FakeRefreshable refreshable = new FakeRefreshable();
+        CachingIpInfoLookup cache = new CachingIpInfoLookup(counting, 64)
+                .invalidateOnRefresh(Collections.singletonList(refreshable));
+
+        IpInfos first = cache.infosFor(Ipv4.of("10.0.0.1"));
+        assertThat(first.infosFromProvider("ASN").getInfos().get("asn"), is("1"));
+        assertThat(cache.infosFor(Ipv4.of("10.0.0.1")), sameInstance(first));
+        assertThat(counting.lookups.get(), is(1));
+        assertTrue(cache.infosFor(Ipv4.of("11.0.0.1")).getProviderNames().isEmpty());
+        assertThat(counting.lookups.get(), is(2));
+
+        refreshable.refresh();
+        cache.infosFor(Ipv4.of("10.0.0.1"));
+        assertThat(counting.lookups.get(), is(3));
+    }
+
+    @Test
+    public void testKeepsHotIps() throws Exception {
+        CountingLookup counting = new CountingLookup();
+        CachingIpInfoLookup cache = new CachingIpInfoLookup(counting, 16);
+        int hot = Ipv4Addresses.toInt(Ipv4.of("10.0.0.1"));
+        for (int i = 0; i < 1000; i++) {
+            cache.infosFor(hot, new IpInfos(null));
+            cache.infosFor(hot + i + 1, new IpInfos(null));
+        }
+        // the hot IP is referenced between evictions, so it keeps its slot
+        assertThat(counting.lookups.get(), is(1001));
+    }
+
+    private static class CountingLookup implements IpInfoLookup {
+
+        private final AtomicInteger lookups = new AtomicInteger();
+
+        private final IpRangeInfos asn = new IpRangeInfos(Ipv4Range.parseCidr("10.0.0.0/8"),
+                Collections.singletonMap("asn", "1"));
+
+        @Override
+        public IpInfos infosFor(Ipv4 ipv4) {
+            IpInfos ipInfos = new IpInfos(ipv4);
+            infosFor(Ipv4Addresses.toInt(ipv4), ipInfos);
+            return ipInfos;
+        }
+
+        @Override
+        public void infosFor(int address, IpInfosSink sink) {
+            lookups.incrementAndGet();
+            if (asn.getRange().contains(Ipv4Addresses.toIpv4(address))) {
+                sink.accept("ASN", asn);
+            }
+        }
+
+        @Override
+        public void infosFor(int[] addresses, int length, IpInfos[] results) {
+            for (int i = 0; i < length; i++) {
+                results[i] = infosFor(Ipv4Addresses.toIpv4(addresses[i]));
+            }
+        }
+    }
+
+    private static class FakeRefreshable implements Refreshable {
+
+        private final List<Runnable> listeners = new ArrayList<>();
+
+        @Override
+        public void addRefreshListener(Runnable listener) {
+            listeners.add(listener);
+        }
+
+        void refresh() {
+            for (Runnable listener: listeners) {
+                listener.run();
+            }
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package io.mkr.helloip;
+
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.mkr.helloip.sources.IpRangeInfos;
+import net.ripe.commons.ip.Ipv4;
+import net.ripe.commons.ip.Ipv4Range;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class CompiledIpInfoLookupTest {
+
+    @Test
+    public void testCompiledLookupMatchesProviderLookup() throws Exception {
+        RangeBasedIpInfoProvider asn = new RangeBasedIpInfoProvider("ASN", Arrays.asList(
+                rangeInfos("10.0.0.0/8", "asn", "1"),
+                rangeInfos("11.0.0.0/16", "asn", "2")));
+        RangeBasedIpInfoProvider cloud = new RangeBasedIpInfoProvider("CLOUD", Arrays.asList(
+                rangeInfos("10.1.0.0/16", "region", "eu"),
+                rangeInfos("10.2.0.0/16", "region", "us"),
+                rangeInfos("12.0.0.0/8", "region", "ap")));
+        CompiledIpInfoLookup compiled = CompiledIpInfoLookup.compileProviders(Arrays.asList(asn, cloud));
+
+        // 10.0/16 (ASN), 10.1/16 (ASN+CLOUD), 10.2/16 (ASN+CLOUD), 10.3-10.255 (ASN), 11.0/16 (ASN), 12/8 (CLOUD)
+        assertThat(compiled.intervalCount(), is(6));
+        // the ASN only result is shared by the first and the fourth interval
+        assertThat(compiled.resultCount(), is(5));
+
+        IpInfoLookup uncompiled = new IpInfoLookupImpl(Arrays.asList(
+                com.google.common.base.Suppliers.<IpInfoProvider>ofInstance(asn),
+                com.google.common.base.Suppliers.<IpInfoProvider>ofInstance(cloud)));
+        for (String ip: Arrays.asList("9.255.255.255", "10.0.0.1", "10.1.0.1", "10.2.255.255", "10.3.0.0",
+                "10.255.255.255", "11.0.0.0", "11.1.0.0", "12.0.0.0", "12.255.255.255", "13.0.0.0")) {
+            IpInfos expected = uncompiled.infosFor(Ipv4.of(ip));
+            IpInfos actual = compiled.infosFor(Ipv4.of(ip));
+            assertThat(ip, actual.getProviderNames(), equalTo(expected.getProviderNames()));
+            for (String provider: expected.getProviderNames()) {
+                assertThat(ip, actual.infosFromProvider(provider).getInfos(),
+                        sameInstance(expected.infosFromProvider(provider).getInfos()));
+                assertThat(ip, actual.infosFromProvider(provider).getRange(),
+                        equalTo(expected.infosFromProvider(provider).getRange()));
+            }
+        }
+        assertThat(compiled.infosFor(Ipv4.of("10.0.0.1")), sameInstance(compiled.infosFor(Ipv4.of("10.200.0.1"))));
+        assertTrue(compiled.infosFor(Ipv4.of("13.0.0.0")).getProviderNames().isEmpty());
+
+        // the batch lookup of the providers matches their single lookups, in the order of the batch
+        List<String> batch = Arrays.asList("12.0.0.0", "10.1.0.1", "13.0.0.0", "10.0.0.1", "10.1.0.1");
+        int[] addresses = new int[batch.size()];
+        for (int i = 0; i < addresses.length; i++) {
+            addresses[i] = Ipv4Addresses.toInt(Ipv4.of(batch.get(i)));
+        }
+        IpInfos[] results = new IpInfos[addresses.length];
+        uncompiled.infosFor(addresses, addresses.length, results);
+        for (int i = 0; i < addresses.length; i++) {
+            IpInfos expected = uncompiled.infosFor(Ipv4.of(batch.get(i)));
+            assertThat(batch.get(i), results[i].getProviderNames(), equalTo(expected.getProviderNames()));
+            for (String provider: expected.getProviderNames()) {
+                assertThat(batch.get(i), results[i].infosFromProvider(provider),
+                        sameInstance(expected.infosFromProvider(provider)));
+            }
+        }
+    }
+
+    @Test
+    public void testPrimitiveLookupIntoSink() throws Exception {
+        IpRangeInfos asnInfos = rangeInfos("10.0.0.0/8", "asn", "1");
+        IpRangeInfos cloudInfos = rangeInfos("10.1.0.0/16", "region", "eu");
+        CompiledIpInfoLookup compiled = CompiledIpInfoLookup.compileProviders(Arrays.asList(
+                new RangeBasedIpInfoProvider("ASN", Collections.singletonList(asnInfos)),
+                new RangeBasedIpInfoProvider("CLOUD", Collections.singletonList(cloudInfos))));
+        final Map<String, IpRangeInfos> collected = new HashMap<>();
+        IpInfosSink sink = new IpInfosSink() {
+            @Override
+            public void accept(String providerName, IpRangeInfos infos) {
+                collected.put(providerName, infos);
+            }
+        };
+        compiled.infosFor(Ipv4Addresses.toInt(new byte[] {10, 1, 0, 1}, 0), sink);
+        assertThat(collected.size(), is(2));
+        assertThat(collected.get("ASN"), sameInstance(asnInfos));
+        assertThat(collected.get("CLOUD"), sameInstance(cloudInfos));
+
+        collected.clear();
+        compiled.infosFor(Ipv4Addresses.toInt(InetAddress.getByName("11.0.0.1")), sink);
+        assertTrue(collected.isEmpty());
+    }
+
+    @Test
+    public void testRangesEndingAtTheLastAddress() throws Exception {
+        RangeBasedIpInfoProvider all = new RangeBasedIpInfoProvider("ALL", Collections.singletonList(
+                rangeInfos("0.0.0.0/0", "all", "1")));
+        RangeBasedIpInfoProvider last = new RangeBasedIpInfoProvider("LAST", Arrays.asList(
+                rangeInfos("255.255.0.0/17", "last", "1"),
+                rangeInfos("255.255.255.255/32", "last", "2")));
+        CompiledIpInfoLookup compiled = CompiledIpInfoLookup.compileProviders(Arrays.asList(all, last));
+        IpInfoLookup uncompiled = new IpInfoLookupImpl(Arrays.asList(
+                com.google.common.base.Suppliers.<IpInfoProvider>ofInstance(all),
+                com.google.common.base.Suppliers.<IpInfoProvider>ofInstance(last)));
+        for (String ip: Arrays.asList("0.0.0.0", "255.254.255.255", "255.255.0.0", "255.255.128.0", "255.255.255.254",
+                "255.255.255.255")) {
+            IpInfos expected = uncompiled.infosFor(Ipv4.of(ip));
+            IpInfos actual = compiled.infosFor(Ipv4.of(ip));
+            assertThat(ip, actual.getProviderNames(), equalTo(expected.getProviderNames()));
+            for (String provider: expected.getProviderNames()) {
+                assertThat(ip, actual.infosFromProvider(provider).getInfos(),
+                        sameInstance(expected.infosFromProvider(provider).getInfos()));
+                assertThat(ip, actual.infosFromProvider(provider).getRange(),
+                        equalTo(expected.infosFromProvider(provider).getRange()));
+            }
+        }
+        assertThat(compiled.infosFor(Ipv4.of("255.255.255.255")).infoFromProvider("LAST", "last"), is("2"));
+    }
+
+    @Test
+    public void testSweepEventsKeepTheLargestPositionAndEntry() throws Exception {
+        long afterLast = 1L << 32;
+        int lastEntry = CompiledIpInfoLookup.MAX_ENTRIES - 1;
+        long event = CompiledIpInfoLookup.event(afterLast, lastEntry);
+        assertTrue(event > 0);
+        assertThat(CompiledIpInfoLookup.position(event), is(afterLast));
+        assertThat(CompiledIpInfoLookup.entry(event), is(lastEntry));
+        // events sort by position regardless of the entry
+        assertTrue(CompiledIpInfoLookup.event(afterLast - 1, lastEntry) < CompiledIpInfoLookup.event(afterLast, 0));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testSharedResultsAreUnmodifiable() throws Exception {
+        CompiledIpInfoLookup compiled = CompiledIpInfoLookup.compileProviders(Collections.singletonList(
+                new RangeBasedIpInfoProvider("ASN", Collections.singletonList(rangeInfos("10.0.0.0/8", "asn", "1")))));
+        compiled.infosFor(Ipv4.of("10.0.0.1")).add("OTHER", rangeInfos("10.0.0.0/8", "asn", "2"));
+    }
+
+    private static IpRangeInfos rangeInfos(String cidr, String key, String value) {
+        Map<String, String> infos = Collections.singletonMap(key, value);
+        return new IpRangeInfos(Ipv4Range.parseCidr(cidr), infos);
+    }
+}
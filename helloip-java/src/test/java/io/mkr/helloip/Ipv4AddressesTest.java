@@ -0,0 +1,37 @@
+package io.mkr.helloip;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import net.ripe.commons.ip.Ipv4;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class Ipv4AddressesTest {
+
+    @Test
+    public void testParsesDottedQuads() throws Exception {
+        for (String ip: new String[] {"0.0.0.0", "1.2.3.4", "10.0.0.255", "192.168.100.1", "255.255.255.255"}) {
+            long expected = Ipv4.of(ip).asBigInteger().longValue();
+            byte[] bytes = ("x" + ip + " -").getBytes(StandardCharsets.US_ASCII);
+            assertThat(Ipv4Addresses.parse(ip), is(expected));
+            assertThat(Ipv4Addresses.parse("x" + ip + " -", 1, ip.length() + 1), is(expected));
+            assertThat(Ipv4Addresses.parse(bytes, 1, ip.length() + 1), is(expected));
+            assertThat(Ipv4Addresses.parse(ByteBuffer.wrap(bytes), 1, ip.length() + 1), is(expected));
+        }
+        assertThat((int) Ipv4Addresses.parse("255.255.255.255"), is(-1));
+    }
+
+    @Test
+    public void testReturnsInvalidForMalformedInput() throws Exception {
+        for (String ip: new String[] {"", "1.2.3", "1.2.3.4.5", "1.2.3.256", "1..2.3", ".1.2.3", "1.2.3.", "1.2.3.0004",
+                "1.2.3.4 ", "a.b.c.d", "::1", "-1.2.3.4"}) {
+            byte[] bytes = ip.getBytes(StandardCharsets.US_ASCII);
+            assertThat(ip, Ipv4Addresses.parse(ip), is(Ipv4Addresses.INVALID));
+            assertThat(ip, Ipv4Addresses.parse(bytes, 0, bytes.length), is(Ipv4Addresses.INVALID));
+            assertThat(ip, Ipv4Addresses.parse(ByteBuffer.wrap(bytes), 0, bytes.length), is(Ipv4Addresses.INVALID));
+        }
+    }
+}
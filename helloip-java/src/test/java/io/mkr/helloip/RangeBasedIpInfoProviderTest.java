@@ -0,0 +1,111 @@
+package io.mkr.helloip;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import io.mkr.helloip.sources.IpRangeInfosConsumer;
+import net.ripe.commons.ip.Ipv4Range;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class RangeBasedIpInfoProviderTest {
+
+    private static final String NAME = "ASN";
+
+    @Test
+    public void testIncrementalBuildMatchesFullBuild() throws Exception {
+        List<String[]> ranges = new ArrayList<>(Arrays.asList(
+                new String[] {"1.0.0.0/24", "13335"},
+                new String[] {"1.0.4.0/22", "38803"},
+                new String[] {"1.0.0.0/8", "1"},
+                new String[] {"8.8.8.0/24", "15169"},
+                new String[] {"9.9.9.0/24", "19281"}));
+        IpInfoProvider first = build(RangeBasedIpInfoProvider.incrementalBuilder(NAME, null), ranges);
+        assertSameInfos(first, ranges);
+        assertThat(build(RangeBasedIpInfoProvider.incrementalBuilder(NAME, first), ranges), sameInstance(first));
+
+        // change a value, remove an enclosing range and add ranges out of order
+        ranges.set(1, new String[] {"1.0.4.0/22", "38804"});
+        ranges.remove(2);
+        ranges.add(1, new String[] {"2.0.0.0/16", "3215"});
+        ranges.add(new String[] {"1.0.8.0/24", "9999"});
+        IpInfoProvider patched = build(RangeBasedIpInfoProvider.incrementalBuilder(NAME, first), ranges);
+        assertThat(patched, not(sameInstance(first)));
+        assertSameInfos(patched, ranges);
+
+        // removing most ranges compacts the table
+        List<String[]> fewer = ranges.subList(0, 2);
+        IpInfoProvider compacted = build(RangeBasedIpInfoProvider.incrementalBuilder(NAME, patched), fewer);
+        assertSameInfos(compacted, fewer);
+        assertSameInfos(build(RangeBasedIpInfoProvider.incrementalBuilder(NAME, compacted), ranges), ranges);
+    }
+
+    @Test
+    public void testIncrementalOrderByStartMatchesFullBuild() throws Exception {
+        List<String[]> ranges = new ArrayList<>(Arrays.asList(
+                new String[] {"1.0.0.0/24", "13335"},
+                new String[] {"8.8.8.0/24", "15169"}));
+        RangeInfosSnapshot first = snapshot(null, ranges);
+
+        // new ranges starting where kept ones start, streamed before and after them
+        ranges.add(0, new String[] {"1.0.0.0/16", "1"});
+        ranges.add(new String[] {"8.8.8.0/23", "2"});
+        RangeInfosSnapshot patched = snapshot(first, ranges);
+        RangeInfosSnapshot full = snapshot(null, ranges);
+        assertThat(patched, not(sameInstance(full)));
+        assertThat(sortedRanges(patched), equalTo(sortedRanges(full)));
+    }
+
+    private static RangeInfosSnapshot snapshot(RangeInfosSnapshot previous, List<String[]> ranges) {
+        RangeInfosSnapshot.Builder builder = RangeInfosSnapshot.builder(previous);
+        stream(builder, ranges);
+        return builder.build();
+    }
+
+    private static List<String> sortedRanges(RangeInfosSnapshot snapshot) {
+        List<String> ranges = new ArrayList<>();
+        for (int row: snapshot.sortedRows) {
+            ranges.add(snapshot.table.get(row).getRange() + " " + snapshot.table.get(row).getInfos());
+        }
+        return ranges;
+    }
+
+    private static RangeBasedIpInfoProvider build(RangeBasedIpInfoProvider.Builder builder, List<String[]> ranges) {
+        stream(builder, ranges);
+        return builder.build();
+    }
+
+    private static void stream(IpRangeInfosConsumer consumer, List<String[]> ranges) {
+        consumer.stringColumn("asn");
+        for (String[] range: ranges) {
+            consumer.addRow(Ipv4Range.parseCidr(range[0])).setString(0, range[1]);
+        }
+    }
+
+    private static void assertSameInfos(IpInfoProvider provider, List<String[]> ranges) {
+        IpInfoProvider expected = build(RangeBasedIpInfoProvider.builder(NAME), ranges);
+        List<Long> addresses = new ArrayList<>();
+        for (String[] range: ranges) {
+            Ipv4Range ipv4Range = Ipv4Range.parseCidr(range[0]);
+            long start = ipv4Range.start().asBigInteger().longValue();
+            long end = ipv4Range.end().asBigInteger().longValue();
+            addresses.addAll(Arrays.asList(start - 1, start, start + 1, end - 1, end, end + 1));
+        }
+        for (long address: addresses) {
+            IpInfos expectedInfos = new IpInfos(null);
+            expected.add((int) address, expectedInfos);
+            IpInfos infos = new IpInfos(null);
+            provider.add((int) address, infos);
+            assertThat(Ipv4Addresses.toIpv4((int) address).toString(), asn(infos), equalTo(asn(expectedInfos)));
+        }
+    }
+
+    private static String asn(IpInfos infos) {
+        return infos.hasAnyFrom(NAME) ? infos.infoFromProvider(NAME, "asn") : null;
+    }
+}
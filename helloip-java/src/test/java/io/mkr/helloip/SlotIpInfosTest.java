@@ -0,0 +1,128 @@
+package io.mkr.helloip;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import io.mkr.helloip.metrics.IpInfoMetrics;
+import io.mkr.helloip.sources.IpRangeInfos;
+import net.ripe.commons.ip.Ipv4;
+import net.ripe.commons.ip.Ipv4Range;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class SlotIpInfosTest {
+
+    @Test
+    public void testAspectsFillTheSlotOfTheirSource() throws Exception {
+        ProviderHandles handles = new ProviderHandles();
+        int thyme = handles.handle("THYME");
+        long clouds = handles.mask("AWS", "AZURE");
+        int ec2 = handles.handle("AWS:EC2");
+        int aws = handles.handle("AWS");
+        assertThat(handles.size(), is(4));
+        assertThat(handles.bits(ec2), is(1L << ec2 | 1L << aws));
+        assertThat(handles.withSources(1L << ec2), is(1L << ec2 | 1L << aws));
+
+        SlotIpInfos infos = new SlotIpInfos(handles);
+        IpRangeInfos asnInfos = rangeInfos("10.0.0.0/8", "asn", "1");
+        infos.accept("THYME", asnInfos);
+        assertFalse(infos.hasAny(clouds));
+        assertThat(infos.info(thyme, "asn"), is("1"));
+        assertThat(infos.info(aws, "service"), nullValue());
+
+        IpRangeInfos ec2Infos = rangeInfos("10.1.0.0/16", "service", "EC2");
+        infos.accept("AWS:EC2", ec2Infos);
+        infos.accept("AWS:AMAZON", rangeInfos("10.0.0.0/12", "service", "AMAZON"));
+        assertTrue(infos.hasAny(clouds));
+        assertTrue(infos.has(ec2));
+        assertThat(infos.infos(aws), sameInstance(ec2Infos));
+
+        final Map<String, IpRangeInfos> copied = new HashMap<>();
+        infos.copyTo(new IpInfosSink() {
+            @Override
+            public void accept(String providerName, IpRangeInfos infos) {
+                copied.put(providerName, infos);
+            }
+        });
+        assertThat(copied.keySet(), equalTo((Set<String>) new HashSet<>(Arrays.asList("THYME", "AWS:EC2",
+                "AWS:AMAZON"))));
+
+        infos.clear();
+        assertThat(infos.mask(), is(0L));
+        assertThat(infos.infos(thyme), nullValue());
+    }
+
+    @Test
+    public void testMaskedLookupSkipsOtherSuppliers() throws Exception {
+        RangeBasedIpInfoProvider asn = new RangeBasedIpInfoProvider("ASN", Collections.singletonList(
+                rangeInfos("10.0.0.0/8", "asn", "1")));
+        RangeBasedIpInfoProvider cloud = new RangeBasedIpInfoProvider("CLOUD", Collections.singletonList(
+                rangeInfos("10.1.0.0/16", "region", "eu")));
+        ProviderHandles handles = new ProviderHandles();
+        IpInfoLookupImpl lookup = new IpInfoLookupImpl(Arrays.asList(
+                com.google.common.base.Suppliers.<IpInfoProvider>ofInstance(asn),
+                com.google.common.base.Suppliers.<IpInfoProvider>ofInstance(cloud)),
+                Arrays.asList("ASN", "CLOUD"), IpInfoMetrics.NONE, handles);
+        int address = Ipv4Addresses.toInt(Ipv4.of("10.1.0.1"));
+
+        SlotIpInfos infos = new SlotIpInfos(handles);
+        lookup.infosFor(address, handles.mask("CLOUD"), infos);
+        assertThat(infos.mask(), is(handles.mask("CLOUD")));
+
+        infos.clear();
+        lookup.infosFor(address, infos);
+        assertThat(infos.mask(), is(handles.mask("ASN", "CLOUD")));
+    }
+
+    @Test
+    public void testNamesPastTheLimitFallBack() throws Exception {
+        ProviderHandles handles = new ProviderHandles();
+        int aws = handles.handle("AWS");
+        for (int i = 1; i < ProviderHandles.MAX_HANDLES; i++) {
+            handles.handle("P" + i);
+        }
+        assertThat(handles.handle("AWS:EC2"), is(aws));
+        assertThat(handles.handle("OTHER"), is(ProviderHandles.NO_HANDLE));
+        assertThat(handles.mask("OTHER"), is(0L));
+        assertThat(handles.size(), is(ProviderHandles.MAX_HANDLES));
+
+        SlotIpInfos infos = new SlotIpInfos(handles);
+        IpRangeInfos ec2Infos = rangeInfos("10.1.0.0/16", "service", "EC2");
+        infos.accept("OTHER", rangeInfos("10.0.0.0/8", "asn", "1"));
+        assertThat(infos.mask(), is(0L));
+        infos.accept("AWS:EC2", ec2Infos);
+        assertThat(infos.infos(aws), sameInstance(ec2Infos));
+    }
+
+    @Test
+    public void testProvidersPassTheirHandle() throws Exception {
+        RangeBasedIpInfoProvider cloud = new RangeBasedIpInfoProvider("CLOUD", Collections.singletonList(
+                rangeInfos("10.1.0.0/16", "region", "eu")));
+        int address = Ipv4Addresses.toInt(Ipv4.of("10.1.0.1"));
+        ProviderHandles other = new ProviderHandles();
+        other.handle("ASN");
+        // the handle differs between the instances
+        for (ProviderHandles handles: Arrays.asList(new ProviderHandles(), other)) {
+            SlotIpInfos infos = new SlotIpInfos(handles);
+            cloud.add(address, infos);
+            assertThat(infos.mask(), is(handles.mask("CLOUD")));
+            assertThat(infos.info(handles.handle("CLOUD"), "region"), is("eu"));
+        }
+    }
+
+    private static IpRangeInfos rangeInfos(String cidr, String key, String value) {
+        Map<String, String> infos = Collections.singletonMap(key, value);
+        return new IpRangeInfos(Ipv4Range.parseCidr(cidr), infos);
+    }
+}
@@ -0,0 +1,259 @@
+package io.mkr.helloip.base;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.base.Supplier;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class RefreshCoordinatorTest {
+
+    private final ExecutorService workers = Executors.newFixedThreadPool(2);
+    private final ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1);
+
+    @After
+    public void tearDown() throws Exception {
+        workers.shutdownNow();
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void testRefreshesConcurrentlyAndKeepsValueOfFailingDelegate() throws Exception {
+        // each delegate waits for the other one, so a sequential refresh would time out
+        final CyclicBarrier barrier = new CyclicBarrier(2);
+        final AtomicInteger calls = new AtomicInteger();
+        Supplier<String> failingLater = new Supplier<String>() {
+            @Override
+            public String get() {
+                if (calls.incrementAndGet() > 1) {
+                    throw new IllegalStateException("Failed");
+                }
+                await(barrier);
+                return "a1";
+            }
+        };
+        Supplier<String> counting = new Supplier<String>() {
+            private int count = 0;
+
+            @Override
+            public String get() {
+                if (count == 0) {
+                    await(barrier);
+                }
+                return "b" + ++count;
+            }
+        };
+        RefreshCoordinator<String> coordinator = new RefreshCoordinator<>(Arrays.asList(failingLater, counting),
+                workers, 1, TimeUnit.HOURS, scheduler);
+        // notified for each first value and once for the second refresh
+        final CountDownLatch refreshed = new CountDownLatch(3);
+        coordinator.addRefreshListener(new Runnable() {
+            @Override
+            public void run() {
+                refreshed.countDown();
+            }
+        });
+        List<Supplier<String>> suppliers = coordinator.suppliers();
+
+        assertTrue(waitFor(refreshed, 1));
+        assertThat(suppliers.get(0).get(), is("a1"));
+        assertThat(suppliers.get(1).get(), is("b1"));
+
+        coordinator.refresh();
+        assertThat(refreshed.getCount(), is(0L));
+        assertThat(suppliers.get(0).get(), is("a1"));
+        assertThat(suppliers.get(1).get(), is("b2"));
+    }
+
+    @Test
+    public void testPublishesFirstValuesAsSoonAsTheyAreReady() throws Exception {
+        final CountDownLatch slowReleased = new CountDownLatch(1);
+        Supplier<String> fast = new Supplier<String>() {
+            @Override
+            public String get() {
+                return "fast";
+            }
+        };
+        Supplier<String> slow = new Supplier<String>() {
+            @Override
+            public String get() {
+                try {
+                    slowReleased.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return "slow";
+            }
+        };
+        RefreshCoordinator<String> coordinator = new RefreshCoordinator<>(Arrays.asList(fast, slow),
+                workers, 1, TimeUnit.HOURS, scheduler);
+        List<Supplier<String>> suppliers = coordinator.suppliers();
+
+        assertThat(coordinator.ready(0).get(5, TimeUnit.SECONDS), is("fast"));
+        assertThat(suppliers.get(0).get(), is("fast"));
+        assertThat(suppliers.get(1).get(), is(nullValue()));
+        assertFalse(coordinator.allReady().isDone());
+
+        slowReleased.countDown();
+        assertThat(coordinator.allReady().get(5, TimeUnit.SECONDS), is(Arrays.asList("fast", "slow")));
+        assertThat(suppliers.get(1).get(), is("slow"));
+    }
+
+    @Test
+    public void testRefreshesOneByOneUntilHeapNeedsAreKnown() throws Exception {
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        Supplier<String> tracking = new Supplier<String>() {
+            @Override
+            public String get() {
+                int now = running.incrementAndGet();
+                maxRunning.set(Math.max(maxRunning.get(), now));
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                running.decrementAndGet();
+                return new String("value");
+            }
+        };
+        RefreshCoordinator<String> coordinator = new RefreshCoordinator<>(Arrays.asList(tracking, tracking),
+                workers, 64L << 20, 1, TimeUnit.HOURS, scheduler);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (coordinator.lastRefreshPeakHeapBytes() < 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertThat(maxRunning.get(), is(1));
+        assertTrue(coordinator.lastRefreshPeakHeapBytes() > 0);
+    }
+
+    @Test
+    public void testRefreshesConcurrentlyOnceSizesAreKnown() throws Exception {
+        // each delegate waits for the other one after the first refresh, so a sequential refresh would time out
+        final CyclicBarrier barrier = new CyclicBarrier(2);
+        final AtomicInteger calls = new AtomicInteger();
+        Supplier<Sized> small = new Supplier<Sized>() {
+            @Override
+            public Sized get() {
+                if (calls.incrementAndGet() > 2) {
+                    await(barrier);
+                }
+                return new Sized() {
+                    @Override
+                    public long sizeInBytes() {
+                        return 1L << 20;
+                    }
+                };
+            }
+        };
+        RefreshCoordinator<Sized> coordinator = new RefreshCoordinator<>(Arrays.asList(small, small),
+                workers, 64L << 20, 1, TimeUnit.HOURS, scheduler);
+        assertThat(coordinator.allReady().get(5, TimeUnit.SECONDS).size(), is(2));
+        Sized first = coordinator.suppliers().get(0).get();
+
+        coordinator.refresh();
+        assertThat(calls.get(), is(4));
+        assertThat(coordinator.suppliers().get(0).get(), not(sameInstance(first)));
+    }
+
+    @Test
+    public void testNullValueFailsReadyAndKeepsPreviousValue() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        Supplier<String> nullFirst = new Supplier<String>() {
+            @Override
+            public String get() {
+                int call = calls.incrementAndGet();
+                return call % 2 == 1 ? null : "value" + call;
+            }
+        };
+        RefreshCoordinator<String> coordinator = new RefreshCoordinator<>(Arrays.asList(nullFirst),
+                workers, 1, TimeUnit.HOURS, scheduler);
+        try {
+            coordinator.ready(0).get(5, TimeUnit.SECONDS);
+            throw new AssertionError("Ready with null");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause(), instanceOf(NullPointerException.class));
+        }
+        assertThat(coordinator.suppliers().get(0).get(), is(nullValue()));
+
+        coordinator.refresh();
+        assertThat(coordinator.suppliers().get(0).get(), is("value2"));
+        coordinator.refresh();
+        assertThat(coordinator.suppliers().get(0).get(), is("value2"));
+    }
+
+    @Test
+    public void testKeepsRefreshingAfterCancelledRefresh() throws Exception {
+        final AtomicBoolean cancelNext = new AtomicBoolean(true);
+        ExecutorService cancelling = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>()) {
+            @Override
+            public <V> Future<V> submit(Callable<V> task) {
+                if (cancelNext.compareAndSet(true, false)) {
+                    FutureTask<V> cancelled = new FutureTask<>(task);
+                    cancelled.cancel(true);
+                    return cancelled;
+                }
+                return super.submit(task);
+            }
+        };
+        final AtomicInteger calls = new AtomicInteger();
+        Supplier<String> counting = new Supplier<String>() {
+            @Override
+            public String get() {
+                return "value" + calls.incrementAndGet();
+            }
+        };
+        try {
+            new RefreshCoordinator<>(Arrays.asList(counting), cancelling, 10, TimeUnit.MILLISECONDS, scheduler);
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (calls.get() < 2 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertTrue(calls.get() >= 2);
+        } finally {
+            cancelling.shutdownNow();
+        }
+    }
+
+    private static boolean waitFor(CountDownLatch latch, long remaining) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (latch.getCount() > remaining && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        return latch.getCount() == remaining;
+    }
+
+    private static void await(CyclicBarrier barrier) {
+        try {
+            barrier.await(5, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package io.mkr.helloip.index;
+
+import java.util.Random;
+
+import net.ripe.commons.ip.Ipv4;
+import net.ripe.commons.ip.Ipv4Range;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class Ipv4IndexEngineTest {
+
+    @Test
+    public void testMostSpecificPrefixWins() throws Exception {
+        for (Ipv4IndexEngine engine: new Ipv4IndexEngine[] {Ipv4IndexEngine.LONGEST_PREFIX_MATCH, Ipv4IndexEngine.DIR_24_8}) {
+            Ipv4Index.Builder builder = engine.builder(8);
+            add(builder, "10.0.0.0/8", 0);
+            add(builder, "10.1.0.0/16", 1);
+            add(builder, "10.1.1.0/24", 2);
+            add(builder, "10.1.1.128/25", 3);
+            // identical range: first one wins
+            add(builder, "10.1.0.0/16", 4);
+            // partial overlap: the smaller range wins where they overlap
+            builder.add(address("10.255.255.0") & 0xFFFFFFFFL, address("11.0.0.127") & 0xFFFFFFFFL, 5);
+            add(builder, "0.0.0.0/0", 6);
+            Ipv4Index index = builder.build();
+            assertThat(engine.toString(), index.find(address("10.0.0.1")), is(0));
+            assertThat(index.find(address("10.1.0.1")), is(1));
+            assertThat(index.find(address("10.1.1.1")), is(2));
+            assertThat(index.find(address("10.1.1.200")), is(3));
+            assertThat(index.find(address("10.1.2.0")), is(1));
+            assertThat(index.find(address("10.2.0.0")), is(0));
+            assertThat(index.find(address("10.255.254.255")), is(0));
+            assertThat(index.find(address("10.255.255.0")), is(5));
+            assertThat(index.find(address("11.0.0.127")), is(5));
+            assertThat(index.find(address("11.0.0.128")), is(6));
+            assertThat(index.find(address("255.255.255.255")), is(6));
+            // the disjoint intervals are enumerated in order
+            assertThat(index.start(0), is(0L));
+            assertThat(index.end(index.size() - 1), is(0xFFFFFFFFL));
+            for (int i = 1; i < index.size(); i++) {
+                assertThat(index.start(i), is(index.end(i - 1) + 1));
+            }
+        }
+    }
+
+    @Test
+    public void testEnginesMatchBruteForce() throws Exception {
+        Random random = new Random(42);
+        long[][] prefixes = new long[2000][];
+        for (int i = 0; i < prefixes.length; i++) {
+            // prefixes within 10.0.0.0/12, so many of them nest
+            int length = 12 + random.nextInt(21);
+            long start = ((address("10.0.0.0") & 0xFFFFFFFFL) + random.nextInt(1 << 20)) >> (32 - length) << (32 - length);
+            prefixes[i] = new long[] {start, start + (1L << (32 - length)) - 1};
+        }
+        Ipv4Index.Builder longestPrefixMatch = Ipv4IndexEngine.LONGEST_PREFIX_MATCH.builder(16);
+        Ipv4Index.Builder dir248 = Ipv4IndexEngine.DIR_24_8.builder(16);
+        for (int i = 0; i < prefixes.length; i++) {
+            longestPrefixMatch.add(prefixes[i][0], prefixes[i][1], i);
+            dir248.add(prefixes[i][0], prefixes[i][1], i);
+        }
+        Ipv4Index longestPrefixMatchIndex = longestPrefixMatch.build();
+        Ipv4Index dir248Index = dir248.build();
+        for (int i = 0; i < 20000; i++) {
+            long address = (address("10.0.0.0") & 0xFFFFFFFFL) + random.nextInt(1 << 20) - 1000;
+            int expected = Ipv4Index.NO_PAYLOAD;
+            long expectedSize = Long.MAX_VALUE;
+            for (int p = 0; p < prefixes.length; p++) {
+                long size = prefixes[p][1] - prefixes[p][0];
+                if (prefixes[p][0] <= address && address <= prefixes[p][1] && size < expectedSize) {
+                    expected = p;
+                    expectedSize = size;
+                }
+            }
+            assertThat(longestPrefixMatchIndex.find((int) address), is(expected));
+            assertThat(dir248Index.find((int) address), is(expected));
+        }
+    }
+
+    private static void add(Ipv4Index.Builder builder, String cidr, int payloadId) {
+        Ipv4Range range = Ipv4Range.parseCidr(cidr);
+        builder.add(range.start().asBigInteger().longValue(), range.end().asBigInteger().longValue(), payloadId);
+    }
+
+    private static int address(String ip) {
+        return (int) Ipv4.of(ip).asBigInteger().longValue();
+    }
+}
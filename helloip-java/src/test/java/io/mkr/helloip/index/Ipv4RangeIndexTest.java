@@ -0,0 +1,81 @@
+package io.mkr.helloip.index;
+
+import java.util.Random;
+
+import net.ripe.commons.ip.Ipv4;
+import net.ripe.commons.ip.Ipv4Range;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class Ipv4RangeIndexTest {
+
+    @Test
+    public void testFindsContainingRange() throws Exception {
+        Ipv4RangeIndex index = Ipv4RangeIndex.builder()
+                .add(Ipv4Range.parseCidr("200.0.0.0/8"), 2)
+                .add(Ipv4Range.parseCidr("10.0.0.0/8"), 0)
+                .add(Ipv4Range.parseCidr("255.255.255.0/24"), 3)
+                .add(Ipv4Range.parseCidr("127.0.0.0/8"), 1)
+                .build();
+        assertThat(index.size(), is(4));
+        assertThat(index.find(address("10.1.2.3")), is(0));
+        assertThat(index.find(address("127.255.255.255")), is(1));
+        assertThat(index.find(address("200.0.0.0")), is(2));
+        assertThat(index.find(address("255.255.255.255")), is(3));
+        assertThat(index.find(address("0.0.0.0")), is(Ipv4RangeIndex.NO_PAYLOAD));
+        assertThat(index.find(address("128.0.0.0")), is(Ipv4RangeIndex.NO_PAYLOAD));
+        assertThat(index.start(0), is(Ipv4.of("10.0.0.0").asBigInteger().longValue()));
+        assertThat(index.end(3), is(Ipv4.LAST_IPV4_ADDRESS.asBigInteger().longValue()));
+    }
+
+    @Test
+    public void testOverlapResolution() throws Exception {
+        Ipv4RangeIndex index = Ipv4RangeIndex.builder()
+                .add(Ipv4Range.parseCidr("10.0.0.0/16"), 0)
+                // enclosed by an existing range: skipped
+                .add(Ipv4Range.parseCidr("10.0.1.0/24"), 1)
+                // encloses an existing range with the same start: replaces it
+                .add(Ipv4Range.parseCidr("10.0.0.0/8"), 2)
+                // identical range: first one wins
+                .add(Ipv4Range.parseCidr("10.0.0.0/8"), 3)
+                // partial overlap: skipped
+                .add(Ipv4Range.parse("10.255.0.0-11.0.255.255"), 4)
+                .add(Ipv4Range.parseCidr("11.1.0.0/16"), 5)
+                .build();
+        assertThat(index.size(), is(2));
+        assertThat(index.find(address("10.0.1.1")), is(2));
+        assertThat(index.find(address("11.0.0.1")), is(Ipv4RangeIndex.NO_PAYLOAD));
+        assertThat(index.find(address("11.1.0.1")), is(5));
+    }
+
+    @Test
+    public void testBatchLookupMatchesSingleLookups() throws Exception {
+        Ipv4RangeIndex.Builder builder = Ipv4RangeIndex.builder();
+        for (int i = 0; i < 1000; i++) {
+            // every other /24 starting at 10.0.0.0
+            long start = (address("10.0.0.0") & 0xFFFFFFFFL) + i * 512;
+            builder.add(start, start + 255, i);
+        }
+        builder.add(Ipv4Range.parseCidr("255.0.0.0/8"), 1000);
+        Ipv4RangeIndex index = builder.build();
+
+        Random random = new Random(42);
+        int[] addresses = new int[10000];
+        for (int i = 0; i < addresses.length; i++) {
+            addresses[i] = random.nextBoolean() ? address("10.0.0.0") + random.nextInt(1 << 20) : random.nextInt();
+        }
+        addresses[0] = -1;
+        int[] results = new int[addresses.length];
+        index.findAll(addresses, addresses.length, results);
+        for (int i = 0; i < addresses.length; i++) {
+            assertThat(index.find(addresses[i]), is(results[i]));
+        }
+        assertThat(results[0], is(1000));
+    }
+
+    private static int address(String ip) {
+        return (int) Ipv4.of(ip).asBigInteger().longValue();
+    }
+}
@@ -0,0 +1,111 @@
+package io.mkr.helloip.index;
+
+import java.util.Random;
+
+import com.google.common.net.InetAddresses;
+import io.mkr.helloip.Ipv6Addresses;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class Ipv6RangeIndexTest {
+
+    @Test
+    public void testMostSpecificPrefixWins() throws Exception {
+        Ipv6RangeIndex.Builder builder = Ipv6RangeIndex.builder(8);
+        add(builder, "2001:db8::", 32, 0);
+        add(builder, "2001:db8:1::", 48, 1);
+        add(builder, "2001:db8:1::", 64, 2);
+        add(builder, "2001:db8:1::8000:0:0:0", 65, 3);
+        add(builder, "2001:db8:1::1", 128, 4);
+        // identical prefix: first one wins
+        add(builder, "2001:db8:1::", 48, 5);
+        add(builder, "::", 0, 6);
+        Ipv6RangeIndex index = builder.build();
+        assertThat(find(index, "2001:db8::1"), is(0));
+        assertThat(find(index, "2001:db8:1::"), is(2));
+        assertThat(find(index, "2001:db8:1::1"), is(4));
+        assertThat(find(index, "2001:db8:1::2"), is(2));
+        assertThat(find(index, "2001:db8:1:0:7fff:ffff:ffff:ffff"), is(2));
+        assertThat(find(index, "2001:db8:1:0:8000::"), is(3));
+        assertThat(find(index, "2001:db8:1:0:ffff:ffff:ffff:ffff"), is(3));
+        assertThat(find(index, "2001:db8:1:1::"), is(1));
+        assertThat(find(index, "2001:db8:ffff:ffff:ffff:ffff:ffff:ffff"), is(0));
+        assertThat(find(index, "2001:db9::"), is(6));
+        assertThat(find(index, "::"), is(6));
+        assertThat(find(index, "ffff:ffff:ffff:ffff:ffff:ffff:ffff:ffff"), is(6));
+        // the disjoint ranges cover everything in order
+        assertThat(index.startHigh(0), is(0L));
+        assertThat(index.startLow(0), is(0L));
+        assertThat(index.endHigh(index.size() - 1), is(-1L));
+        assertThat(index.endLow(index.size() - 1), is(-1L));
+        for (int i = 1; i < index.size(); i++) {
+            long endLow = index.endLow(i - 1);
+            assertThat(index.startLow(i), is(endLow + 1));
+            assertThat(index.startHigh(i), is(endLow == -1L ? index.endHigh(i - 1) + 1 : index.endHigh(i - 1)));
+        }
+    }
+
+    @Test
+    public void testNestedPrefixAtFirstAddress() throws Exception {
+        Ipv6RangeIndex index = Ipv6RangeIndex.builder(2).add(0, 0, 0, 1).add(0, 0, 8, 2).build();
+        assertThat(index.size(), is(2));
+        assertThat(index.startHigh(0), is(0L));
+        assertThat(index.startLow(0), is(0L));
+        assertThat(index.endHigh(0), is(0x00ffffffffffffffL));
+        assertThat(index.endLow(0), is(-1L));
+        assertThat(index.payloadId(0), is(2));
+        assertThat(index.startHigh(1), is(0x0100000000000000L));
+        assertThat(index.startLow(1), is(0L));
+        assertThat(index.endHigh(1), is(-1L));
+        assertThat(index.endLow(1), is(-1L));
+        assertThat(index.payloadId(1), is(1));
+    }
+
+    @Test
+    public void testMatchesBruteForce() throws Exception {
+        Random random = new Random(42);
+        long base = Ipv6Addresses.high(InetAddresses.forString("2001:db8::"));
+        long[][] prefixes = new long[2000][];
+        for (int i = 0; i < prefixes.length; i++) {
+            // prefixes within 2001:db8::/32 differing in the last bits of both halves, so many of them nest
+            int length = 32 + random.nextInt(97);
+            long high = base | (random.nextLong() & 0xFL) << 28 | random.nextInt(2);
+            long low = random.nextInt(4) | (long) random.nextInt(2) << 63;
+            high &= ~Ipv6Addresses.hostMaskHigh(length);
+            low &= ~Ipv6Addresses.hostMaskLow(length);
+            prefixes[i] = new long[] {high, low, length};
+        }
+        Ipv6RangeIndex.Builder builder = Ipv6RangeIndex.builder(16);
+        for (int i = 0; i < prefixes.length; i++) {
+            builder.add(prefixes[i][0], prefixes[i][1], (int) prefixes[i][2], i);
+        }
+        Ipv6RangeIndex index = builder.build();
+        for (int i = 0; i < 20000; i++) {
+            long high = base | (random.nextLong() & 0xFL) << 28 | random.nextInt(3);
+            long low = random.nextInt(5) | (long) random.nextInt(2) << 63;
+            int expected = Ipv6RangeIndex.NO_PAYLOAD;
+            long expectedLength = -1;
+            for (int p = 0; p < prefixes.length; p++) {
+                int length = (int) prefixes[p][2];
+                boolean contains = (high & ~Ipv6Addresses.hostMaskHigh(length)) == prefixes[p][0]
+                    && (low & ~Ipv6Addresses.hostMaskLow(length)) == prefixes[p][1];
+                if (contains && length > expectedLength) {
+                    expected = p;
+                    expectedLength = length;
+                }
+            }
+            assertThat(index.find(high, low), is(expected));
+        }
+    }
+
+    private static void add(Ipv6RangeIndex.Builder builder, String prefix, int length, int payloadId) {
+        builder.add(Ipv6Addresses.high(InetAddresses.forString(prefix)), Ipv6Addresses.low(InetAddresses.forString(prefix)),
+            length, payloadId);
+    }
+
+    private static int find(Ipv6RangeIndex index, String ip) {
+        return index.find(Ipv6Addresses.high(InetAddresses.forString(ip)), Ipv6Addresses.low(InetAddresses.forString(ip)));
+    }
+}
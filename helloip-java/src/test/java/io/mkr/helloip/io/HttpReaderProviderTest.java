@@ -0,0 +1,112 @@
+package io.mkr.helloip.io;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class HttpReaderProviderTest {
+
+    private static final String ETAG = "\"v1\"";
+    private static final String BODY = "1.0.0.0/24\t13335";
+
+    private final AtomicInteger bodiesSent = new AtomicInteger();
+    private final AtomicBoolean largeBodySent = new AtomicBoolean();
+    private final CountDownLatch largeBodyDone = new CountDownLatch(1);
+    private HttpServer server;
+    private String location;
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/ranges", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.getResponseHeaders().set("ETag", ETAG);
+                if (ETAG.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                    exchange.sendResponseHeaders(304, -1);
+                    exchange.close();
+                    return;
+                }
+                boolean gzip = String.valueOf(exchange.getRequestHeaders().getFirst("Accept-Encoding")).contains("gzip");
+                if (gzip) {
+                    exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+                }
+                // counted before the client can read it
+                bodiesSent.incrementAndGet();
+                exchange.sendResponseHeaders(200, 0);
+                try (OutputStream out = gzip ? new GZIPOutputStream(exchange.getResponseBody()) : exchange.getResponseBody()) {
+                    out.write(BODY.getBytes(StandardCharsets.US_ASCII));
+                }
+            }
+        });
+        server.createContext("/large", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                byte[] line = (BODY + "\n").getBytes(StandardCharsets.US_ASCII);
+                exchange.sendResponseHeaders(200, 0);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    for (int i = 0; i < 10000000; i++) {
+                        out.write(line);
+                    }
+                    largeBodySent.set(true);
+                } finally {
+                    largeBodyDone.countDown();
+                }
+            }
+        });
+        server.start();
+        location = "http://127.0.0.1:" + server.getAddress().getPort() + "/ranges";
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.stop(0);
+    }
+
+    @Test
+    public void testConditionalCompressedRequests() throws Exception {
+        HttpReaderProvider provider = new HttpReaderProvider(location);
+        String version;
+        try (VersionedReader reader = provider.createReaderIfChanged(null)) {
+            assertThat(new BufferedReader(reader).readLine(), equalTo(BODY));
+            version = reader.getVersion();
+        }
+        assertThat(version, equalTo("etag:" + ETAG));
+        assertThat(provider.createReaderIfChanged(version), nullValue());
+        assertThat(bodiesSent.get(), is(1));
+
+        try (BufferedReader reader = new BufferedReader(provider.createReader())) {
+            assertThat(reader.readLine(), equalTo(BODY));
+        }
+        assertThat(bodiesSent.get(), is(2));
+    }
+
+    @Test
+    public void testClosingAbortsTheBody() throws Exception {
+        HttpReaderProvider provider = new HttpReaderProvider(location.replace("/ranges", "/large"));
+        try (BufferedReader reader = new BufferedReader(provider.createReader())) {
+            assertThat(reader.readLine(), equalTo(BODY));
+        }
+        assertThat(largeBodyDone.await(10, TimeUnit.SECONDS), is(true));
+        assertThat(largeBodySent.get(), is(false));
+    }
+}
@@ -0,0 +1,113 @@
+package io.mkr.helloip.metrics;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import io.mkr.helloip.IpInfoLookupImpl;
+import io.mkr.helloip.IpInfoProvider;
+import io.mkr.helloip.MultiAspectIpInfoProviderSupplier;
+import io.mkr.helloip.SourcingIpInfoProviderSupplier;
+import io.mkr.helloip.sources.IpRangeInfos;
+import io.mkr.helloip.sources.IpRangeInfosConsumer;
+import io.mkr.helloip.sources.IpRangeInfosSource;
+import io.mkr.helloip.sources.IpRangeInfosTable;
+import net.ripe.commons.ip.Ipv4;
+import net.ripe.commons.ip.Ipv4Range;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RecordingIpInfoMetricsTest {
+
+    @Test
+    public void testRecordsLookupsAndRefreshes() {
+        RecordingIpInfoMetrics metrics = new RecordingIpInfoMetrics();
+        SourcingIpInfoProviderSupplier supplier = new SourcingIpInfoProviderSupplier(
+            new FakeSource(Arrays.asList("1.0.0.0/24", "2.0.0.0/16")));
+        supplier.setMetrics(metrics);
+        IpInfoProvider provider = supplier.get();
+
+        RecordingIpInfoMetrics.SourceStats source = metrics.getSources().get(FakeSource.NAME);
+        assertThat(source.getRefreshes(), is(1L));
+        assertThat(source.getChanges(), is(1L));
+        assertThat(source.getRanges(), is(2));
+        assertTrue(source.getSizeInBytes() > 0);
+        assertTrue(source.getAgeMillis() >= 0);
+
+        List<Supplier<IpInfoProvider>> suppliers = Collections.singletonList(Suppliers.ofInstance(provider));
+        IpInfoLookupImpl lookup = new IpInfoLookupImpl(suppliers, Collections.singletonList("fake"), metrics);
+        lookup.infosFor(Ipv4.parse("1.0.0.1"));
+        lookup.infosFor(Ipv4.parse("2.0.1.1"));
+        lookup.infosFor(Ipv4.parse("3.0.0.1"));
+
+        RecordingIpInfoMetrics.ProviderStats stats = metrics.getProviders().get("fake");
+        assertThat(stats.getHits(), is(2L));
+        assertThat(stats.getMisses(), is(1L));
+        long lookups = 0;
+        for (long count: stats.getLatencyHistogram()) {
+            lookups += count;
+        }
+        assertThat(lookups, is(3L));
+        assertTrue(stats.getLatencyQuantileNanos(0.5) <= stats.getLatencyQuantileNanos(1.0));
+    }
+
+    @Test
+    public void testRecordsFailedRefresh() {
+        RecordingIpInfoMetrics metrics = new RecordingIpInfoMetrics();
+        MultiAspectIpInfoProviderSupplier supplier = new MultiAspectIpInfoProviderSupplier(new FakeSource(null), "aspect");
+        supplier.setMetrics(metrics);
+        try {
+            supplier.get();
+            fail("Expected the failure to be thrown instead of returning no provider");
+        } catch (RuntimeException e) {
+            assertThat(e.getCause(), instanceOf(IOException.class));
+        }
+        RecordingIpInfoMetrics.SourceStats source = metrics.getSources().get(FakeSource.NAME);
+        assertThat(source.getFailures(), is(1L));
+        assertThat(source.getRefreshes(), is(0L));
+        assertThat(source.getAgeMillis(), is(-1L));
+        assertThat(source.getLastFailure(), instanceOf(IOException.class));
+    }
+
+    private static class FakeSource implements IpRangeInfosSource {
+
+        static final String NAME = "FAKE";
+
+        private final List<String> cidrs;
+
+        FakeSource(List<String> cidrs) {
+            this.cidrs = cidrs;
+        }
+
+        @Override
+        public String getName() {
+            return NAME;
+        }
+
+        @Override
+        public List<IpRangeInfos> getIpRanges() throws IOException {
+            IpRangeInfosTable.Builder table = IpRangeInfosTable.builder();
+            streamIpRanges(table);
+            return table.build();
+        }
+
+        @Override
+        public void streamIpRanges(IpRangeInfosConsumer consumer) throws IOException {
+            if (cidrs == null) {
+                throw new IOException("Unreachable");
+            }
+            consumer.stringColumn("aspect");
+            for (String cidr: cidrs) {
+                consumer.addRow(Ipv4Range.parseCidr(cidr)).setString(0, cidr);
+            }
+        }
+    }
+}
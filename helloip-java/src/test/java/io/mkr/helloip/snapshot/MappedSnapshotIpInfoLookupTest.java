@@ -0,0 +1,128 @@
+package io.mkr.helloip.snapshot;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.mkr.helloip.CompiledIpInfoLookup;
+import io.mkr.helloip.IpInfos;
+import io.mkr.helloip.Ipv4Addresses;
+import io.mkr.helloip.RangeBasedIpInfoProvider;
+import io.mkr.helloip.sources.IpRangeInfos;
+import net.ripe.commons.ip.Ipv4;
+import net.ripe.commons.ip.Ipv4Range;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class MappedSnapshotIpInfoLookupTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testSnapshotRoundTrip() throws Exception {
+        CompiledIpInfoLookup compiled = CompiledIpInfoLookup.compileProviders(Arrays.asList(
+                new RangeBasedIpInfoProvider("ASN", Arrays.asList(
+                        rangeInfos("10.0.0.0/8", "asn", "1"),
+                        rangeInfos("200.0.0.0/8", "asn", "2"))),
+                new RangeBasedIpInfoProvider("CLOUD", Arrays.asList(
+                        rangeInfos("10.1.0.0/16", "region", "eu"),
+                        rangeInfos("255.255.255.0/24", "region", null)))));
+        Path file = folder.getRoot().toPath().resolve("snapshot.bin");
+        new SnapshotWriter().write(compiled, file);
+
+        MappedSnapshotIpInfoLookup mapped = MappedSnapshotIpInfoLookup.open(file);
+        assertThat(mapped.intervalCount(), is(compiled.intervalCount()));
+        for (String ip: Arrays.asList("0.0.0.0", "10.0.0.0", "10.1.2.3", "10.2.0.0", "200.255.255.255",
+                "201.0.0.0", "255.255.255.255")) {
+            IpInfos expected = compiled.infosFor(Ipv4.of(ip));
+            IpInfos actual = mapped.infosFor(Ipv4.of(ip));
+            assertThat(ip, actual.getProviderNames(), equalTo(expected.getProviderNames()));
+            for (String provider: expected.getProviderNames()) {
+                assertThat(ip, actual.infosFromProvider(provider).getRange(),
+                        equalTo(expected.infosFromProvider(provider).getRange()));
+                assertThat(ip, actual.infosFromProvider(provider).getInfos(),
+                        equalTo(expected.infosFromProvider(provider).getInfos()));
+            }
+        }
+        // decoded results are memoized
+        assertThat(mapped.infosFor(Ipv4.of("10.1.0.0")), sameInstance(mapped.infosFor(Ipv4.of("10.1.255.255"))));
+
+        // a batch in any order gets the results of the single lookups
+        List<String> batch = Arrays.asList("255.255.255.255", "10.1.2.3", "0.0.0.0", "200.255.255.255", "10.1.2.3");
+        int[] addresses = new int[batch.size()];
+        for (int i = 0; i < addresses.length; i++) {
+            addresses[i] = Ipv4Addresses.toInt(Ipv4.of(batch.get(i)));
+        }
+        IpInfos[] results = new IpInfos[addresses.length];
+        mapped.infosFor(addresses, addresses.length, results);
+        for (int i = 0; i < addresses.length; i++) {
+            assertThat(batch.get(i), results[i], sameInstance(mapped.infosFor(Ipv4.of(batch.get(i)))));
+        }
+    }
+
+    @Test
+    public void testTruncatedSnapshotIsRejected() throws Exception {
+        Path file = writeSnapshot();
+        byte[] bytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 4));
+        try {
+            MappedSnapshotIpInfoLookup.open(file);
+            fail("Truncated snapshot opened");
+        } catch (IOException e) {
+            assertThat(e.getMessage(), containsString("bytes, expected"));
+        }
+    }
+
+    @Test
+    public void testCorruptSnapshotIsRejected() throws Exception {
+        Path file = writeSnapshot();
+        byte[] bytes = Files.readAllBytes(file);
+        // a byte after the header
+        bytes[bytes.length / 2] ^= 1;
+        Files.write(file, bytes);
+        try {
+            MappedSnapshotIpInfoLookup.open(file);
+            fail("Corrupt snapshot opened");
+        } catch (IOException e) {
+            assertThat(e.getMessage(), containsString("checksum"));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testSnapshotOfOtherVersionIsRejected() throws Exception {
+        Path file = writeSnapshot();
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[7] = 1;
+        Files.write(file, bytes);
+        MappedSnapshotIpInfoLookup.open(file);
+    }
+
+    private Path writeSnapshot() throws IOException {
+        CompiledIpInfoLookup compiled = CompiledIpInfoLookup.compileProviders(Arrays.asList(
+                new RangeBasedIpInfoProvider("ASN", Arrays.asList(
+                        rangeInfos("10.0.0.0/8", "asn", "1"),
+                        rangeInfos("200.0.0.0/8", "asn", "2")))));
+        Path file = folder.getRoot().toPath().resolve("snapshot.bin");
+        new SnapshotWriter().write(compiled, file);
+        return file;
+    }
+
+    private static IpRangeInfos rangeInfos(String cidr, String key, String value) {
+        Map<String, String> infos = new HashMap<>();
+        infos.put(key, value);
+        return new IpRangeInfos(Ipv4Range.parseCidr(cidr), infos);
+    }
+}
@@ -0,0 +1,56 @@
+package io.mkr.helloip.snapshot;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Supplier;
+import io.mkr.helloip.IpInfoProvider;
+import io.mkr.helloip.RangeBasedIpInfoProvider;
+import io.mkr.helloip.sources.IpRangeInfos;
+import net.ripe.commons.ip.Ipv4;
+import net.ripe.commons.ip.Ipv4Range;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class SnapshottingIpInfoLookupTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testCorruptSnapshotFallsBackToFullBuild() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("snapshot.bin");
+        Files.write(file, new byte[] {0x48, 0x49, 0x50, 0x53, 0, 0, 0, 2, 0, 0});
+        final RangeBasedIpInfoProvider asn = new RangeBasedIpInfoProvider("ASN", Collections.singletonList(
+                new IpRangeInfos(Ipv4Range.parseCidr("10.0.0.0/8"), Collections.singletonMap("asn", "1"))));
+        List<Supplier<IpInfoProvider>> suppliers = Collections.<Supplier<IpInfoProvider>>singletonList(
+                new Supplier<IpInfoProvider>() {
+                    @Override
+                    public IpInfoProvider get() {
+                        return asn;
+                    }
+                });
+
+        SnapshottingIpInfoLookup lookup = new SnapshottingIpInfoLookup(suppliers, file, 1, TimeUnit.DAYS);
+        assertFalse(lookup.isStartedFromSnapshot());
+        assertTrue(lookup.infosFor(Ipv4.of("10.0.0.1")).getProviderNames().isEmpty());
+        lookup.rebuild();
+        assertThat(lookup.infosFor(Ipv4.of("10.0.0.1")).infoFromProvider("ASN", "asn"), is("1"));
+
+        // the full build replaced the corrupt snapshot
+        SnapshottingIpInfoLookup restarted = new SnapshottingIpInfoLookup(suppliers, file, 1, TimeUnit.DAYS);
+        assertTrue(restarted.isStartedFromSnapshot());
+        assertThat(restarted.infosFor(Ipv4.of("10.0.0.1")).infoFromProvider("ASN", "asn"), is("1"));
+        // stale snapshots are ignored
+        assertFalse(new SnapshottingIpInfoLookup(suppliers, file, -1, TimeUnit.DAYS).isStartedFromSnapshot());
+    }
+}
@@ -0,0 +1,122 @@
+package io.mkr.helloip.sources;
+
+import java.io.File;
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+
+import io.mkr.helloip.io.FileReaderProvider;
+import io.mkr.helloip.io.ReaderProvider;
+import net.ripe.commons.ip.Ipv4Range;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class ApnicAsnIpRangesSourceTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testStreamsRangesWithOrganisationsUnlessUnchanged() throws Exception {
+        File autnums = folder.newFile("autnums");
+        File ranges = folder.newFile("ranges");
+        Files.write(autnums.toPath(), Arrays.asList(
+                "   15 DARPANET-AS, US",
+                "13335 CLOUDFLARENET, US"), StandardCharsets.UTF_8);
+        Files.write(ranges.toPath(), Arrays.asList(
+                "1.0.0.0/24\t13335",
+                "1.0.4.0/22\t38803"), StandardCharsets.UTF_8);
+        ApnicAsnIpRangesSource source = new ApnicAsnIpRangesSource(new FileReaderProvider(autnums.toPath()),
+                new FileReaderProvider(ranges.toPath()));
+
+        IpRangeInfosTable.Builder builder = IpRangeInfosTable.builder();
+        String token = source.streamIpRangesIfChanged(builder, null);
+        assertThat(token, notNullValue());
+        List<IpRangeInfos> infos = builder.build();
+        assertThat(infos.size(), is(2));
+        assertThat(infos.get(0).getRange(), equalTo(Ipv4Range.parseCidr("1.0.0.0/24")));
+        assertThat(infos.get(0).getInfos().get(ApnicAsnIpRangesSource.KEY_ASNORG), equalTo("CLOUDFLARENET, US"));
+        assertThat(infos.get(1).getInfos().get(ApnicAsnIpRangesSource.KEY_ASNORG),
+                equalTo(ApnicAsnIpRangesSource.VALUE_UNKNOWN));
+
+        assertThat(source.streamIpRangesIfChanged(IpRangeInfosTable.builder(), token), nullValue());
+
+        // only the organisations changed, the ranges are read again as well
+        Files.write(autnums.toPath(), Arrays.asList(
+                "13335 CLOUDFLARENET, US",
+                "38803 WPL-AS-AP Wirefreebroadband Pty Ltd, AU"), StandardCharsets.UTF_8);
+        builder = IpRangeInfosTable.builder();
+        assertThat(source.streamIpRangesIfChanged(builder, token), notNullValue());
+        infos = builder.build();
+        assertThat(infos.size(), is(2));
+        assertThat(infos.get(1).getInfos().get(ApnicAsnIpRangesSource.KEY_ASNORG),
+                equalTo("WPL-AS-AP Wirefreebroadband Pty Ltd, AU"));
+    }
+
+    @Test
+    public void testKeepsRangesReadBeforeTheOrganisations() throws Exception {
+        final CountDownLatch rangesRead = new CountDownLatch(1);
+        ReaderProvider ranges = new ReaderProvider() {
+            @Override
+            public Reader createReader() {
+                return new FilterReader(new StringReader("1.0.0.0/24\t13335\n1.0.4.0/22\t38803\n8.8.8.0/24\t15169\n")) {
+                    @Override
+                    public int read(char[] buffer, int offset, int length) throws IOException {
+                        int count = super.read(buffer, offset, length);
+                        if (count < 0) {
+                            rangesRead.countDown();
+                        }
+                        return count;
+                    }
+                };
+            }
+        };
+        // the organisations are read only once all ranges are
+        Executor executor = new Executor() {
+            @Override
+            public void execute(final Runnable command) {
+                new Thread() {
+                    @Override
+                    public void run() {
+                        try {
+                            rangesRead.await();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                        command.run();
+                    }
+                }.start();
+            }
+        };
+        File autnums = folder.newFile("autnums");
+        Files.write(autnums.toPath(), Arrays.asList(
+                "13335 CLOUDFLARENET, US",
+                "15169 GOOGLE, US"), StandardCharsets.UTF_8);
+        ApnicAsnIpRangesSource source = new ApnicAsnIpRangesSource(new FileReaderProvider(autnums.toPath()), ranges,
+                executor);
+
+        List<IpRangeInfos> infos = source.getIpRanges();
+        assertThat(infos.size(), is(3));
+        assertThat(infos.get(0).getRange(), equalTo(Ipv4Range.parseCidr("1.0.0.0/24")));
+        assertThat(infos.get(0).getInfos().get(ApnicAsnIpRangesSource.KEY_ASNORG), equalTo("CLOUDFLARENET, US"));
+        assertThat(infos.get(1).getInfos().get(ApnicAsnIpRangesSource.KEY_ASN), equalTo("38803"));
+        assertThat(infos.get(1).getInfos().get(ApnicAsnIpRangesSource.KEY_ASNORG),
+                equalTo(ApnicAsnIpRangesSource.VALUE_UNKNOWN));
+        assertThat(infos.get(2).getRange(), equalTo(Ipv4Range.parseCidr("8.8.8.0/24")));
+        assertThat(infos.get(2).getInfos().get(ApnicAsnIpRangesSource.KEY_ASNORG), equalTo("GOOGLE, US"));
+    }
+}
@@ -1,16 +1,25 @@
 package io.mkr.helloip.sources;
 
+import io.mkr.helloip.IpInfos;
+import io.mkr.helloip.Ipv6Addresses;
+import io.mkr.helloip.RangeBasedIpInfoProvider;
 import io.mkr.helloip.base.StringReaderProvider;
+import io.mkr.helloip.io.ChangeAwareReaderProvider;
 import io.mkr.helloip.io.ReaderProvider;
+import io.mkr.helloip.io.VersionedReader;
+import net.ripe.commons.ip.Ipv4;
 import net.ripe.commons.ip.Ipv4Range;
+import net.ripe.commons.ip.Ipv6;
 import org.junit.Test;
 
 import java.io.IOException;
 import java.io.Reader;
+import java.io.StringReader;
 import java.util.List;
 
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
 import static org.junit.Assert.assertThat;
 
 public class AwsIpRangesSourceTest {
@@ -51,4 +60,96 @@ public class AwsIpRangesSourceTest {
         assertThat(ranges.get(0).getInfos().get(AwsIpRangesSource.KEY_SERVICE), equalTo("AMAZON"));
     }
 
+    @Test
+    public void testStreamsIntoProvider() throws Exception {
+        String json = "{" +
+                "  \"syncToken\": \"ignored\"," +
+                "  \"nested\": {\"prefixes\": [{\"ip_prefix\": \"1.0.0.0/8\"}]}," +
+                "  \"prefixes\": [" +
+                "    {" +
+                "      \"region\": \"eu-west-1\"," +
+                "      \"network_border_group\": {\"ignored\": [1, 2]}," +
+                "      \"ip_prefix\": \"46.51.128.0/18\"," +
+                "      \"service\": \"EC2\"" +
+                "    }" +
+                "  ]," +
+                "  \"ipv6_prefixes\": [" +
+                "    {" +
+                "      \"ipv6_prefix\": \"2a05:d07a:a000::/40\"," +
+                "      \"region\": \"eu-south-1\"," +
+                "      \"service\": \"AMAZON\"" +
+                "    }" +
+                "]}";
+        RangeBasedIpInfoProvider.Builder builder = RangeBasedIpInfoProvider.builder(AwsIpRangesSource.NAME);
+        new AwsIpRangesSource(new StringReaderProvider(json)).streamIpRanges(builder);
+        RangeBasedIpInfoProvider provider = builder.build();
+
+        IpInfos infos = new IpInfos(Ipv4.of("46.51.130.1"));
+        provider.add(Ipv4.of("46.51.130.1"), infos);
+        assertThat(infos.infoFromProvider(AwsIpRangesSource.NAME, AwsIpRangesSource.KEY_REGION), equalTo("eu-west-1"));
+        assertThat(infos.infoFromProvider(AwsIpRangesSource.NAME, AwsIpRangesSource.KEY_SERVICE), equalTo("EC2"));
+        IpInfos none = new IpInfos(Ipv4.of("1.0.0.1"));
+        provider.add(Ipv4.of("1.0.0.1"), none);
+        assertThat(none.getProviderNames().isEmpty(), is(true));
+
+        IpInfos ipv6Infos = IpInfos.forIpv6(Ipv6.parse("2a05:d07a:a0ff::1"));
+        provider.add(Ipv6.parse("2a05:d07a:a0ff::1"), ipv6Infos);
+        assertThat(ipv6Infos.infoFromProvider(AwsIpRangesSource.NAME, AwsIpRangesSource.KEY_REGION),
+            equalTo("eu-south-1"));
+        assertThat(ipv6Infos.infoFromProvider(AwsIpRangesSource.NAME, AwsIpRangesSource.KEY_SERVICE),
+            equalTo("AMAZON"));
+        Ipv6 outside = Ipv6.parse("2a05:d07a:a100::");
+        IpInfos noIpv6 = IpInfos.forIpv6(outside);
+        provider.add(Ipv6Addresses.high(outside), Ipv6Addresses.low(outside), noIpv6);
+        assertThat(noIpv6.getProviderNames().isEmpty(), is(true));
+    }
+
+    @Test
+    public void testSkipsUnchangedSyncToken() throws Exception {
+        String json = "{" +
+                "  \"syncToken\": \"1455829450\"," +
+                "  \"prefixes\": [{\"ip_prefix\": \"46.51.128.0/18\", \"region\": \"eu-west-1\", \"service\": \"EC2\"}]" +
+                "}";
+        AwsIpRangesSource source = new AwsIpRangesSource(new StringReaderProvider(json));
+        IpRangeInfosTable.Builder first = IpRangeInfosTable.builder();
+        String token = source.streamIpRangesIfChanged(first, null);
+        assertThat(first.size(), is(1));
+
+        IpRangeInfosTable.Builder second = IpRangeInfosTable.builder();
+        assertThat(source.streamIpRangesIfChanged(second, token), equalTo(token));
+        assertThat(second.size(), is(0));
+        assertThat(source.streamIpRangesIfChanged(second, "\n1455829449"), equalTo(token));
+        assertThat(second.size(), is(1));
+    }
+
+    @Test
+    public void testKeepsNewHttpVersionOfUnchangedSyncToken() throws Exception {
+        final String json = "{" +
+                "  \"syncToken\": \"1455829450\"," +
+                "  \"prefixes\": [{\"ip_prefix\": \"46.51.128.0/18\", \"region\": \"eu-west-1\", \"service\": \"EC2\"}]" +
+                "}";
+        final String[] etag = {"\"a\""};
+        ChangeAwareReaderProvider readerProvider = new ChangeAwareReaderProvider() {
+            @Override
+            public VersionedReader createReaderIfChanged(String version) {
+                return etag[0].equals(version) ? null : new VersionedReader(new StringReader(json), etag[0]);
+            }
+
+            @Override
+            public Reader createReader() {
+                return new StringReader(json);
+            }
+        };
+        AwsIpRangesSource source = new AwsIpRangesSource(readerProvider);
+        String token = source.streamIpRangesIfChanged(IpRangeInfosTable.builder(), null);
+
+        etag[0] = "\"b\"";
+        IpRangeInfosTable.Builder second = IpRangeInfosTable.builder();
+        String updated = source.streamIpRangesIfChanged(second, token);
+        assertThat(second.size(), is(0));
+        assertThat(updated, equalTo(ChangeTokens.join("\"b\"", "1455829450")));
+        // not modified on the next request
+        assertThat(source.streamIpRangesIfChanged(second, updated), nullValue());
+    }
+
 }
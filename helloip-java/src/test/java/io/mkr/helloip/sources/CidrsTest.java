@@ -0,0 +1,58 @@
+package io.mkr.helloip.sources;
+
+import net.ripe.commons.ip.Ipv4Range;
+import net.ripe.commons.ip.Ipv6Range;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class CidrsTest {
+
+    @Test
+    public void testParsesLikeIpv4Range() throws Exception {
+        for (String cidr: new String[] {"0.0.0.0/0", "10.0.0.0/8", " 1.2.3.0/24", "1.2.3.4/32", "255.255.255.254/31"}) {
+            IpRangeInfosTable.Builder builder = IpRangeInfosTable.builder();
+            Cidrs.addRow(builder, cidr);
+            assertThat(cidr, builder.build().get(0).getRange(), equalTo(Ipv4Range.parseCidr(cidr)));
+        }
+    }
+
+    @Test
+    public void testParsesIpv6Prefixes() throws Exception {
+        for (String cidr: new String[] {"::/0", "2001:db8::/32", " 2a05:d07a:a000::/40", "::1/128", "2001:db8::8000:0:0:0/65"}) {
+            IpRangeInfosTable.Builder builder = IpRangeInfosTable.ipv6Builder();
+            Cidrs.addRow(builder, cidr);
+            assertThat(cidr, builder.build().get(0).getIpv6Range(), equalTo(Ipv6Range.parse(cidr.trim())));
+        }
+    }
+
+    @Test
+    public void testTablesSkipRowsOfTheOtherFamily() throws Exception {
+        IpRangeInfosTable.Builder ipv4 = IpRangeInfosTable.builder().stringColumn("key");
+        IpRangeInfosTable.Builder ipv6 = IpRangeInfosTable.ipv6Builder().stringColumn("key");
+        for (IpRangeInfosTable.Builder builder: new IpRangeInfosTable.Builder[] {ipv4, ipv6}) {
+            Cidrs.addRow(builder, "1.2.3.0/24").setString(0, "v4");
+            Cidrs.addRow(builder, "2001:db8::/32").setString(0, "v6");
+        }
+        assertThat(ipv4.size(), is(1));
+        assertThat(ipv4.build().get(0).getInfos().get("key"), equalTo("v4"));
+        assertThat(ipv6.size(), is(1));
+        assertThat(ipv6.build().get(0).getInfos().get("key"), equalTo("v6"));
+    }
+
+    @Test
+    public void testRejectsLikeIpv4Range() throws Exception {
+        for (String cidr: new String[] {"10.0.0.1/8", "1.2.3.4/33", "1.2.3.4", "1.2.3.4/", "1.2.3/24", "::1/127",
+                "::1/129", "1::2::3/64", "2001:db8::", "2001:db8::/"}) {
+            try {
+                Cidrs.addRow(IpRangeInfosTable.builder(), cidr);
+                fail(cidr);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+}
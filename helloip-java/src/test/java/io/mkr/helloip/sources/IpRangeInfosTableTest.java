@@ -0,0 +1,92 @@
+package io.mkr.helloip.sources;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import net.ripe.commons.ip.Ipv4Range;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class IpRangeInfosTableTest {
+
+    @Test
+    public void testRowViews() throws Exception {
+        IpRangeInfosTable table = IpRangeInfosTable.builder()
+                .intColumn("asn")
+                .stringColumn("org")
+                .addRow(Ipv4Range.parseCidr("10.0.0.0/8")).setInt(0, 64512).setString(1, "Example")
+                .addRow(Ipv4Range.parseCidr("11.0.0.0/8")).setInt(0, 64513)
+                .addRow(Ipv4Range.parseCidr("255.255.255.0/24")).setInt(0, 64512).setString(1, "Example")
+                .build();
+
+        assertThat(table.size(), is(3));
+        assertThat(table.get(0).getRange(), equalTo(Ipv4Range.parseCidr("10.0.0.0/8")));
+        assertThat(table.get(2).getRange(), equalTo(Ipv4Range.parseCidr("255.255.255.0/24")));
+        assertThat(table.intValue(0, table.column("asn")), is(64512));
+
+        Map<String, String> expected = new HashMap<>();
+        expected.put("asn", "64512");
+        expected.put("org", "Example");
+        assertThat(table.get(0).getInfos(), equalTo(expected));
+        assertThat(table.get(0).getInfos().get("org"), equalTo("Example"));
+        assertThat(table.get(1).getInfos().get("org"), is(nullValue()));
+        assertThat(table.get(1).getInfos().containsKey("org"), is(true));
+        assertThat(table.get(1).getInfos().get("unknown"), is(nullValue()));
+    }
+
+    @Test
+    public void testRowsShareAttributes() throws Exception {
+        IpRangeInfosTable table = IpRangeInfosTable.builder()
+                .intColumn("asn")
+                .stringColumn("org")
+                .addRow(Ipv4Range.parseCidr("10.0.0.0/8")).setInt(0, 64512).setString(1, "Example")
+                .addRow(Ipv4Range.parseCidr("11.0.0.0/8")).setInt(0, 64512).setString(1, "Example")
+                .addRow(Ipv4Range.parseCidr("12.0.0.0/8")).setInt(0, 64513).setString(1, "Example")
+                .build();
+
+        assertThat(table.get(0).getInfos(), sameInstance(table.get(0).getInfos()));
+        // equal values share their attributes
+        assertThat(table.get(1).getInfos(), sameInstance(table.get(0).getInfos()));
+        assertThat(table.get(2).getInfos(), not(sameInstance(table.get(0).getInfos())));
+        AttributeMap attributes = (AttributeMap) table.get(2).getInfos();
+        assertThat(attributes.key(0), is("asn"));
+        assertThat(attributes.value(0), is("64513"));
+        // selected and appended rows keep their attributes
+        assertThat(table.select(new int[] {2, 0}).get(1).getInfos(), sameInstance(table.get(0).getInfos()));
+        IpRangeInfosTable.Builder appended = IpRangeInfosTable.builder(table).intColumn("asn").stringColumn("org");
+        appended.addRow(Ipv4Range.parseCidr("13.0.0.0/8")).setInt(0, 64513).setString(1, "Example");
+        IpRangeInfosTable patched = appended.appendTo(table);
+        assertThat(patched.get(3).getRange(), equalTo(Ipv4Range.parseCidr("13.0.0.0/8")));
+        assertThat(patched.get(3).getInfos(), sameInstance(table.get(2).getInfos()));
+    }
+
+    @Test
+    public void testAppendedTablesAreSizedLikeFullBuilds() throws Exception {
+        IpRangeInfosTable table = IpRangeInfosTable.builder()
+                .intColumn("asn")
+                .stringColumn("org")
+                .addRow(Ipv4Range.parseCidr("10.0.0.0/8")).setInt(0, 64512).setString(1, "Example")
+                .addRow(Ipv4Range.parseCidr("11.0.0.0/8")).setInt(0, 64513).setString(1, "Example")
+                .build();
+        IpRangeInfosTable.Builder appended = IpRangeInfosTable.builder(table).intColumn("asn").stringColumn("org");
+        appended.addRow(Ipv4Range.parseCidr("12.0.0.0/8")).setInt(0, 64513).setString(1, "Example");
+        appended.addRow(Ipv4Range.parseCidr("13.0.0.0/8")).setInt(0, 64514).setString(1, "Other");
+        IpRangeInfosTable full = IpRangeInfosTable.builder()
+                .intColumn("asn")
+                .stringColumn("org")
+                .addRow(Ipv4Range.parseCidr("10.0.0.0/8")).setInt(0, 64512).setString(1, "Example")
+                .addRow(Ipv4Range.parseCidr("11.0.0.0/8")).setInt(0, 64513).setString(1, "Example")
+                .addRow(Ipv4Range.parseCidr("12.0.0.0/8")).setInt(0, 64513).setString(1, "Example")
+                .addRow(Ipv4Range.parseCidr("13.0.0.0/8")).setInt(0, 64514).setString(1, "Other")
+                .build();
+        IpRangeInfosTable patched = appended.appendTo(table);
+        assertThat(patched.sizeInBytes(), is(full.sizeInBytes()));
+        assertThat(patched.sizeInBytes() > table.sizeInBytes(), is(true));
+    }
+}